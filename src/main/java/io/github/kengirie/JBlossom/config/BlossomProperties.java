@@ -10,6 +10,7 @@ public class BlossomProperties {
     private Database database = new Database();
     private Storage storage = new Storage();
     private Cors cors = new Cors();
+    private Http2 http2 = new Http2();
     
     // Getters and Setters
     public Database getDatabase() {
@@ -36,6 +37,14 @@ public class BlossomProperties {
         this.cors = cors;
     }
     
+    public Http2 getHttp2() {
+        return http2;
+    }
+    
+    public void setHttp2(Http2 http2) {
+        this.http2 = http2;
+    }
+    
     // Inner Classes
     public static class Database {
         private String path = "./data/sqlite.db";
@@ -99,4 +108,44 @@ public class BlossomProperties {
             this.allowedHeaders = allowedHeaders;
         }
     }
+    
+    // HTTP/2 (TLS: h2, 平文: h2c)。小さなBLOBを多数並行取得するクライアント向けの既定値
+    public static class Http2 {
+        private boolean enabled = false;
+        private long maxConcurrentStreams = 256;
+        private int maxConcurrentStreamExecution = 64;
+        private int initialWindowSize = 262144;
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        public long getMaxConcurrentStreams() {
+            return maxConcurrentStreams;
+        }
+        
+        public void setMaxConcurrentStreams(long maxConcurrentStreams) {
+            this.maxConcurrentStreams = maxConcurrentStreams;
+        }
+        
+        public int getMaxConcurrentStreamExecution() {
+            return maxConcurrentStreamExecution;
+        }
+        
+        public void setMaxConcurrentStreamExecution(int maxConcurrentStreamExecution) {
+            this.maxConcurrentStreamExecution = maxConcurrentStreamExecution;
+        }
+        
+        public int getInitialWindowSize() {
+            return initialWindowSize;
+        }
+        
+        public void setInitialWindowSize(int initialWindowSize) {
+            this.initialWindowSize = initialWindowSize;
+        }
+    }
 }
\ No newline at end of file
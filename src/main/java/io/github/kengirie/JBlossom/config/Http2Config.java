@@ -0,0 +1,58 @@
+package io.github.kengirie.JBlossom.config;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class Http2Config {
+    
+    private static final Logger logger = LoggerFactory.getLogger(Http2Config.class);
+    
+    // Tomcatのコネクタに HTTP/2 を追加する。TLS終端プロキシの背後では h2c（Upgrade / prior knowledge）で受ける
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> http2Customizer(BlossomProperties properties) {
+        return factory -> {
+            BlossomProperties.Http2 settings = properties.getHttp2();
+            if (!settings.isEnabled()) {
+                return;
+            }
+            
+            factory.addConnectorCustomizers(connector -> {
+                // server.http2.enabled でも登録されている場合は、その設定を上書きする
+                Http2Protocol protocol = findHttp2Protocol(connector);
+                if (protocol == null) {
+                    protocol = new Http2Protocol();
+                    connector.addUpgradeProtocol(protocol);
+                }
+                
+                protocol.setMaxConcurrentStreams(settings.getMaxConcurrentStreams());
+                protocol.setMaxConcurrentStreamExecution(settings.getMaxConcurrentStreamExecution());
+                protocol.setInitialWindowSize(settings.getInitialWindowSize());
+                // ストリーム単位でも sendfile を使い、BlobController のゼロコピー配信を維持する
+                protocol.setUseSendfile(true);
+                
+                logger.info("HTTP/2 enabled: {} concurrent streams ({} executing), initial window {} bytes",
+                           settings.getMaxConcurrentStreams(), settings.getMaxConcurrentStreamExecution(),
+                           settings.getInitialWindowSize());
+            });
+        };
+    }
+    
+    private static Http2Protocol findHttp2Protocol(Connector connector) {
+        for (UpgradeProtocol protocol : connector.findUpgradeProtocols()) {
+            if (protocol instanceof Http2Protocol http2) {
+                return http2;
+            }
+        }
+        return null;
+    }
+}
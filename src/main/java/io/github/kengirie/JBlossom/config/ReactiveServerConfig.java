@@ -0,0 +1,53 @@
+package io.github.kengirie.JBlossom.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
+import org.springframework.boot.web.server.Ssl;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.netty.http.HttpProtocol;
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveServerConfig {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveServerConfig.class);
+    
+    // Tomcat もクラスパスにあり、自動構成ではリアクティブ構成でも Tomcat が選ばれるため Netty を明示する
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory(
+            ObjectProvider<NettyServerCustomizer> serverCustomizers) {
+        NettyReactiveWebServerFactory factory = new NettyReactiveWebServerFactory();
+        factory.setServerCustomizers(serverCustomizers.orderedStream().toList());
+        return factory;
+    }
+    
+    // Http2Config と同じ設定を Reactor Netty に適用する。TLS 上では h2、平文では h2c（Upgrade / prior knowledge）で受ける。
+    // ストリームはスレッドを占有しないため、max-concurrent-stream-execution に相当する設定はない
+    @Bean
+    public WebServerFactoryCustomizer<NettyReactiveWebServerFactory> nettyHttp2Customizer(BlossomProperties properties) {
+        return factory -> {
+            BlossomProperties.Http2 settings = properties.getHttp2();
+            if (!settings.isEnabled()) {
+                return;
+            }
+            
+            HttpProtocol[] protocols = Ssl.isEnabled(factory.getSsl())
+                ? new HttpProtocol[] {HttpProtocol.H2, HttpProtocol.HTTP11}
+                : new HttpProtocol[] {HttpProtocol.HTTP11, HttpProtocol.H2C};
+            factory.addServerCustomizers(server -> server
+                .protocol(protocols)
+                .http2Settings(spec -> spec
+                    .maxConcurrentStreams(settings.getMaxConcurrentStreams())
+                    .initialWindowSize(settings.getInitialWindowSize())));
+            
+            logger.info("HTTP/2 enabled on Netty: {} concurrent streams, initial window {} bytes",
+                       settings.getMaxConcurrentStreams(), settings.getInitialWindowSize());
+        };
+    }
+}
@@ -0,0 +1,42 @@
+package io.github.kengirie.JBlossom.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.reactive.config.BlockingExecutionConfigurer;
+import org.springframework.web.reactive.config.CorsRegistry;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import reactor.core.scheduler.Schedulers;
+
+// リアクティブ構成（spring.main.web-application-type: reactive）での WebConfig に相当する設定
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWebConfig implements WebFluxConfigurer {
+    
+    @Value("${blossom.cors.allowed-origins}")
+    private String allowedOrigins;
+    
+    @Value("${blossom.cors.allowed-methods}")
+    private String allowedMethods;
+    
+    @Value("${blossom.cors.allowed-headers}")
+    private String allowedHeaders;
+    
+    @Override
+    public void addCorsMappings(CorsRegistry registry) {
+        registry.addMapping("/**")
+                .allowedOrigins(allowedOrigins.split(","))
+                .allowedMethods(allowedMethods.split(","))
+                .allowedHeaders(allowedHeaders.split(","))
+                .allowCredentials(false)
+                .maxAge(3600);
+    }
+    
+    // 戻り値がリアクティブ型でないハンドラ（AuthController）は署名検証でスレッドを止めるため、
+    // イベントループではなく boundedElastic で実行する
+    @Override
+    public void configureBlockingExecution(BlockingExecutionConfigurer configurer) {
+        configurer.setExecutor(new TaskExecutorAdapter(task -> Schedulers.boundedElastic().schedule(task)));
+    }
+}
@@ -32,35 +32,8 @@ public class SQLiteConfig {
             // 自動コミットを確実にする
             conn.setAutoCommit(true);
             
-            // blobsテーブル作成
-            try (var stmt = conn.createStatement()) {
-                stmt.execute("""
-                    CREATE TABLE IF NOT EXISTS blobs (
-                        hash TEXT(64) PRIMARY KEY,
-                        size INTEGER NOT NULL,
-                        type TEXT,
-                        uploaded INTEGER NOT NULL,
-                        pubkey TEXT(64)
-                    )
-                """);
-            }
-            
-            // accessedテーブル作成（アクセスログ）
-            try (var stmt = conn.createStatement()) {
-                stmt.execute("""
-                    CREATE TABLE IF NOT EXISTS accessed (
-                        blob TEXT(64) PRIMARY KEY,
-                        timestamp INTEGER NOT NULL
-                    )
-                """);
-            }
-            
-            // インデックス作成
-            try (var stmt = conn.createStatement()) {
-                stmt.execute("CREATE INDEX IF NOT EXISTS idx_blobs_pubkey ON blobs (pubkey)");
-                stmt.execute("CREATE INDEX IF NOT EXISTS idx_blobs_uploaded ON blobs (uploaded)");
-                stmt.execute("CREATE INDEX IF NOT EXISTS idx_accessed_timestamp ON accessed (timestamp)");
-            }
+            // スキーマを最新バージョンにする（v1 の行の移動は起動後に SchemaMigrationService が行う）
+            SchemaMigrator.migrate(conn);
         }
     }
     
@@ -0,0 +1,326 @@
+package io.github.kengirie.JBlossom.config;
+
+import io.github.kengirie.JBlossom.model.BlobHash;
+import io.github.kengirie.JBlossom.util.SqlDictionary;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+// DBスキーマのバージョン管理（PRAGMA user_version）と移行
+//   v1: ハッシュ・公開鍵を TEXT(64) で持つ rowid テーブル（バージョン番号は未設定の 0）
+//   v2: 32バイトの BLOB キーを主キーとする WITHOUT ROWID テーブル。MIMEタイプと公開鍵は辞書テーブルの整数IDで持つ
+//
+// v1 からの移行はオンラインで行う。起動時は v1 のテーブルを *_v1 に改名して空の v2 テーブルを作るだけで
+// （行数によらず一瞬で終わる）、行の移動はサービス稼働中にバックグラウンドでバッチ単位に行う。
+// 移動前の行は StorageService が参照時に個別に移動する（同じハッシュが両方のテーブルに残ることはない）
+public final class SchemaMigrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+    public static final int CURRENT_VERSION = 2;
+
+    private static final String[] LEGACY_TABLES = {"blobs", "accessed", "variants"};
+    private static final String[] LEGACY_INDEXES = {"idx_blobs_pubkey", "idx_blobs_uploaded", "idx_accessed_timestamp"};
+
+    private SchemaMigrator() {
+    }
+
+    // 最新バージョンのスキーマにする。移行後のバージョンを返す
+    public static int migrate(Connection conn) throws SQLException {
+        conn.setAutoCommit(true);
+        int version = getVersion(conn);
+        if (version >= CURRENT_VERSION) {
+            return version;
+        }
+
+        if (!tableExists(conn, "blobs")) {
+            // 新規データベース
+            inTransaction(conn, () -> {
+                createV2Tables(conn, "");
+                createV2Indexes(conn);
+                setVersion(conn, CURRENT_VERSION);
+            });
+            logger.info("Database schema created (version {})", CURRENT_VERSION);
+            return CURRENT_VERSION;
+        }
+
+        detachV1Tables(conn);
+        return CURRENT_VERSION;
+    }
+
+    public static int getVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // v1 のテーブルを *_v1 に改名し、v2 のテーブルを作って1トランザクションで切り替える（行はコピーしない）。
+    // 旧版のオフライン移行が途中で止まっていた場合は、コピー済みの *_v2 テーブルをそのまま v2 として使う。
+    // v1 のインデックス名は v2 と同じため、v2 のインデックスは moveLegacyIndexes で v1 のものを削除してから作る
+    private static void detachV1Tables(Connection conn) throws SQLException {
+        inTransaction(conn, () -> {
+            // 古いデータベースには存在しないテーブルがある
+            execute(conn, "CREATE TABLE IF NOT EXISTS accessed (blob TEXT(64) PRIMARY KEY, timestamp INTEGER NOT NULL)");
+            execute(conn, "CREATE TABLE IF NOT EXISTS variants (hash TEXT(64) NOT NULL, encoding TEXT NOT NULL, " +
+                          "size INTEGER, PRIMARY KEY (hash, encoding))");
+            createV2Tables(conn, "_v2");
+
+            for (String table : LEGACY_TABLES) {
+                execute(conn, "ALTER TABLE " + table + " RENAME TO " + table + "_v1");
+                execute(conn, "ALTER TABLE " + table + "_v2 RENAME TO " + table);
+            }
+            setVersion(conn, CURRENT_VERSION);
+        });
+
+        logger.info("Database schema switched to version {}; version 1 rows are moved in the background", CURRENT_VERSION);
+    }
+
+    // 移動待ちの v1 の行が残っているか
+    public static boolean hasLegacyTables(Connection conn) throws SQLException {
+        return tableExists(conn, "blobs_v1");
+    }
+
+    // v1 のインデックスを削除し、v2 のインデックスを作る（v2 のテーブルにはこの時点の新しい行しかない）
+    public static void moveLegacyIndexes(Connection conn) throws SQLException {
+        for (String index : LEGACY_INDEXES) {
+            inImmediateTransaction(conn, () -> execute(conn, "DROP INDEX IF EXISTS " + index));
+        }
+        inImmediateTransaction(conn, () -> createV2Indexes(conn));
+    }
+
+    // v1 の行をハッシュ順に最大 limit 件移動する。移動した件数を返す（0 なら完了）。
+    // 移動した行は v1 から削除するため、中断しても次回は残りの先頭から再開する
+    public static int moveLegacyBatch(Connection conn, int limit) throws SQLException {
+        List<String> hashes = new ArrayList<>(limit);
+        inImmediateTransaction(conn, () -> {
+            hashes.clear();
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT hash FROM blobs_v1 ORDER BY hash LIMIT ?")) {
+                stmt.setInt(1, limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        hashes.add(rs.getString(1));
+                    }
+                }
+            }
+            for (String hash : hashes) {
+                moveLegacyBlob(conn, hash);
+            }
+        });
+        return hashes.size();
+    }
+
+    // v1 に行が残っているか（読み取りのみ。参照時に書き込みロックを取るかどうかの判定に使う）
+    public static boolean hasLegacyBlob(Connection conn, String sha256) throws SQLException {
+        if (!hasLegacyTables(conn)) {
+            return false;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM blobs_v1 WHERE hash = ?")) {
+            stmt.setString(1, sha256);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    // 参照されたBLOBの行が v1 に残っていれば、その場で移動する（存在しないハッシュの参照では書き込みロックを取らない）
+    public static boolean adoptLegacyBlob(Connection conn, String sha256) throws SQLException {
+        if (!hasLegacyBlob(conn, sha256)) {
+            return false;
+        }
+        boolean[] moved = new boolean[1];
+        inImmediateTransaction(conn, () -> moved[0] = moveLegacyBlob(conn, sha256));
+        return moved[0];
+    }
+
+    // 1つのBLOBの行（アクセス時刻・圧縮版を含む）を v1 から v2 へ移動する。呼び出し側のトランザクション内で行う。
+    // v2 に既に行がある場合（移行中の再アップロード・アクセス記録）はそちらを優先する。BLOBの行を移動した場合は true
+    public static boolean moveLegacyBlob(Connection conn, String sha256) throws SQLException {
+        if (!hasLegacyTables(conn)) {
+            return false;
+        }
+
+        BlobHash hash = BlobHash.tryParse(sha256);
+        boolean moved = false;
+        if (hash == null) {
+            logger.warn("Dropping blob row with invalid hash: {}", sha256);
+        } else {
+            byte[] key = hash.toBytes();
+            try (PreparedStatement read = conn.prepareStatement(
+                    "SELECT size, type, uploaded, pubkey FROM blobs_v1 WHERE hash = ?")) {
+                read.setString(1, sha256);
+                try (ResultSet rs = read.executeQuery()) {
+                    if (rs.next()) {
+                        try (PreparedStatement write = conn.prepareStatement(
+                                "INSERT OR IGNORE INTO blobs (hash, size, type_id, uploaded, pubkey_id) VALUES (?, ?, ?, ?, ?)")) {
+                            write.setBytes(1, key);
+                            write.setLong(2, rs.getLong("size"));
+                            setId(write, 3, SqlDictionary.intern(conn, "mime_types", "type", rs.getString("type")));
+                            write.setLong(4, rs.getLong("uploaded"));
+                            setId(write, 5, SqlDictionary.intern(conn, "pubkeys", "pubkey", rs.getString("pubkey")));
+                            write.executeUpdate();
+                        }
+                        moved = true;
+                    }
+                }
+            }
+
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT OR IGNORE INTO accessed (blob, timestamp) SELECT ?, timestamp FROM accessed_v1 WHERE blob = ?")) {
+                stmt.setBytes(1, key);
+                stmt.setString(2, sha256);
+                stmt.executeUpdate();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT OR IGNORE INTO variants (hash, encoding, size) SELECT ?, encoding, size FROM variants_v1 WHERE hash = ?")) {
+                stmt.setBytes(1, key);
+                stmt.setString(2, sha256);
+                stmt.executeUpdate();
+            }
+        }
+
+        deleteByKey(conn, "DELETE FROM blobs_v1 WHERE hash = ?", sha256);
+        deleteByKey(conn, "DELETE FROM accessed_v1 WHERE blob = ?", sha256);
+        deleteByKey(conn, "DELETE FROM variants_v1 WHERE hash = ?", sha256);
+        return moved;
+    }
+
+    // すべて移動した後に v1 のテーブルを削除する。残っているのはBLOBの行がないアクセス時刻・圧縮版の記録のみ
+    public static void dropLegacyTables(Connection conn) throws SQLException {
+        inImmediateTransaction(conn, () -> {
+            for (String table : LEGACY_TABLES) {
+                execute(conn, "DROP TABLE IF EXISTS " + table + "_v1");
+            }
+        });
+    }
+
+    private static void createV2Tables(Connection conn, String suffix) throws SQLException {
+        execute(conn, """
+            CREATE TABLE IF NOT EXISTS mime_types (
+                id INTEGER PRIMARY KEY,
+                type TEXT NOT NULL UNIQUE
+            )
+        """);
+        execute(conn, """
+            CREATE TABLE IF NOT EXISTS pubkeys (
+                id INTEGER PRIMARY KEY,
+                pubkey TEXT NOT NULL UNIQUE
+            )
+        """);
+        execute(conn, """
+            CREATE TABLE IF NOT EXISTS blobs%s (
+                hash BLOB PRIMARY KEY,
+                size INTEGER NOT NULL,
+                type_id INTEGER,
+                uploaded INTEGER NOT NULL,
+                pubkey_id INTEGER
+            ) WITHOUT ROWID
+        """.formatted(suffix));
+        execute(conn, """
+            CREATE TABLE IF NOT EXISTS accessed%s (
+                blob BLOB PRIMARY KEY,
+                timestamp INTEGER NOT NULL
+            ) WITHOUT ROWID
+        """.formatted(suffix));
+        // size が NULL の行は圧縮を見送ったもの
+        execute(conn, """
+            CREATE TABLE IF NOT EXISTS variants%s (
+                hash BLOB NOT NULL,
+                encoding TEXT NOT NULL,
+                size INTEGER,
+                PRIMARY KEY (hash, encoding)
+            ) WITHOUT ROWID
+        """.formatted(suffix));
+        execute(conn, """
+            CREATE TABLE IF NOT EXISTS jobs (
+                name TEXT PRIMARY KEY,
+                completed INTEGER NOT NULL
+            )
+        """);
+    }
+
+    private static void createV2Indexes(Connection conn) throws SQLException {
+        execute(conn, "CREATE INDEX IF NOT EXISTS idx_blobs_pubkey ON blobs (pubkey_id, uploaded)");
+        execute(conn, "CREATE INDEX IF NOT EXISTS idx_blobs_uploaded ON blobs (uploaded)");
+        execute(conn, "CREATE INDEX IF NOT EXISTS idx_accessed_timestamp ON accessed (timestamp)");
+    }
+
+    private static boolean tableExists(Connection conn, String name) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            stmt.setString(1, name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static void setVersion(Connection conn, int version) throws SQLException {
+        execute(conn, "PRAGMA user_version = " + version);
+    }
+
+    private static void setId(PreparedStatement stmt, int index, Long id) throws SQLException {
+        if (id != null) {
+            stmt.setLong(index, id);
+        } else {
+            stmt.setNull(index, Types.INTEGER);
+        }
+    }
+
+    private static void deleteByKey(Connection conn, String sql, String sha256) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, sha256);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void inTransaction(Connection conn, SqlWork work) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            work.run();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    // 先に書き込みロックを取る。読み取った後で書き込みに昇格する場合と違い、稼働中の書き込みとは
+    // busy_timeout の範囲で待ち合わせるため SQLITE_BUSY で失敗しにくい
+    private static void inImmediateTransaction(Connection conn, SqlWork work) throws SQLException {
+        execute(conn, "BEGIN IMMEDIATE");
+        try {
+            work.run();
+            execute(conn, "COMMIT");
+        } catch (SQLException | RuntimeException e) {
+            try {
+                execute(conn, "ROLLBACK");
+            } catch (SQLException rollback) {
+                e.addSuppressed(rollback);
+            }
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlWork {
+        void run() throws SQLException;
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.kengirie.JBlossom.controller;
+
+import io.github.kengirie.JBlossom.exception.AuthenticationException;
+import io.github.kengirie.JBlossom.model.AuthResult;
+import io.github.kengirie.JBlossom.model.AuthToken;
+import io.github.kengirie.JBlossom.service.AuthTokenService;
+import io.github.kengirie.JBlossom.service.NostrAuthService;
+import io.github.kengirie.JBlossom.service.ReplayRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@CrossOrigin
+public class AuthController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthController.class);
+
+    @Autowired
+    private NostrAuthService nostrAuthService;
+
+    @Autowired
+    private AuthTokenService authTokenService;
+
+    @Autowired(required = false)
+    private ReplayRegistry replayRegistry;
+
+    // Exchange a signed kind-24242 event for a short-lived Bearer token scoped to the requested
+    // actions (each must be in the event's t tags), the event's x tags and a total upload size
+    @PostMapping("/auth/token")
+    public ResponseEntity<AuthToken> issueToken(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestParam(value = "action", required = false) List<String> actions,
+            @RequestParam(value = "max_size", required = false) Long maxSize) {
+
+        if (!authTokenService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        // Tokens are only issued for a signed event, never for another token
+        if (authHeader == null || !authHeader.startsWith("Nostr ")) {
+            throw new AuthenticationException(
+                AuthenticationException.AuthErrorType.MISSING_AUTH,
+                "Nostr authorization required to issue a token"
+            );
+        }
+
+        if (actions == null || actions.isEmpty()) {
+            throw new IllegalArgumentException("At least one action parameter is required");
+        }
+
+        // One signature check covers every requested action. Check against a single-use action when one
+        // is requested, so the exchange consumes the event and it cannot be replayed for that action.
+        // The token itself then authorizes that action once (NostrAuthService records its id)
+        String primaryAction = actions.get(0);
+        if (replayRegistry != null) {
+            primaryAction = actions.stream().filter(replayRegistry::isSingleUse).findFirst().orElse(primaryAction);
+        }
+        AuthResult verified = nostrAuthService.validateAuthEvent(authHeader, primaryAction);
+        if (!verified.isValid()) {
+            throw new AuthenticationException(verified.getErrorType(), verified.getReason());
+        }
+        for (String action : actions) {
+            if (!verified.getTagValues("t").contains(action)) {
+                throw new AuthenticationException(
+                    AuthenticationException.AuthErrorType.INVALID_ACTION,
+                    "Missing or invalid 't' tag for action: " + action
+                );
+            }
+        }
+
+        AuthToken token = authTokenService.issue(verified, actions, maxSize != null ? maxSize : 0);
+        logger.info("Issued token for pubkey: {}, actions: {}", verified.getPubkey(), actions);
+
+        return ResponseEntity.ok(token);
+    }
+}
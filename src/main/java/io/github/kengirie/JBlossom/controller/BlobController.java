@@ -1,30 +1,46 @@
 package io.github.kengirie.JBlossom.controller;
 
 import io.github.kengirie.JBlossom.model.AuthResult;
-import io.github.kengirie.JBlossom.model.BlobContent;
-import io.github.kengirie.JBlossom.model.BlobMetadata;
+import io.github.kengirie.JBlossom.model.BlobHash;
+import io.github.kengirie.JBlossom.model.ImageTransform;
+import io.github.kengirie.JBlossom.model.ServingDescriptor;
+import io.github.kengirie.JBlossom.service.AccessLogService;
+import io.github.kengirie.JBlossom.service.BlobContentCache;
+import io.github.kengirie.JBlossom.service.ImageDerivativeService;
 import io.github.kengirie.JBlossom.service.NostrAuthService;
 import io.github.kengirie.JBlossom.service.StorageService;
+import io.github.kengirie.JBlossom.util.AcceptEncoding;
+import io.github.kengirie.JBlossom.util.ByteBufferResource;
+import io.github.kengirie.JBlossom.util.RangeRequestParser;
+import io.github.kengirie.JBlossom.util.RangeRequestParser.Range;
+import io.github.kengirie.JBlossom.util.Sendfile;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @RestController
 @CrossOrigin
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class BlobController {
 
     private static final Logger logger = LoggerFactory.getLogger(BlobController.class);
-    private static final Pattern SHA256_PATTERN = Pattern.compile("([0-9a-f]{64})");
 
     @Autowired
     private StorageService storageService;
@@ -32,49 +48,73 @@ public class BlobController {
     @Autowired
     private NostrAuthService nostrAuthService;
 
+    @Autowired
+    private AccessLogService accessLogService;
+
+    @Autowired
+    private BlobContentCache contentCache;
+
+    @Autowired
+    private ImageDerivativeService derivativeService;
+
+    // Below this size a buffered copy is cheaper than setting up sendfile
+    @Value("${blossom.serving.sendfile-threshold:49152}")
+    private long sendfileThreshold;
+
+    // Upper bound on distinct (coalesced) ranges per request; larger sets are served in full
+    @Value("${blossom.serving.max-ranges:16}")
+    private int maxRanges;
+
     @GetMapping("/{pathWithPossibleExtension:.*}")
-    public ResponseEntity<Resource> getBlob(
+    public ResponseEntity<?> getBlob(
             @PathVariable String pathWithPossibleExtension,
             @RequestHeader(value = "Range", required = false) String rangeHeader,
             @RequestHeader(value = "Authorization", required = false) String authHeader,
-            HttpServletRequest request) {
+            @RequestParam(value = "w", required = false) String width,
+            @RequestParam(value = "h", required = false) String height,
+            HttpServletRequest request) throws IOException {
 
-        return handleBlobRequest(pathWithPossibleExtension, rangeHeader, authHeader, request, false);
+        return handleBlobRequest(pathWithPossibleExtension, rangeHeader, authHeader, width, height, request, false);
     }
 
     @RequestMapping(value = "/{pathWithPossibleExtension:.*}", method = RequestMethod.HEAD)
-    public ResponseEntity<Resource> headBlob(
+    public ResponseEntity<?> headBlob(
             @PathVariable String pathWithPossibleExtension,
             @RequestHeader(value = "Range", required = false) String rangeHeader,
             @RequestHeader(value = "Authorization", required = false) String authHeader,
-            HttpServletRequest request) {
+            @RequestParam(value = "w", required = false) String width,
+            @RequestParam(value = "h", required = false) String height,
+            HttpServletRequest request) throws IOException {
 
-        return handleBlobRequest(pathWithPossibleExtension, rangeHeader, authHeader, request, true);
+        return handleBlobRequest(pathWithPossibleExtension, rangeHeader, authHeader, width, height, request, true);
     }
 
-    private ResponseEntity<Resource> handleBlobRequest(
+    private ResponseEntity<?> handleBlobRequest(
             String pathWithPossibleExtension,
             String rangeHeader,
             String authHeader,
+            String width,
+            String height,
             HttpServletRequest request,
-            boolean isHeadRequest) {
+            boolean isHeadRequest) throws IOException {
 
-        // Extract SHA256 hash using regex (supports both /{hash} and /{hash}.{ext})
-        String sha256Hash = extractSha256Hash(pathWithPossibleExtension);
-        if (sha256Hash == null) {
+        // Locate the SHA256 hash with a single scan, no regex (supports both /{hash} and /{hash}.{ext})
+        int hashStart = pathWithPossibleExtension != null ? BlobHash.find(pathWithPossibleExtension) : -1;
+        if (hashStart < 0) {
             logger.debug("Invalid SHA256 hash format: {}", pathWithPossibleExtension);
             return ResponseEntity.notFound().build();
         }
+        BlobHash sha256Hash = BlobHash.parseAt(pathWithPossibleExtension, hashStart);
 
         // Extract extension if present
-        String extension = extractExtension(pathWithPossibleExtension);
+        String extension = extractExtension(pathWithPossibleExtension, hashStart);
 
         logger.debug("Serving blob request for hash: {}, extension: {}, range: {}", 
                     sha256Hash, extension, rangeHeader);
 
-        // Optional authentication (non-blocking)
+        // Optional authentication (non-blocking); a Nostr event or a server-issued token
         AuthResult authResult = null;
-        if (authHeader != null && authHeader.startsWith("Nostr ")) {
+        if (authHeader != null && (authHeader.startsWith("Nostr ") || authHeader.startsWith("Bearer "))) {
             authResult = nostrAuthService.validateAuthEvent(authHeader, "get");
             if (!authResult.isValid()) {
                 logger.debug("Authentication failed for hash {}: {}", sha256Hash, authResult.getReason());
@@ -84,88 +124,210 @@ public class BlobController {
             }
         }
 
-        // Check if blob exists
-        Optional<BlobMetadata> metadataOpt = storageService.findBlob(sha256Hash);
-        if (metadataOpt.isEmpty()) {
+        // Resolve the blob once: one DB lookup and one stat, shared by GET, HEAD and ranges
+        Optional<ServingDescriptor> descriptorOpt = storageService.resolveBlob(sha256Hash);
+        if (descriptorOpt.isEmpty()) {
             logger.debug("Blob not found: {}", sha256Hash);
             return ResponseEntity.notFound().build();
         }
 
-        // Update access time
-        storageService.updateAccessTime(sha256Hash);
+        ServingDescriptor descriptor = descriptorOpt.get();
 
-        // Read blob content with range support
-        Optional<BlobContent> blobContentOpt = storageService.readBlob(sha256Hash, rangeHeader);
-        if (blobContentOpt.isEmpty()) {
-            logger.warn("Failed to read blob content for hash: {}", sha256Hash);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        // Record access time (flushed to the database in batches)
+        accessLogService.recordAccess(sha256Hash);
+
+        // Resized image derivatives (?w= / ?h=) replace the blob; anything that is not a decodable image is served as is
+        ImageTransform transform = derivativeService.parseTransform(width, height);
+        if (transform != null) {
+            ServingDescriptor source = extension != null
+                ? descriptor.withMimeType(storageService.detectMimeType(descriptor.getMimeType(), extension))
+                : descriptor;
+            if (derivativeService.canDerive(source)) {
+                // Revalidation of a derivative is answered from its ETag before anything is decoded or queued
+                String derivativeETag = ServingDescriptor.eTagOf(sha256Hash, transform.getKey());
+                if (isNotModified(request, derivativeETag, descriptor.getLastModifiedMillis())) {
+                    logger.debug("Derivative {} not modified: {}", transform.getKey(), sha256Hash);
+                    return notModified(derivativeETag, descriptor, false);
+                }
+                Optional<ServingDescriptor> derivative = derivativeService.getDerivative(source, transform);
+                if (derivative.isPresent()) {
+                    descriptor = derivative.get();
+                    extension = null; // the derivative carries its own output type
+                    logger.debug("Serving derivative {} for {}", transform.getKey(), sha256Hash);
+                }
+            }
+        }
+
+        // Serve the precompressed variant when the client accepts it; ranges always address the identity bytes
+        if (descriptor.hasGzipVariant() && rangeHeader == null
+                && AcceptEncoding.accepts(request.getHeader(HttpHeaders.ACCEPT_ENCODING), "gzip")) {
+            descriptor = descriptor.withGzipEncoding();
+            logger.debug("Serving gzip variant for {}", sha256Hash);
         }
 
-        BlobContent blobContent = blobContentOpt.get();
-        BlobMetadata metadata = metadataOpt.get();
+        // Conditional requests are answered from the descriptor alone, before any file I/O
+        if (isNotModified(request, descriptor.getETag(), descriptor.getLastModifiedMillis())) {
+            logger.debug("Blob not modified: {}", sha256Hash);
+            return notModified(descriptor.getETag(), descriptor, descriptor.hasGzipVariant());
+        }
+
+        // Determine MIME type (extension only matters when the stored type is generic)
+        if (extension != null) {
+            descriptor = descriptor.withMimeType(
+                storageService.detectMimeType(descriptor.getMimeType(), extension));
+        }
 
-        // Determine MIME type (prefer extension if provided)
-        String mimeType = storageService.detectMimeType(sha256Hash, metadata.getType(), extension);
-        
-        // Build response headers
+        // Build response headers from the precomputed set
         HttpHeaders headers = new HttpHeaders();
-        headers.set(HttpHeaders.CONTENT_TYPE, mimeType);
-        headers.set(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000, immutable");
-
-        // Handle range requests
-        if (blobContent.isRangeRequest()) {
-            headers.set(HttpHeaders.CONTENT_RANGE, blobContent.getContentRange());
-            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-            headers.setContentLength(blobContent.getContentLength());
-            
-            logger.debug("Serving range request for {}: {} bytes", sha256Hash, blobContent.getContentLength());
-            
-            Resource resource = isHeadRequest ? null : blobContent.getResource();
-            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                    .headers(headers)
-                    .body(resource);
+        headers.putAll(descriptor.getHeaders());
+
+        // Handle range requests (malformed or excessive range sets and a stale If-Range fall back
+        // to the full blob, sets with no satisfiable range are answered with 416 by the exception handler)
+        List<Range> ranges = null;
+        if (RangeRequestParser.isIfRangeSatisfied(request.getHeader(HttpHeaders.IF_RANGE), descriptor.getETag())) {
+            ranges = RangeRequestParser.parseRanges(rangeHeader, descriptor.getSize(), maxRanges);
         } else {
-            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
-            headers.setContentLength(blobContent.getSize());
-            
-            logger.debug("Serving full blob for {}: {} bytes", sha256Hash, blobContent.getSize());
-            
-            Resource resource = isHeadRequest ? null : blobContent.getResource();
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(resource);
+            logger.debug("If-Range does not match {}, serving full blob", sha256Hash);
+        }
+        if (ranges != null && ranges.size() > 1) {
+            if (!isHeadRequest) {
+                return multiRangeResponse(sha256Hash, descriptor, headers, ranges);
+            }
+            // A multipart boundary only exists once a body is written; HEAD describes the full blob
+            ranges = null;
+        }
+        Range range = ranges != null ? ranges.get(0) : null;
+
+        long start = range != null ? range.getStart() : 0;
+        long length = range != null ? range.getLength() : descriptor.getSize();
+        headers.setContentLength(length);
+        if (range != null) {
+            headers.set(HttpHeaders.CONTENT_RANGE, RangeRequestParser.buildContentRange(range, descriptor.getSize()));
+            logger.debug("Serving range request for {}: {} bytes", sha256Hash, length);
+        } else {
+            logger.debug("Serving full blob for {}: {} bytes", sha256Hash, length);
+        }
+
+        Object body = isHeadRequest ? null : createBody(request, descriptor, start, length, range != null, rangeHeader);
+        if (body instanceof ResourceRegion) {
+            // ResourceRegionHttpMessageConverter writes Content-Range and Content-Length itself
+            headers.remove(HttpHeaders.CONTENT_RANGE);
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
         }
+
+        return ResponseEntity.status(range != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                .headers(headers)
+                .body(body);
     }
 
-    private String extractSha256Hash(String path) {
-        if (path == null) {
+    private ResponseEntity<?> multiRangeResponse(BlobHash sha256Hash, ServingDescriptor descriptor,
+                                                 HttpHeaders headers, List<Range> ranges) {
+
+        logger.debug("Serving {} ranges for {}", ranges.size(), sha256Hash);
+
+        // Sendfile carries a single contiguous region, so each part is streamed as its own region;
+        // the converter sets the multipart/byteranges type and writes the blob type into every part
+        Resource source = cachedOrFileResource(descriptor);
+        List<ResourceRegion> regions = new ArrayList<>(ranges.size());
+        for (Range range : ranges) {
+            regions.add(new ResourceRegion(source, range.getStart(), range.getLength()));
+        }
+
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .headers(headers)
+                .body(regions);
+    }
+
+    private Object createBody(HttpServletRequest request, ServingDescriptor descriptor,
+                              long start, long length, boolean partial, String rangeHeader) throws IOException {
+
+        // Hot small blobs are served from memory without opening the file
+        ByteBuffer cached = contentCache.lookup(descriptor);
+
+        // Zero-copy: let Tomcat hand the file region to the kernel and write no body ourselves
+        if (cached == null && length >= sendfileThreshold && Sendfile.isSupported(request)) {
+            Sendfile.serve(request, descriptor.getPath(), start, start + length);
             return null;
         }
-        
-        Matcher matcher = SHA256_PATTERN.matcher(path);
-        if (matcher.find()) {
-            return matcher.group(1);
+
+        // Cached blobs are written from the direct buffer itself rather than through an InputStream
+        if (cached != null) {
+            ByteBuffer region = cached.duplicate();
+            int offset = region.position() + (int) start;
+            region.limit(offset + (int) length).position(offset);
+            return (StreamingResponseBody) out -> ByteBufferResource.writeTo(region, out);
         }
-        
-        return null;
+
+        Resource source = descriptor.getResource();
+
+        if (partial) {
+            return new ResourceRegion(source, start, length);
+        }
+
+        // A plain Resource with a Range header would be re-ranged by Spring; the range was ignored on purpose
+        if (rangeHeader != null) {
+            return new InputStreamResource(source.getInputStream());
+        }
+        return source;
+    }
+
+    private Resource cachedOrFileResource(ServingDescriptor descriptor) {
+        ByteBuffer cached = contentCache.lookup(descriptor);
+        return cached != null ? new ByteBufferResource(cached, descriptor.getHash()) : descriptor.getResource();
+    }
+
+    private ResponseEntity<?> notModified(String eTag, ServingDescriptor descriptor, boolean varyOnEncoding) {
+        HttpHeaders notModifiedHeaders = new HttpHeaders();
+        notModifiedHeaders.setETag(eTag);
+        notModifiedHeaders.setLastModified(descriptor.getLastModifiedMillis());
+        notModifiedHeaders.set(HttpHeaders.CACHE_CONTROL, descriptor.getHeaders().getFirst(HttpHeaders.CACHE_CONTROL));
+        if (varyOnEncoding) {
+            notModifiedHeaders.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(notModifiedHeaders).build();
+    }
+
+    // If-None-Match takes precedence; If-Modified-Since is only consulted without it (RFC 9110 13.2.2)
+    private boolean isNotModified(HttpServletRequest request, String eTag, long lastModifiedMillis) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matchesAnyETag(ifNoneMatch, eTag);
+        }
+
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return ifModifiedSince >= 0 && lastModifiedMillis <= ifModifiedSince;
+    }
+
+    // Weak comparison, as required for If-None-Match
+    static boolean matchesAnyETag(String headerValue, String etag) {
+        for (String candidate : headerValue.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private String extractExtension(String path) {
-        if (path == null) {
+    // Only a suffix directly after a hash at the start of the path counts as an extension
+    static String extractExtension(String path, int hashStart) {
+        if (hashStart != 0) {
             return null;
         }
-        
-        // Check if path has an extension after the hash
+
         int dotIndex = path.lastIndexOf('.');
         if (dotIndex > 0 && dotIndex < path.length() - 1) {
-            String potentialExtension = path.substring(dotIndex + 1);
-            // Only return as extension if it comes after a valid hash
-            String hash = extractSha256Hash(path);
-            if (hash != null && path.startsWith(hash)) {
-                return potentialExtension;
-            }
+            return path.substring(dotIndex + 1);
         }
-        
+
         return null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,333 @@
+package io.github.kengirie.JBlossom.controller;
+
+import io.github.kengirie.JBlossom.model.BlobHash;
+import io.github.kengirie.JBlossom.model.ImageTransform;
+import io.github.kengirie.JBlossom.model.ServingDescriptor;
+import io.github.kengirie.JBlossom.service.AccessLogService;
+import io.github.kengirie.JBlossom.service.BlobContentCache;
+import io.github.kengirie.JBlossom.service.ImageDerivativeService;
+import io.github.kengirie.JBlossom.service.NostrAuthService;
+import io.github.kengirie.JBlossom.service.StorageService;
+import io.github.kengirie.JBlossom.util.AcceptEncoding;
+import io.github.kengirie.JBlossom.util.RangeRequestParser;
+import io.github.kengirie.JBlossom.util.RangeRequestParser.Range;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+// BUD-01 read path for the reactive profile, with the same semantics as BlobController.
+// Lookups run on the bounded elastic scheduler; bodies are written from the event loop as the
+// client drains them, so a slow reader holds a connection but no thread
+@RestController
+@CrossOrigin
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveBlobController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveBlobController.class);
+
+    // Chunk size when a file region cannot be handed to the transport as a whole
+    private static final int READ_BUFFER_SIZE = 65536;
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private NostrAuthService nostrAuthService;
+
+    @Autowired
+    private AccessLogService accessLogService;
+
+    @Autowired
+    private BlobContentCache contentCache;
+
+    @Autowired
+    private ImageDerivativeService derivativeService;
+
+    // Upper bound on distinct (coalesced) ranges per request; larger sets are served in full
+    @Value("${blossom.serving.max-ranges:16}")
+    private int maxRanges;
+
+    @GetMapping("/{pathWithPossibleExtension:.*}")
+    public Mono<Void> getBlob(
+            @PathVariable String pathWithPossibleExtension,
+            @RequestHeader(value = "Range", required = false) String rangeHeader,
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestParam(value = "w", required = false) String width,
+            @RequestParam(value = "h", required = false) String height,
+            ServerHttpRequest request,
+            ServerHttpResponse response) {
+
+        return handleBlobRequest(pathWithPossibleExtension, rangeHeader, authHeader, width, height, request, response, false);
+    }
+
+    @RequestMapping(value = "/{pathWithPossibleExtension:.*}", method = RequestMethod.HEAD)
+    public Mono<Void> headBlob(
+            @PathVariable String pathWithPossibleExtension,
+            @RequestHeader(value = "Range", required = false) String rangeHeader,
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestParam(value = "w", required = false) String width,
+            @RequestParam(value = "h", required = false) String height,
+            ServerHttpRequest request,
+            ServerHttpResponse response) {
+
+        return handleBlobRequest(pathWithPossibleExtension, rangeHeader, authHeader, width, height, request, response, true);
+    }
+
+    private Mono<Void> handleBlobRequest(
+            String pathWithPossibleExtension,
+            String rangeHeader,
+            String authHeader,
+            String width,
+            String height,
+            ServerHttpRequest request,
+            ServerHttpResponse response,
+            boolean isHeadRequest) {
+
+        int hashStart = pathWithPossibleExtension != null ? BlobHash.find(pathWithPossibleExtension) : -1;
+        if (hashStart < 0) {
+            logger.debug("Invalid SHA256 hash format: {}", pathWithPossibleExtension);
+            return complete(response, HttpStatus.NOT_FOUND, null);
+        }
+        BlobHash sha256Hash = BlobHash.parseAt(pathWithPossibleExtension, hashStart);
+        String extension = BlobController.extractExtension(pathWithPossibleExtension, hashStart);
+
+        logger.debug("Serving blob request for hash: {}, extension: {}, range: {}",
+                    sha256Hash, extension, rangeHeader);
+
+        // Optional authentication is only logged (BUD-01), so the response does not wait for it
+        if (authHeader != null && (authHeader.startsWith("Nostr ") || authHeader.startsWith("Bearer "))) {
+            nostrAuthService.validateAuthEventAsync(authHeader, "get").thenAccept(authResult -> {
+                if (!authResult.isValid()) {
+                    logger.debug("Authentication failed for hash {}: {}", sha256Hash, authResult.getReason());
+                } else {
+                    logger.debug("Authentication successful for hash {} by pubkey: {}", sha256Hash, authResult.getPubkey());
+                }
+            });
+        }
+
+        // Everything that may block (database, stat, image decoding, cache loads) happens before the
+        // response is touched, so errors still reach the exception handler as a normal error response
+        return Mono.fromCallable(() -> prepare(sha256Hash, extension, rangeHeader, width, height, request, isHeadRequest))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(reply -> reply.apply(response));
+    }
+
+    private Function<ServerHttpResponse, Mono<Void>> prepare(
+            BlobHash sha256Hash,
+            String extension,
+            String rangeHeader,
+            String width,
+            String height,
+            ServerHttpRequest request,
+            boolean isHeadRequest) throws IOException {
+
+        Optional<ServingDescriptor> descriptorOpt = storageService.resolveBlob(sha256Hash);
+        if (descriptorOpt.isEmpty()) {
+            logger.debug("Blob not found: {}", sha256Hash);
+            return response -> complete(response, HttpStatus.NOT_FOUND, null);
+        }
+
+        ServingDescriptor descriptor = descriptorOpt.get();
+        accessLogService.recordAccess(sha256Hash);
+        HttpHeaders requestHeaders = request.getHeaders();
+
+        ImageTransform transform = derivativeService.parseTransform(width, height);
+        if (transform != null) {
+            ServingDescriptor source = extension != null
+                ? descriptor.withMimeType(storageService.detectMimeType(descriptor.getMimeType(), extension))
+                : descriptor;
+            if (derivativeService.canDerive(source)) {
+                String derivativeETag = ServingDescriptor.eTagOf(sha256Hash, transform.getKey());
+                if (isNotModified(requestHeaders, derivativeETag, descriptor.getLastModifiedMillis())) {
+                    logger.debug("Derivative {} not modified: {}", transform.getKey(), sha256Hash);
+                    return notModified(derivativeETag, descriptor, false);
+                }
+                Optional<ServingDescriptor> derivative = derivativeService.getDerivative(source, transform);
+                if (derivative.isPresent()) {
+                    descriptor = derivative.get();
+                    extension = null; // the derivative carries its own output type
+                    logger.debug("Serving derivative {} for {}", transform.getKey(), sha256Hash);
+                }
+            }
+        }
+
+        if (descriptor.hasGzipVariant() && rangeHeader == null
+                && AcceptEncoding.accepts(requestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING), "gzip")) {
+            descriptor = descriptor.withGzipEncoding();
+            logger.debug("Serving gzip variant for {}", sha256Hash);
+        }
+
+        if (isNotModified(requestHeaders, descriptor.getETag(), descriptor.getLastModifiedMillis())) {
+            logger.debug("Blob not modified: {}", sha256Hash);
+            return notModified(descriptor.getETag(), descriptor, descriptor.hasGzipVariant());
+        }
+
+        if (extension != null) {
+            descriptor = descriptor.withMimeType(
+                storageService.detectMimeType(descriptor.getMimeType(), extension));
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(descriptor.getHeaders());
+
+        List<Range> ranges = null;
+        if (RangeRequestParser.isIfRangeSatisfied(requestHeaders.getFirst(HttpHeaders.IF_RANGE), descriptor.getETag())) {
+            ranges = RangeRequestParser.parseRanges(rangeHeader, descriptor.getSize(), maxRanges);
+        } else {
+            logger.debug("If-Range does not match {}, serving full blob", sha256Hash);
+        }
+        if (ranges != null && ranges.size() > 1) {
+            if (!isHeadRequest) {
+                return multiRangeReply(sha256Hash, descriptor, headers, ranges);
+            }
+            ranges = null;
+        }
+        Range range = ranges != null ? ranges.get(0) : null;
+
+        long start = range != null ? range.getStart() : 0;
+        long length = range != null ? range.getLength() : descriptor.getSize();
+        headers.setContentLength(length);
+        if (range != null) {
+            headers.set(HttpHeaders.CONTENT_RANGE, RangeRequestParser.buildContentRange(range, descriptor.getSize()));
+            logger.debug("Serving range request for {}: {} bytes", sha256Hash, length);
+        } else {
+            logger.debug("Serving full blob for {}: {} bytes", sha256Hash, length);
+        }
+
+        HttpStatus status = range != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK;
+        if (isHeadRequest) {
+            return response -> complete(response, status, headers);
+        }
+
+        // Hot small blobs are written from the cached direct buffer, everything else as a file region
+        ByteBuffer cached = contentCache.lookup(descriptor);
+        Path path = descriptor.getPath();
+        return response -> {
+            apply(response, status, headers);
+            if (cached != null) {
+                return response.writeWith(Mono.just(wrap(response.bufferFactory(), cached, start, length)));
+            }
+            // Zero-copy when the transport supports it (Reactor Netty hands the region to sendfile)
+            if (response instanceof ZeroCopyHttpOutputMessage zeroCopy) {
+                return zeroCopy.writeWith(path, start, length);
+            }
+            return response.writeWith(readRegion(response.bufferFactory(), path, start, length));
+        };
+    }
+
+    // multipart/byteranges in the same layout as Spring's ResourceRegion converters, with the total length
+    // computed up front; each part is read only when the client has drained the previous one
+    private Function<ServerHttpResponse, Mono<Void>> multiRangeReply(BlobHash sha256Hash, ServingDescriptor descriptor,
+                                                                     HttpHeaders headers, List<Range> ranges) {
+
+        logger.debug("Serving {} ranges for {}", ranges.size(), sha256Hash);
+
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (Range range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary
+                + "\r\n" + HttpHeaders.CONTENT_TYPE + ": " + descriptor.getMimeType()
+                + "\r\n" + HttpHeaders.CONTENT_RANGE + ": " + RangeRequestParser.buildContentRange(range, descriptor.getSize())
+                + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range.getLength();
+        }
+        byte[] end = ("\r\n--" + boundary + "--").getBytes(StandardCharsets.US_ASCII);
+
+        headers.set(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        headers.setContentLength(contentLength + end.length);
+
+        ByteBuffer cached = contentCache.lookup(descriptor);
+        Path path = descriptor.getPath();
+        return response -> {
+            apply(response, HttpStatus.PARTIAL_CONTENT, headers);
+            DataBufferFactory factory = response.bufferFactory();
+            Flux<DataBuffer> body = Flux.range(0, ranges.size())
+                .concatMap(i -> {
+                    Range range = ranges.get(i);
+                    Flux<DataBuffer> content = cached != null
+                        ? Flux.just(wrap(factory, cached, range.getStart(), range.getLength()))
+                        : readRegion(factory, path, range.getStart(), range.getLength());
+                    return Flux.concat(Mono.fromSupplier(() -> factory.wrap(partHeaders.get(i))), content);
+                })
+                .concatWith(Mono.fromSupplier(() -> factory.wrap(end)));
+            return response.writeWith(body);
+        };
+    }
+
+    private static Flux<DataBuffer> readRegion(DataBufferFactory factory, Path path, long start, long length) {
+        Flux<DataBuffer> content = DataBufferUtils.readAsynchronousFileChannel(
+            () -> AsynchronousFileChannel.open(path, StandardOpenOption.READ), start, factory, READ_BUFFER_SIZE);
+        return DataBufferUtils.takeUntilByteCount(content, length);
+    }
+
+    private static DataBuffer wrap(DataBufferFactory factory, ByteBuffer cached, long start, long length) {
+        ByteBuffer region = cached.duplicate();
+        int offset = region.position() + (int) start;
+        region.limit(offset + (int) length).position(offset);
+        return factory.wrap(region);
+    }
+
+    private static Function<ServerHttpResponse, Mono<Void>> notModified(String eTag, ServingDescriptor descriptor,
+                                                                        boolean varyOnEncoding) {
+        HttpHeaders notModifiedHeaders = new HttpHeaders();
+        notModifiedHeaders.setETag(eTag);
+        notModifiedHeaders.setLastModified(descriptor.getLastModifiedMillis());
+        notModifiedHeaders.set(HttpHeaders.CACHE_CONTROL, descriptor.getHeaders().getFirst(HttpHeaders.CACHE_CONTROL));
+        if (varyOnEncoding) {
+            notModifiedHeaders.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        return response -> complete(response, HttpStatus.NOT_MODIFIED, notModifiedHeaders);
+    }
+
+    private static void apply(ServerHttpResponse response, HttpStatus status, HttpHeaders headers) {
+        response.setStatusCode(status);
+        if (headers != null) {
+            response.getHeaders().putAll(headers);
+        }
+    }
+
+    private static Mono<Void> complete(ServerHttpResponse response, HttpStatus status, HttpHeaders headers) {
+        apply(response, status, headers);
+        return response.setComplete();
+    }
+
+    // If-None-Match takes precedence; If-Modified-Since is only consulted without it (RFC 9110 13.2.2)
+    private static boolean isNotModified(HttpHeaders requestHeaders, String eTag, long lastModifiedMillis) {
+        String ifNoneMatch = requestHeaders.getFirst(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return BlobController.matchesAnyETag(ifNoneMatch, eTag);
+        }
+
+        // -1 when absent or not a valid HTTP date
+        long ifModifiedSince = requestHeaders.getIfModifiedSince();
+        return ifModifiedSince >= 0 && lastModifiedMillis <= ifModifiedSince;
+    }
+}
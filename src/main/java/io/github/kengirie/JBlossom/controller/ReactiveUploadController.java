@@ -0,0 +1,565 @@
+package io.github.kengirie.JBlossom.controller;
+
+import io.github.kengirie.JBlossom.exception.AuthenticationException;
+import io.github.kengirie.JBlossom.exception.ServiceUnavailableException;
+import io.github.kengirie.JBlossom.exception.StorageException;
+import io.github.kengirie.JBlossom.model.AuthResult;
+import io.github.kengirie.JBlossom.model.BlobDescriptor;
+import io.github.kengirie.JBlossom.model.BlobMetadata;
+import io.github.kengirie.JBlossom.service.AuthTokenService;
+import io.github.kengirie.JBlossom.service.NostrAuthService;
+import io.github.kengirie.JBlossom.service.StorageService;
+import io.github.kengirie.JBlossom.service.UploadAdmissionService;
+import io.github.kengirie.JBlossom.util.MultipartStreamParser;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.multipart.PartEvent;
+import org.springframework.http.codec.multipart.PartEventHttpMessageReader;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.URI;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+// リアクティブ構成での UploadController。ボディはチャンクごとにSHA256を計算しながら非同期のファイルチャネルで
+// ステージングファイルに書き込み、書き終えてから次のチャンクを要求する。ゆっくり送ってくるクライアントは
+// 接続を保持するだけでスレッドを占有しない。署名検証と昇格（データベースへの記録）はイベントループの外で行う
+@RestController
+@CrossOrigin
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUploadController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveUploadController.class);
+    private static final ResolvableType PART_EVENT_TYPE = ResolvableType.forClass(PartEvent.class);
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private NostrAuthService nostrAuthService;
+
+    @Autowired
+    private UploadAdmissionService uploadAdmissionService;
+
+    @Autowired
+    private AuthTokenService authTokenService;
+
+    @Value("${blossom.upload.max-file-size:104857600}") // 100MB default
+    private long maxFileSize;
+
+    @Value("${blossom.upload.require-auth:true}")
+    private boolean requireAuth;
+
+    @Value("${blossom.upload.batch.max-blobs:64}")
+    private int maxBatchBlobs;
+
+    @Value("${blossom.upload.batch.max-request-size:104857600}") // 100MB default
+    private long maxBatchSize;
+
+    // ファイルのパートはメモリに溜めずに本文をチャンクのまま流す
+    private final PartEventHttpMessageReader partReader = new PartEventHttpMessageReader();
+
+    @PutMapping("/upload")
+    public Mono<ResponseEntity<BlobDescriptor>> uploadBlob(
+            @RequestHeader(value = "Content-Type", required = false) String contentType,
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "X-SHA-256", required = false) String expectedSha256,
+            ServerHttpRequest request) {
+
+        logger.debug("Upload request received - Content-Type: {}, Auth: {}, Expected SHA256: {}",
+                    contentType, authHeader != null ? "present" : "none", expectedSha256);
+
+        // ヘッダーの確認のみ先に行い、署名検証はボディの受信と並行してワーカースレッドで行う
+        CompletableFuture<AuthResult> pendingAuth = authenticateAsync(authHeader);
+
+        return receiveBlob(contentType, expectedSha256, pendingAuth, request)
+            // 認証エラーを優先して返す
+            .onErrorResume(e -> e instanceof StorageException || e instanceof ServiceUnavailableException,
+                           e -> awaitAuth(pendingAuth, expectedSha256).then(Mono.error(e)))
+            .map(metadata -> {
+                BlobDescriptor descriptor = createBlobDescriptor(
+                    metadata.getHash(),
+                    metadata.getSize(),
+                    metadata.getType(),
+                    getBaseUrl(request)
+                );
+
+                logger.info("Blob upload completed: {} ({} bytes)", metadata.getHash(), metadata.getSize());
+
+                return ResponseEntity.status(HttpStatus.CREATED).body(descriptor);
+            });
+    }
+
+    // 複数BLOBを1リクエスト・1認証イベント・1トランザクションで受け付ける
+    @PutMapping("/upload/batch")
+    public Mono<ResponseEntity<List<BlobDescriptor>>> uploadBlobs(
+            @RequestHeader(value = "Content-Type", required = false) String contentType,
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            ServerHttpRequest request) {
+
+        logger.debug("Batch upload request received - Content-Type: {}, Auth: {}",
+                    contentType, authHeader != null ? "present" : "none");
+
+        // 認証チェック（署名検証はバッチ全体で1回、受信の前に行う）
+        return authenticate(authHeader)
+            .flatMap(authResult -> receiveBatch(contentType, authResult.orElse(null), request))
+            .map(stored -> {
+                String baseUrl = getBaseUrl(request);
+                List<BlobDescriptor> descriptors = new ArrayList<>(stored.size());
+                for (BlobMetadata metadata : stored) {
+                    descriptors.add(createBlobDescriptor(
+                        metadata.getHash(),
+                        metadata.getSize(),
+                        metadata.getType(),
+                        baseUrl
+                    ));
+                }
+
+                logger.info("Batch upload completed: {} blobs", descriptors.size());
+
+                return ResponseEntity.status(HttpStatus.CREATED).body(descriptors);
+            });
+    }
+
+    // ボディをステージングし、署名検証の成功を待ってから昇格させる
+    private Mono<BlobMetadata> receiveBlob(String contentType, String expectedSha256,
+                                           CompletableFuture<AuthResult> pendingAuth, ServerHttpRequest request) {
+        // リクエスト全体のContent-Length（マルチパートの場合はパートサイズの上限になる）
+        long fileSize = request.getHeaders().getContentLength();
+
+        if (fileSize > maxFileSize) {
+            return Mono.error(new StorageException(
+                StorageException.StorageErrorType.FILE_TOO_LARGE,
+                null,
+                String.format("File size %d exceeds maximum allowed size %d", fileSize, maxFileSize)
+            ));
+        }
+
+        if (fileSize <= 0) {
+            return Mono.error(new StorageException(
+                StorageException.StorageErrorType.INVALID_FILE,
+                null,
+                "File is empty or size could not be determined"
+            ));
+        }
+
+        // 同時実行数・書き込み帯域・空き容量の予約（超過時は503で即時拒否）。
+        // 予約は完了・失敗・クライアントの切断のいずれでも解放される
+        return Mono.using(() -> uploadAdmissionService.admit(fileSize), permit -> {
+            Mono<StorageService.StagedBlob> staged;
+            if (MultipartStreamParser.isMultipart(contentType)) {
+                staged = this.<StorageService.StagedBlob>forEachPart(request, contentType, (part, content) -> {
+                    if (!"file".equals(part.name())) {
+                        return drain(content);
+                    }
+                    return stage(guard(content, pendingAuth, expectedSha256), partContentType(part),
+                                 expectedSha256, permit);
+                })
+                .next()
+                .switchIfEmpty(Mono.error(() -> new StorageException(
+                    StorageException.StorageErrorType.INVALID_FILE,
+                    null,
+                    "Missing 'file' part in multipart request"
+                )));
+            } else {
+                // Raw binary data からの取得
+                staged = stage(guard(request.getBody(), pendingAuth, expectedSha256), contentType,
+                               expectedSha256, permit);
+            }
+
+            return Mono.usingWhen(staged, blob -> awaitAuth(pendingAuth, expectedSha256).flatMap(authResult -> {
+                // x タグが1つの場合はそのハッシュと一致したものだけを昇格させる
+                List<String> authHashes = authResult.map(result -> result.getTagValues("x")).orElse(List.of());
+                if (expectedSha256 == null && authHashes.size() == 1
+                        && !authHashes.get(0).equalsIgnoreCase(blob.getHash())) {
+                    return Mono.error(new AuthenticationException(
+                        AuthenticationException.AuthErrorType.HASH_MISMATCH,
+                        String.format("Auth event x tag mismatch: expected %s, calculated %s",
+                                    authHashes.get(0), blob.getHash())
+                    ));
+                }
+
+                return Mono.fromCallable(() -> commitCharged(List.of(blob), blob.getSize(), authResult.orElse(null)).get(0))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .doOnNext(metadata -> logger.debug("Blob stored successfully: {}", metadata.getHash()));
+            }), blob -> Mono.fromRunnable(blob::close));
+        }, UploadAdmissionService.Permit::close)
+        .doOnError(StorageException.class, e -> logger.error("Failed to store blob", e))
+        .onErrorMap(ReactiveUploadController::isUnexpected, e -> {
+            logger.error("Unexpected error during blob storage", e);
+            return new StorageException(
+                StorageException.StorageErrorType.STORAGE_ERROR,
+                null,
+                "Failed to store blob: " + e.getMessage()
+            );
+        });
+    }
+
+    private Mono<List<BlobMetadata>> receiveBatch(String contentType, AuthResult authResult, ServerHttpRequest request) {
+        // 認証イベントの x タグが許可するハッシュの集合（指定なしの場合は制約なし）
+        Set<String> allowedSha256 = new HashSet<>();
+        if (authResult != null) {
+            for (String value : authResult.getTagValues("x")) {
+                allowedSha256.add(value.toLowerCase(Locale.ROOT));
+            }
+        }
+
+        String boundary = MultipartStreamParser.isMultipart(contentType)
+            ? MultipartStreamParser.extractBoundary(contentType)
+            : null;
+        if (boundary == null) {
+            return Mono.error(new StorageException(
+                StorageException.StorageErrorType.INVALID_FILE,
+                null,
+                "Batch upload requires a multipart/form-data body"
+            ));
+        }
+
+        long requestSize = request.getHeaders().getContentLength();
+
+        if (requestSize > maxBatchSize) {
+            return Mono.error(new StorageException(
+                StorageException.StorageErrorType.FILE_TOO_LARGE,
+                null,
+                String.format("Batch size %d exceeds maximum allowed size %d", requestSize, maxBatchSize)
+            ));
+        }
+
+        if (requestSize <= 0) {
+            return Mono.error(new StorageException(
+                StorageException.StorageErrorType.INVALID_FILE,
+                null,
+                "File is empty or size could not be determined"
+            ));
+        }
+
+        List<StorageService.StagedBlob> stagedBlobs = new ArrayList<>();
+        AtomicLong batchSize = new AtomicLong();
+        return Mono.using(() -> uploadAdmissionService.admit(requestSize), permit ->
+            // 各パートをステージングし、すべて検証できるまで公開しない
+            this.<StorageService.StagedBlob>forEachPart(request, contentType, (part, content) -> {
+                if (!"file".equals(part.name())) {
+                    return drain(content);
+                }
+                if (stagedBlobs.size() >= maxBatchBlobs) {
+                    return Mono.error(new StorageException(
+                        StorageException.StorageErrorType.INVALID_FILE,
+                        null,
+                        String.format("Batch exceeds maximum of %d blobs", maxBatchBlobs)
+                    ));
+                }
+
+                return stage(content, partContentType(part), null, permit).map(staged -> {
+                    stagedBlobs.add(staged);
+                    long size = batchSize.addAndGet(staged.getSize());
+
+                    if (staged.getSize() > maxFileSize) {
+                        throw new StorageException(
+                            StorageException.StorageErrorType.FILE_TOO_LARGE,
+                            null,
+                            String.format("File size %d exceeds maximum allowed size %d", staged.getSize(), maxFileSize)
+                        );
+                    }
+                    // トークンの残りのサイズを超えた時点で受信を打ち切る（差し引くのは全パートの受信後）
+                    if (authResult != null && size > authTokenService.getRemaining(authResult)) {
+                        throw new StorageException(
+                            StorageException.StorageErrorType.FILE_TOO_LARGE,
+                            null,
+                            String.format("Batch size %d exceeds remaining token size budget %d",
+                                        size, authTokenService.getRemaining(authResult))
+                        );
+                    }
+                    if (!allowedSha256.isEmpty() && !allowedSha256.contains(staged.getHash())) {
+                        throw new AuthenticationException(
+                            AuthenticationException.AuthErrorType.HASH_MISMATCH,
+                            String.format("Auth event has no x tag for blob %s", staged.getHash())
+                        );
+                    }
+                    return staged;
+                });
+            })
+            .then(Mono.defer(() -> {
+                if (stagedBlobs.isEmpty()) {
+                    return Mono.error(new StorageException(
+                        StorageException.StorageErrorType.INVALID_FILE,
+                        null,
+                        "Missing 'file' part in multipart request"
+                    ));
+                }
+
+                // メタデータは1トランザクションでまとめて記録
+                return Mono.fromCallable(() -> commitCharged(stagedBlobs, batchSize.get(), authResult))
+                    .subscribeOn(Schedulers.boundedElastic());
+            })),
+            UploadAdmissionService.Permit::close)
+        .doOnError(StorageException.class, e -> logger.error("Failed to store blob batch", e))
+        .onErrorMap(ReactiveUploadController::isUnexpected, e -> new StorageException(
+            StorageException.StorageErrorType.STORAGE_ERROR,
+            null,
+            "Failed to store blob batch: " + e.getMessage()
+        ))
+        // 昇格されなかったステージングファイルを破棄
+        .doFinally(signal -> stagedBlobs.forEach(StorageService.StagedBlob::close));
+    }
+
+    // ボディを受信しながらSHA256を計算し、非同期のファイルチャネルでステージングファイルに書き込む。
+    // 次のチャンクは前のチャンクを書き終えてから要求するため、遅いディスクや帯域制限はクライアントへの背圧になる
+    private Mono<StorageService.StagedBlob> stage(Flux<DataBuffer> content, String contentType,
+                                                  String expectedSha256, UploadAdmissionService.Permit permit) {
+        return Mono.usingWhen(
+            Mono.fromCallable(storageService::openStaging).subscribeOn(Schedulers.boundedElastic()),
+            staging -> DataBufferUtils.write(
+                    paced(content, permit).doOnNext(buffer -> digest(staging, buffer)),
+                    staging.getPath(), StandardOpenOption.WRITE)
+                .then(Mono.fromCallable(() -> {
+                    if (staging.getSize() == 0) {
+                        throw new StorageException(
+                            StorageException.StorageErrorType.INVALID_FILE,
+                            null,
+                            "File is empty or size could not be determined"
+                        );
+                    }
+                    return staging.finish(contentType, expectedSha256);
+                })),
+            staging -> Mono.fromRunnable(staging::close));
+    }
+
+    // 書き込み帯域の借り越し分だけ次のチャンクを遅らせる（スレッドは止めない）
+    private static Flux<DataBuffer> paced(Flux<DataBuffer> content, UploadAdmissionService.Permit permit) {
+        return content
+            .concatMap(buffer -> {
+                long waitMillis = permit.pace(buffer.readableByteCount());
+                return waitMillis > 0 ? Mono.just(buffer).delayElement(Duration.ofMillis(waitMillis)) : Mono.just(buffer);
+            }, 1)
+            .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    private static void digest(StorageService.Staging staging, DataBuffer buffer) {
+        try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+            iterator.forEachRemaining(staging::update);
+        }
+    }
+
+    // 検証の失敗が分かった時点で受信を打ち切る（ステージングファイルは破棄される）
+    private Flux<DataBuffer> guard(Flux<DataBuffer> content, CompletableFuture<AuthResult> pendingAuth,
+                                   String expectedSha256) {
+        return content.handle((buffer, sink) -> {
+            try {
+                if (pendingAuth.isDone()) {
+                    AuthResult authResult = join(pendingAuth);
+                    if (authResult != null) {
+                        checkAuth(authResult, expectedSha256);
+                    }
+                }
+                sink.next(buffer);
+            } catch (RuntimeException e) {
+                DataBufferUtils.release(buffer);
+                sink.error(e);
+            }
+        });
+    }
+
+    // マルチパートのボディをパートごとに順に処理する。handler にはパートの最初のイベント（名前とヘッダー）と本文を渡す
+    private <T> Flux<T> forEachPart(ServerHttpRequest request, String contentType,
+                                    BiFunction<PartEvent, Flux<DataBuffer>, Publisher<T>> handler) {
+        if (MultipartStreamParser.extractBoundary(contentType) == null) {
+            return Flux.error(new StorageException(
+                StorageException.StorageErrorType.INVALID_FILE,
+                null,
+                "Missing multipart boundary"
+            ));
+        }
+
+        return partReader.read(PART_EVENT_TYPE, request, Map.of())
+            .windowUntil(PartEvent::isLast)
+            .concatMap(events -> events.switchOnFirst((first, all) -> first.hasValue()
+                ? handler.apply(first.get(), all.map(PartEvent::content))
+                : all.thenMany(Flux.<T>empty())))
+            .doOnDiscard(PartEvent.class, event -> DataBufferUtils.release(event.content()))
+            // ファイル名も Content-Type も無いパートはフォームの値としてメモリ上に集められ、上限を超えると失敗する
+            .onErrorMap(e -> e instanceof DecodingException || e instanceof DataBufferLimitException,
+                        e -> new StorageException(
+                            StorageException.StorageErrorType.INVALID_FILE,
+                            null,
+                            "Malformed multipart request: " + e.getMessage(),
+                            e
+                        ));
+    }
+
+    private static <T> Mono<T> drain(Flux<DataBuffer> content) {
+        return content.doOnNext(DataBufferUtils::release).then(Mono.empty());
+    }
+
+    private static String partContentType(PartEvent part) {
+        return part.headers().getFirst(HttpHeaders.CONTENT_TYPE);
+    }
+
+    private static boolean isUnexpected(Throwable e) {
+        return !(e instanceof StorageException || e instanceof ServiceUnavailableException
+            || e instanceof AuthenticationException);
+    }
+
+    // トークンの残りのサイズから差し引いてから昇格させる。昇格に失敗した場合は差し引いた分を戻す
+    private List<BlobMetadata> commitCharged(List<StorageService.StagedBlob> staged, long size, AuthResult authResult) {
+        if (authResult == null) {
+            return storageService.commitBlobs(staged, null);
+        }
+        if (!authTokenService.charge(authResult, size)) {
+            throw new StorageException(
+                StorageException.StorageErrorType.FILE_TOO_LARGE,
+                null,
+                String.format("Upload size %d exceeds remaining token size budget %d",
+                            size, authTokenService.getRemaining(authResult))
+            );
+        }
+        boolean committed = false;
+        try {
+            List<BlobMetadata> stored = storageService.commitBlobs(staged, authResult.getPubkey());
+            committed = true;
+            return stored;
+        } finally {
+            if (!committed) {
+                authTokenService.refund(authResult, size);
+            }
+        }
+    }
+
+    private CompletableFuture<AuthResult> authenticateAsync(String authHeader) {
+        if (!requireAuth && authHeader == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        requireAuthScheme(authHeader);
+        return nostrAuthService.validateAuthEventAsync(authHeader, "upload");
+    }
+
+    // 署名検証の完了を待つ（スレッドは止めない）。認証が不要な場合は空
+    private Mono<Optional<AuthResult>> awaitAuth(CompletableFuture<AuthResult> pendingAuth, String expectedSha256) {
+        return Mono.fromFuture(pendingAuth, true)
+            .map(authResult -> Optional.of(checkAuth(authResult, expectedSha256)))
+            .defaultIfEmpty(Optional.empty());
+    }
+
+    private Mono<Optional<AuthResult>> authenticate(String authHeader) {
+        if (!requireAuth && authHeader == null) {
+            return Mono.just(Optional.empty());
+        }
+
+        requireAuthScheme(authHeader);
+        return Mono.fromFuture(nostrAuthService.validateAuthEventAsync(authHeader, "upload"), true)
+            .map(authResult -> {
+                requireValid(authResult);
+                return Optional.of(authResult);
+            });
+    }
+
+    private static AuthResult join(CompletableFuture<AuthResult> pendingAuth) {
+        try {
+            return pendingAuth.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // 検証が失敗している、または X-SHA-256 と x タグが矛盾する場合は例外を投げる
+    private AuthResult checkAuth(AuthResult authResult, String expectedSha256) {
+        requireValid(authResult);
+
+        // x タグが複数ある（バッチ用の）イベントでは X-SHA-256 でどれか1つを指定させる
+        List<String> authHashes = authResult.getTagValues("x");
+        if (expectedSha256 != null && !authHashes.isEmpty()) {
+            if (authHashes.stream().noneMatch(expectedSha256::equalsIgnoreCase)) {
+                throw new AuthenticationException(
+                    AuthenticationException.AuthErrorType.HASH_MISMATCH,
+                    String.format("Auth event x tag mismatch: expected %s, X-SHA-256 %s",
+                                String.join(", ", authHashes), expectedSha256)
+                );
+            }
+        } else if (expectedSha256 == null && authHashes.size() > 1) {
+            throw new AuthenticationException(
+                AuthenticationException.AuthErrorType.HASH_MISMATCH,
+                "Auth event has multiple x tags; X-SHA-256 header required"
+            );
+        }
+        return authResult;
+    }
+
+    // Nostr 認証イベントまたは発行済みトークン
+    private void requireAuthScheme(String authHeader) {
+        if (authHeader == null || !(authHeader.startsWith("Nostr ") || authHeader.startsWith("Bearer "))) {
+            throw new AuthenticationException(
+                AuthenticationException.AuthErrorType.MISSING_AUTH,
+                "Authorization header required for upload"
+            );
+        }
+    }
+
+    private void requireValid(AuthResult authResult) {
+        if (!authResult.isValid()) {
+            throw new AuthenticationException(
+                authResult.getErrorType(),
+                authResult.getReason()
+            );
+        }
+
+        logger.debug("Authentication successful for pubkey: {}", authResult.getPubkey());
+    }
+
+    private BlobDescriptor createBlobDescriptor(String sha256, long size, String contentType, String baseUrl) {
+        BlobDescriptor descriptor = new BlobDescriptor();
+        descriptor.setUrl(baseUrl + "/" + sha256);
+        descriptor.setSha256(sha256);
+        descriptor.setSize(size);
+        descriptor.setType(contentType);
+        descriptor.setUploaded(Instant.now().getEpochSecond());
+        return descriptor;
+    }
+
+    private String getBaseUrl(ServerHttpRequest request) {
+        URI uri = request.getURI();
+        String scheme = uri.getScheme();
+        String serverName = uri.getHost();
+        int serverPort = uri.getPort();
+
+        StringBuilder url = new StringBuilder();
+        url.append(scheme).append("://").append(serverName);
+
+        if (serverPort != -1 && ((scheme.equals("http") && serverPort != 80) ||
+            (scheme.equals("https") && serverPort != 443))) {
+            url.append(":").append(serverPort);
+        }
+
+        return url.toString();
+    }
+}
@@ -1,28 +1,42 @@
 package io.github.kengirie.JBlossom.controller;
 
 import io.github.kengirie.JBlossom.exception.AuthenticationException;
+import io.github.kengirie.JBlossom.exception.ServiceUnavailableException;
 import io.github.kengirie.JBlossom.exception.StorageException;
 import io.github.kengirie.JBlossom.model.AuthResult;
 import io.github.kengirie.JBlossom.model.BlobDescriptor;
 import io.github.kengirie.JBlossom.model.BlobMetadata;
+import io.github.kengirie.JBlossom.service.AuthTokenService;
 import io.github.kengirie.JBlossom.service.NostrAuthService;
 import io.github.kengirie.JBlossom.service.StorageService;
+import io.github.kengirie.JBlossom.service.UploadAdmissionService;
+import io.github.kengirie.JBlossom.util.MultipartStreamParser;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.multipart.MultipartFile;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @CrossOrigin
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class UploadController {
 
     private static final Logger logger = LoggerFactory.getLogger(UploadController.class);
@@ -33,15 +47,26 @@ public class UploadController {
     @Autowired
     private NostrAuthService nostrAuthService;
 
+    @Autowired
+    private UploadAdmissionService uploadAdmissionService;
+
+    @Autowired
+    private AuthTokenService authTokenService;
+
     @Value("${blossom.upload.max-file-size:104857600}") // 100MB default
     private long maxFileSize;
 
     @Value("${blossom.upload.require-auth:true}")
     private boolean requireAuth;
 
+    @Value("${blossom.upload.batch.max-blobs:64}")
+    private int maxBatchBlobs;
+
+    @Value("${blossom.upload.batch.max-request-size:104857600}") // 100MB default
+    private long maxBatchSize;
+
     @PutMapping("/upload")
     public ResponseEntity<BlobDescriptor> uploadBlob(
-            @RequestParam(value = "file", required = false) MultipartFile file,
             @RequestHeader(value = "Content-Type", required = false) String contentType,
             @RequestHeader(value = "Authorization", required = false) String authHeader,
             @RequestHeader(value = "X-SHA-256", required = false) String expectedSha256,
@@ -50,45 +75,187 @@ public class UploadController {
         logger.debug("Upload request received - Content-Type: {}, Auth: {}, Expected SHA256: {}", 
                     contentType, authHeader != null ? "present" : "none", expectedSha256);
 
-        // 認証チェック
-        AuthResult authResult = null;
-        if (requireAuth || authHeader != null) {
-            if (authHeader == null || !authHeader.startsWith("Nostr ")) {
-                throw new AuthenticationException(
-                    AuthenticationException.AuthErrorType.MISSING_AUTH,
-                    "Authorization header required for upload"
-                );
+        // ヘッダーの確認のみ先に行い、署名検証はボディの受信と並行してワーカースレッドで行う
+        CompletableFuture<AuthResult> pendingAuth = authenticateAsync(authHeader);
+
+        BlobMetadata metadata;
+        try {
+            metadata = receiveBlob(contentType, expectedSha256, pendingAuth, request);
+        } catch (StorageException | ServiceUnavailableException e) {
+            // 認証エラーを優先して返す
+            awaitAuth(pendingAuth, expectedSha256);
+            throw e;
+        }
+        String calculatedSha256 = metadata.getHash();
+        long storedSize = metadata.getSize();
+        // 申告が無い・汎用的なタイプは保存時にマジックナンバーから判定されている
+        String detectedContentType = metadata.getType();
+
+        // BlobDescriptorを作成
+        String baseUrl = getBaseUrl(request);
+        BlobDescriptor descriptor = createBlobDescriptor(
+            calculatedSha256,
+            storedSize,
+            detectedContentType,
+            baseUrl
+        );
+
+        logger.info("Blob upload completed: {} ({} bytes)", calculatedSha256, storedSize);
+        
+        return ResponseEntity.status(HttpStatus.CREATED).body(descriptor);
+    }
+
+    // 複数BLOBを1リクエスト・1認証イベント・1トランザクションで受け付ける
+    @PutMapping("/upload/batch")
+    public ResponseEntity<List<BlobDescriptor>> uploadBlobs(
+            @RequestHeader(value = "Content-Type", required = false) String contentType,
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            HttpServletRequest request) throws IOException {
+
+        logger.debug("Batch upload request received - Content-Type: {}, Auth: {}",
+                    contentType, authHeader != null ? "present" : "none");
+
+        // 認証チェック（署名検証はバッチ全体で1回）
+        AuthResult authResult = authenticate(authHeader);
+
+        // 認証イベントの x タグが許可するハッシュの集合（指定なしの場合は制約なし）
+        Set<String> allowedSha256 = new HashSet<>();
+        if (authResult != null) {
+            for (String value : authResult.getTagValues("x")) {
+                allowedSha256.add(value.toLowerCase(Locale.ROOT));
             }
+        }
 
-            authResult = nostrAuthService.validateAuthEvent(authHeader, "upload");
-            
-            if (!authResult.isValid()) {
-                throw new AuthenticationException(
-                    authResult.getErrorType(),
-                    authResult.getReason()
+        String boundary = MultipartStreamParser.isMultipart(contentType)
+            ? MultipartStreamParser.extractBoundary(contentType)
+            : null;
+        if (boundary == null) {
+            throw new StorageException(
+                StorageException.StorageErrorType.INVALID_FILE,
+                null,
+                "Batch upload requires a multipart/form-data body"
+            );
+        }
+
+        long requestSize = request.getContentLengthLong();
+
+        // リクエスト全体のサイズチェック
+        if (requestSize > maxBatchSize) {
+            throw new StorageException(
+                StorageException.StorageErrorType.FILE_TOO_LARGE,
+                null,
+                String.format("Batch size %d exceeds maximum allowed size %d", requestSize, maxBatchSize)
+            );
+        }
+
+        if (requestSize <= 0) {
+            throw new StorageException(
+                StorageException.StorageErrorType.INVALID_FILE,
+                null,
+                "File is empty or size could not be determined"
+            );
+        }
+
+        List<StorageService.StagedBlob> stagedBlobs = new ArrayList<>();
+        long batchSize = 0;
+        List<BlobMetadata> stored;
+        try (UploadAdmissionService.Permit permit = uploadAdmissionService.admit(requestSize)) {
+            MultipartStreamParser parser = new MultipartStreamParser(
+                permit.throttle(request.getInputStream()), boundary);
+
+            // 各パートをステージングし、すべて検証できるまで公開しない
+            MultipartStreamParser.Part part;
+            while ((part = parser.nextPart()) != null) {
+                if (!"file".equals(part.getName())) {
+                    continue;
+                }
+                if (stagedBlobs.size() >= maxBatchBlobs) {
+                    throw new StorageException(
+                        StorageException.StorageErrorType.INVALID_FILE,
+                        null,
+                        String.format("Batch exceeds maximum of %d blobs", maxBatchBlobs)
+                    );
+                }
+
+                StorageService.StagedBlob staged = storageService.stageBlob(
+                    requireNonEmpty(part.getBody()), part.getContentType(), null);
+                stagedBlobs.add(staged);
+                batchSize += staged.getSize();
+
+                if (staged.getSize() > maxFileSize) {
+                    throw new StorageException(
+                        StorageException.StorageErrorType.FILE_TOO_LARGE,
+                        null,
+                        String.format("File size %d exceeds maximum allowed size %d", staged.getSize(), maxFileSize)
+                    );
+                }
+                // トークンの残りのサイズを超えた時点で受信を打ち切る（差し引くのは全パートの受信後）
+                if (authResult != null && batchSize > authTokenService.getRemaining(authResult)) {
+                    throw new StorageException(
+                        StorageException.StorageErrorType.FILE_TOO_LARGE,
+                        null,
+                        String.format("Batch size %d exceeds remaining token size budget %d",
+                                    batchSize, authTokenService.getRemaining(authResult))
+                    );
+                }
+                if (!allowedSha256.isEmpty() && !allowedSha256.contains(staged.getHash())) {
+                    throw new AuthenticationException(
+                        AuthenticationException.AuthErrorType.HASH_MISMATCH,
+                        String.format("Auth event has no x tag for blob %s", staged.getHash())
+                    );
+                }
+            }
+
+            if (stagedBlobs.isEmpty()) {
+                throw new StorageException(
+                    StorageException.StorageErrorType.INVALID_FILE,
+                    null,
+                    "Missing 'file' part in multipart request"
                 );
             }
-            
-            logger.debug("Authentication successful for pubkey: {}", authResult.getPubkey());
-        }
 
-        // ファイルデータの取得
-        InputStream inputStream;
-        long fileSize;
-        String detectedContentType;
+            // メタデータは1トランザクションでまとめて記録
+            stored = commitCharged(stagedBlobs, batchSize, authResult);
 
-        if (file != null && !file.isEmpty()) {
-            // MultipartFile からの取得
-            inputStream = file.getInputStream();
-            fileSize = file.getSize();
-            detectedContentType = file.getContentType();
-        } else {
-            // Raw binary data からの取得
-            inputStream = request.getInputStream();
-            fileSize = request.getContentLengthLong();
-            detectedContentType = contentType;
+        } catch (ServiceUnavailableException | AuthenticationException e) {
+            throw e;
+        } catch (StorageException e) {
+            logger.error("Failed to store blob batch", e);
+            throw e;
+        } catch (IOException e) {
+            throw new StorageException(
+                StorageException.StorageErrorType.INVALID_FILE,
+                null,
+                "Malformed multipart request: " + e.getMessage(),
+                e
+            );
+        } finally {
+            // 昇格されなかったステージングファイルを破棄
+            stagedBlobs.forEach(StorageService.StagedBlob::close);
+        }
+
+        String baseUrl = getBaseUrl(request);
+        List<BlobDescriptor> descriptors = new ArrayList<>(stored.size());
+        for (BlobMetadata metadata : stored) {
+            descriptors.add(createBlobDescriptor(
+                metadata.getHash(),
+                metadata.getSize(),
+                metadata.getType(),
+                baseUrl
+            ));
         }
 
+        logger.info("Batch upload completed: {} blobs", descriptors.size());
+
+        return ResponseEntity.status(HttpStatus.CREATED).body(descriptors);
+    }
+
+    // ボディをステージングし、署名検証の成功を待ってから昇格させる
+    private BlobMetadata receiveBlob(String contentType, String expectedSha256,
+                                     CompletableFuture<AuthResult> pendingAuth, HttpServletRequest request) {
+        // リクエスト全体のContent-Length（マルチパートの場合はパートサイズの上限になる）
+        long fileSize = request.getContentLengthLong();
+
         // ファイルサイズチェック
         if (fileSize > maxFileSize) {
             throw new StorageException(
@@ -106,19 +273,50 @@ public class UploadController {
             );
         }
 
+        // 同時実行数・書き込み帯域・空き容量の予約（超過時は503で即時拒否）
         // SHA256計算とファイル保存
-        String calculatedSha256;
-        try {
-            BlobMetadata metadata = storageService.storeBlob(
-                inputStream,
-                detectedContentType,
-                authResult != null ? authResult.getPubkey() : null,
-                expectedSha256
-            );
-            calculatedSha256 = metadata.getHash();
-            
-            logger.debug("Blob stored successfully: {}", calculatedSha256);
-            
+        try (UploadAdmissionService.Permit permit = uploadAdmissionService.admit(fileSize)) {
+            // ファイルデータの取得（Springのマルチパート解決は使わず、ボディを直接ストリーム処理する）
+            InputStream inputStream;
+            String declaredContentType;
+            if (MultipartStreamParser.isMultipart(contentType)) {
+                MultipartStreamParser.Part part = openFilePart(request, contentType);
+                inputStream = requireNonEmpty(part.getBody());
+                declaredContentType = part.getContentType();
+            } else {
+                // Raw binary data からの取得
+                inputStream = request.getInputStream();
+                declaredContentType = contentType;
+            }
+
+            // 検証の失敗が分かった時点で受信を打ち切る（ステージングファイルは破棄される）
+            InputStream guarded = new AuthGuardedInputStream(permit.throttle(inputStream), () -> {
+                if (pendingAuth.isDone()) {
+                    awaitAuth(pendingAuth, expectedSha256);
+                }
+            });
+
+            try (StorageService.StagedBlob staged = storageService.stageBlob(guarded, declaredContentType, expectedSha256)) {
+                AuthResult authResult = awaitAuth(pendingAuth, expectedSha256);
+
+                // x タグが1つの場合はそのハッシュと一致したものだけを昇格させる
+                List<String> authHashes = authResult != null ? authResult.getTagValues("x") : List.of();
+                if (expectedSha256 == null && authHashes.size() == 1
+                        && !authHashes.get(0).equalsIgnoreCase(staged.getHash())) {
+                    throw new AuthenticationException(
+                        AuthenticationException.AuthErrorType.HASH_MISMATCH,
+                        String.format("Auth event x tag mismatch: expected %s, calculated %s",
+                                    authHashes.get(0), staged.getHash())
+                    );
+                }
+
+                BlobMetadata metadata = commitCharged(List.of(staged), staged.getSize(), authResult).get(0);
+                logger.debug("Blob stored successfully: {}", metadata.getHash());
+                return metadata;
+            }
+
+        } catch (ServiceUnavailableException | AuthenticationException e) {
+            throw e;
         } catch (StorageException e) {
             logger.error("Failed to store blob", e);
             throw e;
@@ -130,44 +328,163 @@ public class UploadController {
                 "Failed to store blob: " + e.getMessage()
             );
         }
+    }
 
-        // 期待されたSHA256との整合性チェック
-        if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(calculatedSha256)) {
-            // 保存したファイルを削除
-            storageService.deleteBlob(calculatedSha256);
+    // トークンの残りのサイズから差し引いてから昇格させる。昇格に失敗した場合は差し引いた分を戻す
+    private List<BlobMetadata> commitCharged(List<StorageService.StagedBlob> staged, long size, AuthResult authResult) {
+        if (authResult == null) {
+            return storageService.commitBlobs(staged, null);
+        }
+        if (!authTokenService.charge(authResult, size)) {
             throw new StorageException(
-                StorageException.StorageErrorType.HASH_MISMATCH,
-                calculatedSha256,
-                String.format("SHA256 mismatch: expected %s, calculated %s", expectedSha256, calculatedSha256)
+                StorageException.StorageErrorType.FILE_TOO_LARGE,
+                null,
+                String.format("Upload size %d exceeds remaining token size budget %d",
+                            size, authTokenService.getRemaining(authResult))
             );
         }
+        boolean committed = false;
+        try {
+            List<BlobMetadata> stored = storageService.commitBlobs(staged, authResult.getPubkey());
+            committed = true;
+            return stored;
+        } finally {
+            if (!committed) {
+                authTokenService.refund(authResult, size);
+            }
+        }
+    }
+
+    private CompletableFuture<AuthResult> authenticateAsync(String authHeader) {
+        if (!requireAuth && authHeader == null) {
+            return CompletableFuture.completedFuture(null);
+        }
 
-        // 認証イベントのxタグとSHA256の整合性チェック
-        if (authResult != null && authResult.hasTag("x")) {
-            String authSha256 = authResult.getTagValue("x");
-            if (!calculatedSha256.equalsIgnoreCase(authSha256)) {
-                // 保存したファイルを削除
-                storageService.deleteBlob(calculatedSha256);
+        requireAuthScheme(authHeader);
+        return nostrAuthService.validateAuthEventAsync(authHeader, "upload");
+    }
+
+    // 署名検証の完了を待ち、失敗または X-SHA-256 と x タグが矛盾する場合は例外を投げる
+    private AuthResult awaitAuth(CompletableFuture<AuthResult> pendingAuth, String expectedSha256) {
+        AuthResult authResult;
+        try {
+            authResult = pendingAuth.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        if (authResult == null) {
+            return null;
+        }
+        requireValid(authResult);
+
+        // x タグが複数ある（バッチ用の）イベントでは X-SHA-256 でどれか1つを指定させる
+        List<String> authHashes = authResult.getTagValues("x");
+        if (expectedSha256 != null && !authHashes.isEmpty()) {
+            if (authHashes.stream().noneMatch(expectedSha256::equalsIgnoreCase)) {
                 throw new AuthenticationException(
                     AuthenticationException.AuthErrorType.HASH_MISMATCH,
-                    String.format("Auth event x tag mismatch: expected %s, calculated %s", 
-                                authSha256, calculatedSha256)
+                    String.format("Auth event x tag mismatch: expected %s, X-SHA-256 %s",
+                                String.join(", ", authHashes), expectedSha256)
                 );
             }
+        } else if (expectedSha256 == null && authHashes.size() > 1) {
+            throw new AuthenticationException(
+                AuthenticationException.AuthErrorType.HASH_MISMATCH,
+                "Auth event has multiple x tags; X-SHA-256 header required"
+            );
         }
+        return authResult;
+    }
 
-        // BlobDescriptorを作成
-        String baseUrl = getBaseUrl(request);
-        BlobDescriptor descriptor = createBlobDescriptor(
-            calculatedSha256,
-            fileSize,
-            detectedContentType,
-            baseUrl
-        );
+    private AuthResult authenticate(String authHeader) {
+        if (!requireAuth && authHeader == null) {
+            return null;
+        }
 
-        logger.info("Blob upload completed: {} ({} bytes)", calculatedSha256, fileSize);
-        
-        return ResponseEntity.status(HttpStatus.CREATED).body(descriptor);
+        requireAuthScheme(authHeader);
+        AuthResult authResult = nostrAuthService.validateAuthEvent(authHeader, "upload");
+        requireValid(authResult);
+        return authResult;
+    }
+
+    // Nostr 認証イベントまたは発行済みトークン
+    private void requireAuthScheme(String authHeader) {
+        if (authHeader == null || !(authHeader.startsWith("Nostr ") || authHeader.startsWith("Bearer "))) {
+            throw new AuthenticationException(
+                AuthenticationException.AuthErrorType.MISSING_AUTH,
+                "Authorization header required for upload"
+            );
+        }
+    }
+
+    private void requireValid(AuthResult authResult) {
+        if (!authResult.isValid()) {
+            throw new AuthenticationException(
+                authResult.getErrorType(),
+                authResult.getReason()
+            );
+        }
+
+        logger.debug("Authentication successful for pubkey: {}", authResult.getPubkey());
+    }
+
+    private MultipartStreamParser.Part openFilePart(HttpServletRequest request, String contentType) {
+        String boundary = MultipartStreamParser.extractBoundary(contentType);
+        if (boundary == null) {
+            throw new StorageException(
+                StorageException.StorageErrorType.INVALID_FILE,
+                null,
+                "Missing multipart boundary"
+            );
+        }
+
+        try {
+            MultipartStreamParser parser = new MultipartStreamParser(request.getInputStream(), boundary);
+            MultipartStreamParser.Part part = parser.findPart("file");
+            if (part == null) {
+                throw new StorageException(
+                    StorageException.StorageErrorType.INVALID_FILE,
+                    null,
+                    "Missing 'file' part in multipart request"
+                );
+            }
+
+            return part;
+        } catch (IOException e) {
+            throw new StorageException(
+                StorageException.StorageErrorType.INVALID_FILE,
+                null,
+                "Malformed multipart request: " + e.getMessage(),
+                e
+            );
+        }
+    }
+
+    // パートサイズは事前に分からないため、先頭1バイトを覗いて空ファイルを弾く
+    private InputStream requireNonEmpty(InputStream inputStream) {
+        try {
+            PushbackInputStream body = new PushbackInputStream(inputStream, 1);
+            int first = body.read();
+            if (first == -1) {
+                throw new StorageException(
+                    StorageException.StorageErrorType.INVALID_FILE,
+                    null,
+                    "File is empty or size could not be determined"
+                );
+            }
+            body.unread(first);
+            return body;
+        } catch (IOException e) {
+            throw new StorageException(
+                StorageException.StorageErrorType.INVALID_FILE,
+                null,
+                "Malformed multipart request: " + e.getMessage(),
+                e
+            );
+        }
     }
 
     private BlobDescriptor createBlobDescriptor(String sha256, long size, String contentType, String baseUrl) {
@@ -196,4 +513,25 @@ public class UploadController {
         return url.toString();
     }
 
-}
\ No newline at end of file
+    // 読み取りのたびに check を実行し、例外が投げられた時点で受信を打ち切る
+    private static class AuthGuardedInputStream extends FilterInputStream {
+        private final Runnable check;
+
+        AuthGuardedInputStream(InputStream in, Runnable check) {
+            super(in);
+            this.check = check;
+        }
+
+        @Override
+        public int read() throws IOException {
+            check.run();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            check.run();
+            return super.read(b, off, len);
+        }
+    }
+}
@@ -13,7 +13,8 @@ public class AuthenticationException extends RuntimeException {
         TIMESTAMP_FUTURE("Event timestamp is in the future"),
         MISSING_AUTHORIZATION("Missing Authorization header"),
         MISSING_AUTH("Authorization required for this operation"),
-        HASH_MISMATCH("SHA256 hash mismatch in auth event");
+        HASH_MISMATCH("SHA256 hash mismatch in auth event"),
+        EVENT_REPLAYED("Auth event has already been used");
         
         private final String defaultMessage;
         
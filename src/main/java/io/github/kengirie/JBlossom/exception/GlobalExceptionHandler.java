@@ -5,7 +5,6 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
-import org.springframework.web.context.request.WebRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,7 +39,7 @@ public class GlobalExceptionHandler {
     // BUD01 Range Request Error Handling
     @ExceptionHandler(RangeNotSatisfiableException.class)
     public ResponseEntity<Map<String, String>> handleRangeNotSatisfiable(
-            RangeNotSatisfiableException ex, WebRequest request) {
+            RangeNotSatisfiableException ex) {
         
         logger.warn("Range not satisfiable: {} for range: {}, file size: {}", 
                    ex.getMessage(), ex.getRequestedRange(), ex.getFileSize());
@@ -66,7 +65,7 @@ public class GlobalExceptionHandler {
     // BUD01 Authentication Error Handling
     @ExceptionHandler(AuthenticationException.class)
     public ResponseEntity<Map<String, String>> handleAuthentication(
-            AuthenticationException ex, WebRequest request) {
+            AuthenticationException ex) {
         
         logger.warn("Authentication failed: {} (type: {})", ex.getMessage(), ex.getErrorType());
         
@@ -89,7 +88,7 @@ public class GlobalExceptionHandler {
     // BUD01 Storage Error Handling
     @ExceptionHandler(StorageException.class)
     public ResponseEntity<Map<String, String>> handleStorage(
-            StorageException ex, WebRequest request) {
+            StorageException ex) {
         
         logger.error("Storage error: {} (type: {}, hash: {})", 
                     ex.getMessage(), ex.getErrorType(), ex.getSha256Hash());
@@ -105,9 +104,32 @@ public class GlobalExceptionHandler {
         return createErrorResponse(status, "Storage Error", ex.getMessage(), ex.getXReasonHeader());
     }
     
+    // Upload admission control (fail fast instead of queueing in Tomcat threads)
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<Map<String, String>> handleServiceUnavailable(
+            ServiceUnavailableException ex) {
+
+        logger.warn("Service unavailable: {} (retry after {}s)", ex.getMessage(), ex.getRetryAfterSeconds());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-Reason", ex.getMessage());
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()));
+        headers.set("Access-Control-Allow-Origin", "*");
+        headers.set("Access-Control-Expose-Headers", "X-Reason, Retry-After");
+
+        Map<String, String> errorResponse = new HashMap<>();
+        errorResponse.put("error", "Service Unavailable");
+        errorResponse.put("message", ex.getMessage());
+        errorResponse.put("retryAfter", String.valueOf(ex.getRetryAfterSeconds()));
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .headers(headers)
+                .body(errorResponse);
+    }
+
     @ExceptionHandler(BlobNotFoundException.class)
     public ResponseEntity<Map<String, String>> handleBlobNotFoundException(
-            BlobNotFoundException ex, WebRequest request) {
+            BlobNotFoundException ex) {
         
         logger.debug("Blob not found: {}", ex.getMessage());
         return createErrorResponse(HttpStatus.NOT_FOUND, "Blob not found", ex.getMessage(), ex.getMessage());
@@ -115,7 +137,7 @@ public class GlobalExceptionHandler {
     
     @ExceptionHandler(UnauthorizedException.class)
     public ResponseEntity<Map<String, String>> handleUnauthorizedException(
-            UnauthorizedException ex, WebRequest request) {
+            UnauthorizedException ex) {
         
         logger.warn("Legacy unauthorized exception: {}", ex.getMessage());
         return createErrorResponse(HttpStatus.UNAUTHORIZED, "Unauthorized", ex.getMessage(), ex.getMessage());
@@ -123,7 +145,7 @@ public class GlobalExceptionHandler {
     
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<Map<String, String>> handleIllegalArgumentException(
-            IllegalArgumentException ex, WebRequest request) {
+            IllegalArgumentException ex) {
         
         logger.debug("Bad request: {}", ex.getMessage());
         return createErrorResponse(HttpStatus.BAD_REQUEST, "Bad Request", ex.getMessage(), 
@@ -132,7 +154,7 @@ public class GlobalExceptionHandler {
     
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<Map<String, String>> handleRuntimeException(
-            RuntimeException ex, WebRequest request) {
+            RuntimeException ex) {
         
         logger.error("Unexpected runtime exception", ex);
         return createErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error", 
@@ -141,7 +163,7 @@ public class GlobalExceptionHandler {
     
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, String>> handleGlobalException(
-            Exception ex, WebRequest request) {
+            Exception ex) {
         
         logger.error("Unexpected exception", ex);
         return createErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error", 
@@ -1,6 +1,8 @@
 package io.github.kengirie.JBlossom.model;
 
 import io.github.kengirie.JBlossom.exception.AuthenticationException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -12,9 +14,13 @@ public class AuthResult {
     private final long expiration;
     private final String action;
     private final Map<String, String> tags;
+    private final Map<String, List<String>> tagValues;
     private final AuthenticationException.AuthErrorType errorType;
+    private final long maxSize;
+    private final String eventId;
+    private final String tokenId;
     
-    private AuthResult(boolean valid, String pubkey, String reason, long createdAt, long expiration, String action, Map<String, String> tags, AuthenticationException.AuthErrorType errorType) {
+    private AuthResult(boolean valid, String pubkey, String reason, long createdAt, long expiration, String action, Map<String, String> tags, Map<String, List<String>> tagValues, AuthenticationException.AuthErrorType errorType, long maxSize, String tokenId) {
         this.valid = valid;
         this.pubkey = pubkey;
         this.reason = reason;
@@ -22,15 +28,65 @@ public class AuthResult {
         this.expiration = expiration;
         this.action = action;
         this.tags = tags != null ? new HashMap<>(tags) : new HashMap<>();
+        this.tagValues = new HashMap<>();
+        if (tagValues != null) {
+            tagValues.forEach((name, values) -> this.tagValues.put(name, List.copyOf(values)));
+        }
         this.errorType = errorType;
+        this.maxSize = maxSize;
+        this.eventId = null;
+        this.tokenId = tokenId;
+    }
+    
+    private AuthResult(AuthResult source, String action, String eventId) {
+        this.valid = source.valid;
+        this.pubkey = source.pubkey;
+        this.reason = source.reason;
+        this.createdAt = source.createdAt;
+        this.expiration = source.expiration;
+        this.action = action;
+        this.tags = source.tags;
+        this.tagValues = source.tagValues;
+        this.errorType = source.errorType;
+        this.maxSize = source.maxSize;
+        this.eventId = eventId;
+        this.tokenId = source.tokenId;
     }
     
     public static AuthResult valid(String pubkey, long createdAt, long expiration, String action, Map<String, String> tags) {
-        return new AuthResult(true, pubkey, null, createdAt, expiration, action, tags, null);
+        return new AuthResult(true, pubkey, null, createdAt, expiration, action, tags, null, null, Long.MAX_VALUE, null);
+    }
+    
+    // 同名タグが複数ある場合（複数の x タグなど）はすべての値を保持する
+    public static AuthResult valid(String pubkey, long createdAt, long expiration, String action, Map<String, String> tags, Map<String, List<String>> tagValues) {
+        return new AuthResult(true, pubkey, null, createdAt, expiration, action, tags, tagValues, null, Long.MAX_VALUE, null);
+    }
+    
+    // サーバー発行トークンによる認可。t / x タグの代わりに許可されたアクション・ハッシュを持ち、
+    // トークンの有効期間を通じたアップロードの合計サイズに上限がある。tokenId はトークンごとの識別子
+    public static AuthResult token(String pubkey, long expiration, String action, Map<String, List<String>> tagValues,
+                                   long maxSize, String tokenId) {
+        Map<String, String> tags = new HashMap<>();
+        tagValues.forEach((name, values) -> {
+            if (!values.isEmpty()) {
+                tags.put(name, values.get(values.size() - 1));
+            }
+        });
+        return new AuthResult(true, pubkey, null, 0, expiration, action, tags, tagValues, null, maxSize, tokenId);
     }
     
     public static AuthResult invalid(String reason, AuthenticationException.AuthErrorType errorType) {
-        return new AuthResult(false, null, reason, 0, 0, null, null, errorType);
+        return new AuthResult(false, null, reason, 0, 0, null, null, null, errorType, 0, null);
+    }
+    
+    // 同じイベントを別のアクションの認可に使う場合（タグは共有する）
+    public AuthResult withAction(String action) {
+        return new AuthResult(this, action, eventId);
+    }
+    
+    // 認可に使った Nostr イベントの id（再利用の検出に使う）
+    public AuthResult withEventId(String eventId) {
+        return new AuthResult(this, action, eventId);
     }
     
     public boolean isValid() {
@@ -69,10 +125,34 @@ public class AuthResult {
         return tags.get(tagName);
     }
     
+    public List<String> getTagValues(String tagName) {
+        List<String> values = tagValues.get(tagName);
+        if (values != null) {
+            return values;
+        }
+        String value = tags.get(tagName);
+        return value != null ? List.of(value) : Collections.emptyList();
+    }
+    
     public AuthenticationException.AuthErrorType getErrorType() {
         return errorType;
     }
     
+    // トークンでアップロードできる合計の最大バイト数（Nostrイベントの場合は制限なし）
+    public long getMaxSize() {
+        return maxSize;
+    }
+    
+    // Nostr イベントによる認可の場合のみ（トークンの場合は null）
+    public String getEventId() {
+        return eventId;
+    }
+
+    // トークンによる認可の場合のみ（Nostr イベントの場合は null）
+    public String getTokenId() {
+        return tokenId;
+    }
+    
     @Override
     public String toString() {
         if (valid) {
@@ -0,0 +1,42 @@
+package io.github.kengirie.JBlossom.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+public class AuthToken {
+    private final String token;
+    private final long expires;
+    private final List<String> actions;
+    private final List<String> hashes;
+    private final long maxSize;
+
+    public AuthToken(String token, long expires, List<String> actions, List<String> hashes, long maxSize) {
+        this.token = token;
+        this.expires = expires;
+        this.actions = List.copyOf(actions);
+        this.hashes = List.copyOf(hashes);
+        this.maxSize = maxSize;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public long getExpires() {
+        return expires;
+    }
+
+    public List<String> getActions() {
+        return actions;
+    }
+
+    // 空の場合はハッシュを限定しない
+    public List<String> getHashes() {
+        return hashes;
+    }
+
+    @JsonProperty("max_size")
+    public long getMaxSize() {
+        return maxSize;
+    }
+}
@@ -0,0 +1,167 @@
+package io.github.kengirie.JBlossom.model;
+
+// SHA-256ハッシュ（32バイト）の値型。64文字の文字列の代わりにキャッシュ・索引のキーとして使う（不変）
+public final class BlobHash {
+    public static final int HEX_LENGTH = 64;
+    public static final int BYTE_LENGTH = 32;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // ビッグエンディアンで先頭から8バイトずつ
+    private final long w0;
+    private final long w1;
+    private final long w2;
+    private final long w3;
+
+    private BlobHash(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    // 64文字の16進数（大文字小文字は問わない）。不正な場合は IllegalArgumentException
+    public static BlobHash parse(CharSequence hex) {
+        BlobHash hash = tryParse(hex);
+        if (hash == null) {
+            throw new IllegalArgumentException("Invalid SHA256 hash: " + hex);
+        }
+        return hash;
+    }
+
+    // 不正な場合は null
+    public static BlobHash tryParse(CharSequence hex) {
+        if (hex == null || hex.length() != HEX_LENGTH) {
+            return null;
+        }
+        return parseAt(hex, 0);
+    }
+
+    public static boolean isValid(CharSequence hex) {
+        if (hex == null || hex.length() != HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            if (digit(hex.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 文字列中で最初に現れる64文字連続の小文字16進数の位置（URLパスからの抽出用）。ない場合は -1
+    public static int find(CharSequence s) {
+        int run = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')) {
+                if (++run == HEX_LENGTH) {
+                    return i - (HEX_LENGTH - 1);
+                }
+            } else {
+                run = 0;
+            }
+        }
+        return -1;
+    }
+
+    // offset から64文字を読み取る。範囲外・16進数以外を含む場合は null
+    public static BlobHash parseAt(CharSequence s, int offset) {
+        if (offset < 0 || s.length() - offset < HEX_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            if (digit(s.charAt(offset + i)) < 0) {
+                return null;
+            }
+        }
+        return new BlobHash(readHex(s, offset), readHex(s, offset + 16), readHex(s, offset + 32), readHex(s, offset + 48));
+    }
+
+    public static BlobHash fromBytes(byte[] digest) {
+        if (digest == null || digest.length != BYTE_LENGTH) {
+            throw new IllegalArgumentException("SHA256 digest must be 32 bytes");
+        }
+        return new BlobHash(readLong(digest, 0), readLong(digest, 8), readLong(digest, 16), readLong(digest, 24));
+    }
+
+    public byte[] toBytes() {
+        byte[] bytes = new byte[BYTE_LENGTH];
+        writeLong(bytes, 0, w0);
+        writeLong(bytes, 8, w1);
+        writeLong(bytes, 16, w2);
+        writeLong(bytes, 24, w3);
+        return bytes;
+    }
+
+    // 小文字の16進数64文字
+    @Override
+    public String toString() {
+        char[] chars = new char[HEX_LENGTH];
+        writeHex(chars, 0, w0);
+        writeHex(chars, 16, w1);
+        writeHex(chars, 32, w2);
+        writeHex(chars, 48, w3);
+        return new String(chars);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BlobHash other)) {
+            return false;
+        }
+        return w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    // SHA-256は一様に分布するため、先頭の語だけで十分に分散する
+    @Override
+    public int hashCode() {
+        return (int) (w0 ^ (w0 >>> 32));
+    }
+
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static long readHex(CharSequence s, int offset) {
+        long value = 0;
+        for (int i = 0; i < 16; i++) {
+            value = (value << 4) | digit(s.charAt(offset + i));
+        }
+        return value;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static void writeHex(char[] chars, int offset, long value) {
+        for (int i = 15; i >= 0; i--) {
+            chars[offset + i] = HEX_DIGITS[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.kengirie.JBlossom.model;
+
+// 派生画像の変換指定（幅・高さの上限。0 は指定なし）。縦横比は維持し、拡大はしない
+public final class ImageTransform {
+    private final int width;
+    private final int height;
+
+    public ImageTransform(int width, int height) {
+        if (width < 0 || height < 0 || (width == 0 && height == 0)) {
+            throw new IllegalArgumentException("width or height is required");
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // ディスクキャッシュのファイル名とETagに使うキー（例: "w64", "h400", "w64h64"）
+    public String getKey() {
+        StringBuilder key = new StringBuilder();
+        if (width > 0) {
+            key.append('w').append(width);
+        }
+        if (height > 0) {
+            key.append('h').append(height);
+        }
+        return key.toString();
+    }
+
+    // 元画像のサイズから出力サイズ {幅, 高さ} を求める
+    public int[] fit(int sourceWidth, int sourceHeight) {
+        double scale = 1.0;
+        if (width > 0) {
+            scale = Math.min(scale, (double) width / sourceWidth);
+        }
+        if (height > 0) {
+            scale = Math.min(scale, (double) height / sourceHeight);
+        }
+        return new int[] {
+            Math.max(1, (int) Math.round(sourceWidth * scale)),
+            Math.max(1, (int) Math.round(sourceHeight * scale))
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ImageTransform other)) {
+            return false;
+        }
+        return width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * width + height;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ImageTransform{width=%d, height=%d}", width, height);
+    }
+}
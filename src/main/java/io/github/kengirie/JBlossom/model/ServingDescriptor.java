@@ -0,0 +1,170 @@
+package io.github.kengirie.JBlossom.model;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+
+import java.nio.file.Path;
+
+// GET/HEAD配信用に1回の参照で解決したBLOB情報（不変）
+public final class ServingDescriptor {
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private final BlobHash hash;
+    private final long size;
+    private final String mimeType;
+    private final Path path;
+    private final long uploaded;
+    private final String contentEncoding;
+    private final String variant;
+    private final Path gzipPath;
+    private final long gzipSize;
+    private final String eTag;
+    private final HttpHeaders headers;
+    // 直近に withMimeType で作った表現。同じ拡張子での再要求ではヘッダーごと使い回す
+    private volatile ServingDescriptor retyped;
+
+    public ServingDescriptor(String hash, long size, String mimeType, Path path, long uploaded) {
+        this(hash != null ? BlobHash.parse(hash) : null, size, mimeType, path, uploaded, null, null, null, -1);
+    }
+
+    // gzipPath が null の場合は圧縮版なし
+    public ServingDescriptor(BlobHash hash, long size, String mimeType, Path path, long uploaded,
+                             Path gzipPath, long gzipSize) {
+        this(hash, size, mimeType, path, uploaded, null, null, gzipPath, gzipPath != null ? gzipSize : -1);
+    }
+
+    // variant は元のBLOBとは別の表現（圧縮版・派生画像）を示し、ETagの区別に使う
+    private ServingDescriptor(BlobHash hash, long size, String mimeType, Path path, long uploaded,
+                              String contentEncoding, String variant, Path gzipPath, long gzipSize) {
+        if (hash == null || mimeType == null || path == null) {
+            throw new IllegalArgumentException("hash, mimeType, and path are required");
+        }
+        this.hash = hash;
+        this.size = size;
+        this.mimeType = mimeType;
+        this.path = path;
+        this.uploaded = uploaded;
+        this.contentEncoding = contentEncoding;
+        this.variant = variant;
+        this.gzipPath = gzipPath;
+        this.gzipSize = gzipSize;
+        this.eTag = eTagOf(hash, variant);
+        this.headers = HttpHeaders.readOnlyHttpHeaders(buildHeaders());
+    }
+
+    private HttpHeaders buildHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, mimeType);
+        headers.set(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setETag(getETag());
+        headers.setLastModified(getLastModifiedMillis());
+        // 圧縮版がある場合は、どちらの表現を返してもキャッシュがAccept-Encodingで区別できるようにする
+        if (hasGzipVariant()) {
+            headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (contentEncoding != null) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        }
+        return headers;
+    }
+
+    public String getHash() {
+        return hash.toString();
+    }
+
+    public BlobHash getBlobHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getUploaded() {
+        return uploaded;
+    }
+
+    // 内容アドレスなのでハッシュそのものが強いETagになる。別の表現には表現名を付ける
+    public String getETag() {
+        return eTag;
+    }
+
+    // 表現を作らずにETagだけを求める（variant が null の場合は元のBLOB）
+    public static String eTagOf(BlobHash hash, String variant) {
+        return variant == null ? "\"" + hash + "\"" : "\"" + hash + "-" + variant + "\"";
+    }
+
+    // 元のBLOBそのもの以外の表現か（内容キャッシュなどハッシュ単位で保持するものの対象外）
+    public boolean isVariant() {
+        return variant != null;
+    }
+
+    // null = identity
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    public boolean hasGzipVariant() {
+        return gzipPath != null;
+    }
+
+    // 事前圧縮済みのgzip版を配信する表現に切り替える
+    public ServingDescriptor withGzipEncoding() {
+        if (!hasGzipVariant()) {
+            throw new IllegalStateException("No gzip variant for " + hash);
+        }
+        if (contentEncoding != null) {
+            return this;
+        }
+        return new ServingDescriptor(hash, gzipSize, mimeType, gzipPath, uploaded, "gzip", "gzip", gzipPath, gzipSize);
+    }
+
+    // 派生画像（縮小版など）を配信する表現に切り替える。派生画像には圧縮版はない
+    public ServingDescriptor withDerivative(String variant, Path path, long size, String mimeType) {
+        return new ServingDescriptor(hash, size, mimeType, path, uploaded, null, variant, null, -1);
+    }
+
+    // uploaded（秒）をLast-Modified用のミリ秒に変換する
+    public long getLastModifiedMillis() {
+        return uploaded * 1000;
+    }
+
+    // 全レスポンス共通のヘッダー（Content-Type, Cache-Control, Accept-Ranges, ETag, Last-Modified, Vary, Content-Encoding）。読み取り専用
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public Resource getResource() {
+        return new FileSystemResource(path);
+    }
+
+    // 拡張子によりMIMEタイプを差し替える場合に使用する
+    public ServingDescriptor withMimeType(String mimeType) {
+        if (this.mimeType.equals(mimeType)) {
+            return this;
+        }
+        ServingDescriptor cached = retyped;
+        if (cached != null && cached.mimeType.equals(mimeType)) {
+            return cached;
+        }
+        cached = new ServingDescriptor(hash, size, mimeType, path, uploaded, contentEncoding, variant, gzipPath, gzipSize);
+        retyped = cached;
+        return cached;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ServingDescriptor{hash='%s', size=%d, mimeType='%s', variant='%s'}",
+                             hash, size, mimeType, variant != null ? variant : "identity");
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.model.BlobHash;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// GETごとの同期DB書き込みを避け、アクセス時刻をメモリ上で集約して定期的にまとめて記録する
+@Service
+public class AccessLogService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccessLogService.class);
+
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${blossom.storage.access-log.flush-interval-millis:5000}")
+    private long flushIntervalMillis;
+
+    private final ConcurrentHashMap<BlobHash, Long> pending = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void initialize() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "access-log-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                                         TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        flush();
+    }
+
+    public void recordAccess(BlobHash hash) {
+        pending.merge(hash, Instant.now().getEpochSecond(), Math::max);
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // 溜まったアクセス時刻を1トランザクションで書き込む。失敗した場合は次回の書き込みに持ち越す
+    public int flush() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        Map<BlobHash, Long> taken = new HashMap<>();
+        Map<String, Long> batch = new HashMap<>();
+        for (BlobHash hash : pending.keySet()) {
+            Long timestamp = pending.remove(hash);
+            if (timestamp != null) {
+                taken.put(hash, timestamp);
+                batch.put(hash.toString(), timestamp);
+            }
+        }
+
+        int updated = storageService.updateAccessTimes(batch);
+        if (updated < 0) {
+            // 書き込み中に記録された新しいアクセスは残したまま戻す
+            taken.forEach((hash, timestamp) -> pending.merge(hash, timestamp, Math::max));
+            logger.warn("Access time flush failed, keeping {} entries for the next flush", taken.size());
+            return 0;
+        }
+        return updated;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Failed to flush access times", e);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.exception.AuthenticationException;
+import io.github.kengirie.JBlossom.model.AuthResult;
+import io.github.kengirie.JBlossom.model.AuthToken;
+import io.github.kengirie.JBlossom.model.BlobHash;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+// 署名検証済みの認証イベントと引き換えに、アクション・ハッシュ・サイズを限定した短命トークンを発行する。
+// トークンは「ペイロード.HMAC-SHA256」（いずれも base64url）で、検証にサーバー側の状態は要らない。
+// サイズ上限はトークンの有効期間を通じた合計で、使用量のみトークンの識別子ごとに有効期限まで保持する
+@Service
+public class AuthTokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthTokenService.class);
+    private static final String VERSION = "2";
+    private static final int TOKEN_ID_BYTES = 12;
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int MIN_SECRET_LENGTH = 32;
+    private static final Pattern ACTION_PATTERN = Pattern.compile("^[a-z]+$");
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    @Value("${blossom.auth.token.enabled:true}")
+    private boolean enabled = true;
+
+    // Base64 の鍵（32バイト以上）。空の場合は起動ごとに生成する（再起動で発行済みトークンは無効になる）
+    @Value("${blossom.auth.token.secret:}")
+    private String secret = "";
+
+    @Value("${blossom.auth.token.ttl-seconds:300}")
+    private long ttlSeconds = 300;
+
+    // トークンでアップロードできる合計サイズの最大値（発行時に要求された値をこれで丸める）
+    @Value("${blossom.auth.token.max-size:104857600}")
+    private long maxSize = 104857600L;
+
+    private SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+
+    // 使用済みのサイズ（トークンの識別子ごと）。期限切れのものは charge の際にまとめて捨てる
+    private final ConcurrentHashMap<String, Budget> budgets = new ConcurrentHashMap<>();
+    private final AtomicLong nextPurge = new AtomicLong();
+
+    private static final class Budget {
+        private final long expires;
+        private final AtomicLong used = new AtomicLong();
+
+        private Budget(long expires) {
+            this.expires = expires;
+        }
+    }
+
+    // Mac はスレッドセーフではないためスレッドごとに持つ
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+    @PostConstruct
+    public void initialize() {
+        byte[] keyBytes;
+        if (secret == null || secret.isBlank()) {
+            keyBytes = new byte[MIN_SECRET_LENGTH];
+            random.nextBytes(keyBytes);
+        } else {
+            keyBytes = Base64.getDecoder().decode(secret.trim());
+            if (keyBytes.length < MIN_SECRET_LENGTH) {
+                throw new IllegalStateException("blossom.auth.token.secret must be at least " + MIN_SECRET_LENGTH + " bytes");
+            }
+        }
+        key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+
+        logger.info("Auth tokens: {}, ttl {}s, max size {} bytes, {} key",
+                   enabled ? "enabled" : "disabled", ttlSeconds, maxSize,
+                   secret == null || secret.isBlank() ? "per-process" : "configured");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // verified: 署名検証済みの認証イベント。有効期限はイベントの expiration と TTL の早い方、
+    // 許可するハッシュはイベントの x タグ（ない場合は限定しない）。requestedMaxSize が 0 以下の場合は上限値
+    public AuthToken issue(AuthResult verified, List<String> actions, long requestedMaxSize) {
+        if (actions.isEmpty()) {
+            throw new IllegalArgumentException("At least one action is required");
+        }
+        for (String action : actions) {
+            if (!ACTION_PATTERN.matcher(action).matches()) {
+                throw new IllegalArgumentException("Invalid action: " + action);
+            }
+        }
+
+        long expires = Math.min(verified.getExpiration(), Instant.now().getEpochSecond() + ttlSeconds);
+        long size = requestedMaxSize > 0 ? Math.min(requestedMaxSize, maxSize) : maxSize;
+
+        // ハッシュとして不正な値は区切り文字を含み得るため除外する
+        List<String> hashes = new ArrayList<>();
+        for (String value : verified.getTagValues("x")) {
+            if (BlobHash.isValid(value)) {
+                hashes.add(value.toLowerCase(Locale.ROOT));
+            }
+        }
+
+        byte[] tokenId = new byte[TOKEN_ID_BYTES];
+        random.nextBytes(tokenId);
+
+        String payload = String.join("|", VERSION, verified.getPubkey(), Long.toString(expires),
+            String.join(",", actions), String.join(",", hashes), Long.toString(size), ENCODER.encodeToString(tokenId));
+        String encoded = ENCODER.encodeToString(payload.getBytes(StandardCharsets.US_ASCII));
+        String token = encoded + "." + ENCODER.encodeToString(sign(encoded));
+
+        logger.debug("Issued token for pubkey: {}, actions: {}, expires: {}", verified.getPubkey(), actions, expires);
+        return new AuthToken(token, expires, actions, hashes, size);
+    }
+
+    // このサーバーが発行したトークンでない（形式・MACが不正）場合は null。
+    // 発行済みだが期限切れ・範囲外の場合は invalid な結果を返す
+    public AuthResult validate(String token, String requiredAction, String requiredHash) {
+        if (!enabled || token == null) {
+            return null;
+        }
+
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        String encoded = token.substring(0, dot);
+
+        String[] fields;
+        try {
+            byte[] mac = DECODER.decode(token.substring(dot + 1));
+            // 一定時間で比較する
+            if (!MessageDigest.isEqual(sign(encoded), mac)) {
+                return null;
+            }
+            fields = new String(DECODER.decode(encoded), StandardCharsets.US_ASCII).split("\\|", -1);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (fields.length != 7 || !VERSION.equals(fields[0])) {
+            return null;
+        }
+
+        String pubkey = fields[1];
+        long expires = Long.parseLong(fields[2]);
+        List<String> actions = split(fields[3]);
+        List<String> hashes = split(fields[4]);
+        long size = Long.parseLong(fields[5]);
+        String tokenId = fields[6];
+
+        if (expires <= Instant.now().getEpochSecond()) {
+            return AuthResult.invalid("Token has expired", AuthenticationException.AuthErrorType.EVENT_EXPIRED);
+        }
+
+        if (requiredAction == null || !actions.contains(requiredAction)) {
+            return AuthResult.invalid("Token does not allow action: " + requiredAction, AuthenticationException.AuthErrorType.INVALID_ACTION);
+        }
+
+        if (requiredHash != null && !hashes.contains(requiredHash.toLowerCase(Locale.ROOT))) {
+            return AuthResult.invalid("Token does not allow hash: " + requiredHash, AuthenticationException.AuthErrorType.MISSING_TAGS);
+        }
+
+        Map<String, List<String>> tagValues = new HashMap<>();
+        tagValues.put("t", actions);
+        if (!hashes.isEmpty()) {
+            tagValues.put("x", hashes);
+        }
+        logger.debug("Valid token for pubkey: {}, action: {}", pubkey, requiredAction);
+        return AuthResult.token(pubkey, expires, requiredAction, tagValues, size, tokenId);
+    }
+
+    // トークンの残りのサイズから bytes を差し引く。足りない場合は何もせず false（トークン以外は常に true）
+    public boolean charge(AuthResult authorized, long bytes) {
+        if (authorized.getTokenId() == null) {
+            return true;
+        }
+        purgeExpired();
+
+        Budget budget = budgets.computeIfAbsent(authorized.getTokenId(), id -> new Budget(authorized.getExpiration()));
+        while (true) {
+            long used = budget.used.get();
+            if (bytes > authorized.getMaxSize() - used) {
+                return false;
+            }
+            if (budget.used.compareAndSet(used, used + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    // 保存に失敗したアップロードの分を戻す
+    public void refund(AuthResult authorized, long bytes) {
+        if (authorized.getTokenId() == null) {
+            return;
+        }
+        Budget budget = budgets.get(authorized.getTokenId());
+        if (budget != null) {
+            budget.used.addAndGet(-bytes);
+        }
+    }
+
+    // 残りのサイズ（トークン以外は Long.MAX_VALUE）
+    public long getRemaining(AuthResult authorized) {
+        if (authorized.getTokenId() == null) {
+            return Long.MAX_VALUE;
+        }
+        Budget budget = budgets.get(authorized.getTokenId());
+        return authorized.getMaxSize() - (budget != null ? budget.used.get() : 0);
+    }
+
+    public int getTrackedTokenCount() {
+        return budgets.size();
+    }
+
+    // 期限切れのトークンの使用量を捨てる（1秒に1回まで）
+    private void purgeExpired() {
+        long now = Instant.now().getEpochSecond();
+        long next = nextPurge.get();
+        if (now < next || !nextPurge.compareAndSet(next, now + 1)) {
+            return;
+        }
+        budgets.values().removeIf(budget -> budget.expires <= now);
+    }
+
+    private static List<String> split(String field) {
+        return field.isEmpty() ? List.of() : List.of(field.split(","));
+    }
+
+    private byte[] sign(String encodedPayload) {
+        return macs.get().doFinal(encodedPayload.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.model.BlobHash;
+import io.github.kengirie.JBlossom.model.ServingDescriptor;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 小さく頻繁に参照されるBLOB（アバター、絵文字など）の内容をヒープ外に保持し、ファイルを開かずに配信する
+@Service
+public class BlobContentCache implements BlobDeletionListener, BlobContentCacheMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobContentCache.class);
+    private static final String MBEAN_NAME = "io.github.kengirie.JBlossom:type=BlobContentCache";
+
+    @Value("${blossom.serving.content-cache.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${blossom.serving.content-cache.max-blob-size:65536}")
+    private long maxBlobSize = 65536;
+
+    @Value("${blossom.serving.content-cache.max-bytes:67108864}") // 64MB
+    private long maxBytes = 67108864;
+
+    // この回数以上参照されたBLOBのみ登録候補にする
+    @Value("${blossom.serving.content-cache.admission-threshold:3}")
+    private int admissionThreshold = 3;
+
+    // 参照回数を記録するBLOB数の上限。超えたら全体を半減させて古い人気を薄める
+    @Value("${blossom.serving.content-cache.frequency-sample-size:100000}")
+    private int frequencySampleSize = 100000;
+
+    // アクセス順（LRU）。追い出し候補は先頭から。this で保護する
+    private final LinkedHashMap<BlobHash, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+
+    private final ConcurrentHashMap<BlobHash, Integer> frequencies = new ConcurrentHashMap<>();
+    private final Object agingLock = new Object();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    @PostConstruct
+    public void initialize() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            // テストなどで同一JVM内に複数のコンテキストがある場合は最後のものを公開する
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            logger.warn("Failed to register content cache MBean", e);
+        }
+
+        logger.info("Blob content cache: {}, blobs up to {} bytes, {} bytes total",
+                   enabled ? "enabled" : "disabled", maxBlobSize, maxBytes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.debug("Failed to unregister content cache MBean", e);
+        }
+        clear();
+    }
+
+    // 配信する内容を返す。未登録の場合は参照回数に応じて読み込んで登録する。対象外・登録見送りの場合は null
+    public ByteBuffer lookup(ServingDescriptor descriptor) {
+        long size = descriptor.getSize();
+        // 圧縮版・派生画像は同じハッシュの別表現なので対象外
+        if (!enabled || descriptor.isVariant() || size > maxBlobSize || size > maxBytes) {
+            return null;
+        }
+
+        BlobHash hash = descriptor.getBlobHash();
+        int frequency = recordFrequency(hash);
+
+        ByteBuffer cached;
+        synchronized (this) {
+            cached = entries.get(hash);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.duplicate();
+        }
+        misses.incrementAndGet();
+
+        if (frequency < admissionThreshold) {
+            return null;
+        }
+        if (!canAdmit(size, frequency)) {
+            rejections.incrementAndGet();
+            return null;
+        }
+
+        // ファイル読み込みはロックの外で行う
+        ByteBuffer content = load(descriptor);
+        if (content == null || !admit(hash, content, frequency)) {
+            return null;
+        }
+        return content.duplicate();
+    }
+
+    public void invalidate(String sha256) {
+        BlobHash hash = BlobHash.tryParse(sha256);
+        if (hash != null) {
+            invalidate(hash);
+        }
+    }
+
+    public synchronized void invalidate(BlobHash hash) {
+        ByteBuffer removed = entries.remove(hash);
+        if (removed != null) {
+            residentBytes -= removed.capacity();
+        }
+        frequencies.remove(hash);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        residentBytes = 0;
+        frequencies.clear();
+    }
+
+    @Override
+    public void onBlobDeleted(String sha256) {
+        invalidate(sha256);
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    @Override
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    private int recordFrequency(BlobHash hash) {
+        int frequency = frequencies.merge(hash, 1, Integer::sum);
+        if (frequencies.size() > frequencySampleSize) {
+            synchronized (agingLock) {
+                if (frequencies.size() > frequencySampleSize) {
+                    frequencies.replaceAll((key, count) -> count / 2);
+                    frequencies.values().removeIf(count -> count == 0);
+                }
+            }
+        }
+        return frequency;
+    }
+
+    // 読み込む前に、空きを作るために追い出す対象が新規候補より人気でないかを確認する
+    private synchronized boolean canAdmit(long size, int frequency) {
+        return selectVictims(size, frequency) != null;
+    }
+
+    private synchronized boolean admit(BlobHash hash, ByteBuffer content, int frequency) {
+        if (entries.containsKey(hash)) {
+            return true;
+        }
+
+        long size = content.capacity();
+        List<BlobHash> victims = selectVictims(size, frequency);
+        if (victims == null) {
+            rejections.incrementAndGet();
+            return false;
+        }
+
+        for (BlobHash victim : victims) {
+            residentBytes -= entries.remove(victim).capacity();
+            evictions.incrementAndGet();
+        }
+        entries.put(hash, content);
+        residentBytes += size;
+        return true;
+    }
+
+    // 上限内に収めるためにLRU順で追い出す対象を選ぶ。より人気のあるBLOBを追い出す必要がある場合は null
+    private List<BlobHash> selectVictims(long size, int frequency) {
+        List<BlobHash> victims = new ArrayList<>();
+        long freed = 0;
+        Iterator<Map.Entry<BlobHash, ByteBuffer>> iterator = entries.entrySet().iterator();
+        while (residentBytes - freed + size > maxBytes) {
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            Map.Entry<BlobHash, ByteBuffer> victim = iterator.next();
+            if (frequencies.getOrDefault(victim.getKey(), 0) > frequency) {
+                return null;
+            }
+            victims.add(victim.getKey());
+            freed += victim.getValue().capacity();
+        }
+        return victims;
+    }
+
+    private ByteBuffer load(ServingDescriptor descriptor) {
+        try (FileChannel channel = FileChannel.open(descriptor.getPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) descriptor.getSize());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // 全体を読み込むまで繰り返す
+            }
+            if (buffer.hasRemaining()) {
+                logger.warn("Blob shorter than recorded size, not caching: {}", descriptor.getHash());
+                return null;
+            }
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        } catch (IOException e) {
+            logger.warn("Failed to load blob into content cache: {}", descriptor.getHash(), e);
+            return null;
+        }
+    }
+}
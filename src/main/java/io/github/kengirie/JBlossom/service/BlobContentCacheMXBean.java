@@ -0,0 +1,19 @@
+package io.github.kengirie.JBlossom.service;
+
+// JMX経由で公開するコンテンツキャッシュの統計
+public interface BlobContentCacheMXBean {
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getResidentBytes();
+
+    int getEntryCount();
+
+    long getEvictions();
+
+    long getRejections();
+}
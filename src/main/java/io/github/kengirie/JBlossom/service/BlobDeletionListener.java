@@ -0,0 +1,7 @@
+package io.github.kengirie.JBlossom.service;
+
+// BLOB削除の確定後に通知を受ける（削除されたBLOBのキャッシュ等を破棄するため）
+public interface BlobDeletionListener {
+
+    void onBlobDeleted(String sha256);
+}
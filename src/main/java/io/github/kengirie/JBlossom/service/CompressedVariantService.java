@@ -0,0 +1,169 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.exception.StorageException;
+import io.github.kengirie.JBlossom.model.ServingDescriptor;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+// テキスト系BLOBのgzip版を事前に生成し、Accept-Encodingに応じて配信できるようにする
+@Service
+public class CompressedVariantService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompressedVariantService.class);
+
+    // 圧縮の効果が見込めるMIMEタイプ（前方一致。charset等のパラメータ付きも対象）
+    static final List<String> COMPRESSIBLE_TYPES = List.of(
+        "text/",
+        "application/json",
+        "application/javascript",
+        "application/xml",
+        "application/xhtml+xml",
+        "image/svg+xml"
+    );
+
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${blossom.storage.compression.enabled:true}")
+    private boolean enabled;
+
+    @Value("${blossom.storage.compression.interval-millis:60000}")
+    private long intervalMillis;
+
+    @Value("${blossom.storage.compression.min-size:1024}")
+    private long minSize;
+
+    @Value("${blossom.storage.compression.max-size:16777216}") // 16MB
+    private long maxSize;
+
+    // 圧縮後サイズが元の何割以下なら保存するか
+    @Value("${blossom.storage.compression.max-ratio:0.9}")
+    private double maxRatio;
+
+    @Value("${blossom.storage.compression.batch-size:100}")
+    private int batchSize;
+
+    private ScheduledExecutorService scheduler;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        // 新しいアップロードも拾えるよう定期的に実行する
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "compressed-variants");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::runQuietly, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    // 候補がなくなるまで処理し、生成した圧縮版の数を返す
+    public int run() throws StorageException {
+        int created = 0;
+        int skipped = 0;
+
+        while (true) {
+            List<String> hashes = storageService.findVariantCandidates(
+                StorageService.GZIP_ENCODING, COMPRESSIBLE_TYPES, minSize, maxSize, batchSize);
+            if (hashes.isEmpty()) {
+                break;
+            }
+
+            // 各BLOBは生成または見送りのどちらかが必ず記録されるため、次の問い合わせでは返らない
+            for (String hash : hashes) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return created;
+                }
+                if (compress(hash)) {
+                    created++;
+                } else {
+                    skipped++;
+                }
+            }
+        }
+
+        if (created > 0 || skipped > 0) {
+            logger.info("Compressed variants: {} created, {} skipped", created, skipped);
+        }
+        return created;
+    }
+
+    boolean compress(String hash) throws StorageException {
+        Optional<ServingDescriptor> descriptorOpt = storageService.resolveBlob(hash);
+        if (descriptorOpt.isEmpty()) {
+            storageService.saveVariant(hash, StorageService.GZIP_ENCODING, null, 0);
+            return false;
+        }
+
+        ServingDescriptor descriptor = descriptorOpt.get();
+        Path staged = null;
+        try {
+            staged = storageService.createStagingFile("blossom-gzip-");
+            try (InputStream in = Files.newInputStream(descriptor.getPath());
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(staged), 8192)) {
+                in.transferTo(out);
+            }
+
+            // 圧縮率が低いものは保存しない（配信時の切り替えによる利点がない）
+            long compressedSize = Files.size(staged);
+            if (compressedSize > descriptor.getSize() * maxRatio) {
+                storageService.saveVariant(hash, StorageService.GZIP_ENCODING, null, 0);
+                return false;
+            }
+
+            storageService.saveVariant(hash, StorageService.GZIP_ENCODING, staged, compressedSize);
+            staged = null;
+            return true;
+
+        } catch (IOException e) {
+            logger.warn("Failed to compress blob {}, skipping", hash, e);
+            storageService.saveVariant(hash, StorageService.GZIP_ENCODING, null, 0);
+            return false;
+        } finally {
+            if (staged != null) {
+                try {
+                    Files.deleteIfExists(staged);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete temporary file: {}", staged, e);
+                }
+            }
+        }
+    }
+
+    private void runQuietly() {
+        try {
+            run();
+        } catch (RuntimeException e) {
+            logger.error("Failed to generate compressed variants", e);
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.exception.ServiceUnavailableException;
+import io.github.kengirie.JBlossom.model.ImageTransform;
+import io.github.kengirie.JBlossom.model.ServingDescriptor;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// 画像BLOBの縮小版（サムネイル等）を生成し、(ハッシュ, 変換) 単位でディスクにキャッシュする
+@Service
+public class ImageDerivativeService implements BlobDeletionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageDerivativeService.class);
+    private static final String DERIVATIVE_DIRECTORY = ".derivatives";
+    private static final String STAGING_DIRECTORY = ".staging";
+
+    // JDK標準のImageIOで読み込めるもの
+    private static final Set<String> SOURCE_TYPES = Set.of(
+        "image/jpeg", "image/png", "image/gif", "image/bmp"
+    );
+
+    @Value("${blossom.storage.path}")
+    private String storagePath;
+
+    @Value("${blossom.serving.derivatives.enabled:true}")
+    private boolean enabled = true;
+
+    // 任意のサイズを許すとキャッシュが際限なく増えるため、許可したサイズのみ受け付ける
+    @Value("${blossom.serving.derivatives.allowed-sizes:32,64,128,256,400,800,1200}")
+    private int[] allowedSizes = {32, 64, 128, 256, 400, 800, 1200};
+
+    @Value("${blossom.serving.derivatives.threads:2}")
+    private int threads = 2;
+
+    @Value("${blossom.serving.derivatives.queue-size:32}")
+    private int queueSize = 32;
+
+    @Value("${blossom.serving.derivatives.timeout-millis:10000}")
+    private long timeoutMillis = 10000;
+
+    @Value("${blossom.serving.derivatives.max-bytes:268435456}") // 256MB
+    private long maxBytes = 268435456;
+
+    @Value("${blossom.serving.derivatives.max-source-size:20971520}") // 20MB
+    private long maxSourceSize = 20971520;
+
+    // デコード時のメモリ使用量の上限（ピクセル数）
+    @Value("${blossom.serving.derivatives.max-source-pixels:40000000}")
+    private long maxSourcePixels = 40000000;
+
+    @Value("${blossom.serving.derivatives.retry-after-seconds:2}")
+    private long retryAfterSeconds = 2;
+
+    // デコードできなかった元画像を覚えておく数
+    @Value("${blossom.serving.derivatives.undecodable-entries:4096}")
+    private int undecodableEntries = 4096;
+
+    private ThreadPoolExecutor executor;
+
+    // 生成中のキーごとの結果。同じキーの同時要求は1回の生成を共有する
+    private final ConcurrentHashMap<String, CompletableFuture<Derivative>> inFlight = new ConcurrentHashMap<>();
+
+    // 生成済みの派生画像（アクセス順）。追い出し候補は先頭から。this で保護する
+    private final LinkedHashMap<String, Derivative> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+
+    // 画像として読めない、または大きすぎる元画像のハッシュ（アクセス順）。要求のたびにデコードを試みないようにする。this で保護する
+    private final LinkedHashMap<String, Boolean> undecodable = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > undecodableEntries;
+        }
+    };
+
+    static final class Derivative {
+        private final Path path;
+        private final long size;
+        private final String mimeType;
+
+        Derivative(Path path, long size, String mimeType) {
+            this.path = path;
+            this.size = size;
+            this.mimeType = mimeType;
+        }
+    }
+
+    @PostConstruct
+    public void initialize() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize), runnable -> {
+                Thread thread = new Thread(runnable, "image-derivatives-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        loadIndex();
+        logger.info("Image derivatives: {}, {} workers, {} cached bytes of {}",
+                   enabled ? "enabled" : "disabled", threads, residentBytes, maxBytes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    // クエリパラメータ w / h を解析する。どちらもない場合は null
+    public ImageTransform parseTransform(String width, String height) {
+        if (width == null && height == null) {
+            return null;
+        }
+        return new ImageTransform(parseSize("w", width), parseSize("h", height));
+    }
+
+    // 派生画像を返す。画像として扱えない場合は空（元のBLOBを配信する）
+    public Optional<ServingDescriptor> getDerivative(ServingDescriptor source, ImageTransform transform) {
+        if (!canDerive(source)) {
+            return Optional.empty();
+        }
+
+        String key = source.getHash() + "/" + transform.getKey();
+        Derivative derivative = lookup(key);
+        if (derivative == null) {
+            derivative = generateOnce(key, source, transform);
+            if (derivative == null) {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(source.withDerivative(transform.getKey(), derivative.path, derivative.size,
+                                                 derivative.mimeType));
+    }
+
+    // 派生画像を返す見込みがあるか。ファイルには触れないため、条件付きリクエストの判定前に使える
+    public boolean canDerive(ServingDescriptor source) {
+        if (!enabled || source.isVariant() || !SOURCE_TYPES.contains(source.getMimeType())
+                || source.getSize() > maxSourceSize) {
+            return false;
+        }
+        synchronized (this) {
+            return !undecodable.containsKey(source.getHash());
+        }
+    }
+
+    @Override
+    public void onBlobDeleted(String sha256) {
+        String prefix = sha256 + "/";
+        synchronized (this) {
+            undecodable.remove(sha256);
+            Iterator<Map.Entry<String, Derivative>> iterator = index.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Derivative> entry = iterator.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    residentBytes -= entry.getValue().size;
+                    iterator.remove();
+                }
+            }
+        }
+
+        Path directory = getDerivativeRoot().resolve(sha256);
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.deleteIfExists(file);
+                }
+                Files.deleteIfExists(directory);
+            } catch (IOException e) {
+                logger.warn("Failed to delete derivatives of {}", sha256, e);
+            }
+        }
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    private int parseSize(String name, String value) {
+        if (value == null) {
+            return 0;
+        }
+        int size;
+        try {
+            size = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+        for (int allowed : allowedSizes) {
+            if (allowed == size) {
+                return size;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported " + name + ": " + value);
+    }
+
+    private Derivative lookup(String key) {
+        Derivative derivative;
+        synchronized (this) {
+            derivative = index.get(key);
+        }
+        // 外部から削除されていた場合は作り直す
+        if (derivative != null && !Files.isRegularFile(derivative.path)) {
+            remove(key);
+            return null;
+        }
+        return derivative;
+    }
+
+    private Derivative generateOnce(String key, ServingDescriptor source, ImageTransform transform) {
+        CompletableFuture<Derivative> future = new CompletableFuture<>();
+        CompletableFuture<Derivative> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            future = existing;
+        } else {
+            CompletableFuture<Derivative> owned = future;
+            try {
+                executor.execute(() -> {
+                    try {
+                        owned.complete(generate(key, source, transform));
+                    } catch (Throwable t) {
+                        owned.completeExceptionally(t);
+                    } finally {
+                        inFlight.remove(key, owned);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(key, owned);
+                owned.completeExceptionally(e);
+                throw new ServiceUnavailableException("Too many pending image derivatives", retryAfterSeconds);
+            }
+        }
+
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 生成は継続し、次の要求でキャッシュから返す
+            throw new ServiceUnavailableException("Image derivative not ready", retryAfterSeconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrupted while waiting for image derivative", retryAfterSeconds);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                throw new ServiceUnavailableException("Too many pending image derivatives", retryAfterSeconds);
+            }
+            logger.warn("Failed to generate derivative {}, serving original", key, e.getCause());
+            return null;
+        }
+    }
+
+    // ワーカースレッドで実行する。デコードできない画像の場合は null
+    private Derivative generate(String key, ServingDescriptor source, ImageTransform transform) throws IOException {
+        Derivative cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        BufferedImage image;
+        String format;
+        int[] target;
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.getPath().toFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                logger.debug("No image reader for {}", source.getHash());
+                markUndecodable(source);
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int sourceWidth = reader.getWidth(0);
+                int sourceHeight = reader.getHeight(0);
+                if ((long) sourceWidth * sourceHeight > maxSourcePixels) {
+                    logger.debug("Image too large to derive: {} ({}x{})", source.getHash(), sourceWidth, sourceHeight);
+                    markUndecodable(source);
+                    return null;
+                }
+
+                // 大幅な縮小ではデコード時に間引き、最終段の補間用に2倍程度の解像度を残す
+                target = transform.fit(sourceWidth, sourceHeight);
+                int subsampling = Math.max(1, Math.min(sourceWidth / target[0], sourceHeight / target[1]) / 2);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                image = reader.read(0, param);
+                format = "jpeg".equalsIgnoreCase(reader.getFormatName()) ? "jpeg" : "png";
+            } catch (IOException | RuntimeException e) {
+                // 壊れた画像。内容は変わらないので以後は元のBLOBをそのまま配信する
+                logger.debug("Failed to decode {}", source.getHash(), e);
+                markUndecodable(source);
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        boolean opaque = format.equals("jpeg");
+        BufferedImage scaled = new BufferedImage(target[0], target[1],
+            opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.drawImage(image, 0, 0, target[0], target[1], null);
+        } finally {
+            graphics.dispose();
+        }
+
+        // 確定時はrenameのみで済むよう、ストレージと同一ファイルシステム上に書き出す
+        Path stagingDirectory = Paths.get(storagePath, STAGING_DIRECTORY);
+        Files.createDirectories(stagingDirectory);
+        Path staged = Files.createTempFile(stagingDirectory, "blossom-derivative-", ".tmp");
+        try {
+            if (!ImageIO.write(scaled, format, staged.toFile())) {
+                logger.warn("No image writer for {}", format);
+                return null;
+            }
+
+            Path path = getDerivativePath(key, format);
+            Files.createDirectories(path.getParent());
+            Files.move(staged, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            staged = null;
+
+            Derivative derivative = new Derivative(path, Files.size(path), mimeTypeOf(format));
+            register(key, derivative);
+            logger.debug("Generated derivative {}: {}x{}, {} bytes", key, target[0], target[1], derivative.size);
+            return derivative;
+        } finally {
+            if (staged != null) {
+                Files.deleteIfExists(staged);
+            }
+        }
+    }
+
+    private synchronized void markUndecodable(ServingDescriptor source) {
+        undecodable.put(source.getHash(), Boolean.TRUE);
+    }
+
+    private void register(String key, Derivative derivative) {
+        List<Derivative> evicted = new ArrayList<>();
+        synchronized (this) {
+            Derivative previous = index.put(key, derivative);
+            if (previous != null) {
+                residentBytes -= previous.size;
+            }
+            residentBytes += derivative.size;
+
+            // 上限を超えた分を古いものから追い出す（登録したばかりのものは残す）
+            Iterator<Map.Entry<String, Derivative>> iterator = index.entrySet().iterator();
+            while (residentBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, Derivative> entry = iterator.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                residentBytes -= entry.getValue().size;
+                evicted.add(entry.getValue());
+                iterator.remove();
+            }
+        }
+
+        // 派生画像のファイルのみを削除する。元のBLOBには触れない
+        for (Derivative victim : evicted) {
+            deleteFile(victim.path);
+        }
+    }
+
+    private void remove(String key) {
+        Derivative removed;
+        synchronized (this) {
+            removed = index.remove(key);
+            if (removed != null) {
+                residentBytes -= removed.size;
+            }
+        }
+        if (removed != null) {
+            deleteFile(removed.path);
+        }
+    }
+
+    // 起動時に既存の派生画像を更新日時の古い順に登録し直す
+    private void loadIndex() {
+        Path root = getDerivativeRoot();
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root, 2)) {
+            files = walk.filter(Files::isRegularFile).toList();
+        } catch (IOException e) {
+            logger.warn("Failed to scan derivative cache: {}", root, e);
+            return;
+        }
+
+        List<Map.Entry<FileTime, Derivative>> found = new ArrayList<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            String mimeType = dot > 0 ? mimeTypeOf(name.substring(dot + 1)) : null;
+            if (mimeType == null) {
+                continue;
+            }
+            try {
+                found.add(Map.entry(Files.getLastModifiedTime(file),
+                                    new Derivative(file, Files.size(file), mimeType)));
+            } catch (IOException e) {
+                logger.debug("Skipping unreadable derivative: {}", file, e);
+            }
+        }
+        found.sort(Map.Entry.comparingByKey(Comparator.naturalOrder()));
+
+        for (Map.Entry<FileTime, Derivative> entry : found) {
+            Path file = entry.getValue().path;
+            String name = file.getFileName().toString();
+            String key = file.getParent().getFileName() + "/" + name.substring(0, name.lastIndexOf('.'));
+            register(key, entry.getValue());
+        }
+    }
+
+    private Path getDerivativeRoot() {
+        return Paths.get(storagePath, DERIVATIVE_DIRECTORY);
+    }
+
+    // <storage>/.derivatives/<hash>/<変換キー>.<形式>
+    private Path getDerivativePath(String key, String format) {
+        return getDerivativeRoot().resolve(key + "." + format);
+    }
+
+    private static String mimeTypeOf(String format) {
+        return switch (format) {
+            case "jpeg" -> "image/jpeg";
+            case "png" -> "image/png";
+            default -> null;
+        };
+    }
+
+    private void deleteFile(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete derivative: {}", path, e);
+        }
+    }
+}
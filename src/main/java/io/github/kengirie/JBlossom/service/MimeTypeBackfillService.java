@@ -0,0 +1,108 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.exception.StorageException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// アップロード時判定の導入前に保存された octet-stream / タイプ未設定の行を一度だけ補正する
+@Service
+public class MimeTypeBackfillService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MimeTypeBackfillService.class);
+    static final String JOB_NAME = "mime-type-backfill";
+
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${blossom.storage.mime-backfill.enabled:true}")
+    private boolean enabled;
+
+    @Value("${blossom.storage.mime-backfill.threads:4}")
+    private int threads;
+
+    @Value("${blossom.storage.mime-backfill.batch-size:500}")
+    private int batchSize;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || storageService.isJobCompleted(JOB_NAME)) {
+            return;
+        }
+        // スキーマ v1 の行が残っている間は、移行の完了後に SchemaMigrationService から開始する
+        if (storageService.hasLegacyRows()) {
+            logger.info("MIME type backfill deferred until schema v1 rows are moved");
+            return;
+        }
+
+        // 起動を妨げないようバックグラウンドで実行
+        Thread worker = new Thread(this::run, "mime-type-backfill");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // 完了した場合のみ完了マーカーを記録する。途中で失敗した場合は次回起動時に再実行される
+    public int run() {
+        logger.info("MIME type backfill started ({} threads)", threads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        int scanned = 0;
+        int updated = 0;
+
+        try {
+            String afterHash = "";
+            while (true) {
+                List<String> hashes = storageService.findUntypedBlobs(afterHash, batchSize);
+                if (hashes.isEmpty()) {
+                    break;
+                }
+
+                // ファイル読み込みとマジックナンバー判定を並列実行
+                List<Future<String>> detections = new ArrayList<>(hashes.size());
+                for (String hash : hashes) {
+                    detections.add(executor.submit(() -> storageService.sniffStoredBlob(hash)));
+                }
+
+                Map<String, String> types = new HashMap<>();
+                for (int i = 0; i < hashes.size(); i++) {
+                    String detected = detections.get(i).get();
+                    if (detected != null) {
+                        types.put(hashes.get(i), detected);
+                    }
+                }
+
+                // 判定できなかった行は octet-stream のまま残るため、ハッシュ順で先へ進める
+                updated += storageService.updateBlobTypes(types);
+                scanned += hashes.size();
+                afterHash = hashes.get(hashes.size() - 1);
+            }
+
+            storageService.markJobCompleted(JOB_NAME);
+            logger.info("MIME type backfill completed: {} scanned, {} updated", scanned, updated);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("MIME type backfill interrupted after {} blobs", scanned);
+        } catch (ExecutionException | StorageException e) {
+            logger.error("MIME type backfill failed after {} blobs", scanned, e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return updated;
+    }
+}
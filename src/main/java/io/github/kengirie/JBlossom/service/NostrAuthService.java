@@ -2,22 +2,31 @@ package io.github.kengirie.JBlossom.service;
 
 import io.github.kengirie.JBlossom.model.AuthResult;
 import io.github.kengirie.JBlossom.exception.AuthenticationException;
+import io.github.kengirie.JBlossom.util.AuthEventParser;
+import io.github.kengirie.JBlossom.util.AuthEventParser.AuthEvent;
+import io.github.kengirie.JBlossom.util.SchnorrVerifier;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
-import nostr.crypto.schnorr.Schnorr;
 import nostr.util.NostrUtil;
 
 import java.util.Base64;
+import java.util.Locale;
 import java.time.Instant;
 import java.util.regex.Pattern;
-import java.util.Map;
-import java.util.HashMap;
 import java.security.MessageDigest;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class NostrAuthService {
@@ -27,21 +36,89 @@ public class NostrAuthService {
     private static final Pattern HEX_PATTERN = Pattern.compile("^[0-9a-fA-F]{64}$");
     private static final Pattern SIGNATURE_HEX_PATTERN = Pattern.compile("^[0-9a-fA-F]{128}$");
 
-    private final ObjectMapper objectMapper;
+    // 再利用された認証イベントの署名検証を省く（未設定の場合は毎回検証する）
+    @Autowired(required = false)
+    private VerifiedEventCache verifiedEventCache;
 
-    public NostrAuthService() {
-        this.objectMapper = new ObjectMapper();
+    // サーバー発行トークン（Authorization: Bearer）を認証情報として受け付ける（未設定の場合は Nostr のみ）
+    @Autowired(required = false)
+    private AuthTokenService authTokenService;
+
+    // 単回使用のアクションで同じイベントの再利用を拒否する（未設定の場合は有効期限内なら何度でも使える）
+    @Autowired(required = false)
+    private ReplayRegistry replayRegistry;
+
+    // 復元済みの公開鍵の点を保持する数と、倍数テーブルを作るまでの検証成功回数（0 で作らない）
+    @Value("${blossom.auth.schnorr.cached-pubkeys:1024}")
+    private int cachedPubkeys = 1024;
+
+    @Value("${blossom.auth.schnorr.table-threshold:8}")
+    private int tableThreshold = 8;
+
+    // 倍数テーブル（1つ約190KB）を持つ公開鍵数の上限
+    @Value("${blossom.auth.schnorr.max-tables:32}")
+    private int maxTables = 32;
+
+    // アップロード本体の受信と並行して署名検証を行うワーカー
+    @Value("${blossom.auth.verify.threads:2}")
+    private int verifyThreads = 2;
+
+    @Value("${blossom.auth.verify.queue-size:64}")
+    private int verifyQueueSize = 64;
+
+    private SchnorrVerifier schnorrVerifier;
+    private ThreadPoolExecutor verifyExecutor;
+
+    @PostConstruct
+    public void initialize() {
+        schnorrVerifier = new SchnorrVerifier(cachedPubkeys, tableThreshold, maxTables);
+
+        AtomicInteger counter = new AtomicInteger();
+        verifyExecutor = new ThreadPoolExecutor(verifyThreads, verifyThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(verifyQueueSize), runnable -> {
+                Thread thread = new Thread(runnable, "auth-verify-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (verifyExecutor != null) {
+            verifyExecutor.shutdownNow();
+        }
     }
 
     public AuthResult validateAuthEvent(String authHeader, String requiredAction) {
         return validateAuthEvent(authHeader, requiredAction, null);
     }
 
+    // ワーカースレッドで検証する。キューが満杯の場合は呼び出し元のスレッドで検証した結果を返す
+    public CompletableFuture<AuthResult> validateAuthEventAsync(String authHeader, String requiredAction) {
+        if (verifyExecutor != null) {
+            try {
+                return CompletableFuture.supplyAsync(() -> validateAuthEvent(authHeader, requiredAction), verifyExecutor);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Auth verification queue full, verifying inline");
+            }
+        }
+        return CompletableFuture.completedFuture(validateAuthEvent(authHeader, requiredAction));
+    }
+
     public AuthResult validateAuthEvent(String authHeader, String requiredAction, String requiredHash) {
         if (authHeader == null || authHeader.isBlank()) {
             return AuthResult.invalid("Missing Authorization header", AuthenticationException.AuthErrorType.MISSING_AUTH);
         }
 
+        // 発行済みトークンであれば署名検証は不要（このサーバーのトークンでない場合は Nostr として扱う）。
+        // 単回使用のアクションはイベントと同様、1つのトークンで1回だけ認可する
+        if (authTokenService != null && authHeader.startsWith("Bearer ")) {
+            AuthResult tokenResult = authTokenService.validate(authHeader.substring(7).trim(), requiredAction, requiredHash);
+            if (tokenResult != null) {
+                return consumeIfSingleUse(tokenResult, requiredAction);
+            }
+        }
+
         // Authorization: Nostr <base64_event> の形式をチェック
         if (!authHeader.startsWith("Nostr ")) {
             return AuthResult.invalid("Invalid Authorization scheme, expected 'Nostr'",
@@ -53,48 +130,59 @@ public class NostrAuthService {
             return AuthResult.invalid("Missing event data in Authorization header", AuthenticationException.AuthErrorType.INVALID_FORMAT);
         }
 
+        // 検証済みのイベントであれば、リクエストごとの条件（有効期限・アクション・ハッシュ）のみ確認する
+        if (verifiedEventCache != null) {
+            AuthResult verified = verifiedEventCache.get(base64Event);
+            if (verified != null) {
+                return consumeIfSingleUse(checkVerifiedEvent(verified, requiredAction, requiredHash), requiredAction);
+            }
+        }
+
         try {
             // Base64デコード
             byte[] decodedBytes = Base64.getDecoder().decode(base64Event);
-            String eventJson = new String(decodedBytes);
 
-            logger.debug("Decoded Nostr event: {}", eventJson);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Decoded Nostr event: {}", new String(decodedBytes, StandardCharsets.UTF_8));
+            }
 
-            // JSONパース
-            JsonNode eventNode = objectMapper.readTree(eventJson);
+            // 必要な項目とタグを1回の走査で取得する
+            AuthEvent event = AuthEventParser.parse(decodedBytes, KIND_AUTH);
 
             // 基本フィールド検証
-            AuthResult basicValidation = validateBasicFields(eventNode);
+            AuthResult basicValidation = validateBasicFields(event);
             if (!basicValidation.isValid()) {
                 return basicValidation;
             }
 
             // タイムスタンプ検証
-            AuthResult timeValidation = validateTimestamps(eventNode);
+            AuthResult timeValidation = validateTimestamps(event);
             if (!timeValidation.isValid()) {
                 return timeValidation;
             }
 
             // タグ検証
-            AuthResult tagValidation = validateTags(eventNode, requiredAction, requiredHash);
+            AuthResult tagValidation = validateTags(event, requiredAction, requiredHash);
             if (!tagValidation.isValid()) {
                 return tagValidation;
             }
 
             // 署名検証
-            AuthResult signatureValidation = validateSignature(eventNode);
+            AuthResult signatureValidation = validateSignature(event);
             if (!signatureValidation.isValid()) {
                 return signatureValidation;
             }
 
             // 全ての検証に成功
-            String pubkey = eventNode.get("pubkey").asText();
-            long createdAt = eventNode.get("created_at").asLong();
-            long expiration = getExpirationFromTags(eventNode);
-            Map<String, String> tags = extractTagsMap(eventNode);
-
+            String pubkey = event.getPubkey();
             logger.info("Valid auth event for pubkey: {}, action: {}", pubkey, requiredAction);
-            return AuthResult.valid(pubkey, createdAt, expiration, requiredAction, tags);
+            AuthResult result = AuthResult.valid(pubkey, event.getCreatedAt(), event.getExpiration(), requiredAction,
+                                                 event.getTags(), event.getTagValues())
+                                          .withEventId(event.getId().toLowerCase(Locale.ROOT));
+            if (verifiedEventCache != null) {
+                verifiedEventCache.put(base64Event, result);
+            }
+            return consumeIfSingleUse(result, requiredAction);
 
         } catch (Exception e) {
             logger.error("Failed to validate auth event", e);
@@ -102,51 +190,92 @@ public class NostrAuthService {
         }
     }
 
-    private AuthResult validateBasicFields(JsonNode eventNode) {
+    // validateTimestamps・validateTags と同じ条件を、検証済みイベントのタグに対して評価する
+    private AuthResult checkVerifiedEvent(AuthResult verified, String requiredAction, String requiredHash) {
+        if (verified.getExpiration() <= Instant.now().getEpochSecond()) {
+            return AuthResult.invalid("Event has expired", AuthenticationException.AuthErrorType.EVENT_EXPIRED);
+        }
+
+        if (requiredAction == null || !verified.getTagValues("t").contains(requiredAction)) {
+            return AuthResult.invalid("Missing or invalid 't' tag for action: " + requiredAction, AuthenticationException.AuthErrorType.INVALID_ACTION);
+        }
+
+        if (requiredHash != null && !verified.getTagValues("x").contains(requiredHash)) {
+            return AuthResult.invalid("Missing 'x' tag for required hash: " + requiredHash, AuthenticationException.AuthErrorType.MISSING_TAGS);
+        }
+
+        logger.debug("Verified auth event reused for pubkey: {}, action: {}", verified.getPubkey(), requiredAction);
+        return verified.withAction(requiredAction);
+    }
+
+    // 署名まで検証できたイベントのみ使用済みとして記録する（不正なイベントで正規のイベントを使用済みにできないように）
+    private AuthResult consumeIfSingleUse(AuthResult result, String requiredAction) {
+        if (replayRegistry == null || !result.isValid() || !replayRegistry.isSingleUse(requiredAction)) {
+            return result;
+        }
+
+        // 記録できる範囲を超えた有効期限では、期限まで再利用を検出できない
+        if (!replayRegistry.covers(result.getExpiration())) {
+            return AuthResult.invalid("Expiration too far in the future for single-use action: " + requiredAction,
+                    AuthenticationException.AuthErrorType.INVALID_FORMAT);
+        }
+
+        // トークンはイベントの id の代わりにトークンの識別子で記録する
+        boolean isToken = result.getTokenId() != null;
+        String usedId = isToken ? "token:" + result.getTokenId() : result.getEventId();
+        if (!replayRegistry.markUsed(usedId, result.getExpiration())) {
+            logger.warn("Replayed auth {} {} for pubkey: {}, action: {}", isToken ? "token" : "event", usedId, result.getPubkey(), requiredAction);
+            return AuthResult.invalid(isToken ? "Auth token has already been used" : "Auth event has already been used",
+                    AuthenticationException.AuthErrorType.EVENT_REPLAYED);
+        }
+        return result;
+    }
+
+    private AuthResult validateBasicFields(AuthEvent event) {
         // kind フィールドチェック
-        if (!eventNode.has("kind") || eventNode.get("kind").asInt() != KIND_AUTH) {
+        if (event.getKind() == null || event.getKind() != KIND_AUTH) {
             return AuthResult.invalid("Invalid kind, expected " + KIND_AUTH, AuthenticationException.AuthErrorType.INVALID_KIND);
         }
 
         // pubkey フィールドチェック
-        if (!eventNode.has("pubkey")) {
+        if (event.getPubkey() == null) {
             return AuthResult.invalid("Missing pubkey field", AuthenticationException.AuthErrorType.INVALID_FORMAT);
         }
 
-        String pubkey = eventNode.get("pubkey").asText();
+        String pubkey = event.getPubkey();
         if (!HEX_PATTERN.matcher(pubkey).matches()) {
             return AuthResult.invalid("Invalid pubkey format, expected 64-char hex", AuthenticationException.AuthErrorType.INVALID_FORMAT);
         }
 
         // created_at フィールドチェック
-        if (!eventNode.has("created_at")) {
+        if (event.getCreatedAt() == null) {
             return AuthResult.invalid("Missing created_at field", AuthenticationException.AuthErrorType.INVALID_FORMAT);
         }
 
         // content フィールドチェック
-        if (!eventNode.has("content")) {
+        if (!event.hasContent()) {
             return AuthResult.invalid("Missing content field", AuthenticationException.AuthErrorType.INVALID_FORMAT);
         }
 
         // signature フィールドチェック
-        if (!eventNode.has("sig")) {
+        if (event.getSig() == null) {
             return AuthResult.invalid("Missing signature field", AuthenticationException.AuthErrorType.INVALID_FORMAT);
         }
 
         return AuthResult.valid(pubkey, 0, 0, null, null);
     }
 
-    private AuthResult validateTimestamps(JsonNode eventNode) {
+    private AuthResult validateTimestamps(AuthEvent event) {
         long now = Instant.now().getEpochSecond();
 
         // created_at は過去でなければならない
-        long createdAt = eventNode.get("created_at").asLong();
+        long createdAt = event.getCreatedAt();
         if (createdAt > now + 60) { // 1分の誤差を許容
             return AuthResult.invalid("created_at must be in the past", AuthenticationException.AuthErrorType.TIMESTAMP_FUTURE);
         }
 
         // expiration タグから有効期限を取得
-        long expiration = getExpirationFromTags(eventNode);
+        long expiration = event.getExpiration();
         if (expiration == 0) {
             return AuthResult.invalid("Missing expiration tag", AuthenticationException.AuthErrorType.MISSING_TAGS);
         }
@@ -159,95 +288,57 @@ public class NostrAuthService {
         return AuthResult.valid(null, createdAt, expiration, null, null);
     }
 
-    private AuthResult validateTags(JsonNode eventNode, String requiredAction, String requiredHash) {
-        if (!eventNode.has("tags") || !eventNode.get("tags").isArray()) {
+    private AuthResult validateTags(AuthEvent event, String requiredAction, String requiredHash) {
+        if (!event.hasTags()) {
             return AuthResult.invalid("Missing or invalid tags field", AuthenticationException.AuthErrorType.MISSING_TAGS);
         }
 
-        JsonNode tagsArray = eventNode.get("tags");
-
         // t タグ（action）検証
-        boolean foundTTag = false;
-        boolean foundExpirationTag = false;
-        boolean hashValidation = requiredHash == null; // hash不要な場合は true
-
-        for (JsonNode tag : tagsArray) {
-            if (!tag.isArray() || tag.size() < 2) {
-                continue;
-            }
-
-            String tagName = tag.get(0).asText();
-            String tagValue = tag.get(1).asText();
-
-            switch (tagName) {
-                case "t":
-                    if (requiredAction != null && requiredAction.equals(tagValue)) {
-                        foundTTag = true;
-                    }
-                    break;
-                case "expiration":
-                    foundExpirationTag = true;
-                    break;
-                case "x":
-                    if (requiredHash != null && requiredHash.equals(tagValue)) {
-                        hashValidation = true;
-                    }
-                    break;
-            }
-        }
-
-        if (!foundTTag) {
+        if (requiredAction == null || !event.getTagValues("t").contains(requiredAction)) {
             return AuthResult.invalid("Missing or invalid 't' tag for action: " + requiredAction, AuthenticationException.AuthErrorType.INVALID_ACTION);
         }
 
-        if (!foundExpirationTag) {
+        if (event.getTagValues("expiration").isEmpty()) {
             return AuthResult.invalid("Missing expiration tag", AuthenticationException.AuthErrorType.MISSING_TAGS);
         }
 
-        if (!hashValidation) {
+        // hash不要な場合は検証しない
+        if (requiredHash != null && !event.getTagValues("x").contains(requiredHash)) {
             return AuthResult.invalid("Missing 'x' tag for required hash: " + requiredHash, AuthenticationException.AuthErrorType.MISSING_TAGS);
         }
 
         return AuthResult.valid(null, 0, 0, requiredAction, null);
     }
 
-    private long getExpirationFromTags(JsonNode eventNode) {
-        if (!eventNode.has("tags")) {
-            return 0;
-        }
-
-        JsonNode tagsArray = eventNode.get("tags");
-        for (JsonNode tag : tagsArray) {
-            if (tag.isArray() && tag.size() >= 2) {
-                if ("expiration".equals(tag.get(0).asText())) {
-                    try {
-                        return Long.parseLong(tag.get(1).asText());
-                    } catch (NumberFormatException e) {
-                        return 0;
-                    }
-                }
-            }
-        }
-        return 0;
-    }
-
-    private AuthResult validateSignature(JsonNode eventNode) {
+    private AuthResult validateSignature(AuthEvent event) {
         try {
-            String pubkey = eventNode.get("pubkey").asText();
-            String signature = eventNode.get("sig").asText();
-            String eventId = eventNode.get("id").asText();
+            String pubkey = event.getPubkey();
+            String signature = event.getSig();
+            String eventId = event.getId();
+            if (eventId == null) {
+                return AuthResult.invalid("Signature validation error: missing id field", AuthenticationException.AuthErrorType.INVALID_SIGNATURE);
+            }
 
             // 署名フォーマット検証
             if (!SIGNATURE_HEX_PATTERN.matcher(signature).matches() || signature.length() != 128) {
                 return AuthResult.invalid("Invalid signature format", AuthenticationException.AuthErrorType.INVALID_SIGNATURE);
             }
 
-            // nostr-javaを使って署名検証
+            // 署名はIDに対するもののため、IDがイベントの内容から計算した値と一致しなければ
+            // 内容（有効期限・タグなど）を書き換えたイベントを受け付けてしまう
+            if (!HEX_PATTERN.matcher(eventId).matches()) {
+                return AuthResult.invalid("Invalid event id format, expected 64-char hex", AuthenticationException.AuthErrorType.INVALID_SIGNATURE);
+            }
             byte[] messageBytes = NostrUtil.hexToBytes(eventId);
+            if (!MessageDigest.isEqual(messageBytes, event.computeId())) {
+                return AuthResult.invalid("Event id does not match event content", AuthenticationException.AuthErrorType.INVALID_SIGNATURE);
+            }
+
+            // BIP-340 署名検証（公開鍵の点はキャッシュから再利用する）
             byte[] pubkeyBytes = NostrUtil.hexToBytes(pubkey);
             byte[] signatureBytes = NostrUtil.hex128ToBytes(signature);
 
-            boolean isValid = Schnorr.verify(messageBytes, pubkeyBytes, signatureBytes);
+            boolean isValid = schnorrVerifier.verify(messageBytes, pubkeyBytes, signatureBytes);
 
             if (!isValid) {
                 return AuthResult.invalid("Invalid signature", AuthenticationException.AuthErrorType.INVALID_SIGNATURE);
@@ -262,26 +353,6 @@ public class NostrAuthService {
         }
     }
 
-
-    private Map<String, String> extractTagsMap(JsonNode eventNode) {
-        Map<String, String> tagsMap = new HashMap<>();
-
-        if (!eventNode.has("tags") || !eventNode.get("tags").isArray()) {
-            return tagsMap;
-        }
-
-        JsonNode tagsArray = eventNode.get("tags");
-        for (JsonNode tag : tagsArray) {
-            if (tag.isArray() && tag.size() >= 2) {
-                String tagName = tag.get(0).asText();
-                String tagValue = tag.get(1).asText();
-                tagsMap.put(tagName, tagValue);
-            }
-        }
-
-        return tagsMap;
-    }
-
     // ユーティリティメソッド: Nostr eventの検証のみ（action不問）
     public boolean isValidNostrEvent(String authHeader) {
         AuthResult result = validateAuthEvent(authHeader, "get", null);
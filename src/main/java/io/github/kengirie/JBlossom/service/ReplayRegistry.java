@@ -0,0 +1,210 @@
+package io.github.kengirie.JBlossom.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 単回使用のアクションに使われた認証イベントの id を、イベントの有効期限まで記録する。
+// 有効期限を bucket-seconds 単位の時間枠に分け、枠ごとの集合をリング状の配列（タイミングホイール）に置く。
+// 時刻が枠を過ぎた時点で枠ごと破棄するため、保持する id は有効期限内のイベントのみになる
+@Service
+public class ReplayRegistry implements ReplayRegistryMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplayRegistry.class);
+    private static final String MBEAN_NAME = "io.github.kengirie.JBlossom:type=ReplayRegistry";
+
+    // カンマ区切り（例: upload,delete）。空の場合はすべてのアクションで再利用を許可する
+    @Value("${blossom.auth.replay.single-use-actions:}")
+    private String singleUseActions = "";
+
+    @Value("${blossom.auth.replay.bucket-seconds:60}")
+    private long bucketSeconds = 60;
+
+    // 記録できる有効期限の範囲（現在時刻から）。これより先の有効期限は単回使用のアクションに使えない
+    @Value("${blossom.auth.replay.horizon-seconds:86400}")
+    private long horizonSeconds = 86400;
+
+    private Set<String> actions = Set.of();
+    private AtomicReferenceArray<Bucket> wheel;
+    private int slots;
+
+    // 破棄済みの時間枠（この番号より前の枠は空）
+    private final AtomicLong sweptIndex = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong replaysRejected = new AtomicLong();
+
+    private static final class Bucket {
+        private final long index;
+        private final Set<String> ids = ConcurrentHashMap.newKeySet();
+
+        private Bucket(long index) {
+            this.index = index;
+        }
+    }
+
+    @PostConstruct
+    public void initialize() {
+        Set<String> configured = new HashSet<>();
+        for (String action : singleUseActions.split(",")) {
+            if (!action.isBlank()) {
+                configured.add(action.trim());
+            }
+        }
+        actions = Set.copyOf(configured);
+
+        // 範囲内の有効期限がすべて別の枠に入るよう、範囲の枠数より多く確保する
+        slots = (int) (horizonSeconds / bucketSeconds) + 2;
+        wheel = new AtomicReferenceArray<>(slots);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            // テストなどで同一JVM内に複数のコンテキストがある場合は最後のものを公開する
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            logger.warn("Failed to register replay registry MBean", e);
+        }
+
+        logger.info("Replay protection: single-use actions {}, {}s buckets, horizon {}s",
+                   actions.isEmpty() ? "none" : actions, bucketSeconds, horizonSeconds);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.debug("Failed to unregister replay registry MBean", e);
+        }
+        clear();
+    }
+
+    public boolean isSingleUse(String action) {
+        return action != null && actions.contains(action);
+    }
+
+    // 有効期限が記録できる範囲内か
+    public boolean covers(long expiration) {
+        return expiration - Instant.now().getEpochSecond() <= horizonSeconds;
+    }
+
+    // 初回の使用なら記録して true、記録済み（再利用）なら false
+    public boolean markUsed(String eventId, long expiration) {
+        long current = Math.floorDiv(Instant.now().getEpochSecond(), bucketSeconds);
+        sweep(current);
+
+        long index = Math.floorDiv(expiration, bucketSeconds);
+        if (index < current) {
+            // 既に期限切れのイベントは記録しない（検証側で拒否される）
+            return true;
+        }
+        if (index - current >= slots) {
+            throw new IllegalArgumentException("Expiration beyond replay horizon: " + expiration);
+        }
+
+        int slot = (int) Math.floorMod(index, (long) slots);
+        Bucket bucket = wheel.get(slot);
+        while (bucket == null || bucket.index < index) {
+            // 空、または期限切れの枠が残っている場合は新しい枠に置き換える
+            Bucket fresh = new Bucket(index);
+            if (wheel.compareAndSet(slot, bucket, fresh)) {
+                bucket = fresh;
+                break;
+            }
+            bucket = wheel.get(slot);
+        }
+        if (bucket.index != index) {
+            // 時刻が進み、この有効期限の枠は既に破棄された
+            return true;
+        }
+
+        if (!bucket.ids.add(eventId)) {
+            replaysRejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    // ロックを取らずに参照する
+    public boolean isUsed(String eventId, long expiration) {
+        long index = Math.floorDiv(expiration, bucketSeconds);
+        Bucket bucket = wheel.get((int) Math.floorMod(index, (long) slots));
+        return bucket != null && bucket.index == index
+            && index >= Math.floorDiv(Instant.now().getEpochSecond(), bucketSeconds)
+            && bucket.ids.contains(eventId);
+    }
+
+    // 現在の枠より前の枠を破棄する。前回から進んだ枠の分だけ見るため、呼び出しあたりの処理量は一定
+    private void sweep(long current) {
+        long swept = sweptIndex.get();
+        if (swept >= current || !sweptIndex.compareAndSet(swept, current)) {
+            return;
+        }
+        long from = Math.max(swept, current - slots);
+        for (long index = from; index < current; index++) {
+            int slot = (int) Math.floorMod(index, (long) slots);
+            Bucket bucket = wheel.get(slot);
+            if (bucket != null && bucket.index < current) {
+                wheel.compareAndSet(slot, bucket, null);
+            }
+        }
+    }
+
+    public void clear() {
+        if (wheel == null) {
+            return;
+        }
+        for (int slot = 0; slot < slots; slot++) {
+            wheel.set(slot, null);
+        }
+    }
+
+    @Override
+    public long getEntryCount() {
+        long current = Math.floorDiv(Instant.now().getEpochSecond(), bucketSeconds);
+        long count = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            Bucket bucket = wheel.get(slot);
+            if (bucket != null && bucket.index >= current) {
+                count += bucket.ids.size();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getLiveBuckets() {
+        int count = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (wheel.get(slot) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long getReplaysRejected() {
+        return replaysRejected.get();
+    }
+}
@@ -0,0 +1,11 @@
+package io.github.kengirie.JBlossom.service;
+
+// JMX経由で公開する使用済み認証イベントの統計
+public interface ReplayRegistryMXBean {
+
+    long getEntryCount();
+
+    int getLiveBuckets();
+
+    long getReplaysRejected();
+}
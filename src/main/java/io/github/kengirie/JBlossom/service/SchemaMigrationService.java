@@ -0,0 +1,98 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.exception.StorageException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// スキーマ v1 の行を v2 のテーブルへ移動する（SchemaMigrator が起動時に v1 のテーブルを *_v1 に改名した場合のみ）。
+// 移動中もサービスは要求を受け付け、まだ移動していない行は StorageService が参照時に移動する
+@Service
+public class SchemaMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrationService.class);
+    private static final int MAX_CONSECUTIVE_FAILURES = 10;
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private MimeTypeBackfillService mimeTypeBackfillService;
+
+    @Value("${blossom.database.migration.batch-size:10000}")
+    private int batchSize;
+
+    @Value("${blossom.database.migration.pause-millis:50}")
+    private long pauseMillis;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!storageService.hasLegacyRows()) {
+            return;
+        }
+
+        // 起動を妨げないようバックグラウンドで実行
+        Thread worker = new Thread(this::run, "schema-migration");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // すべて移動できた場合は v1 のテーブルを削除する。途中で止まった場合は次回起動時に残りから再開する
+    public long run() {
+        logger.info("Moving schema v1 rows in the background (batch size {})", batchSize);
+        long started = System.currentTimeMillis();
+        long moved = 0;
+        int failures = 0;
+
+        try {
+            storageService.moveLegacyIndexes();
+
+            while (true) {
+                int count;
+                try {
+                    count = storageService.moveLegacyBlobs(batchSize);
+                    failures = 0;
+                } catch (StorageException e) {
+                    // 稼働中の書き込みとの競合などは時間をおいて再試行する
+                    if (++failures >= MAX_CONSECUTIVE_FAILURES) {
+                        throw e;
+                    }
+                    logger.warn("Schema v1 row move failed, retrying ({} of {})", failures, MAX_CONSECUTIVE_FAILURES, e);
+                    Thread.sleep(1000);
+                    continue;
+                }
+
+                if (count == 0) {
+                    break;
+                }
+                moved += count;
+                logger.debug("Moved {} schema v1 blob rows", moved);
+
+                // バッチの間は書き込みロックを手放し、稼働中の書き込みを先に通す
+                if (pauseMillis > 0) {
+                    Thread.sleep(pauseMillis);
+                }
+            }
+
+            storageService.finishLegacyMigration();
+            logger.info("Schema v1 rows moved: {} blobs in {} ms", moved, System.currentTimeMillis() - started);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Schema v1 row move interrupted after {} blobs", moved);
+            return moved;
+        } catch (StorageException e) {
+            logger.error("Schema v1 row move failed after {} blobs; unmoved rows are still served", moved, e);
+            return moved;
+        }
+
+        // 移動前の行は補正の対象にならないため、移行の完了後に実行する
+        mimeTypeBackfillService.start();
+        return moved;
+    }
+}
@@ -1,29 +1,55 @@
 package io.github.kengirie.JBlossom.service;
 
+import io.github.kengirie.JBlossom.config.SchemaMigrator;
 import io.github.kengirie.JBlossom.model.BlobContent;
+import io.github.kengirie.JBlossom.model.BlobHash;
 import io.github.kengirie.JBlossom.model.BlobMetadata;
+import io.github.kengirie.JBlossom.model.ServingDescriptor;
 import io.github.kengirie.JBlossom.exception.StorageException;
+import io.github.kengirie.JBlossom.util.ExtensionMimeTable;
+import io.github.kengirie.JBlossom.util.GatedConnection;
 import io.github.kengirie.JBlossom.util.RangeRequestParser;
 import io.github.kengirie.JBlossom.util.RangeRequestParser.Range;
+import io.github.kengirie.JBlossom.util.SqlDictionary;
 
+import jakarta.annotation.PostConstruct;
 import org.apache.tika.Tika;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MimeTypeException;
+import org.apache.tika.mime.MimeTypes;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.FileInputStream;
@@ -35,6 +61,20 @@ import java.security.NoSuchAlgorithmException;
 public class StorageService {
 
     private static final Logger logger = LoggerFactory.getLogger(StorageService.class);
+    private static final String STAGING_DIRECTORY = ".staging";
+    private static final String VARIANT_DIRECTORY = ".variants";
+    static final String GZIP_ENCODING = "gzip";
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+    private static final int SNIFF_LENGTH = 8192;
+    private static final int COMMIT_LOCK_STRIPES = 64;
+
+    // 辞書テーブルのIDを文字列に戻してメタデータを取得する（スキーマは SchemaMigrator を参照）
+    private static final String SELECT_METADATA = """
+        SELECT b.size, m.type, b.uploaded, p.pubkey FROM blobs b
+        LEFT JOIN mime_types m ON m.id = b.type_id
+        LEFT JOIN pubkeys p ON p.id = b.pubkey_id
+        WHERE b.hash = ?
+        """;
 
     @Value("${blossom.storage.path}")
     private String storagePath;
@@ -42,10 +82,70 @@ public class StorageService {
     @Value("${blossom.database.path}")
     private String databasePath;
 
+    @Value("${blossom.storage.descriptor-cache-size:10000}")
+    private int descriptorCacheSize = 10000;
+
+    // 配信用メタデータのキャッシュ（BLOBは不変なので削除・MIMEタイプ補完時のみ無効化する）
+    private final Map<BlobHash, ServingDescriptor> descriptorCache = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BlobHash, ServingDescriptor> eldest) {
+                return size() > descriptorCacheSize;
+            }
+        });
+
+    // 無効化のたびに進める。DB参照より後に無効化があった場合、参照結果は古い可能性があるためキャッシュしない
+    private final AtomicLong descriptorGeneration = new AtomicLong();
+
+    // 同時に開くDB接続数の上限（0 = 自動: プラットフォームスレッドでは無制限、仮想スレッドではキャリア数-1）
+    @Value("${blossom.database.max-concurrent-connections:0}")
+    private int maxConcurrentConnections;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // 書き込みが競合した場合にロック解放を待つ時間（SQLITE_BUSY で即座に失敗させない）
+    @Value("${blossom.database.busy-timeout-millis:5000}")
+    private int busyTimeoutMillis = 5000;
+
+    // 同じハッシュの昇格・削除を直列化する。昇格したファイルはコミットかロールバックまで
+    // このトランザクションだけのものになるため、ロールバック時に削除しても他のアップロードに影響しない
+    private final ReentrantLock[] commitLocks = new ReentrantLock[COMMIT_LOCK_STRIPES];
+
+    // sqlite-jdbc はネイティブ呼び出しを synchronized 内で行うため、仮想スレッドではクエリ中キャリアを占有（ピン留め）する。
+    // 同時接続数をキャリア数未満に抑え、残りのキャリアで他のリクエストを進められるようにする
+    private Semaphore connectionGate;
+
+    // スキーマ v1 からの移行中で、まだ移動していない行が *_v1 テーブルに残っているか（null = 未確認）
+    private volatile Boolean legacyRows;
+
+    // 削除確定後に通知する（コンテンツキャッシュ等）
+    @Autowired(required = false)
+    private List<BlobDeletionListener> deletionListeners = List.of();
+
     private final Tika tika;
+    private final ExtensionMimeTable extensionTypes;
 
     public StorageService() {
         this.tika = new Tika();
+        this.extensionTypes = buildExtensionTypes(tika);
+        for (int i = 0; i < COMMIT_LOCK_STRIPES; i++) {
+            commitLocks[i] = new ReentrantLock();
+        }
+    }
+
+    @PostConstruct
+    public void initialize() {
+        int limit = maxConcurrentConnections;
+        if (limit <= 0 && virtualThreads) {
+            int carriers = Integer.getInteger("jdk.virtualThreadScheduler.parallelism",
+                                              Runtime.getRuntime().availableProcessors());
+            limit = Math.max(1, carriers - 1);
+        }
+        connectionGate = limit > 0 ? new Semaphore(limit) : null;
+
+        logger.info("Database connections: {} (virtual threads: {})",
+                   limit > 0 ? "at most " + limit + " concurrent" : "unbounded", virtualThreads);
     }
 
     public Optional<BlobMetadata> findBlob(String sha256) {
@@ -53,137 +153,480 @@ public class StorageService {
             return Optional.empty();
         }
 
-        try (Connection conn = getConnection()) {
-            String sql = "SELECT hash, size, type, uploaded, pubkey FROM blobs WHERE hash = ?";
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, sha256);
-
-                try (ResultSet rs = stmt.executeQuery()) {
-                    if (rs.next()) {
-                        BlobMetadata metadata = new BlobMetadata(
-                            rs.getString("hash"),
-                            rs.getLong("size"),
-                            rs.getString("type"),
-                            rs.getLong("uploaded"),
-                            rs.getString("pubkey")
-                        );
-
-                        // ファイルの物理的存在確認
-                        Path filePath = getFilePath(sha256);
-                        if (Files.exists(filePath) && Files.isReadable(filePath)) {
-                            return Optional.of(metadata);
-                        } else {
-                            logger.warn("Blob metadata exists but file not found: {}", sha256);
-                            return Optional.empty();
-                        }
-                    }
-                }
+        BlobMetadata metadata;
+        try {
+            metadata = lookupBlobMetadata(sha256);
+            // v1 から移動していない行は参照時に移動する
+            if (metadata == null && adoptLegacyBlob(sha256)) {
+                metadata = lookupBlobMetadata(sha256);
             }
         } catch (SQLException e) {
             logger.error("Database error while finding blob: {}", sha256, e);
+            return Optional.empty();
+        }
+
+        if (metadata != null) {
+            // ファイルの物理的存在確認
+            Path filePath = getFilePath(metadata.getHash());
+            if (Files.exists(filePath) && Files.isReadable(filePath)) {
+                return Optional.of(metadata);
+            } else {
+                logger.warn("Blob metadata exists but file not found: {}", sha256);
+                return Optional.empty();
+            }
         }
 
         return Optional.empty();
     }
 
-    public Optional<BlobContent> readBlob(String sha256, String rangeHeader) {
-        Optional<BlobMetadata> metadataOpt = findBlob(sha256);
-        if (metadataOpt.isEmpty()) {
+    private BlobMetadata lookupBlobMetadata(String sha256) throws SQLException {
+        try (Connection conn = getConnection()) {
+            return findBlobMetadata(conn, sha256);
+        }
+    }
+
+    // 配信用の解決: キャッシュ済みならI/Oなし、未キャッシュ時もDB参照1回とファイル属性取得（stat）1回のみで完了する
+    public Optional<ServingDescriptor> resolveBlob(String sha256) {
+        BlobHash hash = BlobHash.tryParse(sha256);
+        return hash != null ? resolveBlob(hash) : Optional.empty();
+    }
+
+    public Optional<ServingDescriptor> resolveBlob(BlobHash hash) {
+        return resolveBlob(hash, false);
+    }
+
+    private Optional<ServingDescriptor> resolveBlob(BlobHash hash, boolean adopted) {
+        ServingDescriptor cached = descriptorCache.get(hash);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        long generation = descriptorGeneration.get();
+
+        // 圧縮版の有無も同じ問い合わせで取得する（size が NULL の行は圧縮を見送ったもの）
+        String sql = """
+            SELECT b.size, m.type, b.uploaded, v.size AS gzip_size FROM blobs b
+            LEFT JOIN mime_types m ON m.id = b.type_id
+            LEFT JOIN variants v ON v.hash = b.hash AND v.encoding = ?
+            WHERE b.hash = ?
+            """;
+        boolean missing = false;
+        long size = 0;
+        String type = null;
+        long uploaded = 0;
+        long gzipSize = -1;
+
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, GZIP_ENCODING);
+            stmt.setBytes(2, hash.toBytes());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    missing = true;
+                } else {
+                    size = rs.getLong("size");
+                    type = rs.getString("type");
+                    uploaded = rs.getLong("uploaded");
+                    gzipSize = rs.getLong("gzip_size");
+                    if (rs.wasNull()) {
+                        gzipSize = -1;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Database error while resolving blob: {}", hash, e);
             return Optional.empty();
         }
 
-        BlobMetadata metadata = metadataOpt.get();
-        Path filePath = getFilePath(sha256);
+        if (missing) {
+            // v1 から移動していない行は参照時に移動し、1回だけ引き直す
+            return !adopted && adoptLegacyBlob(hash.toString()) ? resolveBlob(hash, true) : Optional.empty();
+        }
 
+        // ファイル名として必要になる16進表記は、キャッシュに載っていない場合にここで一度だけ作る
+        Path filePath = getFilePath(hash);
         try {
-            Resource resource = new FileSystemResource(filePath);
-            if (!resource.exists() || !resource.isReadable()) {
-                logger.warn("File not readable: {}", filePath);
+            BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                logger.warn("Blob path is not a regular file: {}", hash);
                 return Optional.empty();
             }
+        } catch (IOException e) {
+            logger.warn("Blob metadata exists but file not found: {}", hash);
+            return Optional.empty();
+        }
 
-            String mimeType = detectMimeType(sha256, metadata.getType(), filePath);
-            BlobContent.Builder builder = BlobContent.builder()
-                .hash(sha256)
-                .resource(resource)
-                .mimeType(mimeType)
-                .size(metadata.getSize());
-
-            // Range Request処理
-            if (rangeHeader != null && !rangeHeader.isBlank()) {
-                Range range = RangeRequestParser.parseRange(rangeHeader, metadata.getSize());
-                if (range != null && RangeRequestParser.isValidRange(range, metadata.getSize())) {
-                    builder.range(range.getStart(), range.getEnd());
-                    logger.debug("Range request for {}: {}", sha256, range);
-                } else {
-                    logger.debug("Invalid range request for {}: {}", sha256, rangeHeader);
-                }
+        Path gzipPath = null;
+        if (gzipSize >= 0) {
+            gzipPath = getVariantPath(filePath.getFileName().toString(), GZIP_ENCODING);
+            if (!Files.isRegularFile(gzipPath)) {
+                logger.warn("Gzip variant recorded but file not found: {}", hash);
+                gzipPath = null;
             }
+        }
 
-            return Optional.of(builder.build());
+        String mimeType = isSpecificType(type) ? type : DEFAULT_MIME_TYPE;
+        ServingDescriptor descriptor = new ServingDescriptor(hash, size, mimeType, filePath, uploaded,
+                                                             gzipPath, gzipSize);
+        // 判定と登録を無効化と同じロックで行う
+        synchronized (descriptorCache) {
+            if (descriptorGeneration.get() == generation) {
+                descriptorCache.put(hash, descriptor);
+            }
+        }
+        return Optional.of(descriptor);
+    }
 
-        } catch (Exception e) {
-            logger.error("Error reading blob: {}", sha256, e);
+    public Optional<BlobContent> readBlob(String sha256, String rangeHeader) {
+        Optional<ServingDescriptor> descriptorOpt = resolveBlob(sha256);
+        if (descriptorOpt.isEmpty()) {
             return Optional.empty();
         }
+
+        ServingDescriptor descriptor = descriptorOpt.get();
+        BlobContent.Builder builder = BlobContent.builder()
+            .hash(sha256)
+            .resource(descriptor.getResource())
+            .mimeType(descriptor.getMimeType())
+            .size(descriptor.getSize());
+
+        // Range Request処理
+        if (rangeHeader != null && !rangeHeader.isBlank()) {
+            Range range = RangeRequestParser.parseRange(rangeHeader, descriptor.getSize());
+            if (range != null && RangeRequestParser.isValidRange(range, descriptor.getSize())) {
+                builder.range(range.getStart(), range.getEnd());
+                logger.debug("Range request for {}: {}", sha256, range);
+            } else {
+                logger.debug("Invalid range request for {}: {}", sha256, rangeHeader);
+            }
+        }
+
+        return Optional.of(builder.build());
     }
 
     public String detectMimeType(String sha256, String storedType, String extension) {
-        // 1. DBに保存されているタイプを優先
-        if (storedType != null && !storedType.isBlank() && !storedType.equals("application/octet-stream")) {
+        return detectMimeType(storedType, extension);
+    }
+
+    // 配信時に使う。ハッシュの文字列を必要としない
+    public String detectMimeType(String storedType, String extension) {
+        // 1. DBに保存されているタイプを優先（アップロード時に判定済み）
+        if (isSpecificType(storedType)) {
             return storedType;
         }
 
-        // 2. 拡張子から推測
-        if (extension != null && !extension.isBlank()) {
+        // 2. 拡張子から推測（起動時に構築したテーブルを参照し、ファイルは読まない）
+        if (extension != null) {
+            String detected = extensionTypes.lookup(extension);
+            if (detected != null) {
+                logger.debug("MIME type detected from extension {}: {}", extension, detected);
+                return detected;
+            }
+        }
+
+        // 3. デフォルト
+        return DEFAULT_MIME_TYPE;
+    }
+
+    // Tikaの登録済み拡張子それぞれについて、従来の拡張子判定（tika.detect）の結果を一度だけ求めておく
+    private static ExtensionMimeTable buildExtensionTypes(Tika tika) {
+        Map<String, String> types = new HashMap<>();
+        MimeTypes registry = MimeTypes.getDefaultMimeTypes();
+        for (MediaType type : registry.getMediaTypeRegistry().getTypes()) {
+            List<String> extensions;
             try {
-                String detected = tika.detect("." + extension.toLowerCase());
-                if (detected != null && !detected.equals("application/octet-stream")) {
-                    logger.debug("MIME type detected from extension for {}: {}", sha256, detected);
-                    return detected;
+                extensions = registry.forName(type.toString()).getExtensions();
+            } catch (MimeTypeException e) {
+                continue;
+            }
+            for (String extension : extensions) {
+                String key = (extension.startsWith(".") ? extension.substring(1) : extension).toLowerCase(Locale.ROOT);
+                if (!key.isEmpty() && !types.containsKey(key)) {
+                    String detected = tika.detect("." + key);
+                    types.put(key, isSpecificType(detected) ? detected : null);
                 }
-            } catch (Exception e) {
-                logger.debug("Failed to detect MIME type from extension: {}", extension, e);
             }
         }
 
-        // 3. ファイル内容から推測
-        Path filePath = getFilePath(sha256);
-        if (Files.exists(filePath)) {
+        ExtensionMimeTable table = new ExtensionMimeTable(types);
+        logger.debug("Extension MIME table: {} extensions", table.size());
+        return table;
+    }
+
+    // 申告されたタイプが無い・汎用的な場合は先頭バイトのマジックナンバーから判定する
+    String resolveContentType(String declaredType, byte[] head, int length) {
+        if (isSpecificType(declaredType)) {
+            return declaredType;
+        }
+        if (length > 0) {
             try {
-                String detected = tika.detect(filePath.toFile());
-                if (detected != null && !detected.equals("application/octet-stream")) {
-                    logger.debug("MIME type detected from file content for {}: {}", sha256, detected);
+                String detected = tika.detect(length == head.length ? head : Arrays.copyOf(head, length));
+                if (isSpecificType(detected)) {
                     return detected;
                 }
             } catch (Exception e) {
-                logger.debug("Failed to detect MIME type from file content for {}: {}", sha256, e);
+                logger.debug("Failed to detect MIME type from content", e);
             }
         }
+        return declaredType != null && !declaredType.isBlank() ? declaredType : DEFAULT_MIME_TYPE;
+    }
 
-        // 4. デフォルト
-        return "application/octet-stream";
+    private static boolean isSpecificType(String type) {
+        return type != null && !type.isBlank() && !type.equals(DEFAULT_MIME_TYPE);
     }
 
-    private String detectMimeType(String sha256, String storedType, Path filePath) {
-        // 1. DBに保存されているタイプを優先
-        if (storedType != null && !storedType.isBlank() && !storedType.equals("application/octet-stream")) {
-            return storedType;
+    // MIMEタイプ未判定（NULL・octet-stream）の行をハッシュ順に取得する（バックフィル用）
+    List<String> findUntypedBlobs(String afterHash, int limit) throws StorageException {
+        List<String> hashes = new ArrayList<>();
+        String sql = "SELECT hash FROM blobs WHERE hash > ? AND " +
+                     "(type_id IS NULL OR type_id = (SELECT id FROM mime_types WHERE type = ?)) " +
+                     "ORDER BY hash LIMIT ?";
+
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            // 空のBLOBはどのハッシュよりも小さい
+            stmt.setBytes(1, afterHash == null || afterHash.isEmpty() ? new byte[0] : key(afterHash));
+            stmt.setString(2, DEFAULT_MIME_TYPE);
+            stmt.setInt(3, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    hashes.add(hexKey(rs.getBytes("hash")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new StorageException(StorageException.StorageErrorType.DATABASE_ERROR, null,
+                "Failed to list blobs without MIME type", e);
         }
+        return hashes;
+    }
 
-        // 2. ファイル内容から推測
-        try {
-            String detected = tika.detect(filePath.toFile());
-            if (detected != null && !detected.equals("application/octet-stream")) {
-                logger.debug("MIME type detected from file content for {}: {}", sha256, detected);
-                return detected;
+    // 保存済みファイルの先頭バイトからMIMEタイプを判定する（バックフィル用）。判定できない場合は null
+    String sniffStoredBlob(String sha256) {
+        Path filePath = getFilePath(sha256);
+        byte[] head = new byte[SNIFF_LENGTH];
+        int length = 0;
+
+        try (InputStream in = Files.newInputStream(filePath)) {
+            int n;
+            while (length < SNIFF_LENGTH && (n = in.read(head, length, SNIFF_LENGTH - length)) != -1) {
+                length += n;
             }
-        } catch (Exception e) {
-            logger.debug("Failed to detect MIME type from file content for {}: {}", sha256, e);
+        } catch (IOException e) {
+            logger.debug("Failed to read blob for MIME detection: {}", sha256, e);
+            return null;
         }
 
-        // 3. デフォルト
-        return "application/octet-stream";
+        String detected = resolveContentType(null, head, length);
+        return isSpecificType(detected) ? detected : null;
+    }
+
+    // 判定結果を1トランザクションで反映する。既にタイプが設定された行は上書きしない
+    int updateBlobTypes(Map<String, String> types) throws StorageException {
+        if (types.isEmpty()) {
+            return 0;
+        }
+
+        String sql = "UPDATE blobs SET type_id = ? WHERE hash = ? AND " +
+                     "(type_id IS NULL OR type_id = (SELECT id FROM mime_types WHERE type = ?))";
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (Map.Entry<String, String> entry : types.entrySet()) {
+                    setId(stmt, 1, internMimeType(conn, entry.getValue()));
+                    stmt.setBytes(2, key(entry.getKey()));
+                    stmt.setString(3, DEFAULT_MIME_TYPE);
+                    stmt.addBatch();
+                }
+
+                int updated = 0;
+                for (int count : stmt.executeBatch()) {
+                    updated += Math.max(count, 0);
+                }
+                conn.commit();
+                // 汎用タイプでキャッシュされた配信情報を破棄する
+                types.keySet().forEach(this::invalidateDescriptor);
+                return updated;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new StorageException(StorageException.StorageErrorType.DATABASE_ERROR, null,
+                "Failed to update blob MIME types", e);
+        }
+    }
+
+    // 圧縮版が未生成（見送り記録もない）で、対象タイプ・サイズ範囲内のBLOBをハッシュ順に返す
+    List<String> findVariantCandidates(String encoding, List<String> typePrefixes, long minSize, long maxSize,
+                                       int limit) throws StorageException {
+        // 対象タイプは辞書テーブル側で絞り込み、BLOBの行は整数IDで照合する
+        StringBuilder sql = new StringBuilder("""
+            SELECT b.hash FROM blobs b
+            LEFT JOIN variants v ON v.hash = b.hash AND v.encoding = ?
+            WHERE v.hash IS NULL AND b.size >= ? AND b.size <= ?
+            AND b.type_id IN (SELECT id FROM mime_types WHERE (""");
+        for (int i = 0; i < typePrefixes.size(); i++) {
+            sql.append(i == 0 ? "type LIKE ?" : " OR type LIKE ?");
+        }
+        sql.append(")) ORDER BY b.hash LIMIT ?");
+
+        List<String> hashes = new ArrayList<>();
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int index = 1;
+            stmt.setString(index++, encoding);
+            stmt.setLong(index++, minSize);
+            stmt.setLong(index++, maxSize);
+            for (String prefix : typePrefixes) {
+                stmt.setString(index++, prefix + "%");
+            }
+            stmt.setInt(index, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    hashes.add(hexKey(rs.getBytes("hash")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new StorageException(StorageException.StorageErrorType.DATABASE_ERROR, null,
+                "Failed to list variant candidates", e);
+        }
+        return hashes;
+    }
+
+    // ストレージと同一ファイルシステム上に一時ファイルを作成する（確定時はrenameのみ）
+    Path createStagingFile(String prefix) throws IOException {
+        return Files.createTempFile(getStagingDirectory(), prefix, ".tmp");
+    }
+
+    // 生成した圧縮版を確定する。compressed が null の場合は「圧縮しない」ことを記録し、次回以降の候補から外す
+    void saveVariant(String sha256, String encoding, Path compressed, long compressedSize) throws StorageException {
+        Path variantPath = getVariantPath(sha256, encoding);
+        boolean moved = false;
+
+        try (Connection conn = getConnection()) {
+            if (compressed != null) {
+                Files.createDirectories(variantPath.getParent());
+                Files.move(compressed, variantPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                moved = true;
+            }
+
+            // 生成中に削除されたBLOBの行は作らない
+            String sql = "INSERT OR REPLACE INTO variants (hash, encoding, size) " +
+                         "SELECT ?, ?, ? WHERE EXISTS (SELECT 1 FROM blobs WHERE hash = ?)";
+            int inserted;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                byte[] key = key(sha256);
+                stmt.setBytes(1, key);
+                stmt.setString(2, encoding);
+                if (compressed != null) {
+                    stmt.setLong(3, compressedSize);
+                } else {
+                    stmt.setNull(3, Types.INTEGER);
+                }
+                stmt.setBytes(4, key);
+                inserted = stmt.executeUpdate();
+            }
+
+            if (inserted == 0 && moved) {
+                Files.deleteIfExists(variantPath);
+            }
+        } catch (SQLException | IOException e) {
+            if (moved) {
+                deleteStagingFile(variantPath);
+            }
+            throw new StorageException(StorageException.StorageErrorType.STORAGE_ERROR, sha256,
+                "Failed to save " + encoding + " variant", e);
+        }
+
+        invalidateDescriptor(sha256);
+    }
+
+    boolean isJobCompleted(String name) {
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM jobs WHERE name = ?")) {
+            stmt.setString(1, name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to read job state: {}", name, e);
+            return false;
+        }
+    }
+
+    void markJobCompleted(String name) {
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                 "INSERT OR REPLACE INTO jobs (name, completed) VALUES (?, ?)")) {
+            stmt.setString(1, name);
+            stmt.setLong(2, Instant.now().getEpochSecond());
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            logger.error("Failed to record job completion: {}", name, e);
+        }
+    }
+
+    // v1 の行が残っているか。移行が完了していれば（新規のデータベースを含む）false
+    boolean hasLegacyRows() {
+        Boolean known = legacyRows;
+        if (known != null) {
+            return known;
+        }
+        try (Connection conn = getConnection()) {
+            known = SchemaMigrator.hasLegacyTables(conn);
+            legacyRows = known;
+            return known;
+        } catch (SQLException e) {
+            logger.error("Failed to check for schema v1 tables", e);
+            return false;
+        }
+    }
+
+    // 参照されたBLOBの行が v1 に残っていれば移動する。移行中なら（他の経路で移動済みの場合も含め）引き直す価値があるため true
+    private boolean adoptLegacyBlob(String sha256) {
+        if (!hasLegacyRows()) {
+            return false;
+        }
+        try (Connection conn = getConnection()) {
+            SchemaMigrator.adoptLegacyBlob(conn, BlobHash.parse(sha256).toString());
+        } catch (SQLException e) {
+            logger.warn("Failed to move schema v1 row for blob: {}", sha256, e);
+        }
+        return true;
+    }
+
+    // v1 のインデックスを v2 のものに置き換える（移行の最初に1回）
+    void moveLegacyIndexes() throws StorageException {
+        try (Connection conn = getConnection()) {
+            SchemaMigrator.moveLegacyIndexes(conn);
+        } catch (SQLException e) {
+            throw new StorageException(StorageException.StorageErrorType.DATABASE_ERROR, null,
+                "Failed to replace schema v1 indexes", e);
+        }
+    }
+
+    // v1 の行を最大 limit 件移動する。0 の場合は移動するものが残っていない
+    int moveLegacyBlobs(int limit) throws StorageException {
+        try (Connection conn = getConnection()) {
+            return SchemaMigrator.moveLegacyBatch(conn, limit);
+        } catch (SQLException e) {
+            throw new StorageException(StorageException.StorageErrorType.DATABASE_ERROR, null,
+                "Failed to move schema v1 rows", e);
+        }
+    }
+
+    // 移行を完了する。参照時の v1 への問い合わせを先に止めてからテーブルを削除する
+    void finishLegacyMigration() throws StorageException {
+        legacyRows = false;
+        try (Connection conn = getConnection()) {
+            SchemaMigrator.dropLegacyTables(conn);
+        } catch (SQLException e) {
+            throw new StorageException(StorageException.StorageErrorType.DATABASE_ERROR, null,
+                "Failed to drop schema v1 tables", e);
+        }
     }
 
     public void updateAccessTime(String sha256) {
@@ -196,7 +639,7 @@ public class StorageService {
         try (Connection conn = getConnection()) {
             String sql = "INSERT OR REPLACE INTO accessed (blob, timestamp) VALUES (?, ?)";
             try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, sha256);
+                stmt.setBytes(1, key(sha256));
                 stmt.setLong(2, timestamp);
                 stmt.executeUpdate();
 
@@ -207,6 +650,45 @@ public class StorageService {
         }
     }
 
+    // アクセス時刻をまとめて1トランザクションで記録する。削除済みのBLOBには記録しない。
+    // 書き込みに失敗した場合は -1（何も記録されていない）
+    public int updateAccessTimes(Map<String, Long> accessTimes) {
+        if (accessTimes.isEmpty()) {
+            return 0;
+        }
+
+        String sql = "INSERT OR REPLACE INTO accessed (blob, timestamp) " +
+                     "SELECT ?, ? WHERE EXISTS (SELECT 1 FROM blobs WHERE hash = ?)";
+
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (Map.Entry<String, Long> entry : accessTimes.entrySet()) {
+                    byte[] key = key(entry.getKey());
+                    stmt.setBytes(1, key);
+                    stmt.setLong(2, entry.getValue());
+                    stmt.setBytes(3, key);
+                    stmt.addBatch();
+                }
+
+                int updated = 0;
+                for (int count : stmt.executeBatch()) {
+                    updated += Math.max(count, 0);
+                }
+                conn.commit();
+
+                logger.debug("Updated access time for {} blobs", updated);
+                return updated;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to update access time for {} blobs", accessTimes.size(), e);
+            return -1;
+        }
+    }
+
     public boolean hasBlob(String sha256) {
         return findBlob(sha256).isPresent();
     }
@@ -221,6 +703,20 @@ public class StorageService {
         return Paths.get(storagePath, sha256);
     }
 
+    private Path getFilePath(BlobHash hash) {
+        return Paths.get(storagePath, hash.toString());
+    }
+
+    private Path getVariantPath(String sha256, String encoding) {
+        return Paths.get(storagePath, VARIANT_DIRECTORY, sha256 + "." + encoding);
+    }
+
+    private Path getStagingDirectory() throws IOException {
+        Path stagingDirectory = Paths.get(storagePath, STAGING_DIRECTORY);
+        Files.createDirectories(stagingDirectory);
+        return stagingDirectory;
+    }
+
     private Connection getConnection() throws SQLException {
         // SQLiteドライバーの明示的な読み込み
         try {
@@ -229,21 +725,73 @@ public class StorageService {
             throw new SQLException("SQLite JDBC driver not found", e);
         }
 
-        String url = "jdbc:sqlite:" + databasePath;
-        Connection conn = DriverManager.getConnection(url);
-        conn.setAutoCommit(true);
-        return conn;
+        String url = "jdbc:sqlite:" + databasePath + "?busy_timeout=" + busyTimeoutMillis;
+        if (connectionGate == null) {
+            Connection conn = DriverManager.getConnection(url);
+            conn.setAutoCommit(true);
+            return conn;
+        }
+
+        // 許可待ちは（仮想スレッドであれば）キャリアを解放して待機する
+        try {
+            connectionGate.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        try {
+            Connection conn = DriverManager.getConnection(url);
+            conn.setAutoCommit(true);
+            return GatedConnection.wrap(conn, connectionGate);
+        } catch (SQLException | RuntimeException e) {
+            connectionGate.release();
+            throw e;
+        }
     }
 
     private boolean isValidSha256(String hash) {
-        return hash != null &&
-               hash.matches("^[a-fA-F0-9]{64}$");
+        return BlobHash.isValid(hash);
+    }
+
+    private void invalidateDescriptor(String sha256) {
+        BlobHash hash = BlobHash.tryParse(sha256);
+        if (hash != null) {
+            synchronized (descriptorCache) {
+                descriptorGeneration.incrementAndGet();
+                descriptorCache.remove(hash);
+            }
+        }
+    }
+
+    // DB上のキーは32バイトのBLOB
+    private static byte[] key(String sha256) {
+        return BlobHash.parse(sha256).toBytes();
+    }
+
+    private static String hexKey(byte[] key) {
+        return BlobHash.fromBytes(key).toString();
+    }
+
+    private static Long internMimeType(Connection conn, String type) throws SQLException {
+        return SqlDictionary.intern(conn, "mime_types", "type", type);
+    }
+
+    private static void setId(PreparedStatement stmt, int index, Long id) throws SQLException {
+        if (id != null) {
+            stmt.setLong(index, id);
+        } else {
+            stmt.setNull(index, Types.INTEGER);
+        }
     }
 
     // ストレージ統計情報
     public StorageStats getStorageStats() {
         try (Connection conn = getConnection()) {
-            String sql = "SELECT COUNT(*) as count, SUM(size) as total_size FROM blobs";
+            // 移行中は v1 に残っている行も数える（移動済みの行は v1 から削除されるため重複しない）
+            String sql = hasLegacyRows()
+                ? "SELECT (SELECT COUNT(*) FROM blobs) + (SELECT COUNT(*) FROM blobs_v1) as count, " +
+                  "IFNULL((SELECT SUM(size) FROM blobs), 0) + IFNULL((SELECT SUM(size) FROM blobs_v1), 0) as total_size"
+                : "SELECT COUNT(*) as count, SUM(size) as total_size FROM blobs";
             try (PreparedStatement stmt = conn.prepareStatement(sql);
                  ResultSet rs = stmt.executeQuery()) {
 
@@ -264,91 +812,202 @@ public class StorageService {
     public BlobMetadata storeBlob(InputStream inputStream, String contentType, String uploaderPubkey, String expectedSha256) 
             throws StorageException {
         
+        try (StagedBlob staged = stageBlob(inputStream, contentType, expectedSha256)) {
+            return commitBlobs(List.of(staged), uploaderPubkey).get(0);
+        }
+    }
+
+    // ステージング領域に書き込みながらSHA256を計算する。期待値と異なる場合は昇格させずに破棄する
+    public StagedBlob stageBlob(InputStream inputStream, String contentType, String expectedSha256)
+            throws StorageException {
+
         if (inputStream == null) {
             throw new StorageException(StorageException.StorageErrorType.INVALID_FILE, null, "InputStream is null");
         }
 
-        // 一時ファイルに保存しながらSHA256を計算
-        Path tempPath = null;
-        String calculatedSha256;
-        long fileSize;
-        
-        try {
-            // 一時ファイル作成
-            tempPath = Files.createTempFile("blossom-upload-", ".tmp");
-            
+        try (Staging staging = openStaging()) {
             // ファイル書き込みとSHA256計算を同時実行
-            try (FileOutputStream fos = new FileOutputStream(tempPath.toFile())) {
-                MessageDigest digest = MessageDigest.getInstance("SHA-256");
-                
+            try (FileOutputStream fos = new FileOutputStream(staging.getPath().toFile())) {
                 byte[] buffer = new byte[8192];
                 int bytesRead;
-                fileSize = 0;
-                
+
                 while ((bytesRead = inputStream.read(buffer)) != -1) {
                     fos.write(buffer, 0, bytesRead);
-                    digest.update(buffer, 0, bytesRead);
-                    fileSize += bytesRead;
+                    staging.update(ByteBuffer.wrap(buffer, 0, bytesRead));
                 }
-                
-                // SHA256計算完了
-                byte[] hashBytes = digest.digest();
-                calculatedSha256 = bytesToHex(hashBytes);
-                
-            } catch (NoSuchAlgorithmException e) {
-                throw new StorageException(StorageException.StorageErrorType.STORAGE_ERROR, null, 
-                    "SHA-256 algorithm not available", e);
-            }
-            
-            // 期待されたSHA256との整合性チェック
-            if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(calculatedSha256)) {
-                throw new StorageException(StorageException.StorageErrorType.HASH_MISMATCH, calculatedSha256,
-                    String.format("SHA256 mismatch: expected %s, calculated %s", expectedSha256, calculatedSha256));
             }
-            
-            // 既存のBLOBがあるかチェック
-            Optional<BlobMetadata> existing = findBlob(calculatedSha256);
-            if (existing.isPresent()) {
-                logger.debug("Blob already exists: {}", calculatedSha256);
-                return existing.get();
+
+            return staging.finish(contentType, expectedSha256);
+
+        } catch (IOException e) {
+            throw new StorageException(StorageException.StorageErrorType.STORAGE_ERROR, null, 
+                "Failed to store blob", e);
+        }
+    }
+
+    // ステージングファイルを作成する。書き込みは呼び出し元が getPath() に対して行い、書き込んだバイト列を順に update に渡す
+    // （リアクティブ構成では非同期のファイルチャネルで書き込む）
+    public Staging openStaging() throws StorageException {
+        try {
+            // ストレージと同一ファイルシステム上のステージング領域に作成し、確定時はrenameのみで済ませる
+            return new Staging(Files.createTempFile(getStagingDirectory(), "blossom-upload-", ".tmp"));
+        } catch (IOException e) {
+            throw new StorageException(StorageException.StorageErrorType.STORAGE_ERROR, null,
+                "Failed to store blob", e);
+        }
+    }
+
+    // ステージング済みBLOBを保存先へ昇格し、メタデータを1トランザクションで記録する
+    public List<BlobMetadata> commitBlobs(List<StagedBlob> stagedBlobs, String uploaderPubkey) 
+            throws StorageException {
+
+        List<BlobMetadata> results = new ArrayList<>(stagedBlobs.size());
+        List<Path> promoted = new ArrayList<>();
+        Map<String, BlobMetadata> committed = new HashMap<>();
+        long uploaded = Instant.now().getEpochSecond();
+
+        // デッドロックを避けるため、ストライプ番号順に取得する
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (StagedBlob staged : stagedBlobs) {
+            stripes.add(commitStripe(staged.getHash()));
+        }
+        for (int stripe : stripes) {
+            commitLocks[stripe].lock();
+        }
+
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+
+            try {
+                for (StagedBlob staged : stagedBlobs) {
+                    // 同一バッチ内の重複
+                    BlobMetadata duplicate = committed.get(staged.getHash());
+                    if (duplicate != null) {
+                        results.add(duplicate);
+                        continue;
+                    }
+
+                    Path finalPath = getFilePath(staged.getHash());
+                    BlobMetadata existing = findBlobMetadata(conn, staged.getHash());
+                    if (existing == null && hasLegacyRows()
+                            && SchemaMigrator.moveLegacyBlob(conn, staged.getHash())) {
+                        // v1 に残っていた行は同じトランザクションで移動し、元のアップロード情報を保つ
+                        existing = findBlobMetadata(conn, staged.getHash());
+                    }
+                    BlobMetadata metadata;
+
+                    if (existing != null && Files.exists(finalPath)) {
+                        // 既存のBLOBがある場合はそのメタデータを返す
+                        logger.debug("Blob already exists: {}", staged.getHash());
+                        metadata = existing;
+                    } else {
+                        if (promote(staged.getPath(), finalPath)) {
+                            promoted.add(finalPath);
+                        }
+
+                        if (existing != null) {
+                            // メタデータのみ残っていた場合はファイルを補う
+                            metadata = existing;
+                        } else {
+                            metadata = new BlobMetadata(
+                                staged.getHash(),
+                                staged.getSize(),
+                                staged.getContentType(),
+                                uploaded,
+                                uploaderPubkey
+                            );
+                            if (!saveBlobMetadata(conn, metadata)) {
+                                // 別の経路で先に登録された場合はその行を返す
+                                metadata = findBlobMetadata(conn, staged.getHash());
+                            }
+                        }
+                    }
+
+                    committed.put(staged.getHash(), metadata);
+                    results.add(metadata);
+                }
+
+                conn.commit();
+
+            } catch (Exception e) {
+                conn.rollback();
+                // このトランザクションが作成したファイルのみ取り消す（既存のファイルには触れない）
+                for (Path path : promoted) {
+                    deleteStagingFile(path);
+                }
+                throw e;
             }
-            
-            // 最終保存先のパス
-            Path finalPath = getFilePath(calculatedSha256);
-            
-            // ディレクトリ作成
-            Files.createDirectories(finalPath.getParent());
-            
-            // 一時ファイルを最終位置に移動
-            Files.move(tempPath, finalPath);
-            
-            // データベースに記録
-            BlobMetadata metadata = new BlobMetadata(
-                calculatedSha256,
-                fileSize,
-                contentType,
-                Instant.now().getEpochSecond(),
-                uploaderPubkey
-            );
-            
-            saveBlobMetadata(metadata);
-            
-            logger.info("Blob stored successfully: {} ({} bytes)", calculatedSha256, fileSize);
-            return metadata;
-            
+
+        } catch (SQLException e) {
+            throw new StorageException(StorageException.StorageErrorType.DATABASE_ERROR, null, 
+                "Failed to save blob metadata", e);
         } catch (IOException e) {
             throw new StorageException(StorageException.StorageErrorType.STORAGE_ERROR, null, 
                 "Failed to store blob", e);
         } finally {
-            // 一時ファイル削除
-            if (tempPath != null && Files.exists(tempPath)) {
-                try {
-                    Files.delete(tempPath);
-                } catch (IOException e) {
-                    logger.warn("Failed to delete temporary file: {}", tempPath, e);
+            for (int stripe : stripes.descendingSet()) {
+                commitLocks[stripe].unlock();
+            }
+        }
+
+        for (BlobMetadata metadata : results) {
+            logger.info("Blob stored successfully: {} ({} bytes)", metadata.getHash(), metadata.getSize());
+        }
+        return results;
+    }
+
+    // 保存先を置き換えずに公開する。作成した場合は true、既に同じハッシュのファイルがあった場合は false。
+    // ハードリンクは既存のファイルがあれば失敗する（rename は黙って置き換える）ため、内容が同一でも上書きしない
+    private static boolean promote(Path stagingPath, Path finalPath) throws IOException {
+        Files.createDirectories(finalPath.getParent());
+        try {
+            try {
+                Files.createLink(finalPath, stagingPath);
+                Files.delete(stagingPath);
+            } catch (UnsupportedOperationException e) {
+                // ハードリンク非対応のファイルシステムでは置き換えなしの移動（同一ファイルシステム内のためコピーは発生しない）
+                Files.move(stagingPath, finalPath);
+            }
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            // 保存先のファイルは完全に書き込まれたものだけが置かれるため、そのまま採用する
+            logger.debug("Blob file already present: {}", finalPath.getFileName());
+            return false;
+        }
+    }
+
+    private int commitStripe(String sha256) {
+        return Math.floorMod(sha256.toLowerCase(Locale.ROOT).hashCode(), COMMIT_LOCK_STRIPES);
+    }
+
+    private BlobMetadata findBlobMetadata(Connection conn, String sha256) throws SQLException {
+        BlobHash hash = BlobHash.parse(sha256);
+        try (PreparedStatement stmt = conn.prepareStatement(SELECT_METADATA)) {
+            stmt.setBytes(1, hash.toBytes());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new BlobMetadata(
+                        hash.toString(),
+                        rs.getLong("size"),
+                        rs.getString("type"),
+                        rs.getLong("uploaded"),
+                        rs.getString("pubkey")
+                    );
                 }
             }
         }
+        return null;
+    }
+
+    private static void deleteStagingFile(Path path) {
+        if (path != null && Files.exists(path)) {
+            try {
+                Files.delete(path);
+            } catch (IOException e) {
+                logger.warn("Failed to delete temporary file: {}", path, e);
+            }
+        }
     }
 
     public boolean deleteBlob(String sha256Hash) throws StorageException {
@@ -356,6 +1015,17 @@ public class StorageService {
             throw new StorageException(StorageException.StorageErrorType.INVALID_HASH_FORMAT, sha256Hash);
         }
 
+        // 同じハッシュの昇格と並行して削除しない
+        ReentrantLock lock = commitLocks[commitStripe(sha256Hash)];
+        lock.lock();
+        try {
+            return deleteBlobFile(sha256Hash);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean deleteBlobFile(String sha256Hash) throws StorageException {
         // BLOBの存在確認
         Optional<BlobMetadata> metadata = findBlob(sha256Hash);
         if (metadata.isEmpty()) {
@@ -367,18 +1037,27 @@ public class StorageService {
             
             try {
                 // データベースから削除
+                byte[] key = key(sha256Hash);
                 String deleteMetadata = "DELETE FROM blobs WHERE hash = ?";
                 try (PreparedStatement stmt = conn.prepareStatement(deleteMetadata)) {
-                    stmt.setString(1, sha256Hash);
+                    stmt.setBytes(1, key);
                     stmt.executeUpdate();
                 }
                 
                 // アクセスログも削除
                 String deleteAccess = "DELETE FROM accessed WHERE blob = ?";
                 try (PreparedStatement stmt = conn.prepareStatement(deleteAccess)) {
-                    stmt.setString(1, sha256Hash);
+                    stmt.setBytes(1, key);
                     stmt.executeUpdate();
                 }
+
+                // 圧縮版も削除
+                String deleteVariants = "DELETE FROM variants WHERE hash = ?";
+                try (PreparedStatement stmt = conn.prepareStatement(deleteVariants)) {
+                    stmt.setBytes(1, key);
+                    stmt.executeUpdate();
+                }
+                Files.deleteIfExists(getVariantPath(sha256Hash, GZIP_ENCODING));
                 
                 // 物理ファイル削除
                 Path filePath = getFilePath(sha256Hash);
@@ -387,6 +1066,10 @@ public class StorageService {
                 }
                 
                 conn.commit();
+                invalidateDescriptor(sha256Hash);
+                for (BlobDeletionListener listener : deletionListeners) {
+                    listener.onBlobDeleted(sha256Hash);
+                }
                 logger.info("Blob deleted successfully: {}", sha256Hash);
                 return true;
                 
@@ -401,30 +1084,119 @@ public class StorageService {
         }
     }
 
-    private void saveBlobMetadata(BlobMetadata metadata) throws StorageException {
-        try (Connection conn = getConnection()) {
-            String sql = "INSERT INTO blobs (hash, size, type, uploaded, pubkey) VALUES (?, ?, ?, ?, ?)";
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, metadata.getHash());
-                stmt.setLong(2, metadata.getSize());
-                stmt.setString(3, metadata.getType());
-                stmt.setLong(4, metadata.getUploaded());
-                stmt.setString(5, metadata.getPubkey());
-                
-                stmt.executeUpdate();
-            }
-        } catch (SQLException e) {
-            throw new StorageException(StorageException.StorageErrorType.DATABASE_ERROR, metadata.getHash(), 
-                "Failed to save blob metadata", e);
+    // MIMEタイプと公開鍵は辞書テーブルに登録し、そのIDを記録する（同じトランザクション内）。
+    // 既に同じハッシュの行がある場合は何もせず false
+    private boolean saveBlobMetadata(Connection conn, BlobMetadata metadata) throws SQLException {
+        String sql = "INSERT OR IGNORE INTO blobs (hash, size, type_id, uploaded, pubkey_id) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, key(metadata.getHash()));
+            stmt.setLong(2, metadata.getSize());
+            setId(stmt, 3, internMimeType(conn, metadata.getType()));
+            stmt.setLong(4, metadata.getUploaded());
+            setId(stmt, 5, SqlDictionary.intern(conn, "pubkeys", "pubkey", metadata.getPubkey()));
+            
+            return stmt.executeUpdate() > 0;
         }
     }
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder result = new StringBuilder();
-        for (byte b : bytes) {
-            result.append(String.format("%02x", b));
+    // ステージング領域に書き込み済み・ハッシュ検証済みで、まだ公開されていないBLOB
+    public static class StagedBlob implements AutoCloseable {
+        private final Path path;
+        private final String hash;
+        private final long size;
+        private final String contentType;
+
+        private StagedBlob(Path path, String hash, long size, String contentType) {
+            this.path = path;
+            this.hash = hash;
+            this.size = size;
+            this.contentType = contentType;
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        // 昇格されなかった場合はステージングファイルを破棄する（昇格後は何もしない）
+        @Override
+        public void close() {
+            deleteStagingFile(path);
+        }
+    }
+
+    // 書き込み中のステージングファイル。SHA256・サイズ・MIMEタイプ判定用の先頭バイトを書き込みと同時に求める
+    public class Staging implements AutoCloseable {
+        private final Path path;
+        private final MessageDigest digest;
+        // 先頭バイトはMIMEタイプ判定用に保持する（ファイルを読み直さない）
+        private final byte[] head = new byte[SNIFF_LENGTH];
+        private int headLength;
+        private long size;
+        private boolean finished;
+
+        Staging(Path path) throws StorageException {
+            this.path = path;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                deleteStagingFile(path);
+                throw new StorageException(StorageException.StorageErrorType.STORAGE_ERROR, null,
+                    "SHA-256 algorithm not available", e);
+            }
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        // ファイルに書き込んだバイト列（data の残り全体）を渡す
+        public void update(ByteBuffer data) {
+            if (headLength < SNIFF_LENGTH) {
+                int copy = Math.min(data.remaining(), SNIFF_LENGTH - headLength);
+                data.duplicate().get(head, headLength, copy);
+                headLength += copy;
+            }
+            size += data.remaining();
+            digest.update(data);
+        }
+
+        // 書き込みを終えてSHA256を確定する。期待値と異なる場合は例外を投げ、ファイルは close で破棄される
+        public StagedBlob finish(String contentType, String expectedSha256) throws StorageException {
+            String calculatedSha256 = BlobHash.fromBytes(digest.digest()).toString();
+
+            // 期待されたSHA256との整合性チェック
+            if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(calculatedSha256)) {
+                throw new StorageException(StorageException.StorageErrorType.HASH_MISMATCH, calculatedSha256,
+                    String.format("SHA256 mismatch: expected %s, calculated %s", expectedSha256, calculatedSha256));
+            }
+
+            finished = true;
+            return new StagedBlob(path, calculatedSha256, size, resolveContentType(contentType, head, headLength));
+        }
+
+        // finish していない場合はステージングファイルを破棄する（finish 後は StagedBlob が破棄を受け持つ）
+        @Override
+        public void close() {
+            if (!finished) {
+                deleteStagingFile(path);
+            }
         }
-        return result.toString();
     }
 
     public static class StorageStats {
@@ -0,0 +1,173 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.exception.ServiceUnavailableException;
+import io.github.kengirie.JBlossom.util.TokenBucket;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class UploadAdmissionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadAdmissionService.class);
+
+    @Value("${blossom.storage.path}")
+    private String storagePath;
+
+    @Value("${blossom.upload.admission.max-concurrent:8}")
+    private int maxConcurrent;
+
+    @Value("${blossom.upload.admission.write-bytes-per-second:0}") // 0 = 無制限
+    private long writeBytesPerSecond;
+
+    @Value("${blossom.upload.admission.max-queue-millis:2000}")
+    private long maxQueueMillis;
+
+    @Value("${blossom.upload.admission.min-free-space:1073741824}") // 1GB
+    private long minFreeSpace;
+
+    @Value("${blossom.upload.admission.retry-after-seconds:5}")
+    private long retryAfterSeconds;
+
+    private Semaphore slots;
+    private TokenBucket writeBudget;
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    @PostConstruct
+    public void initialize() {
+        slots = new Semaphore(maxConcurrent);
+        // バースト許容量は1秒分
+        writeBudget = writeBytesPerSecond > 0 ? new TokenBucket(writeBytesPerSecond, writeBytesPerSecond) : null;
+
+        logger.info("Upload admission: {} slots, write budget {} bytes/s, min free space {} bytes",
+                   maxConcurrent, writeBytesPerSecond > 0 ? writeBytesPerSecond : "unlimited", minFreeSpace);
+    }
+
+    public Permit admit(long contentLength) throws ServiceUnavailableException {
+        // 1. 同時実行スロット（待たずに即時判定）
+        if (!slots.tryAcquire()) {
+            throw new ServiceUnavailableException("Too many concurrent uploads", retryAfterSeconds);
+        }
+
+        boolean admitted = false;
+        try {
+            // 2. 書き込み帯域の借り越しが大きすぎる場合は拒否
+            if (writeBudget != null) {
+                long waitMillis = writeBudget.estimateWaitMillis();
+                if (waitMillis > maxQueueMillis) {
+                    throw new ServiceUnavailableException("Upload bandwidth budget exhausted",
+                        Math.max(1, (waitMillis + 999) / 1000));
+                }
+            }
+
+            // 3. Content-Lengthに基づく空き容量の予約
+            reserveSpace(contentLength);
+
+            admitted = true;
+            return new Permit(contentLength);
+        } finally {
+            if (!admitted) {
+                slots.release();
+            }
+        }
+    }
+
+    public int getAvailableSlots() {
+        return slots.availablePermits();
+    }
+
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    private void reserveSpace(long contentLength) {
+        long reserved = reservedBytes.addAndGet(contentLength);
+        long usable = new File(storagePath).getUsableSpace();
+
+        if (usable - reserved < minFreeSpace) {
+            reservedBytes.addAndGet(-contentLength);
+            logger.warn("Rejecting upload of {} bytes: usable {} bytes, reserved {} bytes",
+                       contentLength, usable, reserved - contentLength);
+            throw new ServiceUnavailableException("Insufficient storage space for upload", retryAfterSeconds);
+        }
+    }
+
+    public final class Permit implements AutoCloseable {
+        private final long reservedSize;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Permit(long reservedSize) {
+            this.reservedSize = reservedSize;
+        }
+
+        // 書き込み帯域のトークンを消費しながら読み出すストリームを返す
+        public InputStream throttle(InputStream inputStream) {
+            if (writeBudget == null) {
+                return inputStream;
+            }
+            return new ThrottledInputStream(inputStream, writeBudget);
+        }
+
+        // 書き込み帯域のトークンを消費し、次の読み出しまで待つべき時間（ミリ秒）を返す。
+        // スレッドを止められないノンブロッキングの受信では、この時間だけ要求を遅らせる
+        public long pace(long bytes) {
+            return writeBudget != null ? writeBudget.consume(bytes) : 0;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                reservedBytes.addAndGet(-reservedSize);
+                slots.release();
+            }
+        }
+    }
+
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final TokenBucket bucket;
+
+        ThrottledInputStream(InputStream in, TokenBucket bucket) {
+            super(in);
+            this.bucket = bucket;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                pace(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                pace(n);
+            }
+            return n;
+        }
+
+        private void pace(long bytes) throws IOException {
+            try {
+                bucket.acquire(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for write budget");
+            }
+        }
+    }
+}
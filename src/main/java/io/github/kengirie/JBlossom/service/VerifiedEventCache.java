@@ -0,0 +1,146 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.model.AuthResult;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 署名検証済みの認証イベントを有効期限まで保持し、同じイベントの再利用時にデコード・パース・Schnorr検証を省く。
+// キーはエンコードされたイベント全体（id と sig を含む）のため、ヒットするのは検証済みと同一のイベントのみ
+@Service
+public class VerifiedEventCache implements VerifiedEventCacheMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerifiedEventCache.class);
+    private static final String MBEAN_NAME = "io.github.kengirie.JBlossom:type=VerifiedEventCache";
+
+    @Value("${blossom.auth.verified-cache.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${blossom.auth.verified-cache.max-entries:4096}")
+    private int maxEntries = 4096;
+
+    // アクセス順（LRU）。this で保護する
+    private final LinkedHashMap<String, AuthResult> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AuthResult> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    public void initialize() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            // テストなどで同一JVM内に複数のコンテキストがある場合は最後のものを公開する
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            logger.warn("Failed to register verified event cache MBean", e);
+        }
+
+        logger.info("Verified auth event cache: {}, at most {} events",
+                   enabled ? "enabled" : "disabled", maxEntries);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.debug("Failed to unregister verified event cache MBean", e);
+        }
+        clear();
+    }
+
+    // 検証済みの結果を返す。未登録・期限切れの場合は null
+    public AuthResult get(String encodedEvent) {
+        if (!enabled) {
+            return null;
+        }
+
+        AuthResult cached;
+        synchronized (this) {
+            cached = entries.get(encodedEvent);
+            if (cached != null && cached.getExpiration() <= Instant.now().getEpochSecond()) {
+                entries.remove(encodedEvent);
+                cached = null;
+            }
+        }
+
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached;
+    }
+
+    // 署名まで検証済みの結果のみ登録する
+    public void put(String encodedEvent, AuthResult verified) {
+        if (!enabled || !verified.isValid()) {
+            return;
+        }
+        synchronized (this) {
+            entries.put(encodedEvent, verified);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
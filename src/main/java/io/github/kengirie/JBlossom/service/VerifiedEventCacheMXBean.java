@@ -0,0 +1,15 @@
+package io.github.kengirie.JBlossom.service;
+
+// JMX経由で公開する検証済み認証イベントキャッシュの統計
+public interface VerifiedEventCacheMXBean {
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    int getEntryCount();
+
+    long getEvictions();
+}
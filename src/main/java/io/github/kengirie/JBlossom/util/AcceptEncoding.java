@@ -0,0 +1,47 @@
+package io.github.kengirie.JBlossom.util;
+
+// Accept-Encoding ヘッダーの判定（RFC 9110 12.5.3）
+public final class AcceptEncoding {
+
+    private AcceptEncoding() {
+    }
+
+    // 指定のコーディングが q > 0 で受け入れられるか。明示がなければ "*" に従う。ヘッダーなしは identity のみとみなす
+    public static boolean accepts(String acceptEncodingHeader, String coding) {
+        if (acceptEncodingHeader == null || acceptEncodingHeader.isBlank()) {
+            return false;
+        }
+
+        boolean wildcard = false;
+        for (String element : acceptEncodingHeader.split(",")) {
+            int semicolon = element.indexOf(';');
+            String name = (semicolon < 0 ? element : element.substring(0, semicolon)).trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+
+            double quality = semicolon < 0 ? 1.0 : parseQuality(element.substring(semicolon + 1));
+            if (name.equalsIgnoreCase(coding)) {
+                return quality > 0;
+            }
+            if (name.equals("*")) {
+                wildcard = quality > 0;
+            }
+        }
+        return wildcard;
+    }
+
+    private static double parseQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.length() > 2 && trimmed.regionMatches(true, 0, "q=", 0, 2)) {
+                try {
+                    return Double.parseDouble(trimmed.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1.0;
+    }
+}
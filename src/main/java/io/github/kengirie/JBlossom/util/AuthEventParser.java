@@ -0,0 +1,259 @@
+package io.github.kengirie.JBlossom.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 認証イベント（kind 24242）のJSONをツリーを作らずに1回の走査で読み取る。
+// 値の解釈は ObjectMapper.readTree + asText/asInt/asLong に合わせている（数値文字列の変換、重複キーは後勝ちなど）
+public class AuthEventParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    public static class AuthEvent {
+        private boolean object;
+        private Integer kind;
+        private String id;
+        private String pubkey;
+        private Long createdAt;
+        private boolean hasContent;
+        private String content;
+        private String sig;
+        private boolean hasTags;
+        private long expiration;
+        private boolean expirationSeen;
+        private final Map<String, String> tags = new HashMap<>();
+        private final Map<String, List<String>> tagValues = new HashMap<>();
+        // 配列であったタグのすべての要素（出現順）。イベントIDの計算に使う
+        private final List<List<String>> allTags = new ArrayList<>();
+
+        // ルートがJSONオブジェクトでない場合は false
+        public boolean isObject() {
+            return object;
+        }
+
+        // kind がない場合は null
+        public Integer getKind() {
+            return kind;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getPubkey() {
+            return pubkey;
+        }
+
+        public Long getCreatedAt() {
+            return createdAt;
+        }
+
+        public boolean hasContent() {
+            return hasContent;
+        }
+
+        public String getSig() {
+            return sig;
+        }
+
+        // tags が配列として存在する
+        public boolean hasTags() {
+            return hasTags;
+        }
+
+        // 最初の expiration タグの値。ない・数値でない場合は 0
+        public long getExpiration() {
+            return expiration;
+        }
+
+        // 名前ごとの最後の値
+        public Map<String, String> getTags() {
+            return tags;
+        }
+
+        // 名前ごとのすべての値（出現順）
+        public Map<String, List<String>> getTagValues() {
+            return tagValues;
+        }
+
+        public List<String> getTagValues(String name) {
+            return tagValues.getOrDefault(name, List.of());
+        }
+
+        // NIP-01 のイベントID: sha256([0, pubkey, created_at, kind, tags, content]) を、読み取った値から計算する。
+        // 読み取った値そのものから作るため、一致すれば検証に使うすべての値（有効期限・アクション・ハッシュ）が署名で保護される
+        public byte[] computeId() {
+            StringBuilder json = new StringBuilder(256);
+            json.append("[0,");
+            appendString(json, pubkey);
+            json.append(',').append(createdAt).append(',').append(kind).append(",[");
+            for (int i = 0; i < allTags.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append('[');
+                List<String> tag = allTags.get(i);
+                for (int j = 0; j < tag.size(); j++) {
+                    if (j > 0) {
+                        json.append(',');
+                    }
+                    appendString(json, tag.get(j));
+                }
+                json.append(']');
+            }
+            json.append("],");
+            appendString(json, content);
+            json.append(']');
+
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(json.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 algorithm not available", e);
+            }
+        }
+
+        private void addTag(String name, String value) {
+            tags.put(name, value);
+            tagValues.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+            if (!expirationSeen && "expiration".equals(name)) {
+                expirationSeen = true;
+                try {
+                    expiration = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    expiration = 0;
+                }
+            }
+        }
+    }
+
+    // expectedKind と異なる kind を読んだ時点で残りを読まずに返す（kind は最初に検証される項目のため結果は変わらない）
+    public static AuthEvent parse(byte[] json, int expectedKind) throws IOException {
+        AuthEvent event = new AuthEvent();
+
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return event;
+            }
+            event.object = true;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+
+                switch (field) {
+                    case "kind":
+                        event.kind = parser.getValueAsInt(0);
+                        if (event.kind != expectedKind) {
+                            return event;
+                        }
+                        break;
+                    case "id":
+                        event.id = text(parser, token);
+                        break;
+                    case "pubkey":
+                        event.pubkey = text(parser, token);
+                        break;
+                    case "created_at":
+                        event.createdAt = parser.getValueAsLong(0);
+                        break;
+                    case "content":
+                        event.hasContent = true;
+                        event.content = text(parser, token);
+                        break;
+                    case "sig":
+                        event.sig = text(parser, token);
+                        break;
+                    case "tags":
+                        // 重複キーは後勝ち
+                        event.tags.clear();
+                        event.tagValues.clear();
+                        event.allTags.clear();
+                        event.expiration = 0;
+                        event.expirationSeen = false;
+                        event.hasTags = token == JsonToken.START_ARRAY;
+                        if (event.hasTags) {
+                            readTags(parser, event);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                parser.skipChildren();
+            }
+        }
+        return event;
+    }
+
+    // [["name", "value", ...], ...] の先頭2要素を名前と値とし、要素が2つ未満のタグや配列以外の要素は無視する
+    // （配列以外の要素はイベントIDの計算からも外れるため、IDが一致しなくなる）
+    private static void readTags(JsonParser parser, AuthEvent event) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+
+            String name = null;
+            String value = null;
+            int index = 0;
+            List<String> elements = new ArrayList<>(2);
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                String element = text(parser, token);
+                if (index == 0) {
+                    name = element;
+                } else if (index == 1) {
+                    value = element;
+                }
+                elements.add(element);
+                parser.skipChildren();
+                index++;
+            }
+            event.allTags.add(elements);
+
+            if (index >= 2) {
+                event.addTag(name, value);
+            }
+        }
+    }
+
+    // NIP-01 のシリアライズ: ", \, 改行, CR, タブ, バックスペース, 改ページのみエスケープし、その他の文字はそのまま出力する
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                case '\b' -> json.append("\\b");
+                case '\f' -> json.append("\\f");
+                default -> json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    // JsonNode.asText() と同じく、スカラー値は文字列表現、null は "null"、オブジェクト・配列は空文字
+    private static String text(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return "null";
+        }
+        if (token.isScalarValue()) {
+            return parser.getText();
+        }
+        return "";
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.kengirie.JBlossom.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// 拡張子→MIMEタイプの不変テーブル（起動時に構築）。大文字小文字を区別せず、参照時にメモリを確保しない
+public final class ExtensionMimeTable {
+
+    private final String[] keys;
+    private final String[] values;
+    private final int mask;
+    private final int size;
+
+    public ExtensionMimeTable(Map<String, String> entries) {
+        // 負荷率 0.5 以下のオープンアドレス法
+        int capacity = Integer.highestOneBit(Math.max(2, entries.size() * 2 - 1)) << 1;
+        this.keys = new String[capacity];
+        this.values = new String[capacity];
+        this.mask = capacity - 1;
+
+        // 同じMIMEタイプは同一インスタンスを共有する
+        Map<String, String> canonical = new HashMap<>();
+        int count = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            String key = fold(entry.getKey());
+            if (key.isEmpty() || entry.getValue() == null) {
+                continue;
+            }
+            int slot = hash(key) & mask;
+            while (keys[slot] != null && !keys[slot].equals(key)) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == null) {
+                count++;
+            }
+            keys[slot] = key;
+            values[slot] = canonical.computeIfAbsent(entry.getValue(), value -> value);
+        }
+        this.size = count;
+    }
+
+    // 未登録の場合は null
+    public String lookup(CharSequence extension) {
+        if (extension == null) {
+            return null;
+        }
+        int length = extension.length();
+        int slot = hash(extension) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (matches(key, extension, length)) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static boolean matches(String key, CharSequence extension, int length) {
+        if (key.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != fold(extension.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(CharSequence s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + fold(s.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static char fold(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        return c < 0x80 ? c : Character.toLowerCase(c);
+    }
+
+    private static String fold(String s) {
+        StringBuilder folded = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            folded.append(fold(s.charAt(i)));
+        }
+        return folded.toString();
+    }
+}
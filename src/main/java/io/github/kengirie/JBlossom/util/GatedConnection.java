@@ -0,0 +1,51 @@
+package io.github.kengirie.JBlossom.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// close() 時に同時接続数の許可を返却する Connection ラッパー
+public final class GatedConnection implements InvocationHandler {
+
+    private final Connection delegate;
+    private final Semaphore gate;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private GatedConnection(Connection delegate, Semaphore gate) {
+        this.delegate = delegate;
+        this.gate = gate;
+    }
+
+    // 呼び出し側で gate の許可を取得済みであること
+    public static Connection wrap(Connection delegate, Semaphore gate) {
+        return (Connection) Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            new GatedConnection(delegate, gate));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+            // 二重closeでも許可は一度だけ返す
+            if (released.compareAndSet(false, true)) {
+                try {
+                    delegate.close();
+                } finally {
+                    gate.release();
+                }
+            }
+            return null;
+        }
+
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
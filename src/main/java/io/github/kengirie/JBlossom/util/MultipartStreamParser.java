@@ -0,0 +1,302 @@
+package io.github.kengirie.JBlossom.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// multipart/form-data をスプールせずに先頭から順にストリーム解析する
+public class MultipartStreamParser {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer;
+    private int head;
+    private int tail;
+    private boolean eof;
+    private boolean finished;
+    private PartInputStream currentBody;
+
+    public static class Part {
+        private final String name;
+        private final String filename;
+        private final String contentType;
+        private final InputStream body;
+
+        private Part(String name, String filename, String contentType, InputStream body) {
+            this.name = name;
+            this.filename = filename;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Part{name='%s', filename='%s', contentType='%s'}", name, filename, contentType);
+        }
+    }
+
+    public MultipartStreamParser(InputStream in, String boundary) {
+        if (in == null || boundary == null || boundary.isEmpty()) {
+            throw new IllegalArgumentException("InputStream and boundary are required");
+        }
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+        // 最初の区切りは先頭のCRLFを持たないため、仮想的に補う
+        this.buffer[0] = '\r';
+        this.buffer[1] = '\n';
+        this.tail = 2;
+    }
+
+    public static boolean isMultipart(String contentType) {
+        return contentType != null &&
+               contentType.trim().toLowerCase(Locale.ROOT).startsWith("multipart/");
+    }
+
+    public static String extractBoundary(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String boundary = parseParameters(contentType).get("boundary");
+        if (boundary == null || boundary.isEmpty() || boundary.length() > 70) {
+            return null;
+        }
+        return boundary;
+    }
+
+    // 次のパートを返す。前のパートの未読部分は読み捨てる。終端に達した場合は null
+    public Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+
+        // 前のパート（初回はプリアンブル）を読み捨てる
+        PartInputStream previous = currentBody != null ? currentBody : new PartInputStream();
+        previous.drain();
+        currentBody = null;
+
+        // 区切りの直後: "--" なら終端、それ以外は(空白を挟んで)CRLF
+        int first = readByte();
+        int second = readByte();
+        if (first == '-' && second == '-') {
+            finished = true;
+            return null;
+        }
+        while (first == ' ' || first == '\t') {
+            first = second;
+            second = readByte();
+        }
+        if (first != '\r' || second != '\n') {
+            throw new IOException("Malformed multipart boundary line");
+        }
+
+        Map<String, String> headers = readHeaders();
+        Map<String, String> disposition = parseParameters(headers.getOrDefault("content-disposition", ""));
+
+        currentBody = new PartInputStream();
+        return new Part(
+            disposition.get("name"),
+            disposition.get("filename"),
+            headers.get("content-type"),
+            currentBody
+        );
+    }
+
+    // 指定名のパートまで読み進める。見つからない場合は null
+    public Part findPart(String name) throws IOException {
+        Part part;
+        while ((part = nextPart()) != null) {
+            if (name.equals(part.getName())) {
+                return part;
+            }
+        }
+        return null;
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int total = 0;
+
+        while (true) {
+            int b = readByte();
+            if (++total > MAX_HEADER_SIZE) {
+                throw new IOException("Multipart part headers too large");
+            }
+            if (b == '\r') {
+                if (readByte() != '\n') {
+                    throw new IOException("Malformed multipart header line");
+                }
+                if (line.size() == 0) {
+                    return headers;
+                }
+                String header = line.toString(StandardCharsets.UTF_8);
+                int colon = header.indexOf(':');
+                if (colon > 0) {
+                    headers.put(header.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                                header.substring(colon + 1).trim());
+                }
+                line.reset();
+            } else {
+                line.write(b);
+            }
+        }
+    }
+
+    // "form-data; name=\"file\"; filename=\"a.txt\"" のようなヘッダー値のパラメータを解析する
+    static Map<String, String> parseParameters(String headerValue) {
+        Map<String, String> params = new HashMap<>();
+        int i = headerValue.indexOf(';');
+        int length = headerValue.length();
+
+        while (i >= 0 && i < length) {
+            i++;
+            while (i < length && Character.isWhitespace(headerValue.charAt(i))) {
+                i++;
+            }
+            int eq = headerValue.indexOf('=', i);
+            if (eq < 0) {
+                break;
+            }
+            String key = headerValue.substring(i, eq).trim().toLowerCase(Locale.ROOT);
+            i = eq + 1;
+
+            String value;
+            if (i < length && headerValue.charAt(i) == '"') {
+                StringBuilder sb = new StringBuilder();
+                i++;
+                while (i < length && headerValue.charAt(i) != '"') {
+                    char c = headerValue.charAt(i);
+                    if (c == '\\' && i + 1 < length) {
+                        c = headerValue.charAt(++i);
+                    }
+                    sb.append(c);
+                    i++;
+                }
+                value = sb.toString();
+                i = headerValue.indexOf(';', i);
+            } else {
+                int end = headerValue.indexOf(';', i);
+                value = (end < 0 ? headerValue.substring(i) : headerValue.substring(i, end)).trim();
+                i = end;
+            }
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    private int readByte() throws IOException {
+        if (head == tail && !fill()) {
+            throw new EOFException("Unexpected end of multipart stream");
+        }
+        return buffer[head++] & 0xff;
+    }
+
+    // 未読データを先頭に詰めてから追加で読み込む
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (head > 0) {
+            System.arraycopy(buffer, head, buffer, 0, tail - head);
+            tail -= head;
+            head = 0;
+        }
+        int n = in.read(buffer, tail, buffer.length - tail);
+        if (n == -1) {
+            eof = true;
+            return false;
+        }
+        tail += n;
+        return true;
+    }
+
+    private int indexOfDelimiter() {
+        int last = tail - delimiter.length;
+        outer:
+        for (int i = head; i <= last; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private class PartInputStream extends InputStream {
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+
+            while (true) {
+                int index = indexOfDelimiter();
+                if (index == head) {
+                    // パート終端。区切り文字列を消費する
+                    head += delimiter.length;
+                    done = true;
+                    return -1;
+                }
+
+                // 区切りの手前、または末尾に区切りの一部が残りうる分を除いた範囲は安全に返せる
+                int available = index >= 0 ? index - head : tail - head - (delimiter.length - 1);
+                if (available > 0) {
+                    int n = Math.min(len, available);
+                    System.arraycopy(buffer, head, b, off, n);
+                    head += n;
+                    return n;
+                }
+
+                if (!fill()) {
+                    throw new EOFException("Unexpected end of multipart stream");
+                }
+            }
+        }
+
+        void drain() throws IOException {
+            byte[] skip = new byte[BUFFER_SIZE];
+            while (read(skip, 0, skip.length) != -1) {
+                // 読み捨て
+            }
+        }
+    }
+}
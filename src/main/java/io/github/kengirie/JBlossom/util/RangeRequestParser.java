@@ -1,12 +1,13 @@
 package io.github.kengirie.JBlossom.util;
 
 import io.github.kengirie.JBlossom.exception.RangeNotSatisfiableException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 public class RangeRequestParser {
     
-    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final String BYTES_UNIT = "bytes=";
     
     public static class Range {
         private final long start;
@@ -35,49 +36,167 @@ public class RangeRequestParser {
         }
     }
     
+    // 単一範囲のみを扱う簡易版。満たせない・書式不正の場合は null
     public static Range parseRange(String rangeHeader, long fileSize) {
-        if (rangeHeader == null || rangeHeader.isBlank()) {
+        try {
+            List<Range> ranges = parseRanges(rangeHeader, fileSize, 1);
+            return ranges != null ? ranges.get(0) : null;
+        } catch (RangeNotSatisfiableException e) {
             return null;
         }
-        
-        Matcher matcher = RANGE_PATTERN.matcher(rangeHeader.trim());
-        if (!matcher.matches()) {
+    }
+
+    // RFC 9110 の byte-range 構文（"bytes=0-99, 200-, -500"）を正規表現なしで先頭から走査して解析する。
+    // 書式不正や範囲数の上限超過は null（Rangeヘッダーを無視して全体を返す）、
+    // 書式は正しいが満たせる範囲が一つもない場合は RangeNotSatisfiableException
+    public static List<Range> parseRanges(String rangeHeader, long fileSize, int maxRanges) {
+        if (rangeHeader == null) {
             return null;
         }
-        
-        try {
-            long start = Long.parseLong(matcher.group(1));
-            String endStr = matcher.group(2);
-            
-            // 開始位置がファイルサイズを超えている場合は無効
-            if (start >= fileSize) {
+
+        int length = rangeHeader.length();
+        int i = skipWhitespace(rangeHeader, 0);
+        // 範囲単位は大文字小文字を区別しない
+        if (!rangeHeader.regionMatches(true, i, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+        i += BYTES_UNIT.length();
+
+        List<Range> ranges = null;
+        int specs = 0;
+        while (i < length) {
+            i = skipWhitespace(rangeHeader, i);
+            if (i >= length) {
+                break;
+            }
+            // 空のリスト要素（"0-9,,20-29"）は読み飛ばす
+            if (rangeHeader.charAt(i) == ',') {
+                i++;
+                continue;
+            }
+
+            // first-pos（省略時は suffix-range）
+            long first = -1;
+            if (isDigit(rangeHeader.charAt(i))) {
+                first = 0;
+                while (i < length && isDigit(rangeHeader.charAt(i))) {
+                    first = appendDigit(first, rangeHeader.charAt(i++));
+                }
+            }
+            if (i >= length || rangeHeader.charAt(i) != '-') {
                 return null;
             }
-            
-            long end;
-            if (endStr.isEmpty()) {
-                // "bytes=100-" の形式（最後まで）
-                end = fileSize - 1;
+            i++;
+
+            // last-pos / suffix-length
+            long last = -1;
+            if (i < length && isDigit(rangeHeader.charAt(i))) {
+                last = 0;
+                while (i < length && isDigit(rangeHeader.charAt(i))) {
+                    last = appendDigit(last, rangeHeader.charAt(i++));
+                }
+            }
+
+            i = skipWhitespace(rangeHeader, i);
+            if (i < length) {
+                if (rangeHeader.charAt(i) != ',') {
+                    return null;
+                }
+                i++;
+            }
+
+            Range range;
+            if (first < 0) {
+                if (last < 0) {
+                    return null; // "-" のみ
+                }
+                specs++;
+                // "-500" は末尾500バイト。長さ0の suffix は満たせない
+                if (last == 0 || fileSize == 0) {
+                    continue;
+                }
+                range = new Range(Math.max(0, fileSize - last), fileSize - 1);
             } else {
-                end = Long.parseLong(endStr);
-                // 終了位置がファイルサイズを超えている場合は調整
-                if (end >= fileSize) {
-                    end = fileSize - 1;
+                if (last >= 0 && first > last) {
+                    return null;
+                }
+                specs++;
+                // ファイル末尾より後ろから始まる範囲は満たせないので除外する
+                if (first >= fileSize) {
+                    continue;
                 }
+                range = new Range(first, last < 0 ? fileSize - 1 : Math.min(last, fileSize - 1));
             }
-            
-            // 開始位置が終了位置を超えている場合は無効
-            if (start > end) {
-                return null;
+
+            if (ranges == null) {
+                ranges = new ArrayList<>(4);
             }
-            
-            return new Range(start, end);
-            
-        } catch (NumberFormatException e) {
+            ranges.add(range);
+        }
+
+        if (specs == 0) {
+            return null;
+        }
+        if (ranges == null) {
+            throw new RangeNotSatisfiableException("No satisfiable range", rangeHeader, fileSize);
+        }
+
+        List<Range> coalesced = ranges.size() == 1 ? ranges : coalesce(ranges);
+        if (coalesced.size() > maxRanges) {
             return null;
         }
+        return coalesced;
     }
-    
+
+    // If-Range が現在の表現を指している場合のみ Range を適用する。
+    // 比較は強いETagの完全一致のみ（弱いETagや日付形式は一致しないものとして全体を返す）
+    public static boolean isIfRangeSatisfied(String ifRangeHeader, String etag) {
+        if (ifRangeHeader == null) {
+            return true;
+        }
+        return etag != null && ifRangeHeader.trim().equals(etag);
+    }
+
+    private static int skipWhitespace(String value, int index) {
+        while (index < value.length() && (value.charAt(index) == ' ' || value.charAt(index) == '\t')) {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // 桁あふれは Long.MAX_VALUE に飽和させる（末尾位置はファイルサイズに丸められる）
+    private static long appendDigit(long value, char digit) {
+        int d = digit - '0';
+        if (value > (Long.MAX_VALUE - d) / 10) {
+            return Long.MAX_VALUE;
+        }
+        return value * 10 + d;
+    }
+
+    // 重なり合う・隣接する範囲をまとめ、開始位置順に並べる
+    static List<Range> coalesce(List<Range> ranges) {
+        List<Range> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(Range::getStart));
+
+        List<Range> merged = new ArrayList<>(sorted.size());
+        Range current = sorted.get(0);
+        for (int i = 1; i < sorted.size(); i++) {
+            Range next = sorted.get(i);
+            if (next.getStart() <= current.getEnd() + 1) {
+                current = new Range(current.getStart(), Math.max(current.getEnd(), next.getEnd()));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
     public static boolean isValidRange(Range range, long fileSize) {
         if (range == null) {
             return false;
@@ -0,0 +1,383 @@
+package io.github.kengirie.JBlossom.util;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// BIP-340 Schnorr署名（secp256k1）の検証。
+// 公開鍵（x座標）から曲線上の点への復元（平方根の計算）を鍵ごとにキャッシュし、
+// 頻繁に現れる鍵は倍数テーブルを作って e*P を加算のみで求める。G の倍数テーブルは起動時に一度だけ作る。
+// キャッシュへの登録と使用回数の計上は検証に成功した場合のみ行う（不正な署名で記憶領域や計算を消費させない）
+public class SchnorrVerifier {
+
+    private static final BigInteger P = new BigInteger(
+        "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEFFFFFC2F", 16);
+    private static final BigInteger N = new BigInteger(
+        "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEBAAEDCE6AF48A03BBFD25E8CD0364141", 16);
+    private static final BigInteger SQRT_EXPONENT = P.add(BigInteger.ONE).shiftRight(2);
+    private static final BigInteger SEVEN = BigInteger.valueOf(7);
+    private static final Affine G = new Affine(
+        new BigInteger("79BE667EF9DCBBAC55A06295CE870B07029BFCDB2DCE28D959F2815B16F81798", 16),
+        new BigInteger("483ADA7726A3C4655DA4FBFC0E1108A8FD17B448A68554199C47D08FFB10D4B8", 16));
+
+    // 4ビット窓: table[i][d] = d * 16^i * 点（d = 1..15）
+    private static final int WINDOW_BITS = 4;
+    private static final int WINDOWS = 256 / WINDOW_BITS;
+    private static final Affine[][] G_TABLE = buildTable(G);
+
+    private static final byte[] CHALLENGE_TAG_HASH = sha256("BIP0340/challenge".getBytes(StandardCharsets.US_ASCII));
+
+    private final int maxCachedKeys;
+    private final int tableThreshold;
+    private final int maxTables;
+
+    // 復元済みの公開鍵（アクセス順、this で保護する）
+    private final LinkedHashMap<BigInteger, PublicKey> keys;
+
+    // 倍数テーブル（1つ約190KB）を持つ公開鍵（アクセス順、this で保護する）。外れた鍵はテーブルを手放す
+    private final LinkedHashMap<BigInteger, PublicKey> tabled;
+
+    private final AtomicLong keyHits = new AtomicLong();
+    private final AtomicLong keyMisses = new AtomicLong();
+
+    // maxCachedKeys: 点を保持する公開鍵数の上限、tableThreshold: 倍数テーブルを作るまでの検証成功回数（0 で作らない）、
+    // maxTables: 倍数テーブルを持つ公開鍵数の上限
+    public SchnorrVerifier(int maxCachedKeys, int tableThreshold, int maxTables) {
+        this.maxCachedKeys = maxCachedKeys;
+        this.tableThreshold = tableThreshold;
+        this.maxTables = maxTables;
+        this.keys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BigInteger, PublicKey> eldest) {
+                return size() > SchnorrVerifier.this.maxCachedKeys;
+            }
+        };
+        this.tabled = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BigInteger, PublicKey> eldest) {
+                if (size() > SchnorrVerifier.this.maxTables) {
+                    // 再び頻繁に使われるようになれば作り直す
+                    eldest.getValue().table = null;
+                    eldest.getValue().uses.set(0);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // message: 32バイト（イベントID）、pubkey: 32バイト（x座標）、signature: 64バイト (r || s)
+    public boolean verify(byte[] message, byte[] pubkey, byte[] signature) {
+        if (message == null || pubkey == null || pubkey.length != 32 || signature == null || signature.length != 64) {
+            return false;
+        }
+
+        BigInteger keyX = new BigInteger(1, pubkey);
+        PublicKey key = publicKey(keyX);
+        if (key == null) {
+            return false;
+        }
+
+        BigInteger r = new BigInteger(1, Arrays.copyOfRange(signature, 0, 32));
+        BigInteger s = new BigInteger(1, Arrays.copyOfRange(signature, 32, 64));
+        if (r.compareTo(P) >= 0 || s.compareTo(N) >= 0) {
+            return false;
+        }
+
+        // e = H_challenge(r || P || m) mod n
+        MessageDigest digest = newSha256();
+        digest.update(CHALLENGE_TAG_HASH);
+        digest.update(CHALLENGE_TAG_HASH);
+        digest.update(signature, 0, 32);
+        digest.update(pubkey);
+        digest.update(message);
+        BigInteger e = new BigInteger(1, digest.digest()).mod(N);
+
+        // R = s*G - e*P
+        Jacobian sG = multiply(G_TABLE, s);
+        Jacobian eP = key.multiply(e);
+        Jacobian point = add(sG, negate(eP));
+        if (point.isInfinity()) {
+            return false;
+        }
+
+        BigInteger zInverse = point.z.modInverse(P);
+        BigInteger zInverse2 = zInverse.multiply(zInverse).mod(P);
+        BigInteger x = point.x.multiply(zInverse2).mod(P);
+        BigInteger y = point.y.multiply(zInverse2).multiply(zInverse).mod(P);
+        if (y.testBit(0) || !x.equals(r)) {
+            return false;
+        }
+        recordUse(keyX, key);
+        return true;
+    }
+
+    public long getKeyHits() {
+        return keyHits.get();
+    }
+
+    public long getKeyMisses() {
+        return keyMisses.get();
+    }
+
+    public synchronized int getCachedKeyCount() {
+        return keys.size();
+    }
+
+    public synchronized int getTableCount() {
+        return tabled.size();
+    }
+
+    private PublicKey publicKey(BigInteger x) {
+        PublicKey key;
+        synchronized (this) {
+            key = keys.get(x);
+        }
+        if (key != null) {
+            keyHits.incrementAndGet();
+            return key;
+        }
+        keyMisses.incrementAndGet();
+
+        // 復元（modPow）はロックの外で行う。キャッシュへの登録は検証に成功してから
+        Affine point = liftX(x);
+        return point != null ? new PublicKey(point) : null;
+    }
+
+    // 検証に成功した鍵を登録し、規定回数に達したら倍数テーブルを作る
+    private void recordUse(BigInteger x, PublicKey key) {
+        if (maxCachedKeys <= 0) {
+            return;
+        }
+        synchronized (this) {
+            PublicKey existing = keys.putIfAbsent(x, key);
+            if (existing != null) {
+                key = existing;
+            }
+        }
+        if (tableThreshold <= 0 || maxTables <= 0 || key.table != null
+                || key.uses.incrementAndGet() != tableThreshold) {
+            return;
+        }
+
+        // 作成はロックの外で行う（回数がちょうど閾値に達した1回のみが作る）
+        Affine[][] table = buildTable(key.point);
+        synchronized (this) {
+            // 作成中にキャッシュから外れた鍵には付けない
+            if (keys.get(x) == key) {
+                key.table = table;
+                tabled.put(x, key);
+            }
+        }
+    }
+
+    // y が偶数の点を返す。曲線上にない場合は null
+    static Affine liftX(BigInteger x) {
+        if (x.compareTo(P) >= 0) {
+            return null;
+        }
+        BigInteger c = x.modPow(BigInteger.valueOf(3), P).add(SEVEN).mod(P);
+        BigInteger y = c.modPow(SQRT_EXPONENT, P);
+        if (!y.multiply(y).mod(P).equals(c)) {
+            return null;
+        }
+        return new Affine(x, y.testBit(0) ? P.subtract(y) : y);
+    }
+
+    private static final class PublicKey {
+        private final Affine point;
+        private final AtomicInteger uses = new AtomicInteger();
+        private volatile Affine[][] table;
+
+        private PublicKey(Affine point) {
+            this.point = point;
+        }
+
+        private Jacobian multiply(BigInteger k) {
+            Affine[][] current = table;
+            return current != null ? SchnorrVerifier.multiply(current, k) : multiplyWindowed(point, k);
+        }
+    }
+
+    // 固定点の倍数テーブル（窓ごとに 1..15 倍）。加算のみで任意のスカラー倍を求められる
+    private static Affine[][] buildTable(Affine base) {
+        Affine[][] table = new Affine[WINDOWS][];
+        Jacobian windowBase = Jacobian.of(base);
+        for (int i = 0; i < WINDOWS; i++) {
+            Affine[] row = new Affine[1 << WINDOW_BITS];
+            Jacobian multiple = windowBase;
+            Affine baseAffine = windowBase.toAffine();
+            row[1] = baseAffine;
+            for (int d = 2; d < row.length; d++) {
+                multiple = addMixed(multiple, baseAffine);
+                row[d] = multiple.toAffine();
+            }
+            table[i] = row;
+            // 次の窓の基点は 16 倍
+            windowBase = addMixed(multiple, baseAffine);
+        }
+        return table;
+    }
+
+    private static Jacobian multiply(Affine[][] table, BigInteger k) {
+        Jacobian result = Jacobian.INFINITY;
+        for (int i = 0; i < WINDOWS; i++) {
+            int digit = nibble(k, i);
+            if (digit != 0) {
+                result = addMixed(result, table[i][digit]);
+            }
+        }
+        return result;
+    }
+
+    // テーブルのない点: 1..15 倍を用意して上位の窓から 4 回倍算 + 1 回加算を繰り返す
+    private static Jacobian multiplyWindowed(Affine point, BigInteger k) {
+        Jacobian[] multiples = new Jacobian[1 << WINDOW_BITS];
+        multiples[1] = Jacobian.of(point);
+        for (int d = 2; d < multiples.length; d++) {
+            multiples[d] = addMixed(multiples[d - 1], point);
+        }
+
+        Jacobian result = Jacobian.INFINITY;
+        for (int i = WINDOWS - 1; i >= 0; i--) {
+            for (int b = 0; b < WINDOW_BITS; b++) {
+                result = twice(result);
+            }
+            int digit = nibble(k, i);
+            if (digit != 0) {
+                result = add(result, multiples[digit]);
+            }
+        }
+        return result;
+    }
+
+    private static int nibble(BigInteger k, int window) {
+        int digit = 0;
+        for (int b = WINDOW_BITS - 1; b >= 0; b--) {
+            digit = (digit << 1) | (k.testBit(window * WINDOW_BITS + b) ? 1 : 0);
+        }
+        return digit;
+    }
+
+    // ヤコビ座標 (X, Y, Z) はアフィン座標 (X/Z^2, Y/Z^3) を表す。Z = 0 は無限遠点
+    private static Jacobian twice(Jacobian a) {
+        if (a.isInfinity() || a.y.signum() == 0) {
+            return Jacobian.INFINITY;
+        }
+        BigInteger yy = a.y.multiply(a.y).mod(P);
+        BigInteger s = a.x.multiply(yy).shiftLeft(2).mod(P);
+        BigInteger m = a.x.multiply(a.x).multiply(BigInteger.valueOf(3)).mod(P);
+        BigInteger x = m.multiply(m).subtract(s.shiftLeft(1)).mod(P);
+        BigInteger y = m.multiply(s.subtract(x)).subtract(yy.multiply(yy).shiftLeft(3)).mod(P);
+        BigInteger z = a.y.multiply(a.z).shiftLeft(1).mod(P);
+        return new Jacobian(x, y, z);
+    }
+
+    private static Jacobian addMixed(Jacobian a, Affine b) {
+        if (a.isInfinity()) {
+            return Jacobian.of(b);
+        }
+        BigInteger zz = a.z.multiply(a.z).mod(P);
+        BigInteger u2 = b.x.multiply(zz).mod(P);
+        BigInteger s2 = b.y.multiply(a.z).multiply(zz).mod(P);
+        BigInteger h = u2.subtract(a.x).mod(P);
+        BigInteger r = s2.subtract(a.y).mod(P);
+        if (h.signum() == 0) {
+            return r.signum() == 0 ? twice(a) : Jacobian.INFINITY;
+        }
+        BigInteger hh = h.multiply(h).mod(P);
+        BigInteger hhh = h.multiply(hh).mod(P);
+        BigInteger v = a.x.multiply(hh).mod(P);
+        BigInteger x = r.multiply(r).subtract(hhh).subtract(v.shiftLeft(1)).mod(P);
+        BigInteger y = r.multiply(v.subtract(x)).subtract(a.y.multiply(hhh)).mod(P);
+        BigInteger z = a.z.multiply(h).mod(P);
+        return new Jacobian(x, y, z);
+    }
+
+    private static Jacobian add(Jacobian a, Jacobian b) {
+        if (a.isInfinity()) {
+            return b;
+        }
+        if (b.isInfinity()) {
+            return a;
+        }
+        BigInteger z1z1 = a.z.multiply(a.z).mod(P);
+        BigInteger z2z2 = b.z.multiply(b.z).mod(P);
+        BigInteger u1 = a.x.multiply(z2z2).mod(P);
+        BigInteger u2 = b.x.multiply(z1z1).mod(P);
+        BigInteger s1 = a.y.multiply(b.z).multiply(z2z2).mod(P);
+        BigInteger s2 = b.y.multiply(a.z).multiply(z1z1).mod(P);
+        BigInteger h = u2.subtract(u1).mod(P);
+        BigInteger r = s2.subtract(s1).mod(P);
+        if (h.signum() == 0) {
+            return r.signum() == 0 ? twice(a) : Jacobian.INFINITY;
+        }
+        BigInteger hh = h.multiply(h).mod(P);
+        BigInteger hhh = h.multiply(hh).mod(P);
+        BigInteger v = u1.multiply(hh).mod(P);
+        BigInteger x = r.multiply(r).subtract(hhh).subtract(v.shiftLeft(1)).mod(P);
+        BigInteger y = r.multiply(v.subtract(x)).subtract(s1.multiply(hhh)).mod(P);
+        BigInteger z = a.z.multiply(b.z).multiply(h).mod(P);
+        return new Jacobian(x, y, z);
+    }
+
+    private static Jacobian negate(Jacobian a) {
+        return a.isInfinity() ? a : new Jacobian(a.x, P.subtract(a.y).mod(P), a.z);
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not available", e);
+        }
+    }
+
+    private static byte[] sha256(byte[] data) {
+        return newSha256().digest(data);
+    }
+
+    static final class Affine {
+        final BigInteger x;
+        final BigInteger y;
+
+        Affine(BigInteger x, BigInteger y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private static final class Jacobian {
+        static final Jacobian INFINITY = new Jacobian(BigInteger.ONE, BigInteger.ONE, BigInteger.ZERO);
+
+        final BigInteger x;
+        final BigInteger y;
+        final BigInteger z;
+
+        Jacobian(BigInteger x, BigInteger y, BigInteger z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        static Jacobian of(Affine point) {
+            return new Jacobian(point.x, point.y, BigInteger.ONE);
+        }
+
+        boolean isInfinity() {
+            return z.signum() == 0;
+        }
+
+        Affine toAffine() {
+            BigInteger zInverse = z.modInverse(P);
+            BigInteger zInverse2 = zInverse.multiply(zInverse).mod(P);
+            return new Affine(x.multiply(zInverse2).mod(P), y.multiply(zInverse2).multiply(zInverse).mod(P));
+        }
+    }
+}
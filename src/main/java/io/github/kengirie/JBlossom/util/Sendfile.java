@@ -0,0 +1,29 @@
+package io.github.kengirie.JBlossom.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.nio.file.Path;
+
+// Tomcatのsendfile（カーネル内でのファイル→ソケット転送）を要求するためのリクエスト属性
+public final class Sendfile {
+
+    static final String SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    static final String FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    static final String START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    static final String END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    private Sendfile() {
+    }
+
+    // コネクタがsendfileに対応している場合のみ true（TLS有効時やテスト環境では false）
+    public static boolean isSupported(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(SUPPORT_ATTRIBUTE));
+    }
+
+    // start から end（含まない）までをsendfileで送信させる。レスポンスボディは書き込まないこと
+    public static void serve(HttpServletRequest request, Path path, long start, long end) {
+        request.setAttribute(FILENAME_ATTRIBUTE, path.toAbsolutePath().toString());
+        request.setAttribute(START_ATTRIBUTE, start);
+        request.setAttribute(END_ATTRIBUTE, end);
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.kengirie.JBlossom.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// 繰り返し現れる文字列（MIMEタイプ・公開鍵）を整数IDに置き換える辞書テーブルの操作
+public final class SqlDictionary {
+
+    private SqlDictionary() {
+    }
+
+    // 値のIDを返す。未登録なら登録する（呼び出し側のトランザクション内で行う）。null・空文字は null
+    public static Long intern(Connection conn, String table, String column, String value) throws SQLException {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+
+        Long id = lookup(conn, table, column, value);
+        if (id != null) {
+            return id;
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT OR IGNORE INTO " + table + " (" + column + ") VALUES (?)")) {
+            stmt.setString(1, value);
+            stmt.executeUpdate();
+        }
+        return lookup(conn, table, column, value);
+    }
+
+    // 未登録の場合は null
+    public static Long lookup(Connection conn, String table, String column, String value) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT id FROM " + table + " WHERE " + column + " = ?")) {
+            stmt.setString(1, value);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.kengirie.JBlossom.util;
+
+public class TokenBucket {
+
+    private final long ratePerSecond;
+    private final long capacity;
+    private double available;
+    private long lastRefillNanos;
+
+    public TokenBucket(long ratePerSecond, long capacity) {
+        if (ratePerSecond <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("ratePerSecond and capacity must be positive");
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity;
+        this.available = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    // トークンを消費し、残高が回復するまでの待機時間（ミリ秒）を返す。残高は負（借り越し）になりうる
+    public synchronized long consume(long amount) {
+        refill();
+        available -= amount;
+        return debtToMillis();
+    }
+
+    // 現在の借り越しが解消されるまでの待機時間（ミリ秒）
+    public synchronized long estimateWaitMillis() {
+        refill();
+        return debtToMillis();
+    }
+
+    // 消費した分だけ待機する（ロックは保持しない）
+    public void acquire(long amount) throws InterruptedException {
+        long waitMillis = consume(amount);
+        if (waitMillis > 0) {
+            Thread.sleep(waitMillis);
+        }
+    }
+
+    public long getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefillNanos) / 1e9 * ratePerSecond);
+        lastRefillNanos = now;
+    }
+
+    private long debtToMillis() {
+        if (available >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-available * 1000.0 / ratePerSecond);
+    }
+}
@@ -0,0 +1,243 @@
+package io.github.kengirie.JBlossom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Holds N slowly-trickling uploads open against each serving mode and measures how blob GETs
+// from a well-behaved client fare meanwhile. Opt-in, since it needs a raised descriptor limit
+// (client and server share the process, so roughly two per slow client; ulimit -n 25000 for 10000):
+//
+//   mvn test -Dtest=SlowClientLoadTest -Dblossom.load-test=true \
+//       [-Dblossom.load-test.clients=10000] [-Dblossom.load-test.seconds=30]
+@EnabledIfSystemProperty(named = "blossom.load-test", matches = "true")
+public class SlowClientLoadTest {
+
+    private static final int CLIENTS = Integer.getInteger("blossom.load-test.clients", 10000);
+    private static final int SECONDS = Integer.getInteger("blossom.load-test.seconds", 30);
+    // Announced body size of each slow upload; it trickles one byte per second and never completes
+    private static final int SLOW_BODY_SIZE = 16384;
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(5);
+    private static final byte[] PROBE_CONTENT = "probe blob served while slow clients are connected"
+        .getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    private record Result(String mode, int connected, int probes, int failures, long[] latenciesMillis) {
+        long percentile(double p) {
+            if (latenciesMillis.length == 0) {
+                return -1;
+            }
+            long[] sorted = latenciesMillis.clone();
+            Arrays.sort(sorted);
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+        }
+    }
+
+    @Test
+    void compareServingModesUnderSlowClients() throws Exception {
+        List<Result> results = new ArrayList<>();
+        results.add(run("servlet (platform threads)", null, false));
+        results.add(run("servlet (virtual threads)", null, true));
+        results.add(run("reactive (netty)", "reactive", false));
+
+        System.out.printf("%n%d slow uploads, %d s%n", CLIENTS, SECONDS);
+        System.out.printf("%-28s %10s %8s %9s %8s %8s%n", "mode", "connected", "probes", "failures", "p50 ms", "p99 ms");
+        for (Result result : results) {
+            System.out.printf("%-28s %10d %8d %9d %8d %8d%n", result.mode(), result.connected(), result.probes(),
+                              result.failures(), result.percentile(0.5), result.percentile(0.99));
+        }
+
+        // The reactive profile must keep serving while every slow client holds a connection
+        Result reactive = results.get(2);
+        assertEquals(CLIENTS, reactive.connected());
+        assertEquals(0, reactive.failures());
+    }
+
+    private Result run(String mode, String profile, boolean virtualThreads) throws Exception {
+        Path dataDir = Files.createDirectories(tempDir.resolve(mode.replaceAll("[^a-z]", "")));
+
+        SpringApplicationBuilder builder = new SpringApplicationBuilder(JBlossomApplication.class)
+            .properties(
+                "server.port=0",
+                "spring.threads.virtual.enabled=" + virtualThreads,
+                "blossom.database.path=" + dataDir.resolve("sqlite.db"),
+                "blossom.storage.path=" + dataDir.resolve("blobs"),
+                "blossom.upload.require-auth=false",
+                "blossom.upload.admission.max-concurrent=" + (CLIENTS + 64),
+                "blossom.upload.admission.min-free-space=0"
+            );
+        if (profile != null) {
+            builder.profiles(profile);
+        }
+
+        try (ConfigurableApplicationContext context = builder.run()) {
+            int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            HttpClient client = HttpClient.newBuilder().connectTimeout(PROBE_TIMEOUT).build();
+            String hash = uploadProbeBlob(client, port);
+
+            try (SlowUploaders slow = new SlowUploaders(port)) {
+                slow.start();
+                return probe(mode, client, port, hash, slow);
+            }
+        }
+    }
+
+    private static String uploadProbeBlob(HttpClient client, int port) throws Exception {
+        HttpResponse<String> response = client.send(
+            HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/upload"))
+                .header("Content-Type", "text/plain")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(PROBE_CONTENT))
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+        assertEquals(201, response.statusCode(), response.body());
+
+        String body = response.body();
+        int start = body.indexOf("\"sha256\":\"") + "\"sha256\":\"".length();
+        return body.substring(start, start + 64);
+    }
+
+    private static Result probe(String mode, HttpClient client, int port, String hash, SlowUploaders slow)
+            throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/" + hash))
+            .timeout(PROBE_TIMEOUT)
+            .GET()
+            .build();
+
+        List<Long> latencies = new ArrayList<>();
+        int probes = 0;
+        int failures = 0;
+        long deadline = System.nanoTime() + Duration.ofSeconds(SECONDS).toNanos();
+        while (System.nanoTime() < deadline) {
+            probes++;
+            long start = System.nanoTime();
+            try {
+                HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() == 200 && Arrays.equals(PROBE_CONTENT, response.body())) {
+                    latencies.add((System.nanoTime() - start) / 1_000_000);
+                } else {
+                    failures++;
+                }
+            } catch (IOException e) {
+                failures++;
+            }
+            Thread.sleep(100);
+        }
+
+        return new Result(mode, slow.connected(), probes, failures,
+                          latencies.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    // Non-blocking clients that open every connection, send the request head and then one body byte per second
+    private static final class SlowUploaders implements AutoCloseable {
+        private final InetSocketAddress address;
+        private final Selector selector;
+        private final List<SocketChannel> channels = new ArrayList<>();
+        private final AtomicInteger connected = new AtomicInteger();
+        private final AtomicBoolean running = new AtomicBoolean(true);
+        private Thread ticker;
+
+        SlowUploaders(int port) throws IOException {
+            this.address = new InetSocketAddress("localhost", port);
+            this.selector = Selector.open();
+        }
+
+        void start() throws IOException {
+            for (int i = 0; i < CLIENTS; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(address);
+                channel.register(selector, SelectionKey.OP_CONNECT);
+                channels.add(channel);
+            }
+
+            ticker = new Thread(this::loop, "slow-uploaders");
+            ticker.setDaemon(true);
+            ticker.start();
+        }
+
+        int connected() {
+            return connected.get();
+        }
+
+        private void loop() {
+            byte[] head = ("PUT /upload HTTP/1.1\r\n" +
+                "Host: " + address.getHostString() + ":" + address.getPort() + "\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "Content-Length: " + SLOW_BODY_SIZE + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            long nextTick = System.nanoTime();
+
+            try {
+                while (running.get()) {
+                    selector.select(100);
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        SocketChannel channel = (SocketChannel) key.channel();
+                        try {
+                            if (key.isConnectable() && channel.finishConnect()) {
+                                channel.write(ByteBuffer.wrap(head));
+                                key.interestOps(0);
+                                connected.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            key.cancel();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+
+                    if (System.nanoTime() >= nextTick) {
+                        nextTick += Duration.ofSeconds(1).toNanos();
+                        for (SelectionKey key : selector.keys()) {
+                            if (key.isValid() && key.interestOps() == 0) {
+                                try {
+                                    ((SocketChannel) key.channel()).write(ByteBuffer.wrap(new byte[] {'x'}));
+                                } catch (IOException e) {
+                                    key.cancel();
+                                    connected.decrementAndGet();
+                                }
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            running.set(false);
+            if (ticker != null) {
+                ticker.join();
+            }
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            selector.close();
+        }
+    }
+}
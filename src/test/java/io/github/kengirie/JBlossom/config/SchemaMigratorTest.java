@@ -0,0 +1,236 @@
+package io.github.kengirie.JBlossom.config;
+
+import io.github.kengirie.JBlossom.model.BlobHash;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchemaMigratorTest {
+
+    private static final String HASH_A = "1111111111111111111111111111111111111111111111111111111111111111";
+    private static final String HASH_B = "2222222222222222222222222222222222222222222222222222222222222222";
+    private static final String HASH_C = "3333333333333333333333333333333333333333333333333333333333333333";
+    private static final String HASH_D = "4444444444444444444444444444444444444444444444444444444444444444";
+    private static final String HASH_E = "5555555555555555555555555555555555555555555555555555555555555555";
+
+    private String databaseUrl;
+
+    @BeforeEach
+    void setUp(@TempDir Path tempDir) {
+        this.databaseUrl = "jdbc:sqlite:" + tempDir.resolve("test.db");
+    }
+
+    @Test
+    void testCreatesCurrentSchemaOnEmptyDatabase() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(databaseUrl)) {
+            assertEquals(SchemaMigrator.CURRENT_VERSION, SchemaMigrator.migrate(conn));
+            assertEquals(SchemaMigrator.CURRENT_VERSION, SchemaMigrator.getVersion(conn));
+            assertTrue(tableSql(conn, "blobs").contains("WITHOUT ROWID"));
+            assertTrue(tableSql(conn, "accessed").contains("WITHOUT ROWID"));
+
+            // 2回目は何もしない
+            assertEquals(SchemaMigrator.CURRENT_VERSION, SchemaMigrator.migrate(conn));
+        }
+    }
+
+    @Test
+    void testMigratesV1DatabaseInBatches() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(databaseUrl)) {
+            createV1Schema(conn);
+            insertV1Blob(conn, HASH_A, "text/plain", "pubkey-1");
+            insertV1Blob(conn, HASH_B, "text/plain", "pubkey-2");
+            insertV1Blob(conn, HASH_C, "image/png", "pubkey-1");
+            insertV1Blob(conn, HASH_D, "", null);
+            insertV1Blob(conn, HASH_E, null, "pubkey-2");
+            // 不正なハッシュの行は移行しない
+            insertV1Blob(conn, "not-a-hash", "text/plain", "pubkey-1");
+            conn.createStatement().execute("INSERT INTO accessed (blob, timestamp) VALUES ('" + HASH_A + "', 1000)");
+            conn.createStatement().execute("INSERT INTO accessed (blob, timestamp) VALUES ('" + HASH_C + "', 2000)");
+            conn.createStatement().execute("INSERT INTO variants (hash, encoding, size) VALUES ('" + HASH_A + "', 'gzip', 10)");
+            conn.createStatement().execute("INSERT INTO variants (hash, encoding, size) VALUES ('" + HASH_B + "', 'gzip', NULL)");
+            conn.createStatement().execute("INSERT INTO variants (hash, encoding, size) VALUES ('" + HASH_B + "', 'br', 8)");
+
+            // 起動時は v1 のテーブルを切り離すだけで、行は移動しない
+            assertEquals(SchemaMigrator.CURRENT_VERSION, SchemaMigrator.migrate(conn));
+            assertEquals(SchemaMigrator.CURRENT_VERSION, SchemaMigrator.getVersion(conn));
+            assertTrue(SchemaMigrator.hasLegacyTables(conn));
+            assertEquals(0, count(conn, "SELECT COUNT(*) FROM blobs"));
+            assertEquals(6, count(conn, "SELECT COUNT(*) FROM blobs_v1"));
+
+            SchemaMigrator.moveLegacyIndexes(conn);
+            int batches = 0;
+            while (SchemaMigrator.moveLegacyBatch(conn, 2) > 0) {
+                batches++;
+            }
+            assertEquals(3, batches);
+            SchemaMigrator.dropLegacyTables(conn);
+            assertFalse(SchemaMigrator.hasLegacyTables(conn));
+
+            assertEquals(5, count(conn, "SELECT COUNT(*) FROM blobs"));
+            assertEquals(2, count(conn, "SELECT COUNT(*) FROM accessed"));
+            assertEquals(3, count(conn, "SELECT COUNT(*) FROM variants"));
+            // 同じ値は辞書に1回だけ登録される
+            assertEquals(2, count(conn, "SELECT COUNT(*) FROM mime_types"));
+            assertEquals(2, count(conn, "SELECT COUNT(*) FROM pubkeys"));
+            assertTrue(tableSql(conn, "blobs").contains("WITHOUT ROWID"));
+            assertEquals(0, count(conn, "SELECT COUNT(*) FROM sqlite_master WHERE name LIKE '%_v2' OR name LIKE '%_v1'"));
+            // v2 のインデックスは v2 のテーブルに付いている
+            assertEquals(1, count(conn, "SELECT COUNT(*) FROM sqlite_master WHERE name = 'idx_blobs_pubkey' AND tbl_name = 'blobs'"));
+
+            assertEquals("image/png", metadata(conn, HASH_C, "m.type"));
+            assertEquals("pubkey-1", metadata(conn, HASH_C, "p.pubkey"));
+            assertNull(metadata(conn, HASH_D, "m.type"));
+            assertNull(metadata(conn, HASH_D, "p.pubkey"));
+
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT size FROM variants WHERE hash = ? AND encoding = 'gzip'")) {
+                stmt.setBytes(1, BlobHash.parse(HASH_B).toBytes());
+                try (ResultSet rs = stmt.executeQuery()) {
+                    assertTrue(rs.next());
+                    rs.getLong(1);
+                    assertTrue(rs.wasNull()); // 圧縮を見送った記録も引き継ぐ
+                }
+            }
+        }
+    }
+
+    @Test
+    void testAdoptsLegacyBlobOnDemand() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(databaseUrl)) {
+            createV1Schema(conn);
+            insertV1Blob(conn, HASH_A, "text/plain", "pubkey-1");
+            insertV1Blob(conn, HASH_B, "image/png", "pubkey-2");
+            conn.createStatement().execute("INSERT INTO accessed (blob, timestamp) VALUES ('" + HASH_A + "', 1000)");
+            SchemaMigrator.migrate(conn);
+
+            // 移行中に記録されたアクセス時刻は v1 の古い値で上書きしない
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO accessed (blob, timestamp) VALUES (?, 5000)")) {
+                stmt.setBytes(1, BlobHash.parse(HASH_A).toBytes());
+                stmt.executeUpdate();
+            }
+
+            assertTrue(SchemaMigrator.adoptLegacyBlob(conn, HASH_A));
+            assertEquals("text/plain", metadata(conn, HASH_A, "m.type"));
+            assertEquals("pubkey-1", metadata(conn, HASH_A, "p.pubkey"));
+            assertEquals(5000, count(conn, "SELECT timestamp FROM accessed"));
+            assertEquals(0, count(conn, "SELECT COUNT(*) FROM blobs_v1 WHERE hash = '" + HASH_A + "'"));
+            assertEquals(0, count(conn, "SELECT COUNT(*) FROM accessed_v1"));
+
+            // 既に移動済み・存在しないハッシュでは何もしない
+            assertFalse(SchemaMigrator.adoptLegacyBlob(conn, HASH_A));
+            assertFalse(SchemaMigrator.adoptLegacyBlob(conn, HASH_C));
+
+            // 残りはバックグラウンドの移動で引き継ぐ
+            SchemaMigrator.moveLegacyIndexes(conn);
+            assertEquals(1, SchemaMigrator.moveLegacyBatch(conn, 100));
+            assertEquals(0, SchemaMigrator.moveLegacyBatch(conn, 100));
+            assertEquals("image/png", metadata(conn, HASH_B, "m.type"));
+            assertEquals(2, count(conn, "SELECT COUNT(*) FROM blobs"));
+        }
+    }
+
+    @Test
+    void testReusesTablesFromInterruptedOfflineMigration() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(databaseUrl)) {
+            createV1Schema(conn);
+            insertV1Blob(conn, HASH_A, "text/plain", "pubkey-1");
+            insertV1Blob(conn, HASH_B, "text/plain", "pubkey-1");
+            // 旧版の移行が HASH_A までコピーした状態
+            conn.createStatement().execute(
+                "CREATE TABLE blobs_v2 (hash BLOB PRIMARY KEY, size INTEGER NOT NULL, type_id INTEGER, " +
+                "uploaded INTEGER NOT NULL, pubkey_id INTEGER) WITHOUT ROWID");
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO blobs_v2 (hash, size, uploaded) VALUES (?, 100, 1700000000)")) {
+                stmt.setBytes(1, BlobHash.parse(HASH_A).toBytes());
+                stmt.executeUpdate();
+            }
+
+            SchemaMigrator.migrate(conn);
+            assertEquals(1, count(conn, "SELECT COUNT(*) FROM blobs"));
+
+            SchemaMigrator.moveLegacyIndexes(conn);
+            assertEquals(2, SchemaMigrator.moveLegacyBatch(conn, 100));
+            assertEquals(2, count(conn, "SELECT COUNT(*) FROM blobs"));
+        }
+    }
+
+    private static void createV1Schema(Connection conn) throws SQLException {
+        conn.createStatement().execute("""
+            CREATE TABLE blobs (
+                hash TEXT(64) PRIMARY KEY,
+                size INTEGER NOT NULL,
+                type TEXT,
+                uploaded INTEGER NOT NULL,
+                pubkey TEXT(64)
+            )
+        """);
+        conn.createStatement().execute("""
+            CREATE TABLE accessed (
+                blob TEXT(64) PRIMARY KEY,
+                timestamp INTEGER NOT NULL
+            )
+        """);
+        conn.createStatement().execute("""
+            CREATE TABLE variants (
+                hash TEXT(64) NOT NULL,
+                encoding TEXT NOT NULL,
+                size INTEGER,
+                PRIMARY KEY (hash, encoding)
+            )
+        """);
+        conn.createStatement().execute("CREATE INDEX idx_blobs_pubkey ON blobs (pubkey)");
+        conn.createStatement().execute("CREATE INDEX idx_blobs_uploaded ON blobs (uploaded)");
+        conn.createStatement().execute("CREATE INDEX idx_accessed_timestamp ON accessed (timestamp)");
+    }
+
+    private static void insertV1Blob(Connection conn, String hash, String type, String pubkey) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO blobs (hash, size, type, uploaded, pubkey) VALUES (?, ?, ?, ?, ?)")) {
+            stmt.setString(1, hash);
+            stmt.setLong(2, 100);
+            stmt.setString(3, type);
+            stmt.setLong(4, 1700000000L);
+            stmt.setString(5, pubkey);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static String metadata(Connection conn, String hash, String column) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT " + column + " FROM blobs b " +
+                "LEFT JOIN mime_types m ON m.id = b.type_id LEFT JOIN pubkeys p ON p.id = b.pubkey_id " +
+                "WHERE b.hash = ?")) {
+            stmt.setBytes(1, BlobHash.parse(hash).toBytes());
+            try (ResultSet rs = stmt.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getString(1);
+            }
+        }
+    }
+
+    private static String tableSql(Connection conn, String table) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT sql FROM sqlite_master WHERE name = ?")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getString(1);
+            }
+        }
+    }
+
+    private static long count(Connection conn, String sql) throws SQLException {
+        try (ResultSet rs = conn.createStatement().executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package io.github.kengirie.JBlossom.controller;
+
+import io.github.kengirie.JBlossom.exception.AuthenticationException;
+import io.github.kengirie.JBlossom.model.AuthResult;
+import io.github.kengirie.JBlossom.service.AuthTokenService;
+import io.github.kengirie.JBlossom.service.NostrAuthService;
+import io.github.kengirie.JBlossom.service.ReplayRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(AuthController.class)
+@Import({AuthTokenService.class, ReplayRegistry.class})
+@TestPropertySource(properties = {
+    "blossom.auth.token.max-size=1000",
+    "blossom.auth.replay.single-use-actions=upload"
+})
+public class AuthControllerTest {
+
+    private static final String TEST_PUBKEY = "83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d";
+    private static final String TEST_HASH = "1827b95e971ac79f6b79242512d74c010166603c2bd1958679cb5da14f3b11c3";
+    private static final String TEST_AUTH_HEADER = "Nostr eyJraW5kIjoyNDI0Mn0=";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AuthTokenService authTokenService;
+
+    @MockBean
+    private NostrAuthService nostrAuthService;
+
+    private static AuthResult verifiedEvent() {
+        long now = Instant.now().getEpochSecond();
+        return AuthResult.valid(TEST_PUBKEY, now - 60, now + 3600, "upload", Map.of(),
+            Map.of("t", List.of("upload", "get"), "x", List.of(TEST_HASH)));
+    }
+
+    @Test
+    void testIssueToken() throws Exception {
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload")).thenReturn(verifiedEvent());
+
+        MvcResult result = mockMvc.perform(post("/auth/token")
+                        .param("action", "upload", "get")
+                        .param("max_size", "500")
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.actions", hasSize(2)))
+                .andExpect(jsonPath("$.hashes[0]").value(TEST_HASH))
+                .andExpect(jsonPath("$.max_size").value(500))
+                .andReturn();
+
+        // One signature check covers every requested action
+        verify(nostrAuthService, times(1)).validateAuthEvent(any(), any());
+
+        String body = result.getResponse().getContentAsString();
+        String token = body.substring(body.indexOf("\"token\":\"") + 9);
+        token = token.substring(0, token.indexOf('"'));
+        assertTrue(authTokenService.validate(token, "get", TEST_HASH).isValid());
+    }
+
+    @Test
+    void testIssueTokenConsumesSingleUseAction() throws Exception {
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload")).thenReturn(verifiedEvent());
+
+        mockMvc.perform(post("/auth/token")
+                        .param("action", "get", "upload")
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isOk());
+
+        // The event is checked against the single-use action so the exchange uses it up
+        verify(nostrAuthService).validateAuthEvent(TEST_AUTH_HEADER, "upload");
+        verify(nostrAuthService, never()).validateAuthEvent(TEST_AUTH_HEADER, "get");
+    }
+
+    @Test
+    void testIssueTokenRequiresSignedEvent() throws Exception {
+        mockMvc.perform(post("/auth/token")
+                        .param("action", "upload")
+                        .header("Authorization", "Bearer some-token"))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.authErrorType").value("MISSING_AUTH"));
+
+        verify(nostrAuthService, never()).validateAuthEvent(any(), any());
+    }
+
+    @Test
+    void testIssueTokenRejectsActionOutsideEvent() throws Exception {
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload")).thenReturn(verifiedEvent());
+
+        mockMvc.perform(post("/auth/token")
+                        .param("action", "upload", "delete")
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.authErrorType").value("INVALID_ACTION"));
+    }
+
+    @Test
+    void testIssueTokenWithInvalidEvent() throws Exception {
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload")).thenReturn(
+            AuthResult.invalid("Invalid signature", AuthenticationException.AuthErrorType.INVALID_SIGNATURE));
+
+        mockMvc.perform(post("/auth/token")
+                        .param("action", "upload")
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.authErrorType").value("INVALID_SIGNATURE"));
+    }
+
+    @Test
+    void testIssueTokenRequiresAction() throws Exception {
+        mockMvc.perform(post("/auth/token")
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isBadRequest());
+    }
+}
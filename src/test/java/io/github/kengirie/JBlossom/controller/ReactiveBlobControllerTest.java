@@ -0,0 +1,205 @@
+package io.github.kengirie.JBlossom.controller;
+
+import io.github.kengirie.JBlossom.model.BlobHash;
+import io.github.kengirie.JBlossom.model.ServingDescriptor;
+import io.github.kengirie.JBlossom.service.AccessLogService;
+import io.github.kengirie.JBlossom.service.BlobContentCache;
+import io.github.kengirie.JBlossom.service.ImageDerivativeService;
+import io.github.kengirie.JBlossom.service.NostrAuthService;
+import io.github.kengirie.JBlossom.service.StorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@WebFluxTest(ReactiveBlobController.class)
+public class ReactiveBlobControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    private StorageService storageService;
+
+    @MockBean
+    private NostrAuthService nostrAuthService;
+
+    @MockBean
+    private AccessLogService accessLogService;
+
+    @MockBean
+    private BlobContentCache contentCache;
+
+    @MockBean
+    private ImageDerivativeService derivativeService;
+
+    private static final String VALID_HASH = "d8346875f65e726689b5b4a4823714333aaf82127007ab6d926b18a2256503fb";
+    private static final BlobHash VALID_BLOB_HASH = BlobHash.parse(VALID_HASH);
+    private static final String TEST_CONTENT = "Test blob content";
+    private static final String TEST_MIME_TYPE = "text/plain";
+
+    private ServingDescriptor testDescriptor;
+
+    @BeforeEach
+    void setUp(@TempDir Path tempDir) throws Exception {
+        Path blobPath = tempDir.resolve(VALID_HASH);
+        Files.writeString(blobPath, TEST_CONTENT);
+        testDescriptor = new ServingDescriptor(VALID_HASH, TEST_CONTENT.length(), TEST_MIME_TYPE,
+                                               blobPath, System.currentTimeMillis() / 1000);
+    }
+
+    @Test
+    void testGetBlobSuccess() {
+        when(storageService.resolveBlob(VALID_BLOB_HASH)).thenReturn(Optional.of(testDescriptor));
+
+        webTestClient.get().uri("/" + VALID_HASH)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("Content-Type", TEST_MIME_TYPE)
+                .expectHeader().valueEquals("Accept-Ranges", "bytes")
+                .expectHeader().valueEquals("ETag", "\"" + VALID_HASH + "\"")
+                .expectHeader().contentLength(TEST_CONTENT.length())
+                .expectBody(String.class).isEqualTo(TEST_CONTENT);
+
+        verify(storageService, times(1)).resolveBlob(VALID_BLOB_HASH);
+        verify(accessLogService).recordAccess(VALID_BLOB_HASH);
+    }
+
+    @Test
+    void testGetBlobNotFound() {
+        when(storageService.resolveBlob(VALID_BLOB_HASH)).thenReturn(Optional.empty());
+
+        webTestClient.get().uri("/" + VALID_HASH)
+                .exchange()
+                .expectStatus().isNotFound();
+
+        verify(accessLogService, never()).recordAccess(any());
+    }
+
+    @Test
+    void testGetBlobInvalidHash() {
+        webTestClient.get().uri("/invalid-hash")
+                .exchange()
+                .expectStatus().isNotFound();
+
+        verify(storageService, never()).resolveBlob(any(BlobHash.class));
+    }
+
+    @Test
+    void testHeadBlobSuccess() {
+        when(storageService.resolveBlob(VALID_BLOB_HASH)).thenReturn(Optional.of(testDescriptor));
+
+        webTestClient.head().uri("/" + VALID_HASH)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("Content-Type", TEST_MIME_TYPE)
+                .expectHeader().contentLength(TEST_CONTENT.length())
+                .expectBody().isEmpty();
+
+        verify(accessLogService).recordAccess(VALID_BLOB_HASH);
+    }
+
+    @Test
+    void testRangeRequest() {
+        when(storageService.resolveBlob(VALID_BLOB_HASH)).thenReturn(Optional.of(testDescriptor));
+
+        webTestClient.get().uri("/" + VALID_HASH)
+                .header("Range", "bytes=5-14")
+                .exchange()
+                .expectStatus().isEqualTo(206)
+                .expectHeader().valueEquals("Content-Range", "bytes 5-14/" + TEST_CONTENT.length())
+                .expectHeader().contentLength(10)
+                .expectBody(String.class).isEqualTo(TEST_CONTENT.substring(5, 15));
+    }
+
+    @Test
+    void testMultiRangeRequest() {
+        when(storageService.resolveBlob(VALID_BLOB_HASH)).thenReturn(Optional.of(testDescriptor));
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/" + VALID_HASH)
+                .header("Range", "bytes=0-3,10-13")
+                .exchange()
+                .expectStatus().isEqualTo(206)
+                .expectHeader().doesNotExist("Content-Range")
+                .expectBody().returnResult();
+
+        byte[] body = result.getResponseBody();
+        String text = new String(body, StandardCharsets.US_ASCII);
+        String contentType = result.getResponseHeaders().getFirst("Content-Type");
+        int length = TEST_CONTENT.length();
+
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        assertTrue(text.contains("Content-Type: " + TEST_MIME_TYPE));
+        assertTrue(text.contains("Content-Range: bytes 0-3/" + length + "\r\n\r\n" + TEST_CONTENT.substring(0, 4)));
+        assertTrue(text.contains("Content-Range: bytes 10-13/" + length + "\r\n\r\n" + TEST_CONTENT.substring(10, 14)));
+        assertTrue(text.endsWith("\r\n--" + boundary + "--"));
+        // The length announced up front matches what is written
+        assertEquals(body.length, result.getResponseHeaders().getContentLength());
+    }
+
+    @Test
+    void testUnsatisfiableRangeReturns416() {
+        when(storageService.resolveBlob(VALID_BLOB_HASH)).thenReturn(Optional.of(testDescriptor));
+
+        webTestClient.get().uri("/" + VALID_HASH)
+                .header("Range", "bytes=100-200")
+                .exchange()
+                .expectStatus().isEqualTo(416)
+                .expectHeader().valueEquals("Content-Range", "bytes */" + TEST_CONTENT.length());
+    }
+
+    @Test
+    void testIfNoneMatchReturnsNotModified() {
+        when(storageService.resolveBlob(VALID_BLOB_HASH)).thenReturn(Optional.of(testDescriptor));
+
+        webTestClient.get().uri("/" + VALID_HASH)
+                .header("If-None-Match", "\"other\", W/\"" + VALID_HASH + "\"")
+                .header("Range", "bytes=0-3")
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals("ETag", "\"" + VALID_HASH + "\"")
+                .expectHeader().exists("Cache-Control")
+                .expectHeader().doesNotExist("Content-Range")
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void testHotBlobServedFromContentCache() throws Exception {
+        when(storageService.resolveBlob(VALID_BLOB_HASH)).thenReturn(Optional.of(testDescriptor));
+        ByteBuffer cached = ByteBuffer.allocateDirect(TEST_CONTENT.length());
+        cached.put(TEST_CONTENT.getBytes()).flip();
+        when(contentCache.lookup(testDescriptor)).thenReturn(cached);
+
+        // Served from memory, so the file is never opened
+        Files.delete(testDescriptor.getPath());
+
+        webTestClient.get().uri("/" + VALID_HASH)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo(TEST_CONTENT);
+
+        webTestClient.get().uri("/" + VALID_HASH)
+                .header("Range", "bytes=5-14")
+                .exchange()
+                .expectStatus().isEqualTo(206)
+                .expectBody(String.class).isEqualTo(TEST_CONTENT.substring(5, 15));
+
+        // The cached buffer's position is left untouched
+        assertEquals(0, cached.position());
+    }
+}
@@ -0,0 +1,326 @@
+package io.github.kengirie.JBlossom.controller;
+
+import io.github.kengirie.JBlossom.exception.AuthenticationException;
+import io.github.kengirie.JBlossom.model.AuthResult;
+import io.github.kengirie.JBlossom.model.BlobMetadata;
+import io.github.kengirie.JBlossom.service.AuthTokenService;
+import io.github.kengirie.JBlossom.service.NostrAuthService;
+import io.github.kengirie.JBlossom.service.StorageService;
+import io.github.kengirie.JBlossom.service.UploadAdmissionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@WebFluxTest(ReactiveUploadController.class)
+@Import({UploadAdmissionService.class, AuthTokenService.class})
+@TestPropertySource(properties = {
+    "blossom.storage.path=${java.io.tmpdir}",
+    "blossom.upload.admission.max-concurrent=2",
+    "blossom.upload.admission.min-free-space=0"
+})
+public class ReactiveUploadControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private UploadAdmissionService uploadAdmissionService;
+
+    @MockBean
+    private StorageService storageService;
+
+    @MockBean
+    private NostrAuthService nostrAuthService;
+
+    @TempDir
+    Path tempDir;
+
+    private static final String TEST_HASH = "1827b95e971ac79f6b79242512d74c010166603c2bd1958679cb5da14f3b11c3";
+    private static final String OTHER_HASH = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+    private static final String TEST_CONTENT = "Test blob content";
+    private static final String BOUNDARY = "JBlossomTestBoundary";
+    private static final String MULTIPART_CONTENT_TYPE = "multipart/form-data; boundary=" + BOUNDARY;
+    private static final String TEST_PUBKEY = "83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d";
+    private static final String TEST_AUTH_HEADER = "Nostr dGVzdA==";
+
+    private BlobMetadata testMetadata;
+    private StorageService.StagedBlob testStaged;
+    private AuthResult validAuthResult;
+
+    // Staging file whose writes land on disk; the bytes handed to update() are recorded for the hash check
+    private record RecordingStaging(StorageService.Staging staging, Path path, ByteArrayOutputStream hashed) {
+        String written() throws Exception {
+            return Files.readString(path);
+        }
+    }
+
+    private RecordingStaging staging(StorageService.StagedBlob result) throws Exception {
+        StorageService.Staging staging = mock(StorageService.Staging.class);
+        Path path = Files.createTempFile(tempDir, "blossom-upload-", ".tmp");
+        ByteArrayOutputStream hashed = new ByteArrayOutputStream();
+
+        when(staging.getPath()).thenReturn(path);
+        doAnswer(invocation -> {
+            ByteBuffer data = invocation.getArgument(0);
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            hashed.writeBytes(bytes);
+            return null;
+        }).when(staging).update(any());
+        when(staging.getSize()).thenAnswer(invocation -> (long) hashed.size());
+        when(staging.finish(any(), any())).thenReturn(result);
+        return new RecordingStaging(staging, path, hashed);
+    }
+
+    private static StorageService.StagedBlob stagedBlob(String hash, long size) {
+        StorageService.StagedBlob staged = mock(StorageService.StagedBlob.class);
+        when(staged.getHash()).thenReturn(hash);
+        when(staged.getSize()).thenReturn(size);
+        when(staged.getContentType()).thenReturn("text/plain");
+        return staged;
+    }
+
+    private static byte[] multipartBody(String... contents) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + BOUNDARY + "\r\n" +
+            "Content-Disposition: form-data; name=\"description\"\r\n\r\n" +
+            "ignored field\r\n").getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < contents.length; i++) {
+            body.writeBytes(("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"blob" + i + ".txt\"\r\n" +
+                "Content-Type: text/plain\r\n\r\n" +
+                contents[i] + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        body.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    private static AuthResult authWithHashes(String... hashes) {
+        long currentTime = Instant.now().getEpochSecond();
+        Map<String, String> tags = new HashMap<>();
+        tags.put("t", "upload");
+        tags.put("expiration", String.valueOf(currentTime + 3600));
+
+        return AuthResult.valid(TEST_PUBKEY, currentTime, currentTime + 3600, "upload", tags,
+            Map.of("x", List.of(hashes)));
+    }
+
+    @BeforeEach
+    void setUp() {
+        long currentTime = Instant.now().getEpochSecond();
+        testMetadata = new BlobMetadata(TEST_HASH, TEST_CONTENT.length(), "text/plain", currentTime, TEST_PUBKEY);
+        testStaged = stagedBlob(TEST_HASH, TEST_CONTENT.length());
+
+        Map<String, String> validTags = new HashMap<>();
+        validTags.put("t", "upload");
+        validTags.put("expiration", String.valueOf(currentTime + 3600));
+        validAuthResult = AuthResult.valid(TEST_PUBKEY, currentTime, currentTime + 3600, "upload", validTags);
+    }
+
+    @Test
+    void testUploadRawBinarySuccess() throws Exception {
+        RecordingStaging staging = staging(testStaged);
+
+        when(nostrAuthService.validateAuthEventAsync(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(CompletableFuture.completedFuture(validAuthResult));
+        when(storageService.openStaging()).thenReturn(staging.staging());
+        when(storageService.commitBlobs(List.of(testStaged), TEST_PUBKEY)).thenReturn(List.of(testMetadata));
+
+        webTestClient.put().uri("http://example.com:8080/upload")
+                .header("Authorization", TEST_AUTH_HEADER)
+                .header("Content-Type", "application/octet-stream")
+                .bodyValue(TEST_CONTENT.getBytes())
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody()
+                .jsonPath("$.sha256").isEqualTo(TEST_HASH)
+                .jsonPath("$.size").isEqualTo(TEST_CONTENT.length())
+                .jsonPath("$.url").isEqualTo("http://example.com:8080/" + TEST_HASH);
+
+        // The body is written to the staging file and hashed as it arrives
+        assertEquals(TEST_CONTENT, staging.written());
+        assertEquals(TEST_CONTENT, staging.hashed().toString(StandardCharsets.UTF_8));
+        verify(staging.staging()).finish("application/octet-stream", null);
+        verify(testStaged).close();
+        assertEquals(2, uploadAdmissionService.getAvailableSlots());
+        assertEquals(0, uploadAdmissionService.getReservedBytes());
+    }
+
+    @Test
+    void testUploadMultipartStreamsOnlyFilePartBytes() throws Exception {
+        RecordingStaging staging = staging(testStaged);
+
+        when(nostrAuthService.validateAuthEventAsync(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(CompletableFuture.completedFuture(validAuthResult));
+        when(storageService.openStaging()).thenReturn(staging.staging());
+        when(storageService.commitBlobs(List.of(testStaged), TEST_PUBKEY)).thenReturn(List.of(testMetadata));
+
+        webTestClient.put().uri("/upload")
+                .header("Authorization", TEST_AUTH_HEADER)
+                .header("Content-Type", MULTIPART_CONTENT_TYPE)
+                .header("X-SHA-256", TEST_HASH)
+                .bodyValue(multipartBody(TEST_CONTENT))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody()
+                .jsonPath("$.sha256").isEqualTo(TEST_HASH);
+
+        assertEquals(TEST_CONTENT, staging.written());
+        verify(staging.staging()).finish("text/plain", TEST_HASH);
+    }
+
+    @Test
+    void testUploadAbortedWhenVerificationFails() throws Exception {
+        RecordingStaging staging = staging(testStaged);
+
+        when(nostrAuthService.validateAuthEventAsync(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(CompletableFuture.completedFuture(AuthResult.invalid(
+                "Invalid signature", AuthenticationException.AuthErrorType.INVALID_SIGNATURE)));
+        when(storageService.openStaging()).thenReturn(staging.staging());
+
+        webTestClient.put().uri("/upload")
+                .header("Authorization", TEST_AUTH_HEADER)
+                .header("Content-Type", "application/octet-stream")
+                .bodyValue(TEST_CONTENT.getBytes())
+                .exchange()
+                .expectStatus().isUnauthorized()
+                .expectBody()
+                .jsonPath("$.authErrorType").isEqualTo("INVALID_SIGNATURE");
+
+        // The staging file is discarded and nothing is published
+        verify(staging.staging()).close();
+        verify(storageService, never()).commitBlobs(any(), any());
+        assertEquals(2, uploadAdmissionService.getAvailableSlots());
+    }
+
+    @Test
+    void testUploadWithoutAuth() {
+        webTestClient.put().uri("/upload")
+                .header("Content-Type", "application/octet-stream")
+                .bodyValue(TEST_CONTENT.getBytes())
+                .exchange()
+                .expectStatus().isUnauthorized()
+                .expectHeader().valueEquals("WWW-Authenticate", "Nostr");
+
+        verify(storageService, never()).openStaging();
+    }
+
+    @Test
+    void testUploadRejectedWhenNoSlotsAvailable() {
+        when(nostrAuthService.validateAuthEventAsync(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(CompletableFuture.completedFuture(validAuthResult));
+
+        try (UploadAdmissionService.Permit first = uploadAdmissionService.admit(1);
+             UploadAdmissionService.Permit second = uploadAdmissionService.admit(1)) {
+
+            webTestClient.put().uri("/upload")
+                    .header("Authorization", TEST_AUTH_HEADER)
+                    .header("Content-Type", "application/octet-stream")
+                    .bodyValue(TEST_CONTENT.getBytes())
+                    .exchange()
+                    .expectStatus().isEqualTo(503)
+                    .expectHeader().exists("Retry-After");
+        }
+
+        verify(storageService, never()).openStaging();
+        assertEquals(2, uploadAdmissionService.getAvailableSlots());
+    }
+
+    @Test
+    void testUploadEmptyFilePart() throws Exception {
+        RecordingStaging staging = staging(testStaged);
+
+        when(nostrAuthService.validateAuthEventAsync(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(CompletableFuture.completedFuture(validAuthResult));
+        when(storageService.openStaging()).thenReturn(staging.staging());
+
+        webTestClient.put().uri("/upload")
+                .header("Authorization", TEST_AUTH_HEADER)
+                .header("Content-Type", MULTIPART_CONTENT_TYPE)
+                .bodyValue(multipartBody(""))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("File is empty or size could not be determined");
+
+        verify(staging.staging(), never()).finish(any(), any());
+        verify(staging.staging()).close();
+    }
+
+    @Test
+    void testBatchUploadSuccess() throws Exception {
+        StorageService.StagedBlob second = stagedBlob(OTHER_HASH, 5);
+        RecordingStaging firstStaging = staging(testStaged);
+        RecordingStaging secondStaging = staging(second);
+        BlobMetadata otherMetadata = new BlobMetadata(OTHER_HASH, 5, "text/plain",
+            Instant.now().getEpochSecond(), TEST_PUBKEY);
+
+        when(nostrAuthService.validateAuthEventAsync(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(CompletableFuture.completedFuture(authWithHashes(TEST_HASH, OTHER_HASH)));
+        when(storageService.openStaging()).thenReturn(firstStaging.staging(), secondStaging.staging());
+        when(storageService.commitBlobs(List.of(testStaged, second), TEST_PUBKEY))
+            .thenReturn(List.of(testMetadata, otherMetadata));
+
+        webTestClient.put().uri("/upload/batch")
+                .header("Authorization", TEST_AUTH_HEADER)
+                .header("Content-Type", MULTIPART_CONTENT_TYPE)
+                .bodyValue(multipartBody(TEST_CONTENT, "other"))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].sha256").isEqualTo(TEST_HASH)
+                .jsonPath("$[1].sha256").isEqualTo(OTHER_HASH);
+
+        assertEquals(TEST_CONTENT, firstStaging.written());
+        assertEquals("other", secondStaging.written());
+        verify(storageService, times(1)).commitBlobs(any(), any());
+        assertEquals(2, uploadAdmissionService.getAvailableSlots());
+    }
+
+    @Test
+    void testBatchUploadRejectsBlobWithoutXTag() throws Exception {
+        StorageService.StagedBlob second = stagedBlob(OTHER_HASH, 5);
+        RecordingStaging firstStaging = staging(testStaged);
+        RecordingStaging secondStaging = staging(second);
+
+        when(nostrAuthService.validateAuthEventAsync(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(CompletableFuture.completedFuture(authWithHashes(TEST_HASH)));
+        when(storageService.openStaging()).thenReturn(firstStaging.staging(), secondStaging.staging());
+
+        webTestClient.put().uri("/upload/batch")
+                .header("Authorization", TEST_AUTH_HEADER)
+                .header("Content-Type", MULTIPART_CONTENT_TYPE)
+                .bodyValue(multipartBody(TEST_CONTENT, "other"))
+                .exchange()
+                .expectStatus().isUnauthorized()
+                .expectBody()
+                .jsonPath("$.authErrorType").isEqualTo("HASH_MISMATCH");
+
+        // Nothing is published and every staged file is discarded
+        verify(storageService, never()).commitBlobs(any(), any());
+        verify(testStaged).close();
+        verify(second).close();
+    }
+}
@@ -4,34 +4,52 @@ import io.github.kengirie.JBlossom.exception.AuthenticationException;
 import io.github.kengirie.JBlossom.exception.StorageException;
 import io.github.kengirie.JBlossom.model.AuthResult;
 import io.github.kengirie.JBlossom.model.BlobMetadata;
+import io.github.kengirie.JBlossom.service.AuthTokenService;
 import io.github.kengirie.JBlossom.service.NostrAuthService;
 import io.github.kengirie.JBlossom.service.StorageService;
+import io.github.kengirie.JBlossom.service.UploadAdmissionService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
-import org.springframework.http.HttpMethod;
-import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @WebMvcTest(UploadController.class)
+@Import({UploadAdmissionService.class, AuthTokenService.class})
+@TestPropertySource(properties = {
+    "blossom.storage.path=${java.io.tmpdir}",
+    "blossom.upload.admission.max-concurrent=2",
+    "blossom.upload.admission.min-free-space=0"
+})
 public class UploadControllerTest {
 
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private UploadAdmissionService uploadAdmissionService;
+
     @MockBean
     private StorageService storageService;
 
@@ -40,6 +58,8 @@ public class UploadControllerTest {
 
     private static final String TEST_HASH = "1827b95e971ac79f6b79242512d74c010166603c2bd1958679cb5da14f3b11c3";
     private static final String TEST_CONTENT = "Test blob content";
+    private static final String BOUNDARY = "JBlossomTestBoundary";
+    private static final String MULTIPART_CONTENT_TYPE = "multipart/form-data; boundary=" + BOUNDARY;
     private static final String TEST_PUBKEY = "83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d";
     private static final String eventJson = """
     {
@@ -69,9 +89,57 @@ public class UploadControllerTest {
     private static final String TEST_AUTH_HEADER = "Nostr " + base64Encoded;
 
     private BlobMetadata testMetadata;
+    private StorageService.StagedBlob testStaged;
     private AuthResult validAuthResult;
     private AuthResult invalidAuthResult;
 
+    private static byte[] multipartBody(String filename, String contentType, byte[] content) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + BOUNDARY + "\r\n" +
+            "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n" +
+            "Content-Type: " + contentType + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(content);
+        body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    private static byte[] batchBody(String... contents) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < contents.length; i++) {
+            body.writeBytes(("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"blob" + i + ".txt\"\r\n" +
+                "Content-Type: text/plain\r\n\r\n" +
+                contents[i] + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        body.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    private static StorageService.StagedBlob stagedBlob(String hash, long size) {
+        StorageService.StagedBlob staged = mock(StorageService.StagedBlob.class);
+        when(staged.getHash()).thenReturn(hash);
+        when(staged.getSize()).thenReturn(size);
+        when(staged.getContentType()).thenReturn("text/plain");
+        return staged;
+    }
+
+    private AuthResult authWithHashes(String... hashes) {
+        long currentTime = Instant.now().getEpochSecond();
+        Map<String, String> tags = new HashMap<>();
+        tags.put("t", "upload");
+        tags.put("expiration", String.valueOf(currentTime + 3600));
+        tags.put("x", hashes[hashes.length - 1]);
+
+        return AuthResult.valid(
+            TEST_PUBKEY,
+            currentTime,
+            currentTime + 3600,
+            "upload",
+            tags,
+            Map.of("x", List.of(hashes))
+        );
+    }
+
     @BeforeEach
     void setUp() {
         long currentTime = Instant.now().getEpochSecond();
@@ -100,24 +168,29 @@ public class UploadControllerTest {
             "Invalid signature",
             AuthenticationException.AuthErrorType.INVALID_SIGNATURE
         );
+
+        testStaged = stagedBlob(TEST_HASH, TEST_CONTENT.length());
+
+        // Single uploads verify asynchronously; delegate to the synchronous stubs below
+        when(nostrAuthService.validateAuthEventAsync(any(), any()))
+            .thenAnswer(invocation -> CompletableFuture.completedFuture(
+                nostrAuthService.validateAuthEvent(invocation.getArgument(0), invocation.getArgument(1))));
     }
 
     @Test
     void testUploadMultipartFileSuccess() throws Exception {
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "test.txt",
-            "text/plain",
-            TEST_CONTENT.getBytes()
-        );
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
 
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(validAuthResult);
-        when(storageService.storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), isNull()))
-            .thenReturn(testMetadata);
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
+            .thenReturn(testStaged);
+        when(storageService.commitBlobs(any(), eq(TEST_PUBKEY)))
+            .thenReturn(List.of(testMetadata));
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload")
-                        .file(file)
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
                         .header("Authorization", TEST_AUTH_HEADER))
                 .andExpect(status().isCreated())
                 .andExpect(jsonPath("$.sha256").value(TEST_HASH))
@@ -127,15 +200,18 @@ public class UploadControllerTest {
                 .andExpect(jsonPath("$.uploaded").exists());
 
         verify(nostrAuthService).validateAuthEvent(TEST_AUTH_HEADER, "upload");
-        verify(storageService).storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), isNull());
+        verify(storageService).stageBlob(any(), eq("text/plain"), isNull());
+        verify(storageService).commitBlobs(any(), eq(TEST_PUBKEY));
     }
 
     @Test
     void testUploadRawBinarySuccess() throws Exception {
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(validAuthResult);
-        when(storageService.storeBlob(any(), anyString(), eq(TEST_PUBKEY), isNull()))
-            .thenReturn(testMetadata);
+        when(storageService.stageBlob(any(), anyString(), isNull()))
+            .thenReturn(testStaged);
+        when(storageService.commitBlobs(any(), eq(TEST_PUBKEY)))
+            .thenReturn(List.of(testMetadata));
 
         mockMvc.perform(put("/upload")
                         .header("Authorization", TEST_AUTH_HEADER)
@@ -145,31 +221,31 @@ public class UploadControllerTest {
                 .andExpect(jsonPath("$.sha256").value(TEST_HASH))
                 .andExpect(jsonPath("$.size").value(TEST_CONTENT.length()));
 
-        verify(storageService).storeBlob(any(), anyString(), eq(TEST_PUBKEY), isNull());
+        verify(storageService).stageBlob(any(), anyString(), isNull());
+        verify(storageService).commitBlobs(any(), eq(TEST_PUBKEY));
     }
 
     @Test
     void testUploadWithExpectedSha256() throws Exception {
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "test.txt",
-            "text/plain",
-            TEST_CONTENT.getBytes()
-        );
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
 
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(validAuthResult);
-        when(storageService.storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), eq(TEST_HASH)))
-            .thenReturn(testMetadata);
+        when(storageService.stageBlob(any(), eq("text/plain"), eq(TEST_HASH)))
+            .thenReturn(testStaged);
+        when(storageService.commitBlobs(any(), eq(TEST_PUBKEY)))
+            .thenReturn(List.of(testMetadata));
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload")
-                        .file(file)
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
                         .header("Authorization", TEST_AUTH_HEADER)
                         .header("X-SHA-256", TEST_HASH))
                 .andExpect(status().isCreated())
                 .andExpect(jsonPath("$.sha256").value(TEST_HASH));
 
-        verify(storageService).storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), eq(TEST_HASH));
+        verify(storageService).stageBlob(any(), eq("text/plain"), eq(TEST_HASH));
+        verify(storageService).commitBlobs(any(), eq(TEST_PUBKEY));
     }
 
     @Test
@@ -187,85 +263,174 @@ public class UploadControllerTest {
             tagsWithHash
         );
 
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "test.txt",
-            "text/plain",
-            TEST_CONTENT.getBytes()
-        );
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
 
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(authWithHash);
-        when(storageService.storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), isNull()))
-            .thenReturn(testMetadata);
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
+            .thenReturn(testStaged);
+        when(storageService.commitBlobs(any(), eq(TEST_PUBKEY)))
+            .thenReturn(List.of(testMetadata));
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload")
-                        .file(file)
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
                         .header("Authorization", TEST_AUTH_HEADER))
                 .andExpect(status().isCreated());
 
-        verify(storageService).storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), isNull());
+        // The staged hash is checked against the x tag before promotion
+        verify(storageService).commitBlobs(any(), eq(TEST_PUBKEY));
     }
 
     @Test
     void testUploadWithoutAuth() throws Exception {
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "test.txt",
-            "text/plain",
-            TEST_CONTENT.getBytes()
-        );
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload").file(file))
+        mockMvc.perform(put("/upload").contentType(MULTIPART_CONTENT_TYPE).content(file))
                 .andExpect(status().isUnauthorized())
                 .andExpect(jsonPath("$.error").value("Unauthorized"))
                 .andExpect(header().string("WWW-Authenticate", "Nostr"));
 
         verify(nostrAuthService, never()).validateAuthEvent(any(), any());
-        verify(storageService, never()).storeBlob(any(), any(), any(), any());
+        verify(storageService, never()).stageBlob(any(), any(), any());
     }
 
     @Test
     void testUploadWithInvalidAuth() throws Exception {
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "test.txt",
-            "text/plain",
-            TEST_CONTENT.getBytes()
-        );
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
 
         when(nostrAuthService.validateAuthEvent("Nostr invalid", "upload"))
             .thenReturn(invalidAuthResult);
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload")
-                        .file(file)
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
                         .header("Authorization", "Nostr invalid"))
                 .andExpect(status().isUnauthorized())
                 .andExpect(jsonPath("$.authErrorType").value("INVALID_SIGNATURE"));
 
-        verify(storageService, never()).storeBlob(any(), any(), any(), any());
+        verify(storageService, never()).commitBlobs(any(), any());
+    }
+
+    @Test
+    void testUploadStagesBodyWhileSignatureIsVerified() throws Exception {
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
+        CompletableFuture<AuthResult> pendingAuth = new CompletableFuture<>();
+
+        when(nostrAuthService.validateAuthEventAsync(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(pendingAuth);
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
+            .thenAnswer(invocation -> {
+                // The body streams in before verification has finished
+                InputStream in = invocation.getArgument(0);
+                assertEquals(TEST_CONTENT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                pendingAuth.complete(validAuthResult);
+                return testStaged;
+            });
+        when(storageService.commitBlobs(any(), eq(TEST_PUBKEY)))
+            .thenReturn(List.of(testMetadata));
+
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.sha256").value(TEST_HASH));
+    }
+
+    @Test
+    void testUploadAbortsStagingWhenVerificationFails() throws Exception {
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
+        CompletableFuture<AuthResult> pendingAuth = new CompletableFuture<>();
+
+        when(nostrAuthService.validateAuthEventAsync(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(pendingAuth);
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
+            .thenAnswer(invocation -> {
+                InputStream in = invocation.getArgument(0);
+                assertEquals('T', in.read());
+                pendingAuth.complete(invalidAuthResult);
+                // The next read fails, so the staging file is discarded
+                in.read();
+                return testStaged;
+            });
+
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.authErrorType").value("INVALID_SIGNATURE"));
+
+        verify(storageService, never()).commitBlobs(any(), any());
+        assertEquals(2, uploadAdmissionService.getAvailableSlots());
+    }
+
+    @Test
+    void testUploadWithTokenEnforcesSizeBudget() throws Exception {
+        long expiration = Instant.now().getEpochSecond() + 300;
+        AuthResult tokenAuth = AuthResult.token(TEST_PUBKEY, expiration, "upload",
+            Map.of("t", List.of("upload")), TEST_CONTENT.length() - 1, "size-budget-token");
+
+        when(nostrAuthService.validateAuthEvent("Bearer test-token", "upload"))
+            .thenReturn(tokenAuth);
+        when(storageService.stageBlob(any(), anyString(), isNull()))
+            .thenReturn(testStaged);
+
+        mockMvc.perform(put("/upload")
+                        .header("Authorization", "Bearer test-token")
+                        .header("Content-Type", "application/octet-stream")
+                        .content(TEST_CONTENT.getBytes()))
+                .andExpect(status().isPayloadTooLarge());
+
+        verify(storageService, never()).commitBlobs(any(), any());
+    }
+
+    @Test
+    void testTokenSizeBudgetIsCumulative() throws Exception {
+        long expiration = Instant.now().getEpochSecond() + 300;
+        // Room for one upload of TEST_CONTENT but not two
+        AuthResult tokenAuth = AuthResult.token(TEST_PUBKEY, expiration, "upload",
+            Map.of("t", List.of("upload")), TEST_CONTENT.length() * 2L - 1, "cumulative-budget-token");
+
+        when(nostrAuthService.validateAuthEvent("Bearer test-token", "upload"))
+            .thenReturn(tokenAuth);
+        when(storageService.stageBlob(any(), anyString(), isNull()))
+            .thenReturn(testStaged);
+        when(storageService.commitBlobs(any(), eq(TEST_PUBKEY)))
+            .thenReturn(List.of(testMetadata));
+
+        mockMvc.perform(put("/upload")
+                        .header("Authorization", "Bearer test-token")
+                        .header("Content-Type", "application/octet-stream")
+                        .content(TEST_CONTENT.getBytes()))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(put("/upload")
+                        .header("Authorization", "Bearer test-token")
+                        .header("Content-Type", "application/octet-stream")
+                        .content(TEST_CONTENT.getBytes()))
+                .andExpect(status().isPayloadTooLarge());
+
+        verify(storageService, times(1)).commitBlobs(any(), any());
     }
 
     @Test
     void testUploadFileTooLarge() throws Exception {
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "test.txt",
-            "text/plain",
-            TEST_CONTENT.getBytes()
-        );
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
 
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(validAuthResult);
-        when(storageService.storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), isNull()))
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
             .thenThrow(new StorageException(
                 StorageException.StorageErrorType.FILE_TOO_LARGE,
                 null,
                 "File size exceeds maximum allowed size"
             ));
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload")
-                        .file(file)
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
                         .header("Authorization", TEST_AUTH_HEADER))
                 .andExpect(status().isPayloadTooLarge())
                 .andExpect(jsonPath("$.error").value("Storage Error"));
@@ -273,24 +438,20 @@ public class UploadControllerTest {
 
     @Test
     void testUploadHashMismatch() throws Exception {
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "test.txt",
-            "text/plain",
-            TEST_CONTENT.getBytes()
-        );
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
 
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(validAuthResult);
-        when(storageService.storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), eq("wrong_hash")))
+        when(storageService.stageBlob(any(), eq("text/plain"), eq("wrong_hash")))
             .thenThrow(new StorageException(
                 StorageException.StorageErrorType.HASH_MISMATCH,
                 TEST_HASH,
                 "SHA256 mismatch"
             ));
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload")
-                        .file(file)
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
                         .header("Authorization", TEST_AUTH_HEADER)
                         .header("X-SHA-256", "wrong_hash"))
                 .andExpect(status().isUnprocessableEntity())
@@ -299,18 +460,14 @@ public class UploadControllerTest {
 
     @Test
     void testUploadEmptyFile() throws Exception {
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "empty.txt",
-            "text/plain",
-            new byte[0]
-        );
+        byte[] file = multipartBody("empty.txt", "text/plain", new byte[0]);
 
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(validAuthResult);
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload")
-                        .file(file)
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
                         .header("Authorization", TEST_AUTH_HEADER))
                 .andExpect(status().isBadRequest()) // File size <= 0 triggers INVALID_FILE
                 .andExpect(jsonPath("$.error").value("Storage Error"))
@@ -334,45 +491,75 @@ public class UploadControllerTest {
             tagsWithWrongHash
         );
 
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "test.txt",
-            "text/plain",
-            TEST_CONTENT.getBytes()
-        );
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
 
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(authWithWrongHash);
-        when(storageService.storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), isNull()))
-            .thenReturn(testMetadata);
-        when(storageService.deleteBlob(TEST_HASH)).thenReturn(true);
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
+            .thenReturn(testStaged);
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload")
-                        .file(file)
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
                         .header("Authorization", TEST_AUTH_HEADER))
                 .andExpect(status().isUnauthorized())
                 .andExpect(jsonPath("$.authErrorType").value("HASH_MISMATCH"));
 
-        verify(storageService).deleteBlob(TEST_HASH); // Cleanup after hash mismatch
+        // Mismatched bytes are never promoted, so there is nothing to clean up
+        verify(storageService, never()).commitBlobs(any(), any());
+        verify(storageService, never()).deleteBlob(any());
+    }
+
+    @Test
+    void testUploadAuthHashConflictsWithExpectedSha256() throws Exception {
+        String otherHash = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+        Map<String, String> tagsWithHash = new HashMap<>();
+        tagsWithHash.put("t", "upload");
+        tagsWithHash.put("x", TEST_HASH);
+        tagsWithHash.put("expiration", String.valueOf(Instant.now().getEpochSecond() + 3600));
+
+        AuthResult authWithHash = AuthResult.valid(
+            TEST_PUBKEY,
+            Instant.now().getEpochSecond(),
+            Instant.now().getEpochSecond() + 3600,
+            "upload",
+            tagsWithHash
+        );
+
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
+
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(authWithHash);
+
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
+                        .header("Authorization", TEST_AUTH_HEADER)
+                        .header("X-SHA-256", otherHash))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.authErrorType").value("HASH_MISMATCH"));
+
+        // Rejected before promotion, and the slot is released
+        verify(storageService, never()).commitBlobs(any(), any());
+        assertEquals(2, uploadAdmissionService.getAvailableSlots());
     }
 
     @Test
     void testUploadDuplicateFile() throws Exception {
         // Test that existing files are returned without re-upload
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "test.txt",
-            "text/plain",
-            TEST_CONTENT.getBytes()
-        );
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
 
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(validAuthResult);
-        when(storageService.storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), isNull()))
-            .thenReturn(testMetadata); // StorageService handles duplicate detection
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
+            .thenReturn(testStaged);
+        when(storageService.commitBlobs(any(), eq(TEST_PUBKEY)))
+            .thenReturn(List.of(testMetadata)); // StorageService handles duplicate detection
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload")
-                        .file(file)
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
                         .header("Authorization", TEST_AUTH_HEADER))
                 .andExpect(status().isCreated())
                 .andExpect(jsonPath("$.sha256").value(TEST_HASH));
@@ -380,24 +567,20 @@ public class UploadControllerTest {
 
     @Test
     void testUploadStorageError() throws Exception {
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "test.txt",
-            "text/plain",
-            TEST_CONTENT.getBytes()
-        );
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
 
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(validAuthResult);
-        when(storageService.storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), isNull()))
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
             .thenThrow(new StorageException(
                 StorageException.StorageErrorType.STORAGE_ERROR,
                 null,
                 "Disk full"
             ));
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload")
-                        .file(file)
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
                         .header("Authorization", TEST_AUTH_HEADER))
                 .andExpect(status().isInternalServerError())
                 .andExpect(jsonPath("$.error").value("Storage Error"));
@@ -407,9 +590,11 @@ public class UploadControllerTest {
     void testUploadWithCustomContentType() throws Exception {
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(validAuthResult);
-        when(storageService.storeBlob(any(), anyString(), eq(TEST_PUBKEY), isNull()))
-            .thenReturn(new BlobMetadata(TEST_HASH, TEST_CONTENT.length(), "image/jpeg",
-                                       Instant.now().getEpochSecond(), TEST_PUBKEY));
+        when(storageService.stageBlob(any(), anyString(), isNull()))
+            .thenReturn(testStaged);
+        when(storageService.commitBlobs(any(), eq(TEST_PUBKEY)))
+            .thenReturn(List.of(new BlobMetadata(TEST_HASH, TEST_CONTENT.length(), "image/jpeg",
+                                       Instant.now().getEpochSecond(), TEST_PUBKEY)));
 
         mockMvc.perform(put("/upload")
                         .header("Authorization", TEST_AUTH_HEADER)
@@ -418,28 +603,205 @@ public class UploadControllerTest {
                 .andExpect(status().isCreated())
                 .andExpect(jsonPath("$.type").value(startsWith("image/jpeg")));
 
-        verify(storageService).storeBlob(any(), anyString(), eq(TEST_PUBKEY), isNull());
+        verify(storageService).stageBlob(any(), anyString(), isNull());
+        verify(storageService).commitBlobs(any(), eq(TEST_PUBKEY));
     }
 
     @Test
     void testUploadUrlGeneration() throws Exception {
-        MockMultipartFile file = new MockMultipartFile(
-            "file",
-            "test.txt",
-            "text/plain",
-            TEST_CONTENT.getBytes()
-        );
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
 
         when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
             .thenReturn(validAuthResult);
-        when(storageService.storeBlob(any(), eq("text/plain"), eq(TEST_PUBKEY), isNull()))
-            .thenReturn(testMetadata);
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
+            .thenReturn(testStaged);
+        when(storageService.commitBlobs(any(), eq(TEST_PUBKEY)))
+            .thenReturn(List.of(testMetadata));
 
-        mockMvc.perform(multipart(HttpMethod.PUT, "/upload")
-                        .file(file)
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
                         .header("Authorization", TEST_AUTH_HEADER)
                         .header("Host", "example.com:8080"))
                 .andExpect(status().isCreated())
                 .andExpect(jsonPath("$.url").value("http://example.com:8080/" + TEST_HASH));
     }
+
+    @Test
+    void testUploadRejectedWhenNoSlotsAvailable() throws Exception {
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(validAuthResult);
+
+        // 同時実行スロットを全て占有する
+        try (UploadAdmissionService.Permit first = uploadAdmissionService.admit(1);
+             UploadAdmissionService.Permit second = uploadAdmissionService.admit(1)) {
+
+            mockMvc.perform(put("/upload")
+                            .header("Authorization", TEST_AUTH_HEADER)
+                            .header("Content-Type", "application/octet-stream")
+                            .content(TEST_CONTENT.getBytes()))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().exists("Retry-After"))
+                    .andExpect(jsonPath("$.error").value("Service Unavailable"));
+        }
+
+        verify(storageService, never()).stageBlob(any(), any(), any());
+        assertEquals(2, uploadAdmissionService.getAvailableSlots());
+    }
+
+    @Test
+    void testUploadReleasesSlotAfterCompletion() throws Exception {
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(validAuthResult);
+        when(storageService.stageBlob(any(), anyString(), isNull()))
+            .thenReturn(testStaged);
+        when(storageService.commitBlobs(any(), eq(TEST_PUBKEY)))
+            .thenReturn(List.of(testMetadata));
+
+        mockMvc.perform(put("/upload")
+                        .header("Authorization", TEST_AUTH_HEADER)
+                        .header("Content-Type", "application/octet-stream")
+                        .content(TEST_CONTENT.getBytes()))
+                .andExpect(status().isCreated());
+
+        assertEquals(2, uploadAdmissionService.getAvailableSlots());
+        assertEquals(0, uploadAdmissionService.getReservedBytes());
+    }
+
+    @Test
+    void testUploadMultipartStreamsOnlyFilePartBytes() throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + BOUNDARY + "\r\n" +
+            "Content-Disposition: form-data; name=\"description\"\r\n\r\n" +
+            "ignored field\r\n").getBytes(StandardCharsets.UTF_8));
+        byte[] filePart = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
+        body.writeBytes(filePart);
+
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(validAuthResult);
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
+            .thenAnswer(invocation -> {
+                // ステージングに渡されるのはパート本体のバイト列のみ
+                InputStream in = invocation.getArgument(0);
+                assertEquals(TEST_CONTENT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                return testStaged;
+            });
+        when(storageService.commitBlobs(any(), eq(TEST_PUBKEY)))
+            .thenReturn(List.of(testMetadata));
+
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(body.toByteArray())
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.sha256").value(TEST_HASH));
+    }
+
+    @Test
+    void testUploadMultipartMissingFilePart() throws Exception {
+        byte[] body = ("--" + BOUNDARY + "\r\n" +
+            "Content-Disposition: form-data; name=\"other\"\r\n\r\n" +
+            "no file here\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(validAuthResult);
+
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(body)
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Missing 'file' part in multipart request"));
+
+        verify(storageService, never()).stageBlob(any(), any(), any());
+    }
+
+    @Test
+    void testUploadWithMultipleXTagsRequiresExpectedSha256() throws Exception {
+        String otherHash = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+        byte[] file = multipartBody("test.txt", "text/plain", TEST_CONTENT.getBytes());
+
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(authWithHashes(TEST_HASH, otherHash));
+
+        mockMvc.perform(put("/upload")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(file)
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.authErrorType").value("HASH_MISMATCH"));
+
+        verify(storageService, never()).commitBlobs(any(), any());
+    }
+
+    @Test
+    void testBatchUploadSuccess() throws Exception {
+        String otherHash = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+        BlobMetadata otherMetadata = new BlobMetadata(otherHash, 5, "text/plain",
+            Instant.now().getEpochSecond(), TEST_PUBKEY);
+
+        StorageService.StagedBlob first = testStaged;
+        StorageService.StagedBlob second = stagedBlob(otherHash, 5);
+
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(authWithHashes(TEST_HASH, otherHash));
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
+            .thenReturn(first, second);
+        when(storageService.commitBlobs(List.of(first, second), TEST_PUBKEY))
+            .thenReturn(List.of(testMetadata, otherMetadata));
+
+        mockMvc.perform(put("/upload/batch")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(batchBody(TEST_CONTENT, "other"))
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].sha256").value(TEST_HASH))
+                .andExpect(jsonPath("$[1].sha256").value(otherHash))
+                .andExpect(jsonPath("$[1].url").value("http://localhost/" + otherHash));
+
+        // 1 signature check and 1 metadata transaction for the whole batch
+        verify(nostrAuthService, times(1)).validateAuthEvent(TEST_AUTH_HEADER, "upload");
+        verify(storageService, times(1)).commitBlobs(any(), any());
+        assertEquals(2, uploadAdmissionService.getAvailableSlots());
+    }
+
+    @Test
+    void testBatchUploadRejectsBlobWithoutXTag() throws Exception {
+        String otherHash = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+        StorageService.StagedBlob first = testStaged;
+        StorageService.StagedBlob second = stagedBlob(otherHash, 5);
+
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(authWithHashes(TEST_HASH));
+        when(storageService.stageBlob(any(), eq("text/plain"), isNull()))
+            .thenReturn(first, second);
+
+        mockMvc.perform(put("/upload/batch")
+                        .contentType(MULTIPART_CONTENT_TYPE)
+                        .content(batchBody(TEST_CONTENT, "other"))
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.authErrorType").value("HASH_MISMATCH"));
+
+        // Nothing is published and every staged file is discarded
+        verify(storageService, never()).commitBlobs(any(), any());
+        verify(first).close();
+        verify(second).close();
+    }
+
+    @Test
+    void testBatchUploadRequiresMultipart() throws Exception {
+        when(nostrAuthService.validateAuthEvent(TEST_AUTH_HEADER, "upload"))
+            .thenReturn(validAuthResult);
+
+        mockMvc.perform(put("/upload/batch")
+                        .contentType("application/octet-stream")
+                        .content(TEST_CONTENT.getBytes())
+                        .header("Authorization", TEST_AUTH_HEADER))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Batch upload requires a multipart/form-data body"));
+
+        verify(storageService, never()).stageBlob(any(), any(), any());
+    }
 }
@@ -11,8 +11,13 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import io.github.kengirie.JBlossom.service.AccessLogService;
+import io.github.kengirie.JBlossom.service.AuthTokenService;
+import io.github.kengirie.JBlossom.service.BlobContentCache;
+import io.github.kengirie.JBlossom.service.ImageDerivativeService;
 import io.github.kengirie.JBlossom.service.StorageService;
 import io.github.kengirie.JBlossom.service.NostrAuthService;
+import io.github.kengirie.JBlossom.service.UploadAdmissionService;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -30,6 +35,21 @@ public class GlobalExceptionHandlerTest {
     @MockBean
     private NostrAuthService nostrAuthService;
 
+    @MockBean
+    private UploadAdmissionService uploadAdmissionService;
+
+    @MockBean
+    private AccessLogService accessLogService;
+
+    @MockBean
+    private BlobContentCache blobContentCache;
+
+    @MockBean
+    private ImageDerivativeService imageDerivativeService;
+
+    @MockBean
+    private AuthTokenService authTokenService;
+
     @RestController
     @RequestMapping("/test")
     static class TestController {
@@ -76,6 +96,11 @@ public class GlobalExceptionHandlerTest {
             );
         }
 
+        @GetMapping("/service-unavailable")
+        public void testServiceUnavailable() {
+            throw new ServiceUnavailableException("Too many concurrent uploads", 5);
+        }
+
         @GetMapping("/blob-not-found")
         public void testBlobNotFound() {
             throw new BlobNotFoundException("Blob with hash abc123 not found");
@@ -155,6 +180,17 @@ public class GlobalExceptionHandlerTest {
                 .andExpect(jsonPath("$.message").value("File checksum mismatch"));
     }
 
+    @Test
+    void testServiceUnavailableException() throws Exception {
+        mockMvc.perform(get("/test/service-unavailable"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "5"))
+                .andExpect(header().string("X-Reason", "Too many concurrent uploads"))
+                .andExpect(header().string("Access-Control-Expose-Headers", "X-Reason, Retry-After"))
+                .andExpect(jsonPath("$.error").value("Service Unavailable"))
+                .andExpect(jsonPath("$.retryAfter").value("5"));
+    }
+
     @Test
     void testBlobNotFoundException() throws Exception {
         mockMvc.perform(get("/test/blob-not-found"))
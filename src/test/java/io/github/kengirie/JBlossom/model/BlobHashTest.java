@@ -0,0 +1,66 @@
+package io.github.kengirie.JBlossom.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlobHashTest {
+
+    private static final String HASH = "d8346875f65e726689b5b4a4823714333aaf82127007ab6d926b18a2256503fb";
+
+    @Test
+    void testParseRoundTrip() {
+        BlobHash hash = BlobHash.parse(HASH);
+
+        assertEquals(HASH, hash.toString());
+        // 大文字も受け付け、小文字で出力する
+        assertEquals(hash, BlobHash.parse(HASH.toUpperCase()));
+        assertEquals(HASH, BlobHash.parse(HASH.toUpperCase()).toString());
+    }
+
+    @Test
+    void testInvalidInput() {
+        assertNull(BlobHash.tryParse(null));
+        assertNull(BlobHash.tryParse(HASH.substring(1)));
+        assertNull(BlobHash.tryParse(HASH + "0"));
+        assertNull(BlobHash.tryParse("g" + HASH.substring(1)));
+        assertFalse(BlobHash.isValid("invalid-hash"));
+        assertTrue(BlobHash.isValid(HASH));
+        assertThrows(IllegalArgumentException.class, () -> BlobHash.parse("invalid-hash"));
+    }
+
+    @Test
+    void testFindInPath() {
+        assertEquals(0, BlobHash.find(HASH + ".png"));
+        assertEquals(6, BlobHash.find("/blob/" + HASH));
+        // 64文字に満たない16進数の連続は無視する
+        assertEquals(4, BlobHash.find("abc-" + HASH));
+        assertEquals(-1, BlobHash.find("/" + HASH.substring(1)));
+        assertNull(BlobHash.parseAt("/" + HASH, 2));
+        assertEquals(BlobHash.parse(HASH), BlobHash.parseAt("/" + HASH, 1));
+    }
+
+    @Test
+    void testBytesRoundTrip() throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest("hello".getBytes(StandardCharsets.UTF_8));
+        BlobHash hash = BlobHash.fromBytes(digest);
+
+        assertEquals("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824", hash.toString());
+        assertArrayEquals(digest, hash.toBytes());
+        assertThrows(IllegalArgumentException.class, () -> BlobHash.fromBytes(new byte[31]));
+    }
+
+    @Test
+    void testEqualsAndHashCode() {
+        BlobHash a = BlobHash.parse(HASH);
+        BlobHash b = BlobHash.parse(HASH);
+        BlobHash other = BlobHash.parse(HASH.substring(0, 63) + "a");
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, other);
+    }
+}
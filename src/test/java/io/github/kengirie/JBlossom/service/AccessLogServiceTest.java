@@ -0,0 +1,82 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.model.BlobHash;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class AccessLogServiceTest {
+
+    private static final String HASH_A = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+    private static final String HASH_B = "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+
+    private StorageService storageService;
+    private AccessLogService accessLogService;
+
+    @BeforeEach
+    void setUp() {
+        storageService = mock(StorageService.class);
+        accessLogService = new AccessLogService();
+        ReflectionTestUtils.setField(accessLogService, "storageService", storageService);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFlushWritesCoalescedBatch() {
+        when(storageService.updateAccessTimes(anyMap())).thenReturn(2);
+
+        accessLogService.recordAccess(BlobHash.parse(HASH_A));
+        accessLogService.recordAccess(BlobHash.parse(HASH_A));
+        accessLogService.recordAccess(BlobHash.parse(HASH_B));
+        assertEquals(2, accessLogService.getPendingCount());
+
+        assertEquals(2, accessLogService.flush());
+
+        // 同一BLOBへの複数アクセスは1行にまとめて1回で書き込む
+        ArgumentCaptor<Map<String, Long>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(storageService, times(1)).updateAccessTimes(captor.capture());
+        assertEquals(2, captor.getValue().size());
+        assertTrue(captor.getValue().containsKey(HASH_A));
+        assertTrue(captor.getValue().containsKey(HASH_B));
+        assertEquals(0, accessLogService.getPendingCount());
+    }
+
+    @Test
+    void testFailedFlushKeepsEntries() {
+        when(storageService.updateAccessTimes(anyMap())).thenReturn(-1).thenReturn(2);
+
+        accessLogService.recordAccess(BlobHash.parse(HASH_A));
+        accessLogService.recordAccess(BlobHash.parse(HASH_B));
+
+        // 書き込みに失敗したアクセス時刻は失われず、次回まとめて書き込む
+        assertEquals(0, accessLogService.flush());
+        assertEquals(2, accessLogService.getPendingCount());
+
+        assertEquals(2, accessLogService.flush());
+        assertEquals(0, accessLogService.getPendingCount());
+        verify(storageService, times(2)).updateAccessTimes(anyMap());
+    }
+
+    @Test
+    void testFlushWithNothingPending() {
+        assertEquals(0, accessLogService.flush());
+        verify(storageService, never()).updateAccessTimes(anyMap());
+    }
+
+    @Test
+    void testShutdownFlushesPending() {
+        accessLogService.recordAccess(BlobHash.parse(HASH_A));
+
+        accessLogService.shutdown();
+
+        verify(storageService).updateAccessTimes(anyMap());
+        assertEquals(0, accessLogService.getPendingCount());
+    }
+}
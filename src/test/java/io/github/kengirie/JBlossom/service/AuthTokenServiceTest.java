@@ -0,0 +1,159 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.exception.AuthenticationException;
+import io.github.kengirie.JBlossom.model.AuthResult;
+import io.github.kengirie.JBlossom.model.AuthToken;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuthTokenServiceTest {
+
+    private static final String PUBKEY = "83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d";
+    private static final String HASH_A = "1827b95e971ac79f6b79242512d74c010166603c2bd1958679cb5da14f3b11c3";
+    private static final String HASH_B = "d2958e6e31a4562ddcb99da838e12a002221c296f1901d82d9196900d2f89b47";
+
+    private AuthTokenService tokenService;
+
+    @BeforeEach
+    void setUp() {
+        tokenService = new AuthTokenService();
+        ReflectionTestUtils.setField(tokenService, "maxSize", 1000L);
+        tokenService.initialize();
+    }
+
+    @Test
+    void testIssuedTokenValidates() {
+        long now = Instant.now().getEpochSecond();
+        AuthToken token = tokenService.issue(verified(now + 3600, HASH_A, "not|a,hash"), List.of("upload", "get"), 0);
+
+        // 有効期限は TTL で切り詰め、ハッシュとして不正な x タグは含めない
+        assertTrue(token.getExpires() <= now + 300 + 1);
+        assertEquals(List.of(HASH_A), token.getHashes());
+        assertEquals(1000L, token.getMaxSize());
+
+        AuthResult result = tokenService.validate(token.getToken(), "upload", HASH_A);
+        assertTrue(result.isValid());
+        assertEquals(PUBKEY, result.getPubkey());
+        assertEquals("upload", result.getAction());
+        assertEquals(List.of(HASH_A), result.getTagValues("x"));
+        assertEquals(1000L, result.getMaxSize());
+        assertTrue(tokenService.validate(token.getToken(), "get", null).isValid());
+    }
+
+    @Test
+    void testScopeIsEnforced() {
+        long now = Instant.now().getEpochSecond();
+        AuthToken token = tokenService.issue(verified(now + 3600, HASH_A), List.of("upload"), 500);
+        assertEquals(500L, token.getMaxSize());
+
+        AuthResult wrongAction = tokenService.validate(token.getToken(), "get", null);
+        assertFalse(wrongAction.isValid());
+        assertEquals(AuthenticationException.AuthErrorType.INVALID_ACTION, wrongAction.getErrorType());
+
+        AuthResult wrongHash = tokenService.validate(token.getToken(), "upload", HASH_B);
+        assertFalse(wrongHash.isValid());
+        assertEquals(AuthenticationException.AuthErrorType.MISSING_TAGS, wrongHash.getErrorType());
+
+        // 上限を超えるサイズは上限に丸める
+        assertEquals(1000L, tokenService.issue(verified(now + 3600), List.of("upload"), 5000).getMaxSize());
+        assertThrows(IllegalArgumentException.class,
+            () -> tokenService.issue(verified(now + 3600), List.of("up|load"), 0));
+    }
+
+    @Test
+    void testSizeBudgetIsCumulative() {
+        long now = Instant.now().getEpochSecond();
+        AuthToken token = tokenService.issue(verified(now + 3600), List.of("upload"), 500);
+        AuthResult first = tokenService.validate(token.getToken(), "upload", null);
+        AuthResult second = tokenService.validate(token.getToken(), "upload", null);
+        assertNotNull(first.getTokenId());
+        assertEquals(first.getTokenId(), second.getTokenId());
+
+        // 同じトークンによるアップロードの合計で上限を判定する
+        assertTrue(tokenService.charge(first, 300));
+        assertEquals(200L, tokenService.getRemaining(second));
+        assertFalse(tokenService.charge(second, 300));
+        assertTrue(tokenService.charge(second, 200));
+        assertFalse(tokenService.charge(first, 1));
+
+        // 保存に失敗した分は戻る
+        tokenService.refund(first, 200);
+        assertTrue(tokenService.charge(first, 200));
+
+        // 別に発行したトークンは別に数える
+        AuthResult other = tokenService.validate(
+            tokenService.issue(verified(now + 3600), List.of("upload"), 500).getToken(), "upload", null);
+        assertNotEquals(first.getTokenId(), other.getTokenId());
+        assertTrue(tokenService.charge(other, 500));
+        assertEquals(2, tokenService.getTrackedTokenCount());
+
+        // Nostr イベントによる認可には上限がない
+        assertTrue(tokenService.charge(verified(now + 3600), Long.MAX_VALUE));
+    }
+
+    @Test
+    void testExpiredToken() {
+        // イベントの有効期限を超えない
+        AuthToken token = tokenService.issue(verified(Instant.now().getEpochSecond()), List.of("upload"), 0);
+
+        AuthResult result = tokenService.validate(token.getToken(), "upload", null);
+        assertFalse(result.isValid());
+        assertEquals("Token has expired", result.getReason());
+    }
+
+    @Test
+    void testForeignOrTamperedTokensAreNotRecognized() {
+        long now = Instant.now().getEpochSecond();
+        String token = tokenService.issue(verified(now + 3600), List.of("upload"), 0).getToken();
+
+        assertNull(tokenService.validate("invalid-token", "upload", null));
+        assertNull(tokenService.validate("a.b.c", "upload", null));
+
+        // ペイロードを書き換えると MAC が一致しない
+        String payload = new String(Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.'))));
+        String forged = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(payload.replace("|1000", "|999999").getBytes()) + token.substring(token.indexOf('.'));
+        assertNull(tokenService.validate(forged, "upload", null));
+
+        // 別の鍵で発行されたトークン
+        AuthTokenService other = new AuthTokenService();
+        other.initialize();
+        assertNull(other.validate(token, "upload", null));
+
+        ReflectionTestUtils.setField(tokenService, "enabled", false);
+        assertNull(tokenService.validate(token, "upload", null));
+    }
+
+    @Test
+    void testConfiguredSecretIsShared() {
+        String secret = Base64.getEncoder().encodeToString(new byte[32]);
+        AuthTokenService first = withSecret(secret);
+        AuthTokenService second = withSecret(secret);
+
+        String token = first.issue(verified(Instant.now().getEpochSecond() + 3600), List.of("get"), 0).getToken();
+        assertTrue(second.validate(token, "get", null).isValid());
+
+        assertThrows(IllegalStateException.class, () -> withSecret(Base64.getEncoder().encodeToString(new byte[16])));
+    }
+
+    private static AuthTokenService withSecret(String secret) {
+        AuthTokenService service = new AuthTokenService();
+        ReflectionTestUtils.setField(service, "secret", secret);
+        service.initialize();
+        return service;
+    }
+
+    private static AuthResult verified(long expiration, String... hashes) {
+        long now = Instant.now().getEpochSecond();
+        return AuthResult.valid(PUBKEY, now - 60, expiration, "upload", Map.of(),
+            Map.of("t", List.of("upload", "get"), "x", List.of(hashes)));
+    }
+}
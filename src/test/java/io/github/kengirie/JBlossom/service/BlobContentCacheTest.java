@@ -0,0 +1,136 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.model.ServingDescriptor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlobContentCacheTest {
+
+    private BlobContentCache contentCache;
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp(@TempDir Path tempDir) {
+        this.tempDir = tempDir;
+        contentCache = new BlobContentCache();
+        ReflectionTestUtils.setField(contentCache, "maxBlobSize", 16L);
+        ReflectionTestUtils.setField(contentCache, "maxBytes", 32L);
+        ReflectionTestUtils.setField(contentCache, "admissionThreshold", 2);
+    }
+
+    @Test
+    void testAdmitAfterThresholdAndServeFromMemory() throws IOException {
+        ServingDescriptor descriptor = createBlob("a", "0123456789");
+
+        // 1回目は参照回数が足りないので登録しない
+        assertNull(contentCache.lookup(descriptor));
+        assertEquals(0, contentCache.getEntryCount());
+
+        ByteBuffer loaded = contentCache.lookup(descriptor);
+        assertNotNull(loaded);
+        assertTrue(loaded.isDirect());
+        assertEquals(10, contentCache.getResidentBytes());
+
+        // 以降はファイルを開かずに返す
+        Files.delete(descriptor.getPath());
+        assertEquals("0123456789", toString(contentCache.lookup(descriptor)));
+        assertEquals(1, contentCache.getHits());
+        assertEquals(2, contentCache.getMisses());
+        assertEquals(1.0 / 3, contentCache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    void testLargeBlobsBypassCache() throws IOException {
+        ServingDescriptor descriptor = createBlob("b", "this blob is far too large");
+
+        for (int i = 0; i < 5; i++) {
+            assertNull(contentCache.lookup(descriptor));
+        }
+        assertEquals(0, contentCache.getEntryCount());
+        assertEquals(0, contentCache.getMisses());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedWithinMemoryCap() throws IOException {
+        ServingDescriptor first = createBlob("c", "aaaaaaaaaaaaaaaa");
+        ServingDescriptor second = createBlob("d", "bbbbbbbbbbbbbbbb");
+        ServingDescriptor third = createBlob("e", "cccccccccccccccc");
+
+        warm(first, 2);
+        warm(second, 2);
+        assertEquals(32, contentCache.getResidentBytes());
+
+        // 同程度の人気なので最も古いものを追い出して登録する
+        warm(third, 2);
+        assertEquals(32, contentCache.getResidentBytes());
+        assertEquals(2, contentCache.getEntryCount());
+        assertEquals(1, contentCache.getEvictions());
+    }
+
+    @Test
+    void testRejectsCandidateLessPopularThanVictim() throws IOException {
+        ServingDescriptor popular = createBlob("f", "aaaaaaaaaaaaaaaa");
+        ServingDescriptor alsoPopular = createBlob("g", "bbbbbbbbbbbbbbbb");
+        ServingDescriptor newcomer = createBlob("h", "cccccccccccccccc");
+
+        warm(popular, 10);
+        warm(alsoPopular, 10);
+
+        assertNull(contentCache.lookup(newcomer));
+        assertNull(contentCache.lookup(newcomer));
+        assertEquals(2, contentCache.getEntryCount());
+        assertEquals(0, contentCache.getEvictions());
+    }
+
+    @Test
+    void testDeletionInvalidatesEntry() throws IOException {
+        ServingDescriptor descriptor = createBlob("i", "deleted soon");
+        warm(descriptor, 2);
+        assertEquals(1, contentCache.getEntryCount());
+
+        contentCache.onBlobDeleted(descriptor.getHash());
+
+        assertEquals(0, contentCache.getEntryCount());
+        assertEquals(0, contentCache.getResidentBytes());
+        // 参照回数もリセットされる
+        assertNull(contentCache.lookup(descriptor));
+    }
+
+    @Test
+    void testDisabledCacheNeverAdmits() throws IOException {
+        ReflectionTestUtils.setField(contentCache, "enabled", false);
+        ServingDescriptor descriptor = createBlob("j", "disabled");
+
+        warm(descriptor, 5);
+        assertEquals(0, contentCache.getEntryCount());
+    }
+
+    private void warm(ServingDescriptor descriptor, int times) {
+        for (int i = 0; i < times; i++) {
+            contentCache.lookup(descriptor);
+        }
+    }
+
+    private ServingDescriptor createBlob(String name, String content) throws IOException {
+        String hash = String.format("%064x", (int) name.charAt(0));
+        Path path = tempDir.resolve(hash);
+        Files.writeString(path, content);
+        return new ServingDescriptor(hash, content.length(), "text/plain", path, 0);
+    }
+
+    private static String toString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
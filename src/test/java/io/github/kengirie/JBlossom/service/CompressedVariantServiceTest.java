@@ -0,0 +1,123 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.config.SchemaMigrator;
+import io.github.kengirie.JBlossom.model.BlobHash;
+import io.github.kengirie.JBlossom.model.ServingDescriptor;
+import io.github.kengirie.JBlossom.util.SqlDictionary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressedVariantServiceTest {
+
+    private StorageService storageService;
+    private CompressedVariantService variantService;
+    private Path tempDir;
+    private String databaseUrl;
+
+    @BeforeEach
+    void setUp(@TempDir Path tempDir) throws SQLException {
+        this.tempDir = tempDir;
+        Path tempDbPath = tempDir.resolve("test.db");
+        this.databaseUrl = "jdbc:sqlite:" + tempDbPath;
+
+        storageService = new StorageService();
+        ReflectionTestUtils.setField(storageService, "storagePath", tempDir.toString());
+        ReflectionTestUtils.setField(storageService, "databasePath", tempDbPath.toString());
+
+        variantService = new CompressedVariantService();
+        ReflectionTestUtils.setField(variantService, "storageService", storageService);
+        ReflectionTestUtils.setField(variantService, "enabled", true);
+        ReflectionTestUtils.setField(variantService, "minSize", 64L);
+        ReflectionTestUtils.setField(variantService, "maxSize", 1024L * 1024);
+        ReflectionTestUtils.setField(variantService, "maxRatio", 0.9);
+        ReflectionTestUtils.setField(variantService, "batchSize", 2);
+
+        try (Connection conn = DriverManager.getConnection(databaseUrl)) {
+            SchemaMigrator.migrate(conn);
+        }
+    }
+
+    @Test
+    void testCompressesEligibleBlobs() throws Exception {
+        String text = "1111111111111111111111111111111111111111111111111111111111111111";
+        String json = "2222222222222222222222222222222222222222222222222222222222222222";
+        String svg = "3333333333333333333333333333333333333333333333333333333333333333";
+        byte[] textContent = "Lorem ipsum dolor sit amet. ".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+        insertBlob(text, textContent, "text/plain; charset=utf-8");
+        insertBlob(json, "{\"key\": \"value\"}, ".repeat(50).getBytes(StandardCharsets.UTF_8), "application/json");
+        insertBlob(svg, "<svg><rect/></svg>".repeat(50).getBytes(StandardCharsets.UTF_8), "image/svg+xml");
+
+        assertEquals(3, variantService.run());
+
+        ServingDescriptor descriptor = storageService.resolveBlob(text).orElseThrow();
+        assertTrue(descriptor.hasGzipVariant());
+        ServingDescriptor gzip = descriptor.withGzipEncoding();
+        assertTrue(gzip.getSize() < textContent.length);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(gzip.getPath()))) {
+            assertArrayEquals(textContent, in.readAllBytes());
+        }
+
+        // 処理済みのBLOBは再度処理しない
+        assertEquals(0, variantService.run());
+    }
+
+    @Test
+    void testSkipsIneligibleAndIncompressibleBlobs() throws Exception {
+        String image = "4444444444444444444444444444444444444444444444444444444444444444";
+        String small = "5555555555555555555555555555555555555555555555555555555555555555";
+        String random = "6666666666666666666666666666666666666666666666666666666666666666";
+        String missing = "7777777777777777777777777777777777777777777777777777777777777777";
+
+        byte[] noise = new byte[4096];
+        new Random(42).nextBytes(noise);
+        insertBlob(image, "not a png ".repeat(100).getBytes(StandardCharsets.UTF_8), "image/png");
+        insertBlob(small, "tiny".getBytes(StandardCharsets.UTF_8), "text/plain");
+        insertBlob(random, noise, "text/plain");
+        insertBlob(missing, "gone ".repeat(100).getBytes(StandardCharsets.UTF_8), "text/plain");
+        Files.delete(tempDir.resolve(missing));
+
+        assertEquals(0, variantService.run());
+        assertFalse(storageService.resolveBlob(image).orElseThrow().hasGzipVariant());
+        assertFalse(storageService.resolveBlob(small).orElseThrow().hasGzipVariant());
+        assertFalse(storageService.resolveBlob(random).orElseThrow().hasGzipVariant());
+
+        // 圧縮を見送ったBLOBは候補から外れ、一時ファイルも残らない
+        assertTrue(storageService.findVariantCandidates(StorageService.GZIP_ENCODING,
+            CompressedVariantService.COMPRESSIBLE_TYPES, 64, 1024 * 1024, 10).isEmpty());
+        try (var staged = Files.list(tempDir.resolve(".staging"))) {
+            assertEquals(0, staged.count());
+        }
+    }
+
+    private void insertBlob(String hash, byte[] content, String type) throws IOException, SQLException {
+        Files.write(tempDir.resolve(hash), content);
+
+        try (Connection conn = DriverManager.getConnection(databaseUrl);
+             PreparedStatement stmt = conn.prepareStatement(
+                 "INSERT INTO blobs (hash, size, type_id, uploaded, pubkey_id) VALUES (?, ?, ?, ?, ?)")) {
+            stmt.setBytes(1, BlobHash.parse(hash).toBytes());
+            stmt.setLong(2, content.length);
+            stmt.setObject(3, SqlDictionary.intern(conn, "mime_types", "type", type));
+            stmt.setLong(4, System.currentTimeMillis() / 1000);
+            stmt.setObject(5, SqlDictionary.intern(conn, "pubkeys", "pubkey", "test-pubkey"));
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.model.ImageTransform;
+import io.github.kengirie.JBlossom.model.ServingDescriptor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageDerivativeServiceTest {
+
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    private ImageDerivativeService derivativeService;
+    private Path tempDir;
+    private ServingDescriptor source;
+
+    @BeforeEach
+    void setUp(@TempDir Path tempDir) throws Exception {
+        this.tempDir = tempDir;
+
+        derivativeService = createService();
+
+        Path sourcePath = tempDir.resolve(HASH);
+        ImageIO.write(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB), "jpeg", sourcePath.toFile());
+        source = new ServingDescriptor(HASH, Files.size(sourcePath), "image/jpeg", sourcePath, 1700000000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        derivativeService.shutdown();
+    }
+
+    @Test
+    void testParseTransform() {
+        assertNull(derivativeService.parseTransform(null, null));
+        assertEquals(new ImageTransform(64, 0), derivativeService.parseTransform("64", null));
+        assertEquals("w64h64", derivativeService.parseTransform("64", "64").getKey());
+
+        // 許可されていないサイズ・数値以外は拒否する
+        assertThrows(IllegalArgumentException.class, () -> derivativeService.parseTransform("65", null));
+        assertThrows(IllegalArgumentException.class, () -> derivativeService.parseTransform(null, "abc"));
+    }
+
+    @Test
+    void testFitKeepsAspectRatioWithoutUpscaling() {
+        assertArrayEquals(new int[] {64, 32}, new ImageTransform(64, 0).fit(1000, 500));
+        assertArrayEquals(new int[] {128, 64}, new ImageTransform(0, 64).fit(1000, 500));
+        assertArrayEquals(new int[] {64, 32}, new ImageTransform(64, 64).fit(1000, 500));
+        assertArrayEquals(new int[] {1000, 500}, new ImageTransform(1200, 0).fit(1000, 500));
+    }
+
+    @Test
+    void testGeneratesAndCachesDerivative() throws Exception {
+        ServingDescriptor derivative = derivativeService.getDerivative(source, new ImageTransform(64, 0)).orElseThrow();
+
+        assertEquals("\"" + HASH + "-w64\"", derivative.getETag());
+        assertEquals("image/jpeg", derivative.getMimeType());
+        assertTrue(derivative.isVariant());
+        assertTrue(derivative.getSize() < source.getSize());
+        BufferedImage image = ImageIO.read(derivative.getPath().toFile());
+        assertEquals(64, image.getWidth());
+        assertEquals(32, image.getHeight());
+
+        // 2回目はキャッシュ済みのファイルを返す
+        ServingDescriptor again = derivativeService.getDerivative(source, new ImageTransform(64, 0)).orElseThrow();
+        assertEquals(derivative.getPath(), again.getPath());
+        assertEquals(Files.getLastModifiedTime(derivative.getPath()), Files.getLastModifiedTime(again.getPath()));
+    }
+
+    @Test
+    void testConcurrentRequestsShareOneGeneration() throws Exception {
+        ReflectionTestUtils.setField(derivativeService, "queueSize", 1);
+        derivativeService.shutdown();
+        derivativeService.initialize();
+
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Optional<ServingDescriptor>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(clients.submit(() -> derivativeService.getDerivative(source, new ImageTransform(0, 128))));
+            }
+            for (Future<Optional<ServingDescriptor>> result : results) {
+                assertEquals("\"" + HASH + "-h128\"", result.get().orElseThrow().getETag());
+            }
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    void testNonImageServedAsIs() throws Exception {
+        assertTrue(derivativeService.getDerivative(source.withMimeType("text/plain"), new ImageTransform(64, 0)).isEmpty());
+
+        // 画像として申告されていてもデコードできなければ元のBLOBを配信する
+        Path broken = tempDir.resolve("broken");
+        Files.writeString(broken, "not an image");
+        ServingDescriptor brokenSource = new ServingDescriptor(HASH, 12, "image/png", broken, 1700000000L);
+        assertTrue(derivativeService.canDerive(brokenSource));
+        assertTrue(derivativeService.getDerivative(brokenSource, new ImageTransform(64, 0)).isEmpty());
+
+        // 失敗は記録され、別のサイズの要求でもデコードを試みない
+        assertFalse(derivativeService.canDerive(brokenSource));
+        assertTrue(derivativeService.getDerivative(brokenSource, new ImageTransform(128, 0)).isEmpty());
+
+        // BLOBが削除されれば記録も消える
+        derivativeService.onBlobDeleted(HASH);
+        assertTrue(derivativeService.canDerive(brokenSource));
+    }
+
+    @Test
+    void testEvictionNeverTouchesSourceBlob() throws Exception {
+        ServingDescriptor small = derivativeService.getDerivative(source, new ImageTransform(32, 0)).orElseThrow();
+        ReflectionTestUtils.setField(derivativeService, "maxBytes", derivativeService.getResidentBytes());
+
+        ServingDescriptor larger = derivativeService.getDerivative(source, new ImageTransform(256, 0)).orElseThrow();
+
+        assertFalse(Files.exists(small.getPath()));
+        assertTrue(Files.exists(larger.getPath()));
+        assertTrue(Files.exists(source.getPath()));
+        assertEquals(larger.getSize(), derivativeService.getResidentBytes());
+    }
+
+    @Test
+    void testIndexReloadedAndDeletedWithBlob() throws Exception {
+        ServingDescriptor derivative = derivativeService.getDerivative(source, new ImageTransform(64, 0)).orElseThrow();
+        derivativeService.shutdown();
+
+        // 再起動後もディスク上の派生画像を引き継ぐ
+        derivativeService = createService();
+        assertEquals(derivative.getSize(), derivativeService.getResidentBytes());
+
+        derivativeService.onBlobDeleted(HASH);
+        assertEquals(0, derivativeService.getResidentBytes());
+        assertFalse(Files.exists(derivative.getPath()));
+        assertTrue(Files.exists(source.getPath()));
+    }
+
+    private ImageDerivativeService createService() {
+        ImageDerivativeService service = new ImageDerivativeService();
+        ReflectionTestUtils.setField(service, "storagePath", tempDir.toString());
+        service.initialize();
+        return service;
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.config.SchemaMigrator;
+import io.github.kengirie.JBlossom.model.BlobHash;
+import io.github.kengirie.JBlossom.util.SqlDictionary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MimeTypeBackfillServiceTest {
+
+    private static final byte[] PNG_HEADER = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 0x0d, 'I', 'H', 'D', 'R'
+    };
+
+    private StorageService storageService;
+    private MimeTypeBackfillService backfillService;
+    private Path tempDir;
+    private String databaseUrl;
+
+    @BeforeEach
+    void setUp(@TempDir Path tempDir) throws SQLException {
+        this.tempDir = tempDir;
+        Path tempDbPath = tempDir.resolve("test.db");
+        this.databaseUrl = "jdbc:sqlite:" + tempDbPath;
+
+        storageService = new StorageService();
+        ReflectionTestUtils.setField(storageService, "storagePath", tempDir.toString());
+        ReflectionTestUtils.setField(storageService, "databasePath", tempDbPath.toString());
+
+        backfillService = new MimeTypeBackfillService();
+        ReflectionTestUtils.setField(backfillService, "storageService", storageService);
+        ReflectionTestUtils.setField(backfillService, "enabled", true);
+        ReflectionTestUtils.setField(backfillService, "threads", 2);
+        ReflectionTestUtils.setField(backfillService, "batchSize", 2);
+
+        try (Connection conn = DriverManager.getConnection(databaseUrl)) {
+            SchemaMigrator.migrate(conn);
+        }
+    }
+
+    @Test
+    void testBackfillUpdatesUntypedRows() throws Exception {
+        String nullType = "1111111111111111111111111111111111111111111111111111111111111111";
+        String octetStream = "2222222222222222222222222222222222222222222222222222222222222222";
+        String emptyType = "3333333333333333333333333333333333333333333333333333333333333333";
+        String typed = "4444444444444444444444444444444444444444444444444444444444444444";
+
+        insertBlob(nullType, PNG_HEADER, null);
+        insertBlob(octetStream, PNG_HEADER, "application/octet-stream");
+        insertBlob(emptyType, PNG_HEADER, "");
+        insertBlob(typed, PNG_HEADER, "image/x-custom");
+
+        int updated = backfillService.run();
+
+        assertEquals(3, updated);
+        assertEquals("image/png", typeOf(nullType));
+        assertEquals("image/png", typeOf(octetStream));
+        assertEquals("image/png", typeOf(emptyType));
+        assertEquals("image/x-custom", typeOf(typed)); // 設定済みのタイプは変更しない
+        assertTrue(storageService.isJobCompleted(MimeTypeBackfillService.JOB_NAME));
+    }
+
+    @Test
+    void testBackfillSkipsUndetectableAndMissingFiles() throws Exception {
+        String undetectable = "5555555555555555555555555555555555555555555555555555555555555555";
+        String missing = "6666666666666666666666666666666666666666666666666666666666666666";
+
+        insertBlob(undetectable, new byte[] {0x00, 0x01, 0x02, (byte) 0xff}, "application/octet-stream");
+        insertBlob(missing, PNG_HEADER, null);
+        Files.delete(tempDir.resolve(missing));
+
+        assertEquals(0, backfillService.run());
+        assertEquals("application/octet-stream", typeOf(undetectable));
+        assertNull(typeOf(missing));
+        assertTrue(storageService.isJobCompleted(MimeTypeBackfillService.JOB_NAME));
+    }
+
+    private void insertBlob(String hash, byte[] content, String type) throws IOException, SQLException {
+        Files.write(tempDir.resolve(hash), content);
+
+        try (Connection conn = DriverManager.getConnection(databaseUrl);
+             PreparedStatement stmt = conn.prepareStatement(
+                 "INSERT INTO blobs (hash, size, type_id, uploaded, pubkey_id) VALUES (?, ?, ?, ?, ?)")) {
+            stmt.setBytes(1, BlobHash.parse(hash).toBytes());
+            stmt.setLong(2, content.length);
+            stmt.setObject(3, SqlDictionary.intern(conn, "mime_types", "type", type));
+            stmt.setLong(4, System.currentTimeMillis() / 1000);
+            stmt.setObject(5, SqlDictionary.intern(conn, "pubkeys", "pubkey", "test-pubkey"));
+            stmt.executeUpdate();
+        }
+    }
+
+    private String typeOf(String hash) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(databaseUrl);
+             PreparedStatement stmt = conn.prepareStatement(
+                 "SELECT m.type FROM blobs b LEFT JOIN mime_types m ON m.id = b.type_id WHERE b.hash = ?")) {
+            stmt.setBytes(1, BlobHash.parse(hash).toBytes());
+            try (ResultSet rs = stmt.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getString("type");
+            }
+        }
+    }
+}
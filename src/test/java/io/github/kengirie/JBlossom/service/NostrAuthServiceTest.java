@@ -1,71 +1,83 @@
 package io.github.kengirie.JBlossom.service;
 
+import io.github.kengirie.JBlossom.exception.AuthenticationException;
 import io.github.kengirie.JBlossom.model.AuthResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nostr.crypto.schnorr.Schnorr;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.time.Instant;
 import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest
 public class NostrAuthServiceTest {
 
+    // BIP-340 テストベクタの秘密鍵（3）と公開鍵
+    private static final byte[] SECRET_KEY = HexFormat.of().parseHex(
+        "0000000000000000000000000000000000000000000000000000000000000003");
+    private static final String PUBKEY = "f9308a019258c31049344f85f89d5229b531c845836f99b08601f113bce036f9";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private NostrAuthService nostrAuthService;
 
     @BeforeEach
     void setUp() {
         nostrAuthService = new NostrAuthService();
+        nostrAuthService.initialize();
     }
 
     @Test
-    void testValidAuthEvent() {
+    void testValidAuthEvent() throws Exception {
         // 有効な認証イベントのテストデータ
         long now = Instant.now().getEpochSecond();
         long createdAt = now - 60; // 1分前
         long expiration = now + 3600; // 1時間後
 
-        String eventJson = String.format(
-            """
-    {
-  "created_at": %d,
-  "kind": 24242,
-  "content": "blossom stuff",
-  "tags": [
-    [
-      "expiration",
-      "%d"
-    ],
-    [
-      "t",
-      "get"
-    ],
-    [
-      "x",
-      "d2958e6e31a4562ddcb99da838e12a002221c296f1901d82d9196900d2f89b47"
-    ]
-  ],
-  "pubkey": "83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d",
-  "id": "3478cdb9c576e09605cf154105221333ac571071abf4c9630104936a9bd305e9",
-  "sig": "fd4c35229e749fdf06120269963578f3806f2aad341f57840a6bf0a5edae39e5fd06d3816a4e050444d032e0062da89875868be1928e99cfb84ce7c62da123e0"
-            }"""
-            , createdAt, expiration);
-
-        String authHeader = "Nostr " + Base64.getEncoder().encodeToString(eventJson.getBytes());
+        String authHeader = "Nostr " + encode(signedEvent(createdAt, "blossom stuff", List.of(
+            List.of("expiration", String.valueOf(expiration)),
+            List.of("t", "get"),
+            List.of("x", "d2958e6e31a4562ddcb99da838e12a002221c296f1901d82d9196900d2f89b47"))));
 
         AuthResult result = nostrAuthService.validateAuthEvent(authHeader, "get");
 
-        System.out.println(result.getReason());
-
-        assertTrue(result.isValid());
-        assertEquals("83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d", result.getPubkey());
+        assertTrue(result.isValid(), result.getReason());
+        assertEquals(PUBKEY, result.getPubkey());
         assertEquals("get", result.getAction());
         assertEquals(createdAt, result.getCreatedAt());
         assertEquals(expiration, result.getExpiration());
     }
 
+    @Test
+    void testTamperedEventRejected() throws Exception {
+        long now = Instant.now().getEpochSecond();
+        Map<String, Object> event = signedEvent(now - 60, "blossom stuff", List.of(
+            List.of("expiration", String.valueOf(now + 3600)),
+            List.of("t", "get")));
+        assertTrue(nostrAuthService.validateAuthEvent("Nostr " + encode(event), "get").isValid());
+
+        // ID・署名はそのままで有効期限だけを書き換えたイベントは、IDが内容と一致しない
+        event.put("tags", List.of(List.of("expiration", String.valueOf(now + 3660)), List.of("t", "get")));
+        AuthResult tampered = nostrAuthService.validateAuthEvent("Nostr " + encode(event), "get");
+        assertFalse(tampered.isValid());
+        assertEquals("Event id does not match event content", tampered.getReason());
+        assertEquals(AuthenticationException.AuthErrorType.INVALID_SIGNATURE, tampered.getErrorType());
+
+        event.put("id", "test");
+        assertEquals("Invalid event id format, expected 64-char hex",
+            nostrAuthService.validateAuthEvent("Nostr " + encode(event), "get").getReason());
+    }
+
     @Test
     void testMissingAuthorizationHeader() {
         AuthResult result = nostrAuthService.validateAuthEvent(null, "get");
@@ -84,6 +96,75 @@ public class NostrAuthServiceTest {
         assertEquals("Invalid Authorization scheme, expected 'Nostr'", result.getReason());
     }
 
+    @Test
+    void testValidateAuthEventAsync() {
+        // ワーカースレッドでも同じ結果になる
+        AuthResult result = nostrAuthService.validateAuthEventAsync("Bearer invalid-token", "upload").join();
+
+        assertFalse(result.isValid());
+        assertEquals("Invalid Authorization scheme, expected 'Nostr'", result.getReason());
+
+        // 停止後は呼び出し元のスレッドで検証する
+        nostrAuthService.shutdown();
+        assertFalse(nostrAuthService.validateAuthEventAsync(null, "upload").join().isValid());
+    }
+
+    @Test
+    void testBearerTokenAccepted() {
+        AuthTokenService tokenService = new AuthTokenService();
+        tokenService.initialize();
+        ReflectionTestUtils.setField(nostrAuthService, "authTokenService", tokenService);
+
+        long now = Instant.now().getEpochSecond();
+        AuthResult verified = AuthResult.valid("83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d",
+            now - 60, now + 3600, "upload", Map.of("t", "upload"));
+        String token = tokenService.issue(verified, List.of("upload"), 0).getToken();
+
+        AuthResult result = nostrAuthService.validateAuthEvent("Bearer " + token, "upload");
+        assertTrue(result.isValid());
+        assertEquals("83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d", result.getPubkey());
+
+        AuthResult wrongAction = nostrAuthService.validateAuthEvent("Bearer " + token, "get");
+        assertFalse(wrongAction.isValid());
+        assertEquals("Token does not allow action: get", wrongAction.getReason());
+
+        // このサーバーのトークンでなければ従来通り Nostr 以外のスキームとして扱う
+        AuthResult unknown = nostrAuthService.validateAuthEvent("Bearer invalid-token", "upload");
+        assertEquals("Invalid Authorization scheme, expected 'Nostr'", unknown.getReason());
+    }
+
+    @Test
+    void testBearerTokenSingleUse() {
+        AuthTokenService tokenService = new AuthTokenService();
+        tokenService.initialize();
+        ReflectionTestUtils.setField(nostrAuthService, "authTokenService", tokenService);
+        ReplayRegistry registry = new ReplayRegistry();
+        ReflectionTestUtils.setField(registry, "singleUseActions", "upload");
+        registry.initialize();
+        ReflectionTestUtils.setField(nostrAuthService, "replayRegistry", registry);
+
+        long now = Instant.now().getEpochSecond();
+        AuthResult verified = AuthResult.valid("83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d",
+            now - 60, now + 3600, "upload", Map.of("t", "upload"));
+        String token = tokenService.issue(verified, List.of("upload", "get"), 0).getToken();
+
+        // 単回使用のアクションはトークンごとに1回だけ
+        assertTrue(nostrAuthService.validateAuthEvent("Bearer " + token, "upload").isValid());
+        AuthResult replayed = nostrAuthService.validateAuthEvent("Bearer " + token, "upload");
+        assertFalse(replayed.isValid());
+        assertEquals(AuthenticationException.AuthErrorType.EVENT_REPLAYED, replayed.getErrorType());
+        assertEquals("Auth token has already been used", replayed.getReason());
+
+        // それ以外のアクションは有効期限内なら何度でも使える
+        assertTrue(nostrAuthService.validateAuthEvent("Bearer " + token, "get").isValid());
+        assertTrue(nostrAuthService.validateAuthEvent("Bearer " + token, "get").isValid());
+
+        // 別に発行したトークンには影響しない
+        String other = tokenService.issue(verified, List.of("upload"), 0).getToken();
+        assertTrue(nostrAuthService.validateAuthEvent("Bearer " + other, "upload").isValid());
+        registry.shutdown();
+    }
+
     @Test
     void testInvalidKind() {
         String eventJson = """
@@ -161,29 +242,17 @@ public class NostrAuthServiceTest {
     }
 
     @Test
-    void testRequiredHashValidation() {
+    void testRequiredHashValidation() throws Exception {
         long now = Instant.now().getEpochSecond();
         long createdAt = now - 60;
         long expiration = now + 3600;
         String requiredHash = "b1674191a88ec5cdd733e4240a81803105dc412d6c6708d53ab94fc248f4f553";
 
         // x タグありのイベント
-        String eventJsonWithX = String.format("""
-            {
-                "id": "bb653c815da18c089f3124b41c4b5ec072a40b87ca0f50bbbc6ecde9aca442eb",
-                "pubkey": "b53185b9f27962ebdf76b8a9b0a84cd8b27f9f3d4abd59f715788a3bf9e7f75e",
-                "kind": 24242,
-                "content": "Get specific blob",
-                "created_at": %d,
-                "tags": [
-                    ["t", "get"],
-                    ["x", "%s"],
-                    ["expiration", "%d"]
-                ],
-                "sig": "d0d58c92afb3f4f1925120b99c39cffe77d93e82f488c5f8f482e8f97df75c5357175b5098c338661c37d1074b0a18ab5e75a9df08967bfb200930ec6a76562f"
-            }""", createdAt, requiredHash, expiration);
-
-        String authHeaderWithX = "Nostr " + Base64.getEncoder().encodeToString(eventJsonWithX.getBytes());
+        String authHeaderWithX = "Nostr " + encode(signedEvent(createdAt, "Get specific blob", List.of(
+            List.of("t", "get"),
+            List.of("x", requiredHash),
+            List.of("expiration", String.valueOf(expiration)))));
 
         AuthResult resultWithX = nostrAuthService.validateAuthEvent(authHeaderWithX, "get", requiredHash);
         assertTrue(resultWithX.isValid());
@@ -230,4 +299,90 @@ public class NostrAuthServiceTest {
         assertFalse(result.isValid());
         assertTrue(result.getReason().contains("Invalid event format"));
     }
+
+    @Test
+    void testVerifiedEventReusedFromCache() throws Exception {
+        VerifiedEventCache cache = new VerifiedEventCache();
+        ReflectionTestUtils.setField(nostrAuthService, "verifiedEventCache", cache);
+
+        long now = Instant.now().getEpochSecond();
+        String hash = "d2958e6e31a4562ddcb99da838e12a002221c296f1901d82d9196900d2f89b47";
+        String authHeader = "Nostr " + encode(signedEvent(now - 60, "blossom stuff", List.of(
+            List.of("expiration", String.valueOf(now + 3600)), List.of("t", "get"), List.of("x", hash))));
+
+        assertTrue(nostrAuthService.validateAuthEvent(authHeader, "get", hash).isValid());
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getEntryCount());
+
+        // 2回目以降は署名検証を省き、アクション・ハッシュはリクエストごとに確認する
+        AuthResult reused = nostrAuthService.validateAuthEvent(authHeader, "get", hash);
+        assertTrue(reused.isValid());
+        assertEquals(PUBKEY, reused.getPubkey());
+        assertEquals("get", reused.getAction());
+        assertEquals(1, cache.getHits());
+
+        AuthResult wrongAction = nostrAuthService.validateAuthEvent(authHeader, "upload", hash);
+        assertFalse(wrongAction.isValid());
+        assertEquals("Missing or invalid 't' tag for action: upload", wrongAction.getReason());
+
+        String otherHash = "b1674191a88ec5cdd733e4240a81803105dc412d6c6708d53ab94fc248f4f553";
+        AuthResult wrongHash = nostrAuthService.validateAuthEvent(authHeader, "get", otherHash);
+        assertFalse(wrongHash.isValid());
+        assertEquals("Missing 'x' tag for required hash: " + otherHash, wrongHash.getReason());
+        assertEquals(3, cache.getHits());
+    }
+
+    @Test
+    void testSingleUseActionRejectsReplay() throws Exception {
+        ReplayRegistry registry = new ReplayRegistry();
+        ReflectionTestUtils.setField(registry, "singleUseActions", "get");
+        registry.initialize();
+        ReflectionTestUtils.setField(nostrAuthService, "replayRegistry", registry);
+        VerifiedEventCache cache = new VerifiedEventCache();
+        ReflectionTestUtils.setField(nostrAuthService, "verifiedEventCache", cache);
+
+        long now = Instant.now().getEpochSecond();
+        Map<String, Object> event = signedEvent(now - 60, "blossom stuff", List.of(
+            List.of("expiration", String.valueOf(now + 3600)), List.of("t", "get")));
+        String authHeader = "Nostr " + encode(event);
+
+        AuthResult first = nostrAuthService.validateAuthEvent(authHeader, "get");
+        assertTrue(first.isValid());
+        assertEquals(event.get("id"), first.getEventId());
+
+        // 検証済みキャッシュから返す場合も再利用として拒否する
+        AuthResult replayed = nostrAuthService.validateAuthEvent(authHeader, "get");
+        assertFalse(replayed.isValid());
+        assertEquals(AuthenticationException.AuthErrorType.EVENT_REPLAYED, replayed.getErrorType());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, registry.getReplaysRejected());
+
+        // 記録できる範囲より先の有効期限は単回使用のアクションに使えない
+        String farHeader = "Nostr " + encode(signedEvent(now - 60, "blossom stuff", List.of(
+            List.of("expiration", String.valueOf(now + 7 * 86400)), List.of("t", "get"))));
+        AuthResult far = nostrAuthService.validateAuthEvent(farHeader, "get");
+        assertFalse(far.isValid());
+        assertEquals("Expiration too far in the future for single-use action: get", far.getReason());
+    }
+
+    // NIP-01 に従って ID を計算し、SECRET_KEY で署名した認証イベント
+    private static Map<String, Object> signedEvent(long createdAt, String content, List<List<String>> tags) throws Exception {
+        String serialized = MAPPER.writeValueAsString(List.of(0, PUBKEY, createdAt, 24242, tags, content));
+        byte[] id = MessageDigest.getInstance("SHA-256").digest(serialized.getBytes(StandardCharsets.UTF_8));
+        byte[] sig = Schnorr.sign(id, SECRET_KEY, new byte[32]);
+
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("id", HexFormat.of().formatHex(id));
+        event.put("pubkey", PUBKEY);
+        event.put("created_at", createdAt);
+        event.put("kind", 24242);
+        event.put("tags", tags);
+        event.put("content", content);
+        event.put("sig", HexFormat.of().formatHex(sig));
+        return event;
+    }
+
+    private static String encode(Map<String, Object> event) throws Exception {
+        return Base64.getEncoder().encodeToString(MAPPER.writeValueAsBytes(event));
+    }
 }
@@ -0,0 +1,118 @@
+package io.github.kengirie.JBlossom.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplayRegistryTest {
+
+    private ReplayRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new ReplayRegistry();
+        ReflectionTestUtils.setField(registry, "singleUseActions", "upload, delete");
+        ReflectionTestUtils.setField(registry, "bucketSeconds", 1L);
+        ReflectionTestUtils.setField(registry, "horizonSeconds", 10L);
+        registry.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    void testSingleUseActions() {
+        assertTrue(registry.isSingleUse("upload"));
+        assertTrue(registry.isSingleUse("delete"));
+        assertFalse(registry.isSingleUse("get"));
+        assertFalse(registry.isSingleUse(null));
+
+        // 未設定の場合はどのアクションも再利用できる
+        ReplayRegistry unconfigured = new ReplayRegistry();
+        unconfigured.initialize();
+        assertFalse(unconfigured.isSingleUse("upload"));
+        unconfigured.shutdown();
+    }
+
+    @Test
+    void testSecondUseIsRejected() {
+        long expiration = Instant.now().getEpochSecond() + 5;
+
+        assertFalse(registry.isUsed("event-a", expiration));
+        assertTrue(registry.markUsed("event-a", expiration));
+        assertTrue(registry.isUsed("event-a", expiration));
+        assertFalse(registry.markUsed("event-a", expiration));
+
+        // 別のイベントには影響しない
+        assertTrue(registry.markUsed("event-b", expiration));
+        assertEquals(2, registry.getEntryCount());
+        assertEquals(1, registry.getReplaysRejected());
+    }
+
+    @Test
+    void testHorizon() {
+        long now = Instant.now().getEpochSecond();
+        assertTrue(registry.covers(now + 10));
+        assertFalse(registry.covers(now + 60));
+        assertThrows(IllegalArgumentException.class, () -> registry.markUsed("event-a", now + 60));
+    }
+
+    @Test
+    void testExpiredBucketsAreDropped() throws InterruptedException {
+        long now = Instant.now().getEpochSecond();
+        assertTrue(registry.markUsed("short-lived", now + 1));
+        assertTrue(registry.markUsed("long-lived", now + 8));
+        assertEquals(2, registry.getLiveBuckets());
+
+        Thread.sleep(2500);
+
+        // 期限を過ぎた時間枠は次の記録時にまとめて破棄され、期限内のものだけが残る
+        assertTrue(registry.markUsed("another", Instant.now().getEpochSecond() + 8));
+        assertFalse(registry.isUsed("short-lived", now + 1));
+        assertTrue(registry.isUsed("long-lived", now + 8));
+        assertEquals(2, registry.getEntryCount());
+        assertEquals(2, registry.getLiveBuckets());
+        assertFalse(registry.markUsed("long-lived", now + 8));
+    }
+
+    @Test
+    void testConcurrentUseSucceedsOnce() throws InterruptedException {
+        long expiration = Instant.now().getEpochSecond() + 5;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger accepted = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (registry.markUsed("event-a", expiration)) {
+                    accepted.incrementAndGet();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, accepted.get());
+        assertEquals(7, registry.getReplaysRejected());
+    }
+}
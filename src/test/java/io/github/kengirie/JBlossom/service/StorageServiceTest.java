@@ -1,8 +1,12 @@
 package io.github.kengirie.JBlossom.service;
 
+import io.github.kengirie.JBlossom.config.SchemaMigrator;
 import io.github.kengirie.JBlossom.exception.StorageException;
 import io.github.kengirie.JBlossom.model.BlobContent;
+import io.github.kengirie.JBlossom.model.BlobHash;
 import io.github.kengirie.JBlossom.model.BlobMetadata;
+import io.github.kengirie.JBlossom.model.ServingDescriptor;
+import io.github.kengirie.JBlossom.util.SqlDictionary;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -14,13 +18,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Semaphore;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -56,29 +67,8 @@ public class StorageServiceTest {
         try (Connection conn = DriverManager.getConnection(url)) {
             conn.setAutoCommit(true);
 
-            // blobsテーブル作成
-            conn.createStatement().execute("""
-                CREATE TABLE IF NOT EXISTS blobs (
-                    hash TEXT(64) PRIMARY KEY,
-                    size INTEGER NOT NULL,
-                    type TEXT,
-                    uploaded INTEGER NOT NULL,
-                    pubkey TEXT(64)
-                )
-            """);
-
-            // accessedテーブル作成
-            conn.createStatement().execute("""
-                CREATE TABLE IF NOT EXISTS accessed (
-                    blob TEXT(64) PRIMARY KEY,
-                    timestamp INTEGER NOT NULL
-                )
-            """);
-
-            // インデックス作成
-            conn.createStatement().execute("CREATE INDEX IF NOT EXISTS idx_blobs_pubkey ON blobs (pubkey)");
-            conn.createStatement().execute("CREATE INDEX IF NOT EXISTS idx_blobs_uploaded ON blobs (uploaded)");
-            conn.createStatement().execute("CREATE INDEX IF NOT EXISTS idx_accessed_timestamp ON accessed (timestamp)");
+            // 本番と同じスキーマを作成
+            SchemaMigrator.migrate(conn);
         }
     }
 
@@ -101,19 +91,7 @@ public class StorageServiceTest {
         String hash = "1827b95e971ac79f6b79242512d74c010166603c2bd1958679cb5da14f3b11c3";
 
         // DBにメタデータを追加（ファイルは作成しない）
-        String url = "jdbc:sqlite:" + tempDbPath.toString();
-        try (Connection conn = DriverManager.getConnection(url)) {
-            conn.setAutoCommit(true);
-            String sql = "INSERT INTO blobs (hash, size, type, uploaded, pubkey) VALUES (?, ?, ?, ?, ?)";
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, hash);
-                stmt.setLong(2, 1024);
-                stmt.setString(3, "text/plain");
-                stmt.setLong(4, System.currentTimeMillis() / 1000);
-                stmt.setString(5, "test-pubkey");
-                stmt.executeUpdate();
-            }
-        }
+        insertBlobRow(hash, 1024, "text/plain");
 
         Optional<BlobMetadata> result = storageService.findBlob(hash);
         assertFalse(result.isPresent()); // ファイルが存在しないので false
@@ -130,19 +108,7 @@ public class StorageServiceTest {
 
 
         // DBにメタデータを追加
-        String url = "jdbc:sqlite:" + tempDbPath.toString();
-        try (Connection conn = DriverManager.getConnection(url)) {
-            conn.setAutoCommit(true);
-            String sql = "INSERT INTO blobs (hash, size, type, uploaded, pubkey) VALUES (?, ?, ?, ?, ?)";
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, hash);
-                stmt.setLong(2, content.length());
-                stmt.setString(3, "text/plain");
-                stmt.setLong(4, System.currentTimeMillis() / 1000);
-                stmt.setString(5, "test-pubkey");
-                stmt.executeUpdate();
-            }
-        }
+        insertBlobRow(hash, content.length(), "text/plain");
 
         Optional<BlobMetadata> result = storageService.findBlob(hash);
         assertTrue(result.isPresent());
@@ -174,6 +140,18 @@ public class StorageServiceTest {
         assertNull(blobContent.getContentRange());
     }
 
+    @Test
+    void testReadBlobDoesNotSniffContent() throws IOException, SQLException {
+        String hash = "5e1c9f1d6b2c3a4e8f7d6c5b4a39281706f5e4d3c2b1a09f8e7d6c5b4a392817";
+
+        // 内容はテキストだが、読み出し時にはファイル内容からの判定を行わない
+        createTestBlob(hash, "Plain text content", "application/octet-stream");
+
+        Optional<BlobContent> result = storageService.readBlob(hash, null);
+        assertTrue(result.isPresent());
+        assertEquals("application/octet-stream", result.get().getMimeType());
+    }
+
     @Test
     void testReadBlobWithValidRange() throws IOException, SQLException {
         String hash = "74e7e5bb9d22d6db26bf76946d40fff3ea9f0346b884fd0694920fccfad15e33";
@@ -223,6 +201,14 @@ public class StorageServiceTest {
         assertEquals("image/png", result);
     }
 
+    @Test
+    void testDetectMimeTypeFromExtensionIgnoresCase() {
+        String hash = "test-hash";
+        assertEquals("image/png", storageService.detectMimeType(hash, "application/octet-stream", "PNG"));
+        assertEquals("image/jpeg", storageService.detectMimeType(hash, null, "Jpg"));
+        assertEquals("application/octet-stream", storageService.detectMimeType(hash, null, " "));
+    }
+
     @Test
     void testDetectMimeTypeDefault() {
         String hash = "test-hash";
@@ -230,6 +216,155 @@ public class StorageServiceTest {
         assertEquals("application/octet-stream", result);
     }
 
+    @Test
+    void testResolveBlob() throws IOException, SQLException {
+        String hash = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+        createTestBlob(hash, "Resolved content", "text/plain");
+
+        Optional<ServingDescriptor> result = storageService.resolveBlob(hash);
+        assertTrue(result.isPresent());
+
+        ServingDescriptor descriptor = result.get();
+        assertEquals(hash, descriptor.getHash());
+        assertEquals("Resolved content".length(), descriptor.getSize());
+        assertEquals("text/plain", descriptor.getMimeType());
+        assertEquals(tempDir.resolve(hash), descriptor.getPath());
+        assertEquals("text/plain", descriptor.getHeaders().getFirst("Content-Type"));
+        assertEquals("bytes", descriptor.getHeaders().getFirst("Accept-Ranges"));
+    }
+
+    @Test
+    void testResolveBlobMissingFileOrRow() throws IOException, SQLException {
+        String hash = "60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752";
+        createTestBlob(hash, "Soon gone", null);
+        Files.delete(tempDir.resolve(hash));
+
+        assertTrue(storageService.resolveBlob(hash).isEmpty());
+        assertTrue(storageService.resolveBlob("1234567890abcdef1234567890abcdef1234567890abcdef1234567890abcdef").isEmpty());
+        assertTrue(storageService.resolveBlob("invalid").isEmpty());
+    }
+
+    @Test
+    void testResolveBlobCachedUntilDeleted() throws IOException, SQLException {
+        String hash = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+        createTestBlob(hash, "hello", "text/plain");
+
+        ServingDescriptor first = storageService.resolveBlob(hash).orElseThrow();
+        assertEquals("\"" + hash + "\"", first.getHeaders().getETag());
+        assertTrue(first.getHeaders().getLastModified() > 0);
+
+        // 2回目はDBもファイルも参照しない
+        String url = "jdbc:sqlite:" + tempDbPath.toString();
+        try (Connection conn = DriverManager.getConnection(url)) {
+            conn.createStatement().executeUpdate("UPDATE blobs SET type_id = NULL WHERE hash = X'" + hash + "'");
+        }
+        assertSame(first, storageService.resolveBlob(hash).orElseThrow());
+
+        // 削除でキャッシュも無効化される
+        assertTrue(storageService.deleteBlob(hash));
+        assertTrue(storageService.resolveBlob(hash).isEmpty());
+    }
+
+    @Test
+    void testSaveVariantResolvesAndDeletes() throws Exception {
+        String hash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        createTestBlob(hash, "Hello World", "text/plain");
+        assertFalse(storageService.resolveBlob(hash).orElseThrow().hasGzipVariant());
+
+        Path staged = storageService.createStagingFile("test-");
+        Files.write(staged, "compressed".getBytes());
+        storageService.saveVariant(hash, StorageService.GZIP_ENCODING, staged, 10);
+        assertFalse(Files.exists(staged));
+
+        // 保存でキャッシュが無効化され、圧縮版付きで解決される
+        ServingDescriptor descriptor = storageService.resolveBlob(hash).orElseThrow();
+        assertTrue(descriptor.hasGzipVariant());
+        assertEquals("Accept-Encoding", descriptor.getHeaders().getFirst("Vary"));
+        assertEquals("\"" + hash + "\"", descriptor.getETag());
+
+        ServingDescriptor gzip = descriptor.withGzipEncoding();
+        assertEquals(10, gzip.getSize());
+        assertEquals("gzip", gzip.getHeaders().getFirst("Content-Encoding"));
+        assertEquals("\"" + hash + "-gzip\"", gzip.getETag());
+        assertTrue(Files.exists(gzip.getPath()));
+        assertTrue(storageService.findVariantCandidates(StorageService.GZIP_ENCODING,
+            List.of("text/"), 0, Long.MAX_VALUE, 10).isEmpty());
+
+        // BLOBの削除で圧縮版も消える
+        assertTrue(storageService.deleteBlob(hash));
+        assertFalse(Files.exists(gzip.getPath()));
+    }
+
+    @Test
+    void testFindVariantCandidatesFiltersTypeSizeAndSkipped() throws Exception {
+        String text = "1111111111111111111111111111111111111111111111111111111111111111";
+        String json = "2222222222222222222222222222222222222222222222222222222222222222";
+        String image = "3333333333333333333333333333333333333333333333333333333333333333";
+        String tiny = "4444444444444444444444444444444444444444444444444444444444444444";
+        createTestBlob(text, "some text content", "text/plain; charset=utf-8");
+        createTestBlob(json, "{\"key\": \"value\"}", "application/json");
+        createTestBlob(image, "not really a png", "image/png");
+        createTestBlob(tiny, "x", "text/plain");
+
+        List<String> prefixes = List.of("text/", "application/json");
+        assertEquals(List.of(text, json), storageService.findVariantCandidates(
+            StorageService.GZIP_ENCODING, prefixes, 2, 1000, 10));
+
+        // 見送りを記録したBLOBは候補から外れ、圧縮版も持たない
+        storageService.saveVariant(text, StorageService.GZIP_ENCODING, null, 0);
+        assertEquals(List.of(json), storageService.findVariantCandidates(
+            StorageService.GZIP_ENCODING, prefixes, 2, 1000, 10));
+        assertFalse(storageService.resolveBlob(text).orElseThrow().hasGzipVariant());
+    }
+
+    @Test
+    void testConnectionGateBoundsAndReleasesConnections() throws Exception {
+        ReflectionTestUtils.setField(storageService, "virtualThreads", true);
+        ReflectionTestUtils.setField(storageService, "maxConcurrentConnections", 1);
+        storageService.initialize();
+        Semaphore gate = (Semaphore) ReflectionTestUtils.getField(storageService, "connectionGate");
+        assertNotNull(gate);
+
+        String hash;
+        try (InputStream inputStream = new ByteArrayInputStream("Gated content".getBytes())) {
+            hash = storageService.storeBlob(inputStream, "text/plain", "test-pubkey", null).getHash();
+        }
+        assertTrue(storageService.hasBlob(hash));
+        assertTrue(storageService.deleteBlob(hash));
+
+        // すべての接続が閉じられ、許可が返却されている
+        assertEquals(1, gate.availablePermits());
+    }
+
+    @Test
+    void testConnectionGateDisabledOnPlatformThreads() {
+        storageService.initialize();
+
+        assertNull(ReflectionTestUtils.getField(storageService, "connectionGate"));
+    }
+
+    @Test
+    void testUpdateAccessTimesBatch() throws Exception {
+        String stored;
+        try (InputStream inputStream = new ByteArrayInputStream("Accessed content".getBytes())) {
+            stored = storageService.storeBlob(inputStream, "text/plain", "test-pubkey", null).getHash();
+        }
+        String deleted = "1234567890abcdef1234567890abcdef1234567890abcdef1234567890abcdef";
+
+        // 削除済み（存在しない）BLOBのアクセス記録は作成しない
+        int updated = storageService.updateAccessTimes(Map.of(stored, 1000L, deleted, 2000L));
+        assertEquals(1, updated);
+
+        String url = "jdbc:sqlite:" + tempDbPath.toString();
+        try (Connection conn = DriverManager.getConnection(url);
+             ResultSet rs = conn.createStatement().executeQuery("SELECT blob, timestamp FROM accessed")) {
+            assertTrue(rs.next());
+            assertEquals(stored, BlobHash.fromBytes(rs.getBytes("blob")).toString());
+            assertEquals(1000L, rs.getLong("timestamp"));
+            assertFalse(rs.next());
+        }
+    }
+
     @Test
     void testUpdateAccessTime() throws SQLException, InterruptedException {
         String hash = "ee8c86b6c92696e35fbe5fb95d69fb6121d4e361d13633f725be2bb76137f882";
@@ -243,7 +378,7 @@ public class StorageServiceTest {
             conn.setAutoCommit(true);
             String sql = "SELECT timestamp FROM accessed WHERE blob = ?";
             try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, hash);
+                stmt.setBytes(1, BlobHash.parse(hash).toBytes());
                 var rs = stmt.executeQuery();
                 assertTrue(rs.next());
 
@@ -286,9 +421,9 @@ public class StorageServiceTest {
         assertEquals(0, stats.getTotalSize());
 
         // テストBlob追加
-        createTestBlob("stats1234567890123456789012345678901234567890123456789012345678",
+        createTestBlob("5a7501234567890123456789012345678901234567890123456789012345678a",
                      "Content 1", "text/plain");
-        createTestBlob("stats2345678901234567890123456789012345678901234567890123456789",
+        createTestBlob("5a7502345678901234567890123456789012345678901234567890123456789b",
                      "Content 2 longer", "text/plain");
 
         stats = storageService.getStorageStats();
@@ -324,6 +459,23 @@ public class StorageServiceTest {
         }
     }
 
+    @Test
+    void testStoreBlobStagesOnStorageFilesystem() throws Exception {
+        String content = "Staged content";
+
+        try (InputStream inputStream = new ByteArrayInputStream(content.getBytes())) {
+            BlobMetadata result = storageService.storeBlob(inputStream, "text/plain", "test-pubkey", null);
+            assertTrue(Files.exists(tempDir.resolve(result.getHash())));
+        }
+
+        // ステージング領域はストレージ配下にあり、確定後は空になる
+        Path stagingDir = tempDir.resolve(".staging");
+        assertTrue(Files.isDirectory(stagingDir));
+        try (var entries = Files.list(stagingDir)) {
+            assertEquals(0, entries.count());
+        }
+    }
+
     @Test
     void testStoreBlobWithExpectedSha256() throws Exception {
         String content = "Test content with known hash";
@@ -364,6 +516,153 @@ public class StorageServiceTest {
         assertEquals(first.getSize(), second.getSize());
     }
 
+    @Test
+    void testStoreBlobSniffsMissingContentType() throws Exception {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 0x0d, 'I', 'H', 'D', 'R'};
+
+        try (InputStream inputStream = new ByteArrayInputStream(png)) {
+            BlobMetadata result = storageService.storeBlob(inputStream, "application/octet-stream", "test-pubkey", null);
+            assertEquals("image/png", result.getType());
+            assertEquals("image/png", storageService.findBlob(result.getHash()).get().getType());
+        }
+    }
+
+    @Test
+    void testStoreBlobKeepsDeclaredContentType() throws Exception {
+        try (InputStream inputStream = new ByteArrayInputStream("plain text".getBytes())) {
+            BlobMetadata result = storageService.storeBlob(inputStream, "text/markdown", "test-pubkey", null);
+            assertEquals("text/markdown", result.getType());
+        }
+    }
+
+    @Test
+    void testStageBlobHashMismatchLeavesNothingBehind() throws Exception {
+        String expectedHash = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+        try (InputStream inputStream = new ByteArrayInputStream("Mismatched content".getBytes())) {
+            StorageException exception = assertThrows(StorageException.class, () ->
+                storageService.stageBlob(inputStream, "text/plain", expectedHash));
+            assertEquals(StorageException.StorageErrorType.HASH_MISMATCH, exception.getErrorType());
+            assertFalse(Files.exists(tempDir.resolve(exception.getSha256Hash())));
+        }
+
+        // ステージング領域にもメタデータにも何も残らない
+        try (var entries = Files.list(tempDir.resolve(".staging"))) {
+            assertEquals(0, entries.count());
+        }
+        assertEquals(0, storageService.getStorageStats().getBlobCount());
+    }
+
+    @Test
+    void testCommitBlobsBatch() throws Exception {
+        StorageService.StagedBlob first = storageService.stageBlob(
+            new ByteArrayInputStream("Batch one".getBytes()), "text/plain", null);
+        StorageService.StagedBlob second = storageService.stageBlob(
+            new ByteArrayInputStream("Batch two".getBytes()), "image/png", null);
+        StorageService.StagedBlob duplicate = storageService.stageBlob(
+            new ByteArrayInputStream("Batch one".getBytes()), "text/plain", null);
+
+        List<BlobMetadata> results;
+        try (first; second; duplicate) {
+            results = storageService.commitBlobs(List.of(first, second, duplicate), "test-pubkey");
+        }
+
+        assertEquals(3, results.size());
+        assertEquals(first.getHash(), results.get(0).getHash());
+        assertEquals("image/png", results.get(1).getType());
+        assertEquals(results.get(0).getHash(), results.get(2).getHash());
+
+        assertTrue(storageService.findBlob(first.getHash()).isPresent());
+        assertTrue(storageService.findBlob(second.getHash()).isPresent());
+        assertEquals(2, storageService.getStorageStats().getBlobCount());
+        try (var entries = Files.list(tempDir.resolve(".staging"))) {
+            assertEquals(0, entries.count());
+        }
+    }
+
+    @Test
+    void testCommitBlobsRollsBackWholeBatch() throws Exception {
+        StorageService.StagedBlob first = storageService.stageBlob(
+            new ByteArrayInputStream("Rollback one".getBytes()), "text/plain", null);
+        StorageService.StagedBlob second = storageService.stageBlob(
+            new ByteArrayInputStream("Rollback two".getBytes()), "text/plain", null);
+
+        // 2件目のステージングファイルを失わせて昇格を失敗させる
+        Files.delete(second.getPath());
+
+        try (first; second) {
+            assertThrows(StorageException.class, () ->
+                storageService.commitBlobs(List.of(first, second), "test-pubkey"));
+        }
+
+        // 1件目もメタデータ・ファイルともに公開されない
+        assertFalse(storageService.findBlob(first.getHash()).isPresent());
+        assertFalse(Files.exists(tempDir.resolve(first.getHash())));
+        assertEquals(0, storageService.getStorageStats().getBlobCount());
+    }
+
+    @Test
+    void testCommitBlobsKeepsFilesItDidNotCreate() throws Exception {
+        StorageService.StagedBlob first = storageService.stageBlob(
+            new ByteArrayInputStream("Already on disk".getBytes()), "text/plain", null);
+        StorageService.StagedBlob second = storageService.stageBlob(
+            new ByteArrayInputStream("Missing staging".getBytes()), "text/plain", null);
+
+        // 別のアップロードが昇格済みのファイル（まだメタデータがない）
+        Path existing = tempDir.resolve(first.getHash());
+        Files.write(existing, "Already on disk".getBytes());
+        Files.delete(second.getPath());
+
+        try (first; second) {
+            assertThrows(StorageException.class, () ->
+                storageService.commitBlobs(List.of(first, second), "test-pubkey"));
+        }
+
+        // ロールバックしても自分が作成していないファイルは削除しない
+        assertTrue(Files.exists(existing));
+
+        // 次のアップロードは既存のファイルを置き換えずに採用する
+        try (InputStream inputStream = new ByteArrayInputStream("Already on disk".getBytes())) {
+            storageService.storeBlob(inputStream, "text/plain", "test-pubkey", null);
+        }
+        assertTrue(storageService.findBlob(first.getHash()).isPresent());
+    }
+
+    @Test
+    void testConcurrentCommitsOfSameHash() throws Exception {
+        int uploads = 8;
+        List<StorageService.StagedBlob> staged = new ArrayList<>();
+        for (int i = 0; i < uploads; i++) {
+            staged.add(storageService.stageBlob(
+                new ByteArrayInputStream("Concurrent content".getBytes()), "text/plain", null));
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (StorageService.StagedBlob blob : staged) {
+            Thread thread = new Thread(() -> {
+                try (blob) {
+                    storageService.commitBlobs(List.of(blob), "test-pubkey");
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // すべて成功し、メタデータとファイルが揃っている
+        assertTrue(failures.isEmpty(), failures.toString());
+        assertTrue(storageService.findBlob(staged.get(0).getHash()).isPresent());
+        assertEquals(1, storageService.getStorageStats().getBlobCount());
+        try (var entries = Files.list(tempDir.resolve(".staging"))) {
+            assertEquals(0, entries.count());
+        }
+    }
+
     @Test
     void testStoreBlobNullInputStream() {
         StorageException exception = assertThrows(StorageException.class, () -> {
@@ -402,6 +701,23 @@ public class StorageServiceTest {
         assertFalse(found.isPresent());
     }
 
+    @Test
+    void testDeleteBlobNotifiesListeners() throws Exception {
+        String hash;
+        try (InputStream inputStream = new ByteArrayInputStream("Listened content".getBytes())) {
+            hash = storageService.storeBlob(inputStream, "text/plain", "test-pubkey", null).getHash();
+        }
+        List<String> deleted = new ArrayList<>();
+        ReflectionTestUtils.setField(storageService, "deletionListeners", List.<BlobDeletionListener>of(deleted::add));
+
+        assertTrue(storageService.deleteBlob(hash));
+        assertEquals(List.of(hash), deleted);
+
+        // 存在しないBLOBの削除では通知しない
+        assertFalse(storageService.deleteBlob(hash));
+        assertEquals(1, deleted.size());
+    }
+
     @Test
     void testDeleteBlobNotFound() {
         String nonExistentHash = "1234567890abcdef1234567890abcdef1234567890abcdef1234567890abcdef";
@@ -438,7 +754,7 @@ public class StorageServiceTest {
         try (Connection conn = DriverManager.getConnection(url)) {
             String sql = "SELECT COUNT(*) FROM accessed WHERE blob = ?";
             try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, hash);
+                stmt.setBytes(1, BlobHash.parse(hash).toBytes());
                 try (ResultSet rs = stmt.executeQuery()) {
                     rs.next();
                     assertEquals(1, rs.getInt(1));
@@ -454,7 +770,7 @@ public class StorageServiceTest {
         try (Connection conn = DriverManager.getConnection(url)) {
             String sql = "SELECT COUNT(*) FROM accessed WHERE blob = ?";
             try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, hash);
+                stmt.setBytes(1, BlobHash.parse(hash).toBytes());
                 try (ResultSet rs = stmt.executeQuery()) {
                     rs.next();
                     assertEquals(0, rs.getInt(1));
@@ -497,22 +813,83 @@ public class StorageServiceTest {
         // テスト開始時の状態によるが、異常なレコードが追加されていないことを確認
     }
 
+    @Test
+    void testServesSchemaV1RowsWhileMigrating() throws Exception {
+        String contentA = "Legacy content A";
+        String contentB = "Legacy content B";
+        String contentC = "Legacy content C";
+        String hashA = sha256Hex(contentA);
+        String hashB = sha256Hex(contentB);
+        String hashC = sha256Hex(contentC);
+
+        // v1 のデータベースを起動時の切り替えまで進める（行は *_v1 に残る）
+        Path legacyDb = tempDir.resolve("legacy.db");
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + legacyDb)) {
+            conn.createStatement().execute(
+                "CREATE TABLE blobs (hash TEXT(64) PRIMARY KEY, size INTEGER NOT NULL, type TEXT, " +
+                "uploaded INTEGER NOT NULL, pubkey TEXT(64))");
+            for (String content : List.of(contentA, contentB, contentC)) {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO blobs (hash, size, type, uploaded, pubkey) VALUES (?, ?, 'text/plain', 1700000000, 'pubkey-1')")) {
+                    stmt.setString(1, sha256Hex(content));
+                    stmt.setLong(2, content.length());
+                    stmt.executeUpdate();
+                }
+                Files.writeString(tempDir.resolve(sha256Hex(content)), content);
+            }
+            SchemaMigrator.migrate(conn);
+        }
+        ReflectionTestUtils.setField(storageService, "databasePath", legacyDb.toString());
+
+        assertTrue(storageService.hasLegacyRows());
+        assertEquals(3, storageService.getStorageStats().getBlobCount());
+
+        // 移動前の行も配信・削除・再アップロードで参照できる
+        Optional<ServingDescriptor> resolved = storageService.resolveBlob(hashA);
+        assertTrue(resolved.isPresent());
+        assertEquals("text/plain", resolved.get().getMimeType());
+
+        assertTrue(storageService.deleteBlob(hashB));
+        assertFalse(storageService.findBlob(hashB).isPresent());
+
+        Files.delete(tempDir.resolve(hashC));
+        BlobMetadata reuploaded = storageService.storeBlob(
+            new ByteArrayInputStream(contentC.getBytes()), "text/plain", "other-pubkey", null);
+        assertEquals("pubkey-1", reuploaded.getPubkey());
+        assertEquals(1700000000L, reuploaded.getUploaded());
+
+        // 参照された行は移動済みのため、バックグラウンドの移動に残りはない
+        assertEquals(0, storageService.moveLegacyBlobs(100));
+        storageService.finishLegacyMigration();
+        assertFalse(storageService.hasLegacyRows());
+        assertEquals(2, storageService.getStorageStats().getBlobCount());
+        assertTrue(storageService.findBlob(hashC).isPresent());
+    }
+
+    private static String sha256Hex(String content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes()));
+    }
+
     private void createTestBlob(String hash, String content, String mimeType) throws IOException, SQLException {
         // ファイル作成
         Path filePath = tempDir.resolve(hash);
         Files.write(filePath, content.getBytes());
 
         // DB登録
+        insertBlobRow(hash, content.length(), mimeType);
+    }
+
+    private void insertBlobRow(String hash, long size, String mimeType) throws SQLException {
         String url = "jdbc:sqlite:" + tempDbPath.toString();
         try (Connection conn = DriverManager.getConnection(url)) {
             conn.setAutoCommit(true);
-            String sql = "INSERT INTO blobs (hash, size, type, uploaded, pubkey) VALUES (?, ?, ?, ?, ?)";
+            String sql = "INSERT INTO blobs (hash, size, type_id, uploaded, pubkey_id) VALUES (?, ?, ?, ?, ?)";
             try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, hash);
-                stmt.setLong(2, content.length());
-                stmt.setString(3, mimeType);
+                stmt.setBytes(1, BlobHash.parse(hash).toBytes());
+                stmt.setLong(2, size);
+                stmt.setObject(3, SqlDictionary.intern(conn, "mime_types", "type", mimeType));
                 stmt.setLong(4, System.currentTimeMillis() / 1000);
-                stmt.setString(5, "test-pubkey");
+                stmt.setObject(5, SqlDictionary.intern(conn, "pubkeys", "pubkey", "test-pubkey"));
                 int result = stmt.executeUpdate();
                 if (result != 1) {
                     throw new SQLException("Failed to insert blob: " + hash);
@@ -0,0 +1,132 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.exception.ServiceUnavailableException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UploadAdmissionServiceTest {
+
+    private UploadAdmissionService admissionService;
+
+    @BeforeEach
+    void setUp(@TempDir Path tempDir) {
+        admissionService = new UploadAdmissionService();
+        ReflectionTestUtils.setField(admissionService, "storagePath", tempDir.toString());
+        ReflectionTestUtils.setField(admissionService, "maxConcurrent", 2);
+        ReflectionTestUtils.setField(admissionService, "writeBytesPerSecond", 0L);
+        ReflectionTestUtils.setField(admissionService, "maxQueueMillis", 2000L);
+        ReflectionTestUtils.setField(admissionService, "minFreeSpace", 0L);
+        ReflectionTestUtils.setField(admissionService, "retryAfterSeconds", 5L);
+        admissionService.initialize();
+    }
+
+    @Test
+    void testAdmitWithinConcurrencyLimit() {
+        UploadAdmissionService.Permit first = admissionService.admit(100);
+        UploadAdmissionService.Permit second = admissionService.admit(200);
+
+        assertEquals(0, admissionService.getAvailableSlots());
+        assertEquals(300, admissionService.getReservedBytes());
+
+        first.close();
+        second.close();
+
+        assertEquals(2, admissionService.getAvailableSlots());
+        assertEquals(0, admissionService.getReservedBytes());
+    }
+
+    @Test
+    void testRejectWhenSlotsExhausted() {
+        try (UploadAdmissionService.Permit first = admissionService.admit(1);
+             UploadAdmissionService.Permit second = admissionService.admit(1)) {
+
+            ServiceUnavailableException exception = assertThrows(ServiceUnavailableException.class,
+                () -> admissionService.admit(1));
+            assertEquals(5, exception.getRetryAfterSeconds());
+        }
+
+        assertEquals(2, admissionService.getAvailableSlots());
+    }
+
+    @Test
+    void testPermitCloseIsIdempotent() {
+        UploadAdmissionService.Permit permit = admissionService.admit(10);
+        permit.close();
+        permit.close();
+
+        assertEquals(2, admissionService.getAvailableSlots());
+        assertEquals(0, admissionService.getReservedBytes());
+    }
+
+    @Test
+    void testRejectWhenFreeSpaceInsufficient() {
+        ReflectionTestUtils.setField(admissionService, "minFreeSpace", Long.MAX_VALUE / 2);
+
+        assertThrows(ServiceUnavailableException.class, () -> admissionService.admit(1));
+
+        // 拒否時はスロットも予約も残らない
+        assertEquals(2, admissionService.getAvailableSlots());
+        assertEquals(0, admissionService.getReservedBytes());
+    }
+
+    @Test
+    void testRejectWhenBandwidthBudgetOverdrawn() throws Exception {
+        ReflectionTestUtils.setField(admissionService, "writeBytesPerSecond", 1000L);
+        ReflectionTestUtils.setField(admissionService, "maxQueueMillis", 100L);
+        admissionService.initialize();
+
+        // 10秒分を借り越す
+        try (UploadAdmissionService.Permit permit = admissionService.admit(10_000)) {
+            Thread drain = new Thread(() -> {
+                try (InputStream in = permit.throttle(new ByteArrayInputStream(new byte[11_000]))) {
+                    in.read(new byte[11_000]);
+                } catch (Exception ignored) {
+                    // 待機中に割り込まれる
+                }
+            });
+            drain.start();
+            drain.join(200);
+
+            ServiceUnavailableException exception = assertThrows(ServiceUnavailableException.class,
+                () -> admissionService.admit(1));
+            assertTrue(exception.getRetryAfterSeconds() >= 1);
+
+            drain.interrupt();
+            drain.join();
+        }
+    }
+
+    @Test
+    void testThrottlePassesThroughWhenUnlimited() throws Exception {
+        byte[] data = "unthrottled".getBytes();
+        try (UploadAdmissionService.Permit permit = admissionService.admit(data.length)) {
+            InputStream original = new ByteArrayInputStream(data);
+            assertSame(original, permit.throttle(original));
+        }
+    }
+
+    @Test
+    void testPaceReturnsWaitWithoutBlocking() {
+        try (UploadAdmissionService.Permit permit = admissionService.admit(10)) {
+            assertEquals(0, permit.pace(1_000_000));
+        }
+
+        ReflectionTestUtils.setField(admissionService, "writeBytesPerSecond", 1000L);
+        admissionService.initialize();
+
+        // バースト分（1秒）までは待たず、借り越した分だけ待機時間になる
+        try (UploadAdmissionService.Permit permit = admissionService.admit(10)) {
+            assertEquals(0, permit.pace(1000));
+            long waitMillis = permit.pace(2000);
+            assertTrue(waitMillis > 1900 && waitMillis <= 2000, "wait " + waitMillis);
+        }
+    }
+}
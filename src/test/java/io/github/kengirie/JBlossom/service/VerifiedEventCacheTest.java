@@ -0,0 +1,77 @@
+package io.github.kengirie.JBlossom.service;
+
+import io.github.kengirie.JBlossom.model.AuthResult;
+import io.github.kengirie.JBlossom.exception.AuthenticationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VerifiedEventCacheTest {
+
+    private VerifiedEventCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new VerifiedEventCache();
+    }
+
+    @Test
+    void testHitUntilExpiration() {
+        long now = Instant.now().getEpochSecond();
+        cache.put("live", verified(now + 3600));
+        cache.put("expired", verified(now - 1));
+
+        assertNotNull(cache.get("live"));
+        assertNull(cache.get("expired"));
+        assertNull(cache.get("unknown"));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1.0 / 3, cache.getHitRatio(), 1e-9);
+        // 期限切れのイベントは参照時に取り除く
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    void testOnlyValidResultsAreStored() {
+        cache.put("invalid", AuthResult.invalid("Invalid signature",
+            AuthenticationException.AuthErrorType.INVALID_SIGNATURE));
+
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        ReflectionTestUtils.setField(cache, "maxEntries", 2);
+        long expiration = Instant.now().getEpochSecond() + 3600;
+
+        cache.put("a", verified(expiration));
+        cache.put("b", verified(expiration));
+        cache.get("a");
+        cache.put("c", verified(expiration));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void testDisabledCacheNeverHits() {
+        ReflectionTestUtils.setField(cache, "enabled", false);
+        cache.put("live", verified(Instant.now().getEpochSecond() + 3600));
+
+        assertNull(cache.get("live"));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    private static AuthResult verified(long expiration) {
+        return AuthResult.valid("83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d",
+            expiration - 3600, expiration, "get", Map.of("t", "get"));
+    }
+}
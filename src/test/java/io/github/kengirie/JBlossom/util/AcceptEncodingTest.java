@@ -0,0 +1,39 @@
+package io.github.kengirie.JBlossom.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AcceptEncodingTest {
+
+    @Test
+    void testExplicitCoding() {
+        assertTrue(AcceptEncoding.accepts("gzip", "gzip"));
+        assertTrue(AcceptEncoding.accepts("gzip, deflate, br", "gzip"));
+        assertTrue(AcceptEncoding.accepts("br;q=1.0, GZIP;q=0.5", "gzip"));
+        assertFalse(AcceptEncoding.accepts("br, deflate", "gzip"));
+    }
+
+    @Test
+    void testZeroQualityRejects() {
+        assertFalse(AcceptEncoding.accepts("gzip;q=0", "gzip"));
+        assertFalse(AcceptEncoding.accepts("gzip; q=0.000, identity", "gzip"));
+        assertFalse(AcceptEncoding.accepts("gzip;q=invalid", "gzip"));
+    }
+
+    @Test
+    void testWildcard() {
+        assertTrue(AcceptEncoding.accepts("*", "gzip"));
+        assertFalse(AcceptEncoding.accepts("*;q=0", "gzip"));
+        // 明示された指定がワイルドカードより優先される
+        assertFalse(AcceptEncoding.accepts("*, gzip;q=0", "gzip"));
+        assertTrue(AcceptEncoding.accepts("*;q=0, gzip", "gzip"));
+    }
+
+    @Test
+    void testMissingHeader() {
+        assertFalse(AcceptEncoding.accepts(null, "gzip"));
+        assertFalse(AcceptEncoding.accepts("", "gzip"));
+        assertFalse(AcceptEncoding.accepts(" , ", "gzip"));
+    }
+}
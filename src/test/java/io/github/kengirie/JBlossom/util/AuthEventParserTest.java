@@ -0,0 +1,110 @@
+package io.github.kengirie.JBlossom.util;
+
+import io.github.kengirie.JBlossom.util.AuthEventParser.AuthEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuthEventParserTest {
+
+    private static final int KIND_AUTH = 24242;
+
+    @Test
+    void testParsesFieldsAndTags() throws Exception {
+        AuthEvent event = parse("""
+            {
+                "id": "3478cdb9c576e09605cf154105221333ac571071abf4c9630104936a9bd305e9",
+                "pubkey": "83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d",
+                "kind": 24242,
+                "content": "Upload blobs",
+                "created_at": 1700000000,
+                "tags": [["t", "upload"], ["x", "aa"], ["x", "bb"], ["expiration", "1700003600"]],
+                "sig": "fd4c"
+            }""");
+
+        assertTrue(event.isObject());
+        assertEquals(KIND_AUTH, event.getKind());
+        assertEquals("3478cdb9c576e09605cf154105221333ac571071abf4c9630104936a9bd305e9", event.getId());
+        assertEquals("83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d", event.getPubkey());
+        assertEquals(1700000000L, event.getCreatedAt());
+        assertTrue(event.hasContent());
+        assertEquals("fd4c", event.getSig());
+        assertEquals(1700003600L, event.getExpiration());
+        assertEquals(List.of("aa", "bb"), event.getTagValues("x"));
+        // 名前ごとの値は最後のもの
+        assertEquals("bb", event.getTags().get("x"));
+    }
+
+    @Test
+    void testValuesCoercedLikeJsonTree() throws Exception {
+        AuthEvent event = parse("""
+            {"kind": "24242", "created_at": "123", "content": null, "unknown": {"nested": [1, [2]]},
+             "tags": [["t"], "junk", ["x", "h1", "extra", [1]], ["x", {"o": 1}], [5, null],
+                      ["expiration", "soon"], ["expiration", "99"]]}""");
+
+        assertEquals(KIND_AUTH, event.getKind());
+        assertEquals(123L, event.getCreatedAt());
+        assertTrue(event.hasContent());
+        assertNull(event.getPubkey());
+        // 要素が2つ未満のタグ・配列以外は無視し、オブジェクトの値は空文字になる
+        assertTrue(event.getTagValues("t").isEmpty());
+        assertEquals(List.of("h1", ""), event.getTagValues("x"));
+        assertEquals(List.of("null"), event.getTagValues("5"));
+        // 最初の expiration タグのみを見る
+        assertEquals(0, event.getExpiration());
+    }
+
+    @Test
+    void testComputeIdFollowsNip01Serialization() throws Exception {
+        String pubkey = "83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d";
+        String content = "quote \" backslash \\ newline \n tab \t 日本語 é";
+        List<List<String>> tags = List.of(List.of("t", "upload"), List.of("expiration", "1700003600"),
+                                          List.of("client"), List.of("x", "aa", "extra"));
+        ObjectMapper mapper = new ObjectMapper();
+
+        // キーの順序や空白が異なっても、IDは [0, pubkey, created_at, kind, tags, content] の直列化から求める
+        AuthEvent event = parse("""
+            {"tags": %s, "content": %s, "kind": 24242, "created_at": 1700000000, "pubkey": "%s"}
+            """.formatted(mapper.writeValueAsString(tags), mapper.writeValueAsString(content), pubkey));
+
+        String serialized = mapper.writeValueAsString(List.of(0, pubkey, 1700000000L, KIND_AUTH, tags, content));
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(serialized.getBytes(StandardCharsets.UTF_8)),
+                          event.computeId());
+
+        // 配列以外のタグは名前・値として扱わず、IDにも含めない（元のイベントのIDとは一致しなくなる）
+        AuthEvent withJunk = parse("""
+            {"tags": ["junk", ["t", "upload"]], "content": "", "kind": 24242, "created_at": 1, "pubkey": "%s"}
+            """.formatted(pubkey));
+        AuthEvent clean = parse("""
+            {"tags": [["t", "upload"]], "content": "", "kind": 24242, "created_at": 1, "pubkey": "%s"}
+            """.formatted(pubkey));
+        assertArrayEquals(clean.computeId(), withJunk.computeId());
+    }
+
+    @Test
+    void testStopsAtUnexpectedKind() throws Exception {
+        // kind が異なれば後続の不正なJSONは読まない
+        AuthEvent event = parse("{\"kind\": 1, \"pubkey\": [broken");
+
+        assertEquals(1, event.getKind());
+        assertNull(event.getPubkey());
+    }
+
+    @Test
+    void testNonObjectAndMalformedInput() throws Exception {
+        assertFalse(parse("[1, 2]").isObject());
+        assertFalse(parse("").isObject());
+        assertNull(parse("{}").getKind());
+        assertFalse(parse("{\"tags\": {}}").hasTags());
+        assertThrows(Exception.class, () -> parse("{\"kind\": 24242, \"tags\": [[\"t\""));
+    }
+
+    private static AuthEvent parse(String json) throws Exception {
+        return AuthEventParser.parse(json.getBytes(StandardCharsets.UTF_8), KIND_AUTH);
+    }
+}
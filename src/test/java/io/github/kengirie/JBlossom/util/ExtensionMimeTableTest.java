@@ -0,0 +1,61 @@
+package io.github.kengirie.JBlossom.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExtensionMimeTableTest {
+
+    @Test
+    void testLookupIgnoresCase() {
+        ExtensionMimeTable table = new ExtensionMimeTable(Map.of("png", "image/png", "JPG", "image/jpeg"));
+
+        assertEquals("image/png", table.lookup("png"));
+        assertEquals("image/png", table.lookup("PNG"));
+        assertEquals("image/jpeg", table.lookup("jpg"));
+        assertEquals("image/jpeg", table.lookup("jPg"));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    void testUnknownAndEmpty() {
+        ExtensionMimeTable table = new ExtensionMimeTable(Map.of("png", "image/png"));
+
+        assertNull(table.lookup("pn"));
+        assertNull(table.lookup("pngx"));
+        assertNull(table.lookup(""));
+        assertNull(table.lookup(null));
+        assertNull(new ExtensionMimeTable(Map.of()).lookup("png"));
+    }
+
+    @Test
+    void testNullValuesAreSkipped() {
+        Map<String, String> entries = new HashMap<>();
+        entries.put("bin", null);
+        entries.put("txt", "text/plain");
+
+        ExtensionMimeTable table = new ExtensionMimeTable(entries);
+        assertNull(table.lookup("bin"));
+        assertEquals("text/plain", table.lookup("txt"));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void testManyEntriesWithSharedValues() {
+        Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            entries.put("ext" + i, new String("application/x-test"));
+        }
+
+        ExtensionMimeTable table = new ExtensionMimeTable(entries);
+        assertEquals(1000, table.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("application/x-test", table.lookup("EXT" + i));
+        }
+        // 同じMIMEタイプは同一インスタンスを返す
+        assertSame(table.lookup("ext1"), table.lookup("ext999"));
+    }
+}
@@ -0,0 +1,147 @@
+package io.github.kengirie.JBlossom.util;
+
+import io.github.kengirie.JBlossom.util.MultipartStreamParser.Part;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultipartStreamParserTest {
+
+    private static final String BOUNDARY = "----JBlossomBoundary";
+
+    private static byte[] body(String... parts) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            sb.append("--").append(BOUNDARY).append("\r\n").append(part).append("\r\n");
+        }
+        sb.append("--").append(BOUNDARY).append("--\r\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testIsMultipart() {
+        assertTrue(MultipartStreamParser.isMultipart("multipart/form-data; boundary=abc"));
+        assertTrue(MultipartStreamParser.isMultipart("Multipart/Form-Data; boundary=abc"));
+        assertFalse(MultipartStreamParser.isMultipart("application/octet-stream"));
+        assertFalse(MultipartStreamParser.isMultipart(null));
+    }
+
+    @Test
+    void testExtractBoundary() {
+        assertEquals("abc", MultipartStreamParser.extractBoundary("multipart/form-data; boundary=abc"));
+        assertEquals("a b;c", MultipartStreamParser.extractBoundary("multipart/form-data; boundary=\"a b;c\""));
+        assertEquals("xyz", MultipartStreamParser.extractBoundary("multipart/form-data; charset=UTF-8; boundary=xyz"));
+        assertNull(MultipartStreamParser.extractBoundary("multipart/form-data"));
+        assertNull(MultipartStreamParser.extractBoundary(null));
+    }
+
+    @Test
+    void testParseSinglePart() throws IOException {
+        byte[] data = body(
+            "Content-Disposition: form-data; name=\"file\"; filename=\"test.txt\"\r\n" +
+            "Content-Type: text/plain\r\n\r\n" +
+            "Hello, Blossom!"
+        );
+
+        MultipartStreamParser parser = new MultipartStreamParser(new ByteArrayInputStream(data), BOUNDARY);
+        Part part = parser.nextPart();
+
+        assertNotNull(part);
+        assertEquals("file", part.getName());
+        assertEquals("test.txt", part.getFilename());
+        assertEquals("text/plain", part.getContentType());
+        assertEquals("Hello, Blossom!", new String(part.getBody().readAllBytes(), StandardCharsets.UTF_8));
+        assertNull(parser.nextPart());
+    }
+
+    @Test
+    void testFindPartSkipsPreambleAndOtherFields() throws IOException {
+        byte[] parts = body(
+            "Content-Disposition: form-data; name=\"caption\"\r\n\r\nmy caption",
+            "Content-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\r\n" +
+            "Content-Type: application/octet-stream\r\n\r\n" +
+            "binary"
+        );
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.writeBytes("This is the preamble\r\n".getBytes(StandardCharsets.UTF_8));
+        data.writeBytes(parts);
+
+        MultipartStreamParser parser = new MultipartStreamParser(new ByteArrayInputStream(data.toByteArray()), BOUNDARY);
+        Part part = parser.findPart("file");
+
+        assertNotNull(part);
+        assertEquals("application/octet-stream", part.getContentType());
+        assertEquals("binary", new String(part.getBody().readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testFindPartNotFound() throws IOException {
+        byte[] data = body("Content-Disposition: form-data; name=\"other\"\r\n\r\nvalue");
+
+        MultipartStreamParser parser = new MultipartStreamParser(new ByteArrayInputStream(data), BOUNDARY);
+        assertNull(parser.findPart("file"));
+    }
+
+    @Test
+    void testEmptyPart() throws IOException {
+        byte[] data = body("Content-Disposition: form-data; name=\"file\"; filename=\"empty\"\r\n\r\n");
+
+        MultipartStreamParser parser = new MultipartStreamParser(new ByteArrayInputStream(data), BOUNDARY);
+        Part part = parser.findPart("file");
+
+        assertNotNull(part);
+        assertEquals(-1, part.getBody().read());
+    }
+
+    @Test
+    void testLargeBinaryPartWithBoundaryLikeBytes() throws IOException {
+        byte[] payload = new byte[100_000];
+        new Random(42).nextBytes(payload);
+        // 区切りの一部に似たバイト列を埋め込む
+        byte[] almost = ("\r\n--" + BOUNDARY.substring(0, 10)).getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(almost, 0, payload, 8190, almost.length);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.writeBytes(("--" + BOUNDARY + "\r\n" +
+            "Content-Disposition: form-data; name=\"file\"; filename=\"random.bin\"\r\n\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1));
+        data.writeBytes(payload);
+        data.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        // 細切れに読み出すストリームでも正しく境界を検出する
+        InputStream trickle = new ByteArrayInputStream(data.toByteArray()) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 37));
+            }
+        };
+
+        MultipartStreamParser parser = new MultipartStreamParser(trickle, BOUNDARY);
+        Part part = parser.findPart("file");
+
+        assertNotNull(part);
+        assertArrayEquals(payload, part.getBody().readAllBytes());
+        assertNull(parser.nextPart());
+    }
+
+    @Test
+    void testTruncatedBody() throws IOException {
+        byte[] data = ("--" + BOUNDARY + "\r\n" +
+            "Content-Disposition: form-data; name=\"file\"\r\n\r\n" +
+            "truncated content without closing boundary").getBytes(StandardCharsets.UTF_8);
+
+        MultipartStreamParser parser = new MultipartStreamParser(new ByteArrayInputStream(data), BOUNDARY);
+        Part part = parser.findPart("file");
+
+        assertNotNull(part);
+        assertThrows(EOFException.class, () -> part.getBody().readAllBytes());
+    }
+}
@@ -1,8 +1,11 @@
 package io.github.kengirie.JBlossom.util;
 
+import io.github.kengirie.JBlossom.exception.RangeNotSatisfiableException;
 import io.github.kengirie.JBlossom.util.RangeRequestParser.Range;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class RangeRequestParserTest {
@@ -130,4 +133,116 @@ public class RangeRequestParserTest {
         assertEquals(0, range3.getStart());
         assertEquals(999, range3.getEnd());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testParseRangesMultiple() {
+        List<Range> ranges = RangeRequestParser.parseRanges("bytes=0-9, 50-59", 100, 16);
+
+        assertNotNull(ranges);
+        assertEquals(2, ranges.size());
+        assertEquals("Range{0-9}", ranges.get(0).toString());
+        assertEquals("Range{50-59}", ranges.get(1).toString());
+    }
+
+    @Test
+    void testParseRangesCoalescesOverlappingAndAdjacent() {
+        // 重なり・隣接する範囲は一つにまとめられ、開始位置順に並ぶ
+        List<Range> ranges = RangeRequestParser.parseRanges("bytes=60-69,0-9,10-19,5-12,65-", 100, 16);
+
+        assertNotNull(ranges);
+        assertEquals(2, ranges.size());
+        assertEquals("Range{0-19}", ranges.get(0).toString());
+        assertEquals("Range{60-99}", ranges.get(1).toString());
+    }
+
+    @Test
+    void testParseRangesDropsUnsatisfiableParts() {
+        List<Range> ranges = RangeRequestParser.parseRanges("bytes=200-250,0-9", 100, 16);
+
+        assertNotNull(ranges);
+        assertEquals(1, ranges.size());
+        assertEquals("Range{0-9}", ranges.get(0).toString());
+    }
+
+    @Test
+    void testParseRangesNoneSatisfiable() {
+        RangeNotSatisfiableException exception = assertThrows(RangeNotSatisfiableException.class,
+            () -> RangeRequestParser.parseRanges("bytes=100-199,300-", 100, 16));
+
+        assertEquals("bytes */100", exception.getContentRangeHeader());
+    }
+
+    @Test
+    void testParseRangesTooManyIgnored() {
+        assertNull(RangeRequestParser.parseRanges("bytes=0-0,2-2,4-4", 100, 2));
+        // まとめた後の数で判定する
+        assertNotNull(RangeRequestParser.parseRanges("bytes=0-0,1-1,2-2", 100, 2));
+    }
+
+    @Test
+    void testParseRangesInvalidFormat() {
+        assertNull(RangeRequestParser.parseRanges("bytes=0-9,abc", 100, 16));
+        assertNull(RangeRequestParser.parseRanges("bytes=,", 100, 16));
+        assertNull(RangeRequestParser.parseRanges("bytes=-", 100, 16));
+        assertNull(RangeRequestParser.parseRanges("bytes=0-9 10-19", 100, 16));
+        assertNull(RangeRequestParser.parseRanges("bytes = 0-9", 100, 16));
+        assertNull(RangeRequestParser.parseRanges("bytes=9-0", 100, 16));
+        assertNull(RangeRequestParser.parseRanges("items=0-9", 100, 16));
+        assertNull(RangeRequestParser.parseRanges(null, 100, 16));
+    }
+
+    @Test
+    void testParseSuffixRange() {
+        Range range = RangeRequestParser.parseRange("bytes=-10", 100);
+
+        assertNotNull(range);
+        assertEquals(90, range.getStart());
+        assertEquals(99, range.getEnd());
+
+        // ファイルより長い suffix は全体になる
+        Range whole = RangeRequestParser.parseRange("bytes=-500", 100);
+        assertNotNull(whole);
+        assertEquals(0, whole.getStart());
+        assertEquals(99, whole.getEnd());
+    }
+
+    @Test
+    void testParseZeroLengthSuffixUnsatisfiable() {
+        assertThrows(RangeNotSatisfiableException.class,
+            () -> RangeRequestParser.parseRanges("bytes=-0", 100, 16));
+        assertThrows(RangeNotSatisfiableException.class,
+            () -> RangeRequestParser.parseRanges("bytes=-10", 0, 16));
+    }
+
+    @Test
+    void testParseRangesWhitespaceEmptyElementsAndCase() {
+        List<Range> ranges = RangeRequestParser.parseRanges("Bytes=0-9 ,, \t-10,", 100, 16);
+
+        assertNotNull(ranges);
+        assertEquals(2, ranges.size());
+        assertEquals("Range{0-9}", ranges.get(0).toString());
+        assertEquals("Range{90-99}", ranges.get(1).toString());
+    }
+
+    @Test
+    void testParseRangeOverflowClampedToFileSize() {
+        Range range = RangeRequestParser.parseRange("bytes=10-99999999999999999999999", 100);
+
+        assertNotNull(range);
+        assertEquals(10, range.getStart());
+        assertEquals(99, range.getEnd());
+        assertNull(RangeRequestParser.parseRange("bytes=99999999999999999999999-", 100));
+    }
+
+    @Test
+    void testIfRange() {
+        String etag = "\"abc123\"";
+
+        assertTrue(RangeRequestParser.isIfRangeSatisfied(null, etag));
+        assertTrue(RangeRequestParser.isIfRangeSatisfied(" \"abc123\" ", etag));
+        assertFalse(RangeRequestParser.isIfRangeSatisfied("\"other\"", etag));
+        // 弱いETagや日付形式は一致しない
+        assertFalse(RangeRequestParser.isIfRangeSatisfied("W/\"abc123\"", etag));
+        assertFalse(RangeRequestParser.isIfRangeSatisfied("Wed, 21 Oct 2015 07:28:00 GMT", etag));
+    }
+}
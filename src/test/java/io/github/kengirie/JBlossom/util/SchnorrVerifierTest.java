@@ -0,0 +1,156 @@
+package io.github.kengirie.JBlossom.util;
+
+import nostr.crypto.schnorr.Schnorr;
+import org.junit.jupiter.api.Test;
+
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchnorrVerifierTest {
+
+    // BIP-340 のテストベクタ（公開鍵, メッセージ, 署名）
+    private static final String[][] VALID_VECTORS = {
+        {"F9308A019258C31049344F85F89D5229B531C845836F99B08601F113BCE036F9",
+         "0000000000000000000000000000000000000000000000000000000000000000",
+         "E907831F80848D1069A5371B402410364BDF1C5F8307B0084C55F1CE2DCA821525F66A4A85EA8B71E482A74F382D2CE5EBEEE8FDB2172F477DF4900D310536C0"},
+        {"DFF1D77F2A671C5F36183726DB2341BE58FEAE1DA2DECED843240F7B502BA659",
+         "243F6A8885A308D313198A2E03707344A4093822299F31D0082EFA98EC4E6C89",
+         "6896BD60EEAE296DB48A229FF71DFE071BDE413E6D43F917DC8DCF8C78DE33418906D11AC976ABCCB20B091292BFF4EA897EFCB639EA871CFA95F6DE339E4B0A"},
+        {"DD308AFEC5777E13121FA72B9CC1B7CC0139715309B086C960E18FD969774EB8",
+         "7E2D58D8B3BCDF1ABADEC7829054F90DDA9805AAB56C77333024B9D0A508B75C",
+         "5831AAEED7B44BB74E5EAB94BA9D4294C49BCF2A60728D8B4C200F50DD313C1BAB745879A5AD954A72C45A91C3A51D3C7ADEA98D82F8481E0E1E03674A6F3FB7"},
+        {"25D1DFF95105F5253C4022F628A996AD3A0D95FBF21D468A1B33F8C160D8F517",
+         "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF",
+         "7EB0509757E246F19449885651611CB965ECC1A187DD51B64FDA1EDC9637D5EC97582B9CB13DB3933705B32BA982AF5AF25FD78881EBB32771FC5922EFC66EA3"},
+        {"D69C3509BB99E412E68B0FE8544E72837DFA30746D8BE2AA65975F29D22DC7B9",
+         "4DF3C3F68FCC83B27E9D42C90431A72499F17875C81A599B566C9889B9696703",
+         "00000000000000000000003B78CE563F89A0ED9414F5AA28AD0D96D6795F9C6376AFB1548AF603B3EB45C9F8207DEE1060CB71C04E80F593060B07D28308D7F4"},
+        // NostrAuthServiceTest の認証イベント
+        {"83279ad28eec4785e2139dc529a9650fdbb424366d4645e5c2824f7cbd49240d",
+         "3478cdb9c576e09605cf154105221333ac571071abf4c9630104936a9bd305e9",
+         "fd4c35229e749fdf06120269963578f3806f2aad341f57840a6bf0a5edae39e5fd06d3816a4e050444d032e0062da89875868be1928e99cfb84ce7c62da123e0"},
+    };
+
+    private static final String P_HEX = "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEFFFFFC2F";
+    private static final String N_HEX = "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEBAAEDCE6AF48A03BBFD25E8CD0364141";
+
+    @Test
+    void testValidSignatures() {
+        SchnorrVerifier verifier = new SchnorrVerifier(16, 0, 0);
+
+        for (String[] vector : VALID_VECTORS) {
+            assertTrue(verify(verifier, vector[0], vector[1], vector[2]), vector[0]);
+        }
+    }
+
+    @Test
+    void testInvalidSignatures() {
+        SchnorrVerifier verifier = new SchnorrVerifier(16, 0, 0);
+        String[] vector = VALID_VECTORS[1];
+
+        // 署名・メッセージの改ざん
+        assertFalse(verify(verifier, vector[0], vector[1], flipLastBit(vector[2])));
+        assertFalse(verify(verifier, vector[0], flipLastBit(vector[1]), vector[2]));
+        // 別の公開鍵
+        assertFalse(verify(verifier, VALID_VECTORS[2][0], vector[1], vector[2]));
+        // 曲線上にない公開鍵（BIP-340 ベクタ 5）
+        assertFalse(verify(verifier, "EEFDEA4CDB677750A420FEE807EACF21EB9898AE79B9768766E4FAA04A2D4A34", vector[1],
+            "6CFF5C3BA86C69EA4B7376F31A9BCB4F74C1976089B2D9963DA2E5543E17776969E89B4C5564D00349106B8497785DD7D1D713A8AE82B32FA79D5F7FC407D39B"));
+        // 範囲外の r, s と公開鍵
+        assertFalse(verify(verifier, vector[0], vector[1], P_HEX + vector[2].substring(64)));
+        assertFalse(verify(verifier, vector[0], vector[1], vector[2].substring(0, 64) + N_HEX));
+        assertFalse(verify(verifier, P_HEX, vector[1], vector[2]));
+        // 長さの異なる入力
+        assertFalse(verifier.verify(hex(vector[1]), hex(vector[0]), new byte[63]));
+        assertFalse(verifier.verify(hex(vector[1]), new byte[33], hex(vector[2])));
+        assertFalse(verifier.verify(null, hex(vector[0]), hex(vector[2])));
+    }
+
+    @Test
+    void testReusesCachedPublicKeys() {
+        SchnorrVerifier verifier = new SchnorrVerifier(2, 0, 0);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(verify(verifier, VALID_VECTORS[0][0], VALID_VECTORS[0][1], VALID_VECTORS[0][2]));
+        }
+        assertEquals(1, verifier.getKeyMisses());
+        assertEquals(2, verifier.getKeyHits());
+
+        // 上限を超えると最も古い鍵から外れる
+        for (String[] vector : VALID_VECTORS) {
+            assertTrue(verify(verifier, vector[0], vector[1], vector[2]));
+        }
+        assertEquals(2, verifier.getCachedKeyCount());
+
+        // 曲線上にない公開鍵はキャッシュしない
+        SchnorrVerifier empty = new SchnorrVerifier(2, 0, 0);
+        empty.verify(hex(VALID_VECTORS[0][1]), hex("EEFDEA4CDB677750A420FEE807EACF21EB9898AE79B9768766E4FAA04A2D4A34"),
+            hex(VALID_VECTORS[0][2]));
+        assertEquals(0, empty.getCachedKeyCount());
+    }
+
+    @Test
+    void testPrecomputedTableGivesSameResults() {
+        // 2回目の検証から倍数テーブルを使う
+        SchnorrVerifier verifier = new SchnorrVerifier(16, 2, 4);
+
+        for (int i = 0; i < 4; i++) {
+            for (String[] vector : VALID_VECTORS) {
+                assertTrue(verify(verifier, vector[0], vector[1], vector[2]));
+                assertFalse(verify(verifier, vector[0], vector[1], flipLastBit(vector[2])));
+            }
+        }
+    }
+
+    @Test
+    void testInvalidSignaturesAreNotCounted() {
+        SchnorrVerifier verifier = new SchnorrVerifier(16, 1, 2);
+        String[] vector = VALID_VECTORS[1];
+
+        // 曲線上の鍵でも、署名が正しくなければ鍵もテーブルも保持しない
+        for (int i = 0; i < 8; i++) {
+            assertFalse(verify(verifier, vector[0], vector[1], flipLastBit(vector[2])));
+        }
+        assertEquals(0, verifier.getCachedKeyCount());
+        assertEquals(0, verifier.getTableCount());
+
+        assertTrue(verify(verifier, vector[0], vector[1], vector[2]));
+        assertEquals(1, verifier.getCachedKeyCount());
+        assertEquals(1, verifier.getTableCount());
+
+        // テーブルを持つ鍵の数は別の上限で抑える
+        for (String[] other : VALID_VECTORS) {
+            assertTrue(verify(verifier, other[0], other[1], other[2]));
+        }
+        assertEquals(2, verifier.getTableCount());
+        assertTrue(verify(verifier, vector[0], vector[1], vector[2]));
+    }
+
+    @Test
+    void testMatchesNostrJava() throws Exception {
+        SchnorrVerifier verifier = new SchnorrVerifier(16, 1, 4);
+
+        for (String[] vector : VALID_VECTORS) {
+            String tampered = flipLastBit(vector[2]);
+            assertEquals(Schnorr.verify(hex(vector[1]), hex(vector[0]), hex(vector[2])),
+                verify(verifier, vector[0], vector[1], vector[2]));
+            assertEquals(Schnorr.verify(hex(vector[1]), hex(vector[0]), hex(tampered)),
+                verify(verifier, vector[0], vector[1], tampered));
+        }
+    }
+
+    private static boolean verify(SchnorrVerifier verifier, String pubkey, String message, String signature) {
+        return verifier.verify(hex(message), hex(pubkey), hex(signature));
+    }
+
+    private static String flipLastBit(String value) {
+        byte[] bytes = hex(value);
+        bytes[bytes.length - 1] ^= 1;
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    private static byte[] hex(String value) {
+        return HexFormat.of().parseHex(value.toLowerCase());
+    }
+}